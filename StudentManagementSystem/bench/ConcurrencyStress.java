@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrencyStress class
+ * Hammers one StudentRegistry from several threads at once with a mix of
+ * grade updates, lookups, adds, removes, renames and report reads, then
+ * checks that the indexes still agree with the students.
+ * Prints the throughput for each thread count.
+ *
+ * Run with: ant stress  (or java ConcurrencyStress [threads] [seconds] [students])
+ * e.g. java ConcurrencyStress 1,4,8,16 3 50000
+ */
+public class ConcurrencyStress
+{
+
+    private static final String[] SUBJECTS = {
+        "Math", "Physics", "Chemistry", "Biology", "History",
+        "English", "Art", "Music", "Geography", "Economics"
+    };
+
+    private static volatile boolean running;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        String threadList = args.length > 0 ? args[0] : "1,4,8,16";
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+        int studentCount = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        System.out.println("Students: " + studentCount + ", " + seconds + " s per run, "
+            + Runtime.getRuntime().availableProcessors() + " CPUs");
+
+        boolean allOk = true;
+        for (String t : threadList.split(","))
+        {
+            allOk &= run(Integer.parseInt(t.trim()), seconds, studentCount);
+        }
+
+        if (!allOk)
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * One timed run with the given number of threads. Returns false if a check failed.
+     */
+    private static boolean run(int threads, double seconds, int studentCount) throws InterruptedException
+    {
+        StudentRegistry registry = new StudentRegistry();
+        List<Student> initial = new ArrayList<>(studentCount);
+        for (int i = 0; i < studentCount; i++)
+        {
+            Student s = new Student("S" + i, "Student " + i);
+            for (int j = 0; j < 4; j++)
+            {
+                s.addOrUpdateSubject(SUBJECTS[(i + j) % SUBJECTS.length], 50 + (i * 7 + j) % 51);
+            }
+            initial.add(s);
+        }
+        registry.addAll(initial, new ArrayList<>());
+
+        LongAdder ops = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++)
+        {
+            final int worker = t;
+            Thread thread = new Thread(() ->
+            {
+                ready.countDown();
+                try
+                {
+                    start.await();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                work(registry, worker, studentCount, ops);
+            }, "stress-" + t);
+            workers.add(thread);
+            thread.start();
+        }
+
+        ready.await();
+        running = true;
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        running = false;
+        for (Thread thread : workers)
+        {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - begin;
+
+        String problem = check(registry);
+        System.out.println(String.format("threads=%-3d ops=%-10d ops/sec=%-12.0f %s",
+            threads, ops.sum(), ops.sum() * 1e9 / nanos, problem == null ? "check OK" : "CHECK FAILED: " + problem));
+        return problem == null;
+    }
+
+    /**
+     * The operation mix one thread runs until the time is up.
+     */
+    private static void work(StudentRegistry registry, int worker, int studentCount, LongAdder ops)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> mine = new ArrayList<>();
+        int nextId = 0;
+        long done = 0;
+
+        while (running)
+        {
+            int op = random.nextInt(100);
+
+            if (op < 45)
+            {
+                Student s = registry.find("S" + random.nextInt(studentCount));
+                if (s != null)
+                {
+                    s.addOrUpdateSubject(SUBJECTS[random.nextInt(SUBJECTS.length)], random.nextInt(101));
+                }
+            }
+            else if (op < 70)
+            {
+                Student s = registry.find("s" + random.nextInt(studentCount));
+                if (s != null)
+                {
+                    s.calculateAverage();
+                }
+            }
+            else if (op < 78)
+            {
+                String id = "W" + worker + "-" + nextId++;
+                Student s = random.nextInt(4) == 0 ? new HonorsStudent(id, "New " + id, 5) : new Student(id, "New " + id);
+                s.addOrUpdateSubject(SUBJECTS[random.nextInt(SUBJECTS.length)], random.nextInt(101));
+                if (registry.add(s))
+                {
+                    mine.add(id);
+                }
+            }
+            else if (op < 85)
+            {
+                if (!mine.isEmpty())
+                {
+                    registry.remove(mine.remove(mine.size() - 1));
+                }
+            }
+            else if (op < 88)
+            {
+                Student s = registry.find("S" + random.nextInt(studentCount));
+                if (s != null)
+                {
+                    s.setName("Renamed " + random.nextInt(1000));
+                }
+            }
+            else if (op < 94)
+            {
+                Student s = registry.find("S" + random.nextInt(studentCount));
+                if (s != null)
+                {
+                    registry.leaderboard().rankOf(s);
+                }
+            }
+            else
+            {
+                SubjectIndex index = registry.subjectIndex(SUBJECTS[random.nextInt(SUBJECTS.length)]);
+                if (index != null)
+                {
+                    index.top(5);
+                }
+            }
+            done++;
+        }
+        ops.add(done);
+    }
+
+    /**
+     * Checks the registry once every thread has stopped. Returns null when all is well.
+     */
+    private static String check(StudentRegistry registry)
+    {
+        int listed = 0;
+        long gradeCount = 0;
+        for (Student s : registry.students())
+        {
+            listed++;
+            if (registry.find(s.getId()) != s)
+            {
+                return "student " + s.getId() + " is listed but can't be found";
+            }
+
+            double sum = 0;
+            List<Subject> subjects = s.getSubjects();
+            for (Subject subj : subjects)
+            {
+                sum += subj.getGrade();
+            }
+            gradeCount += subjects.size();
+
+            double expected = subjects.isEmpty() ? 0.0 : sum / subjects.size();
+            if (s instanceof HonorsStudent && expected != 0.0)
+            {
+                expected = Math.min(100.0, expected + ((HonorsStudent) s).getBonusPoints());
+            }
+            double actual = s.calculateAverage();
+            if (Math.abs(expected - actual) > 1e-9)
+            {
+                return "average of " + s.getId() + " is " + actual + ", grades say " + expected;
+            }
+        }
+        if (listed != registry.size())
+        {
+            return "size is " + registry.size() + " but " + listed + " students are listed";
+        }
+
+        long indexed = 0;
+        for (String subject : SUBJECTS)
+        {
+            SubjectIndex index = registry.subjectIndex(subject);
+            if (index == null)
+            {
+                continue;
+            }
+            double previous = Double.MAX_VALUE;
+            for (Student s : index.top(index.size()))
+            {
+                Double grade = s.getGrade(subject);
+                if (grade == null || registry.find(s.getId()) != s)
+                {
+                    return subject + " index holds a stale entry for " + s.getId();
+                }
+                if (grade > previous)
+                {
+                    return subject + " index is out of order at " + s.getId();
+                }
+                previous = grade;
+            }
+            indexed += index.size();
+        }
+        if (indexed != gradeCount)
+        {
+            return "indexes hold " + indexed + " grades, students have " + gradeCount;
+        }
+
+        Leaderboard board = registry.leaderboard();
+        List<Student> ranking = board.page(0, board.size());
+        if (ranking.size() != registry.size())
+        {
+            return "leaderboard has " + ranking.size() + " students, registry has " + registry.size();
+        }
+        double previous = Double.MAX_VALUE;
+        for (Student s : ranking)
+        {
+            if (s.calculateAverage() > previous)
+            {
+                return "leaderboard is out of order at " + s.getId();
+            }
+            previous = s.calculateAverage();
+        }
+        return null;
+    }
+}
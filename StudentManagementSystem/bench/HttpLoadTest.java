@@ -0,0 +1,204 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HttpLoadTest class
+ * Drives the JSON API with many concurrent clients (one virtual thread each)
+ * and prints throughput and latency percentiles.
+ *
+ * Each client loops over a mix of requests:
+ *   60% GET /students/{id}, 25% PUT a grade, 10% GET a rank, 5% GET the top 10.
+ *
+ * With no URL the server is started in this JVM on a free port and filled with
+ * students first; with a URL it assumes students S0..S(n-1) already exist there.
+ *
+ * Run with: ant loadtest  (or java HttpLoadTest [clients] [seconds] [students] [url])
+ * e.g. java HttpLoadTest 2000 10 10000 http://localhost:8080
+ */
+public class HttpLoadTest
+{
+
+    private static final String[] SUBJECTS = {
+        "Math", "Physics", "Chemistry", "Biology", "History"
+    };
+
+    // Latencies are kept per client in a growing array, then merged at the end
+    private static final class Recorder
+    {
+        long[] nanos = new long[1024];
+        int count;
+
+        void add(long value)
+        {
+            if (count == nanos.length)
+            {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = value;
+        }
+    }
+
+    private static volatile boolean running;
+
+    public static void main(String[] args) throws Exception
+    {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 10.0;
+        int studentCount = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        String base = args.length > 3 && !args[3].isEmpty() ? args[3] : null;
+
+        HttpApi api = null;
+        if (base == null)
+        {
+            StudentManagementSystem sms = new StudentManagementSystem();
+            for (int i = 0; i < studentCount; i++)
+            {
+                sms.tryAddStudent("S" + i, "Student " + i, i % 5 == 0);
+                for (String subject : SUBJECTS)
+                {
+                    sms.findStudentById("S" + i).addOrUpdateSubject(subject, ThreadLocalRandom.current().nextInt(101));
+                }
+            }
+            api = HttpApi.start(sms, 0);
+            base = "http://localhost:" + api.getPort();
+        }
+
+        System.out.println("Target: " + base + ", " + clients + " clients, " + seconds + " s, "
+            + studentCount + " students");
+
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+        Recorder[] recorders = new Recorder[clients];
+        LongAdder errors = new LongAdder();
+        CountDownLatch done = new CountDownLatch(clients);
+        String target = base;
+
+        running = true;
+        long start = System.nanoTime();
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor())
+        {
+            for (int c = 0; c < clients; c++)
+            {
+                Recorder recorder = new Recorder();
+                recorders[c] = recorder;
+                threads.submit(() ->
+                {
+                    try
+                    {
+                        runClient(client, target, studentCount, recorder, errors);
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                });
+            }
+
+            Thread.sleep((long) (seconds * 1000));
+            running = false;
+            done.await();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (api != null)
+        {
+            api.close();
+        }
+        report(recorders, errors.sum(), elapsed);
+    }
+
+    private static void runClient(HttpClient client, String base, int studentCount,
+                                  Recorder recorder, LongAdder errors)
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running)
+        {
+            String id = "S" + random.nextInt(studentCount);
+            int pick = random.nextInt(100);
+            HttpRequest request;
+            if (pick < 60)
+            {
+                request = HttpRequest.newBuilder(URI.create(base + "/students/" + id)).GET().build();
+            }
+            else if (pick < 85)
+            {
+                String body = "{\"grade\":" + random.nextInt(101) + "}";
+                request = HttpRequest.newBuilder(URI.create(base + "/students/" + id + "/grades/"
+                        + SUBJECTS[random.nextInt(SUBJECTS.length)]))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            }
+            else if (pick < 95)
+            {
+                request = HttpRequest.newBuilder(URI.create(base + "/reports/rank/" + id)).GET().build();
+            }
+            else
+            {
+                request = HttpRequest.newBuilder(URI.create(base + "/reports/sorted?count=10")).GET().build();
+            }
+
+            long t0 = System.nanoTime();
+            try
+            {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() >= 300)
+                {
+                    errors.increment();
+                }
+            }
+            catch (Exception e)
+            {
+                errors.increment();
+            }
+            recorder.add(System.nanoTime() - t0);
+        }
+    }
+
+    private static void report(Recorder[] recorders, long errors, long elapsedNanos)
+    {
+        int total = 0;
+        for (Recorder r : recorders)
+        {
+            total += r.count;
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (Recorder r : recorders)
+        {
+            System.arraycopy(r.nanos, 0, all, pos, r.count);
+            pos += r.count;
+        }
+        Arrays.sort(all);
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Requests: %d, errors: %d, time: %.1f s, throughput: %.0f req/s%n",
+            total, errors, seconds, total / seconds);
+        if (total == 0)
+        {
+            return;
+        }
+        System.out.printf("Latency ms  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+            percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99),
+            percentile(all, 0.999), all[all.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p)
+    {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MicroBench class
+ * A small benchmark harness that works the way JMH's "average time" mode does:
+ * each benchmark is calibrated to a batch size, run for a few warmup iterations,
+ * then timed for a few measured iterations. The score is microseconds per operation
+ * with a 99.9% confidence error, and results are written in the same JSON layout
+ * JMH uses (benchmark, mode, params, primaryMetric), so the files can be compared
+ * between commits with the usual JMH tooling.
+ *
+ * It has no dependencies, so it builds offline with the rest of the project.
+ */
+public class MicroBench
+{
+
+    /**
+     * One benchmark. setup and teardown run around every iteration but are not timed.
+     */
+    public interface Benchmark
+    {
+        default void setup(int ops)
+        {
+        }
+
+        /**
+         * Does the operation ops times. The return value is consumed by the harness
+         * so the JIT can't throw the work away.
+         */
+        long run(int ops);
+
+        default void teardown()
+        {
+        }
+    }
+
+    /**
+     * The scores of one benchmark with one set of parameters.
+     */
+    public static final class Result
+    {
+        final String name;
+        final Map<String, String> params;
+        final double[] scores; // microseconds per op, one per measured iteration
+
+        Result(String name, Map<String, String> params, double[] scores)
+        {
+            this.name = name;
+            this.params = params;
+            this.scores = scores;
+        }
+
+        public double mean()
+        {
+            double sum = 0;
+            for (double s : scores)
+            {
+                sum += s;
+            }
+            return sum / scores.length;
+        }
+
+        /**
+         * Half-width of the 99.9% confidence interval (normal approximation).
+         */
+        public double error()
+        {
+            if (scores.length < 2)
+            {
+                return Double.NaN;
+            }
+            double mean = mean();
+            double squares = 0;
+            for (double s : scores)
+            {
+                squares += (s - mean) * (s - mean);
+            }
+            return 3.291 * Math.sqrt(squares / (scores.length - 1)) / Math.sqrt(scores.length);
+        }
+    }
+
+    // Keeps benchmark results alive so the work can't be optimized out
+    private static volatile long sink;
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final List<Result> results = new ArrayList<>();
+
+    public MicroBench(int warmupIterations, int measurementIterations, int iterationMillis)
+    {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * 1_000_000L;
+    }
+
+    /**
+     * Runs one benchmark and remembers its result.
+     */
+    public Result measure(String name, Map<String, String> params, Benchmark benchmark)
+    {
+        int ops = calibrate(benchmark);
+
+        for (int i = 0; i < warmupIterations; i++)
+        {
+            iteration(benchmark, ops);
+        }
+
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++)
+        {
+            scores[i] = iteration(benchmark, ops) / 1000.0 / ops;
+        }
+
+        Result result = new Result(name, new LinkedHashMap<>(params), scores);
+        results.add(result);
+        System.out.println(String.format("%-40s %-45s %12.3f +- %8.3f us/op  (%d ops/iteration)",
+            name, params, result.mean(), result.error(), ops));
+        return result;
+    }
+
+    public List<Result> results()
+    {
+        return results;
+    }
+
+    /**
+     * Doubles the batch size until one batch takes a noticeable time, then
+     * scales it so an iteration lasts about the requested time.
+     */
+    private int calibrate(Benchmark benchmark)
+    {
+        int ops = 1;
+        while (true)
+        {
+            long nanos = iteration(benchmark, ops);
+            if (nanos >= iterationNanos / 10 || ops >= 1 << 24)
+            {
+                return (int) Math.max(1, Math.min(1 << 26, (long) ops * iterationNanos / Math.max(1, nanos)));
+            }
+            ops *= 2;
+        }
+    }
+
+    private static long iteration(Benchmark benchmark, int ops)
+    {
+        benchmark.setup(ops);
+        long start = System.nanoTime();
+        long value = benchmark.run(ops);
+        long nanos = System.nanoTime() - start;
+        benchmark.teardown();
+        sink += value;
+        return nanos;
+    }
+
+    // -------------------------
+    // JSON output
+    // -------------------------
+
+    /**
+     * Writes every result as a JMH-style JSON array.
+     */
+    public void writeJson(String fileName) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName)))
+        {
+            out.println("[");
+            for (int r = 0; r < results.size(); r++)
+            {
+                Result result = results.get(r);
+                out.println("    {");
+                out.println("        \"benchmark\" : " + quote(result.name) + ",");
+                out.println("        \"mode\" : \"avgt\",");
+                out.println("        \"warmupIterations\" : " + warmupIterations + ",");
+                out.println("        \"measurementIterations\" : " + measurementIterations + ",");
+                out.println("        \"measurementTime\" : \"" + iterationNanos / 1_000_000 + " ms\",");
+                out.println("        \"params\" : {");
+                int p = 0;
+                for (Map.Entry<String, String> e : result.params.entrySet())
+                {
+                    out.println("            " + quote(e.getKey()) + " : " + quote(e.getValue())
+                        + (++p < result.params.size() ? "," : ""));
+                }
+                out.println("        },");
+                out.println("        \"primaryMetric\" : {");
+                out.println("            \"score\" : " + number(result.mean()) + ",");
+                out.println("            \"scoreError\" : " + number(result.error()) + ",");
+                out.println("            \"scoreUnit\" : \"us/op\",");
+                StringBuilder raw = new StringBuilder();
+                for (int i = 0; i < result.scores.length; i++)
+                {
+                    raw.append(i == 0 ? "" : ", ").append(number(result.scores[i]));
+                }
+                out.println("            \"rawData\" : [ [ " + raw + " ] ]");
+                out.println("        }");
+                out.println("    }" + (r < results.size() - 1 ? "," : ""));
+            }
+            out.println("]");
+        }
+    }
+
+    private static String quote(String value)
+    {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String number(double value)
+    {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "\"NaN\"" : Double.toString(value);
+    }
+}
@@ -0,0 +1,341 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * RosterBenchmarks class
+ * Benchmarks for the hot paths of StudentManagementSystem, run through MicroBench:
+ * lookups, adds and removes, grade updates, averages (plain and honors),
+ * the two roster reports, and saving / loading the text file.
+ *
+ * Every benchmark runs once for each combination of roster size, subjects per
+ * student and honors ratio. Arguments are key=value pairs, for example:
+ *   java RosterBenchmarks sizes=1000,100000 subjects=5,20 honors=0.0,0.25
+ *        warmup=3 iterations=5 time=500 filter=average out=results.json
+ */
+public class RosterBenchmarks
+{
+
+    private static final String[] SUBJECT_POOL = {
+        "Math", "Physics", "Chemistry", "Biology", "History", "English", "Art", "Music",
+        "Geography", "Economics", "Latin", "French", "Spanish", "Drama", "Statistics",
+        "Philosophy", "Computing", "Law", "Astronomy", "Design"
+    };
+
+    // Benchmarks that print are pointed at this so the terminal isn't the bottleneck
+    private static final PrintStream NO_OUTPUT = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws IOException
+    {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("sizes", "1000,100000");
+        options.put("subjects", "5");
+        options.put("honors", "0.2");
+        options.put("warmup", "3");
+        options.put("iterations", "5");
+        options.put("time", "500");
+        options.put("filter", ".*");
+        options.put("out", "benchmark-results.json");
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !options.containsKey(arg.substring(0, eq)))
+            {
+                System.out.println("Unknown option: " + arg + " (known: " + options.keySet() + ")");
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        MicroBench bench = new MicroBench(
+            Integer.parseInt(options.get("warmup")),
+            Integer.parseInt(options.get("iterations")),
+            Integer.parseInt(options.get("time")));
+        Pattern filter = Pattern.compile(options.get("filter"));
+
+        for (String size : options.get("sizes").split(","))
+        {
+            for (String subjects : options.get("subjects").split(","))
+            {
+                for (String honors : options.get("honors").split(","))
+                {
+                    Map<String, String> params = new LinkedHashMap<>();
+                    params.put("rosterSize", size.trim());
+                    params.put("subjectsPerStudent", subjects.trim());
+                    params.put("honorsRatio", honors.trim());
+
+                    Roster roster = new Roster(Integer.parseInt(size.trim()),
+                        Integer.parseInt(subjects.trim()), Double.parseDouble(honors.trim()));
+                    runAll(bench, filter, params, roster);
+                    roster.deleteFiles();
+                }
+            }
+        }
+
+        bench.writeJson(options.get("out"));
+        System.out.println("Wrote " + bench.results().size() + " results to " + options.get("out"));
+    }
+
+    private static void runAll(MicroBench bench, Pattern filter, Map<String, String> params, Roster r)
+    {
+        List<String> names = new ArrayList<>();
+        List<MicroBench.Benchmark> benchmarks = new ArrayList<>();
+
+        names.add("findStudentById");
+        benchmarks.add(ops ->
+        {
+            long found = 0;
+            for (int i = 0; i < ops; i++)
+            {
+                Student s = r.sms.findStudentById(r.nextId());
+                found += s == null ? 0 : 1;
+            }
+            return found;
+        });
+
+        names.add("addStudent");
+        benchmarks.add(new MicroBench.Benchmark()
+        {
+            private String[] ids;
+
+            @Override
+            public void setup(int ops)
+            {
+                ids = freshIds("NEW", ops);
+            }
+
+            @Override
+            public long run(int ops)
+            {
+                for (int i = 0; i < ops; i++)
+                {
+                    r.sms.addStudent(ids[i], "New Student", (i & 7) == 0);
+                }
+                return ops;
+            }
+
+            @Override
+            public void teardown()
+            {
+                for (String id : ids)
+                {
+                    r.sms.removeStudent(id);
+                }
+            }
+        });
+
+        names.add("removeStudent");
+        benchmarks.add(new MicroBench.Benchmark()
+        {
+            private String[] ids;
+
+            @Override
+            public void setup(int ops)
+            {
+                ids = freshIds("DEL", ops);
+                for (int i = 0; i < ops; i++)
+                {
+                    r.sms.addStudent(ids[i], "Leaving Student", false);
+                    r.sms.findStudentById(ids[i]).addOrUpdateSubject(SUBJECT_POOL[i % r.subjects], 70);
+                }
+            }
+
+            @Override
+            public long run(int ops)
+            {
+                long removed = 0;
+                for (int i = 0; i < ops; i++)
+                {
+                    removed += r.sms.removeStudent(ids[i]) ? 1 : 0;
+                }
+                return removed;
+            }
+        });
+
+        names.add("addOrUpdateSubject");
+        benchmarks.add(ops ->
+        {
+            for (int i = 0; i < ops; i++)
+            {
+                Student s = r.all.get(r.random.nextInt(r.all.size()));
+                s.addOrUpdateSubject(SUBJECT_POOL[r.random.nextInt(r.subjects)], 40 + r.random.nextInt(61));
+            }
+            return ops;
+        });
+
+        names.add("calculateAverage");
+        benchmarks.add(averageOf(r, r.regular));
+
+        if (!r.honors.isEmpty())
+        {
+            names.add("calculateAverageHonors");
+            benchmarks.add(averageOf(r, r.honors));
+        }
+
+        names.add("printStudentsSortedByAverage");
+        benchmarks.add(quiet(ops ->
+        {
+            for (int i = 0; i < ops; i++)
+            {
+                r.sms.printStudentsSortedByAverage();
+            }
+            return ops;
+        }));
+
+        names.add("printSubjectHighLow");
+        benchmarks.add(quiet(ops ->
+        {
+            for (int i = 0; i < ops; i++)
+            {
+                r.sms.printSubjectHighLow(SUBJECT_POOL[i % r.subjects]);
+            }
+            return ops;
+        }));
+
+        names.add("saveToFile");
+        benchmarks.add(quiet(ops ->
+        {
+            for (int i = 0; i < ops; i++)
+            {
+                r.sms.saveToFile(r.scratchFile.getPath());
+            }
+            return r.scratchFile.length();
+        }));
+
+        names.add("loadFromFile");
+        benchmarks.add(quiet(ops ->
+        {
+            // Loads into its own system so the roster the other benchmarks use stays the same
+            StudentManagementSystem other = new StudentManagementSystem();
+            long loaded = 0;
+            for (int i = 0; i < ops; i++)
+            {
+                other.loadFromFile(r.savedFile.getPath());
+                loaded += other.findStudentById("S0") == null ? 0 : 1;
+            }
+            return loaded;
+        }));
+
+        for (int i = 0; i < names.size(); i++)
+        {
+            String name = "RosterBenchmarks." + names.get(i);
+            if (filter.matcher(name).find())
+            {
+                bench.measure(name, params, benchmarks.get(i));
+            }
+        }
+    }
+
+    private static MicroBench.Benchmark averageOf(Roster r, List<Student> students)
+    {
+        return ops ->
+        {
+            double total = 0;
+            for (int i = 0; i < ops; i++)
+            {
+                total += students.get(r.random.nextInt(students.size())).calculateAverage();
+            }
+            return (long) total;
+        };
+    }
+
+    /**
+     * Sends System.out nowhere while the benchmark runs (not while it is set up).
+     */
+    private static MicroBench.Benchmark quiet(MicroBench.Benchmark benchmark)
+    {
+        return ops ->
+        {
+            PrintStream saved = System.out;
+            System.setOut(NO_OUTPUT);
+            try
+            {
+                return benchmark.run(ops);
+            }
+            finally
+            {
+                System.setOut(saved);
+            }
+        };
+    }
+
+    private static int idCounter;
+
+    private static String[] freshIds(String prefix, int count)
+    {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++)
+        {
+            ids[i] = prefix + (idCounter++);
+        }
+        return ids;
+    }
+
+    /**
+     * One roster built for a set of parameters, plus what the benchmarks need around it.
+     */
+    private static final class Roster
+    {
+        final StudentManagementSystem sms = new StudentManagementSystem();
+        final int subjects;
+        final List<Student> all = new ArrayList<>();
+        final List<Student> regular = new ArrayList<>();
+        final List<Student> honors = new ArrayList<>();
+        final String[] lookupIds = new String[4096];
+        final Random random = new Random(42);
+        final File savedFile;
+        final File scratchFile;
+        private int nextLookup;
+
+        Roster(int size, int subjectsPerStudent, double honorsRatio) throws IOException
+        {
+            this.subjects = Math.min(subjectsPerStudent, SUBJECT_POOL.length);
+
+            for (int i = 0; i < size; i++)
+            {
+                String id = "S" + i;
+                sms.addStudent(id, "Student " + i, random.nextDouble() < honorsRatio);
+                Student s = sms.findStudentById(id);
+                for (int j = 0; j < subjects; j++)
+                {
+                    s.addOrUpdateSubject(SUBJECT_POOL[j], 40 + random.nextInt(61));
+                }
+                all.add(s);
+                (s instanceof HonorsStudent ? honors : regular).add(s);
+            }
+
+            // Mostly hits, some misses, and some IDs in a different case
+            for (int i = 0; i < lookupIds.length; i++)
+            {
+                int n = random.nextInt(size + size / 10 + 1);
+                lookupIds[i] = (random.nextInt(4) == 0 ? "s" : "S") + n;
+            }
+
+            savedFile = File.createTempFile("roster-bench", ".txt");
+            scratchFile = File.createTempFile("roster-bench-save", ".txt");
+            PrintStream saved = System.out;
+            System.setOut(NO_OUTPUT);
+            sms.saveToFile(savedFile.getPath());
+            System.setOut(saved);
+        }
+
+        String nextId()
+        {
+            nextLookup = (nextLookup + 1) & (lookupIds.length - 1);
+            return lookupIds[nextLookup];
+        }
+
+        void deleteFiles()
+        {
+            savedFile.delete();
+            scratchFile.delete();
+        }
+    }
+}
@@ -0,0 +1,866 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RosterChecks class
+ * Small, fixed scenarios that once went wrong, run one after another.
+ * Each prints OK or FAILED with what it found; the run fails if any did.
+ *
+ * Run with: ant checks  (or java RosterChecks)
+ */
+public class RosterChecks
+{
+
+    private interface Check
+    {
+        void run() throws Exception;
+    }
+
+    private static int failures;
+    private static Path dir;
+
+    public static void main(String[] args) throws Exception
+    {
+        dir = Files.createTempDirectory("roster-checks");
+
+        check("honors student edited during a segmented save", RosterChecks::honorsEditDuringSegmentedSave);
+        check("average after replaced grades", RosterChecks::averageAfterReplacedGrades);
+        check("deeply nested and oversized HTTP bodies", RosterChecks::hostileHttpBodies);
+        check("paged store change to an evicted student", RosterChecks::pagedChangeAfterEviction);
+        check("new ID for a student in a roster", RosterChecks::idChangeInRoster);
+        check("subject high/low with -0.0, 0.0 and NaN grades", RosterChecks::highLowSignedZeroAndNaN);
+        check("journal replay stops at a damaged record", RosterChecks::journalStopsAtDamage);
+        check("journal checkpoint while the roster changes", RosterChecks::checkpointWhileChanging);
+        check("autosave asked for while paused", RosterChecks::autosaveRequestedWhilePaused);
+        check("bulk import over a NaN grade", RosterChecks::importOverNaNGrade);
+        check("journal opened while another is open", RosterChecks::journalReopened);
+        check("averages in a locale with a decimal comma", RosterChecks::averagesInOtherLocales);
+        check("truncated and corrupted snapshots", RosterChecks::damagedSnapshots);
+        check("second router adding to shards that have students", RosterChecks::secondRouterOrder);
+        check("HTTP student pages and internal errors", RosterChecks::httpPagesAndErrors);
+        check("bad command-line options", RosterChecks::badCommandLines);
+
+        System.out.println(failures == 0 ? "All checks OK" : failures + " checks FAILED");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static void check(String name, Check check)
+    {
+        try
+        {
+            check.run();
+            System.out.println("OK      " + name);
+        }
+        catch (Throwable e)
+        {
+            failures++;
+            System.out.println("FAILED  " + name + ": " + e);
+        }
+    }
+
+    private static void expect(boolean condition, String message)
+    {
+        if (!condition)
+        {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static void expectEqual(Object expected, Object actual, String what)
+    {
+        expect(expected == null ? actual == null : expected.equals(actual),
+            what + ": expected " + expected + " but got " + actual);
+    }
+
+    /**
+     * Save file lines of every student, in the order they were added.
+     */
+    private static List<String> lines(Iterable<Student> students)
+    {
+        List<String> lines = new ArrayList<>();
+        for (Student s : students)
+        {
+            lines.add(RosterFile.line(new StringBuilder(), s, new SubjectView()).toString());
+        }
+        return lines;
+    }
+
+    // -------------------------
+    // Checks
+    // -------------------------
+
+    /**
+     * A RosterView keeps a copy of a student changed while it's open. An
+     * honors copy has to keep its place and dirty flag like any other, or the
+     * segmented save files it in the wrong segment and the student is lost.
+     */
+    private static void honorsEditDuringSegmentedSave() throws Exception
+    {
+        // H32 is the only student of the second segment
+        StudentRegistry registry = new StudentRegistry();
+        for (int i = 0; i < SegmentedRosterFile.SEGMENT_SIZE + 1; i++)
+        {
+            Student s = i % 4 == 0 ? new HonorsStudent("H" + i, "Honors " + i) : new Student("S" + i, "Student " + i);
+            s.addOrUpdateSubject("Math", 50 + i);
+            registry.add(s);
+        }
+        String fileName = dir.resolve("honors.seg").toString();
+        SegmentedRosterFile file = new SegmentedRosterFile(fileName);
+        try (RosterView view = registry.openView())
+        {
+            file.save(view);
+        }
+
+        // Changes made while the save runs go in the next save, not this one
+        List<String> saved = lines(registry.students());
+        try (RosterView view = registry.openView())
+        {
+            registry.find("H32").addOrUpdateSubject("Physics", 99);
+            registry.find("H4").setName("Renamed");
+            registry.find("S5").addOrUpdateSubject("Physics", 12);
+            registry.remove("H28");
+            file.save(view);
+        }
+        StudentRegistry reloaded = new StudentRegistry();
+        new SegmentedRosterFile(fileName).loadInto(reloaded);
+        expectEqual(saved, lines(reloaded.students()), "roster as the save started");
+
+        try (RosterView view = registry.openView())
+        {
+            file.save(view);
+        }
+        reloaded = new StudentRegistry();
+        new SegmentedRosterFile(fileName).loadInto(reloaded);
+        expectEqual(lines(registry.students()), lines(reloaded.students()), "roster after the next save");
+    }
+
+    /**
+     * After any number of replaced grades the average is exactly what adding
+     * up the grades again gives (what the program always printed), in memory
+     * and in a mapped store, and a NaN that is replaced leaves no trace.
+     */
+    private static void averageAfterReplacedGrades() throws Exception
+    {
+        String[] subjects = { "Math", "Physics", "Chemistry", "Biology", "History" };
+        Random random = new Random(3);
+
+        StudentManagementSystem sms = new StudentManagementSystem();
+        sms.openMappedStore(dir.resolve("sums.map").toString());
+        Student heap = new Student("A", "Heap");
+        Student mapped = null;
+        if (sms.tryAddStudent("A", "Mapped", false))
+        {
+            mapped = sms.findStudentById("A");
+        }
+        expect(mapped != null, "student added to the mapped store");
+
+        for (int i = 0; i < 2000; i++)
+        {
+            String subject = subjects[random.nextInt(subjects.length)];
+            double grade = i == 100 ? Double.NaN : Math.round(random.nextDouble() * 10000) / 100.0;
+            heap.addOrUpdateSubject(subject, grade);
+            mapped.addOrUpdateSubject(subject, grade);
+        }
+        for (String subject : subjects)
+        {
+            heap.addOrUpdateSubject(subject, 40.1);     // replaces the NaN too
+            mapped.addOrUpdateSubject(subject, 40.1);
+            heap.addOrUpdateSubject(subject, 73.37);
+            mapped.addOrUpdateSubject(subject, 73.37);
+        }
+
+        expectEqual(freshAverage(heap), heap.calculateAverage(), "average in memory");
+        expectEqual(freshAverage(heap), mapped.calculateAverage(), "average in the mapped store");
+        sms.closeDiskRoster();
+
+        sms.openMappedStore(dir.resolve("sums.map").toString());
+        expectEqual(freshAverage(heap), sms.findStudentById("A").calculateAverage(), "average after reopening");
+        sms.closeDiskRoster();
+    }
+
+    // The grades added up from scratch, in order
+    private static double freshAverage(Student s)
+    {
+        double sum = 0.0;
+        List<Subject> subjects = s.getSubjects();
+        for (Subject subject : subjects)
+        {
+            sum += subject.getGrade();
+        }
+        return subjects.isEmpty() ? 0.0 : sum / subjects.size();
+    }
+
+    /**
+     * Every request gets an answer: JSON nested too deep is a 400 (not a
+     * stack overflow that leaves the client waiting) and a body over the
+     * limit is a 413 (not read into memory).
+     */
+    private static void hostileHttpBodies() throws Exception
+    {
+        Json.parse("[".repeat(Json.MAX_DEPTH) + "]".repeat(Json.MAX_DEPTH));
+        try
+        {
+            Json.parse("[".repeat(Json.MAX_DEPTH + 1) + "]".repeat(Json.MAX_DEPTH + 1));
+            expect(false, "JSON nested deeper than MAX_DEPTH was accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+
+        try (HttpApi api = HttpApi.start(new StudentManagementSystem(), 0))
+        {
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+            URI bulk = URI.create("http://localhost:" + api.getPort() + "/grades/bulk");
+
+            HttpResponse<String> nested = client.send(HttpRequest.newBuilder(bulk)
+                .timeout(Duration.ofSeconds(10))
+                .POST(HttpRequest.BodyPublishers.ofString("[".repeat(200000)))
+                .build(), HttpResponse.BodyHandlers.ofString());
+            expectEqual(400, nested.statusCode(), "status for deeply nested JSON");
+
+            HttpResponse<String> big = client.send(HttpRequest.newBuilder(bulk)
+                .timeout(Duration.ofSeconds(10))
+                .POST(HttpRequest.BodyPublishers.ofString(" ".repeat(HttpApi.MAX_BODY_BYTES + 1)))
+                .build(), HttpResponse.BodyHandlers.ofString());
+            expectEqual(413, big.statusCode(), "status for an oversized body");
+        }
+    }
+
+    /**
+     * A Student still held after the paged cache evicted it is the one find()
+     * hands back, so a change to it is neither hidden by a stale copy from
+     * disk nor overwritten by one when both are written back.
+     */
+    private static void pagedChangeAfterEviction() throws Exception
+    {
+        String fileName = dir.resolve("evict.pages").toString();
+        try (PagedStudentStore store = PagedStudentStore.open(fileName, 1))
+        {
+            store.add(new Student("A", "Alice"));
+            store.add(new Student("B", "Bob"));
+
+            Student a1 = store.find("A");
+            store.find("B");                       // evicts A
+            a1.addOrUpdateSubject("Math", 90);     // changes the evicted A
+            expectEqual(90.0, store.find("A").getGrade("Math"), "Math grade seen by find");
+
+            store.find("B");
+            store.find("A").addOrUpdateSubject("Art", 70);
+            store.find("B");
+            a1.setName("Alicia");
+            store.flush();
+        }
+        try (PagedStudentStore store = PagedStudentStore.open(fileName, 1))
+        {
+            Student a = store.find("A");
+            expectEqual("A|Alicia|Math:90.0,Art:70.0",
+                RosterFile.line(new StringBuilder(), a, new SubjectView()).toString(), "A after reopening");
+        }
+    }
+
+    /**
+     * The roster keys students by the ID they were added with, so changing
+     * the ID of one that is in a roster is refused (before, find(newId) came
+     * back empty and the paged store dropped their next change). Removed,
+     * given the new ID and added again, the student is found under it.
+     */
+    private static void idChangeInRoster() throws Exception
+    {
+        StudentRegistry registry = new StudentRegistry();
+        Student a = new Student("A", "Alice");
+        a.addOrUpdateSubject("Math", 80);
+        registry.add(a);
+        expectSetIdRefused(a, "in a registry");
+        expectEqual(a, registry.find("A"), "student under the old ID");
+
+        registry.remove("A");
+        a.setId("Z");
+        expect(registry.add(a), "student added again under the new ID");
+        expectEqual(a, registry.find("Z"), "student under the new ID");
+        expectEqual(null, registry.find("A"), "student under the old ID");
+
+        String fileName = dir.resolve("ids.pages").toString();
+        try (PagedStudentStore store = PagedStudentStore.open(fileName, 1))
+        {
+            store.add(new Student("B", "Bob"));
+            Student b = store.find("B");
+            expectSetIdRefused(b, "in a paged store");
+            b.addOrUpdateSubject("Art", 60);
+            store.flush();
+        }
+        try (PagedStudentStore store = PagedStudentStore.open(fileName, 1))
+        {
+            expectEqual(60.0, store.find("B").getGrade("Art"), "paged student's grade after reopening");
+        }
+    }
+
+    private static void expectSetIdRefused(Student s, String where)
+    {
+        String id = s.getId();
+        try
+        {
+            s.setId("changed");
+            expect(false, "new ID accepted for a student " + where);
+        }
+        catch (IllegalStateException e)
+        {
+            expectEqual(id, s.getId(), "ID of a student " + where);
+        }
+    }
+
+    /**
+     * The subject index compares grades the way the old roster scan did with
+     * > and <: -0.0 and 0.0 tie (the earliest added wins and their own grade
+     * is printed) and a NaN grade is never picked over a number. That holds
+     * in one system and across shards, also after grades are replaced.
+     */
+    private static void highLowSignedZeroAndNaN() throws Exception
+    {
+        double[] values = { -0.0, 0.0, 0.0, -0.0, 1.0, -1.0, Double.NaN };
+        Random random = new Random(5);
+        StudentManagementSystem sms = new StudentManagementSystem();
+        try (ShardedSystem sharded = ShardedSystem.inProcess(3))
+        {
+            for (int i = 0; i < 300; i++)
+            {
+                sms.tryAddStudent("S" + i, "Student " + i, false);
+                sharded.tryAddStudent("S" + i, "Student " + i, false);
+                // Math always starts with a number; Art only ever gets NaN
+                double math = i == 0 ? -0.0 : values[random.nextInt(values.length)];
+                sms.findStudentById("S" + i).addOrUpdateSubject("Math", math);
+                sharded.addOrUpdateGrade("S" + i, "Math", math);
+                if (i % 7 == 3)
+                {
+                    sms.findStudentById("S" + i).addOrUpdateSubject("Art", Double.NaN);
+                    sharded.addOrUpdateGrade("S" + i, "Art", Double.NaN);
+                }
+            }
+            for (int i = 0; i < 600; i++)
+            {
+                String id = "S" + (1 + random.nextInt(299));   // S0 keeps its number
+                double math = values[random.nextInt(values.length)];
+                sms.findStudentById(id).addOrUpdateSubject("Math", math);
+                sharded.addOrUpdateGrade(id, "Math", math);
+
+                if (i % 50 == 0)
+                {
+                    for (String subject : new String[] { "Math", "Art" })
+                    {
+                        String expected = scanHighLow(sms, subject);
+                        ReportWriter single = ReportWriter.inMemory();
+                        sms.printSubjectHighLow(subject, single);
+                        expectEqual(expected, single.toString(), subject + " report after " + i + " changes");
+                        ReportWriter shards = ReportWriter.inMemory();
+                        sharded.printSubjectHighLow(subject, shards);
+                        expectEqual(expected, shards.toString(), subject + " report from shards after " + i + " changes");
+                    }
+                }
+            }
+        }
+    }
+
+    // The report as the original program worked it out, one student at a time
+    private static String scanHighLow(StudentManagementSystem sms, String subject)
+    {
+        Student highest = null;
+        Student lowest = null;
+        Double highestGrade = null;
+        Double lowestGrade = null;
+        for (Student s : sms.getStudents())
+        {
+            Double g = s.getGrade(subject);
+            if (g == null)
+            {
+                continue;
+            }
+            if (highestGrade == null || g > highestGrade)
+            {
+                highestGrade = g;
+                highest = s;
+            }
+            if (lowestGrade == null || g < lowestGrade)
+            {
+                lowestGrade = g;
+                lowest = s;
+            }
+        }
+        return "=== Subject Report: " + subject + " ===" + System.lineSeparator()
+            + "Highest: " + highest.getId() + " - " + highest.getName() + " | Grade: " + highestGrade + System.lineSeparator()
+            + "Lowest: " + lowest.getId() + " - " + lowest.getName() + " | Grade: " + lowestGrade + System.lineSeparator();
+    }
+
+    /**
+     * A record in the middle of the journal that fails its checksum ends the
+     * replay: nothing after it is applied, not even from later journal files.
+     * The damaged files are kept aside, and changes made after the recovery
+     * are found again on the next start.
+     */
+    private static void journalStopsAtDamage() throws Exception
+    {
+        String data = dir.resolve("journal-damage").toString();
+        StudentRegistry registry = new StudentRegistry();
+        MutationJournal journal = MutationJournal.open(data, registry);
+        registry.add(new Student("A", "Alice"));
+        registry.add(new Student("B", "Bob"));
+        registry.add(new Student("C", "Carol"));
+        journal.close();
+
+        registry = new StudentRegistry();
+        journal = MutationJournal.open(data, registry);
+        registry.find("A").addOrUpdateSubject("Math", 50);   // goes in the second journal file
+        journal.close();
+
+        // Flip a byte in the body of the second record of the first file (B's add)
+        Path first = Paths.get(data, "journal-0000000000.log");
+        byte[] bytes = Files.readAllBytes(first);
+        int second = 8 + ((bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff));
+        bytes[second + 9] ^= 0x40;
+        Files.write(first, bytes);
+
+        registry = new StudentRegistry();
+        try (MutationJournal recovered = MutationJournal.open(data, registry))
+        {
+            expectEqual(List.of("A|Alice|"), lines(registry.students()), "roster replayed up to the damage");
+            expectEqual(1L, recovered.getReplayedRecords(), "records replayed");
+            expect(Files.exists(Paths.get(data, "journal-0000000000.log.damaged")), "damaged journal kept");
+            expect(Files.exists(Paths.get(data, "journal-0000000001.log.damaged")), "later journal kept");
+            registry.find("A").addOrUpdateSubject("Art", 70);
+        }
+
+        registry = new StudentRegistry();
+        try (MutationJournal reopened = MutationJournal.open(data, registry))
+        {
+            expectEqual(1, reopened.getRecoveredStudents(), "students recovered on the next start");
+            expectEqual(List.of("A|Alice|Art:70.0"), lines(registry.students()), "roster after the next start");
+        }
+    }
+
+    /**
+     * A checkpoint snapshots the roster through a RosterView, so students
+     * added, changed and removed while it is written (with subjects it hasn't
+     * seen before) neither break the snapshot nor get lost.
+     */
+    private static void checkpointWhileChanging() throws Exception
+    {
+        String data = dir.resolve("journal-checkpoint").toString();
+        StudentRegistry registry = new StudentRegistry();
+        try (MutationJournal journal = MutationJournal.open(data, registry))
+        {
+            List<Student> batch = new ArrayList<>();
+            for (int i = 0; i < 50000; i++)
+            {
+                Student s = new Student("S" + i, "Student " + i);
+                s.addOrUpdateSubject("Math", i % 101);
+                batch.add(s);
+            }
+            registry.addAll(batch, new ArrayList<>());   // not logged, like a bulk load
+
+            StudentRegistry live = registry;
+            AtomicBoolean done = new AtomicBoolean();
+            Thread writer = new Thread(() ->
+            {
+                for (int i = 0; !done.get() || i < 2000; i++)
+                {
+                    Student s = new Student("N" + i, "New " + i);
+                    s.addOrUpdateSubject("Subject" + i, i);
+                    live.add(s);
+                    live.remove("S" + (i * 7 % 50000));
+                    Student t = live.find("S" + i * 11 % 50000);
+                    if (t != null)
+                    {
+                        t.addOrUpdateSubject("Math", i % 50);
+                    }
+                }
+            });
+            writer.start();
+            for (int i = 0; i < 3; i++)
+            {
+                journal.checkpoint(registry);
+            }
+            done.set(true);
+            writer.join();
+        }
+
+        StudentRegistry reloaded = new StudentRegistry();
+        try (MutationJournal journal = MutationJournal.open(data, reloaded))
+        {
+            expectEqual(registry.size(), journal.getRecoveredStudents(), "students recovered");
+            expectEqual(lines(registry.students()), lines(reloaded.students()), "roster after reopening");
+        }
+    }
+
+    /**
+     * A save asked for while autosave is paused (say, just before a load)
+     * waits for resume() without spinning the saver thread, and still runs
+     * once the pause is over.
+     */
+    private static void autosaveRequestedWhilePaused() throws Exception
+    {
+        StudentRegistry registry = new StudentRegistry();
+        Path file = dir.resolve("autosave.txt");
+        try (Autosaver autosaver = new Autosaver(registry, file.toString(), 60_000, 0))
+        {
+            registry.add(new Student("A", "Alice"));
+            autosaver.pause();
+            autosaver.requestSave();
+
+            Thread saver = null;
+            for (Thread t : Thread.getAllStackTraces().keySet())
+            {
+                if (t.getName().equals("autosave"))
+                {
+                    saver = t;
+                }
+            }
+            expect(saver != null, "autosave thread found");
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long cpuBefore = threads.getThreadCpuTime(saver.threadId());
+            Thread.sleep(1000);
+            long cpuMillis = (threads.getThreadCpuTime(saver.threadId()) - cpuBefore) / 1_000_000;
+            expect(cpuMillis < 100, "autosave thread used " + cpuMillis + " ms of CPU in 1 s while paused");
+            expect(!Files.exists(file), "saved while paused");
+
+            autosaver.resume();
+            for (int i = 0; i < 50 && !Files.exists(file); i++)
+            {
+                Thread.sleep(100);
+            }
+            expect(Files.exists(file), "requested save ran after resume");
+        }
+    }
+
+    /**
+     * NaN is a grade a save file can hold ("Math:NaN"), so a bulk import that
+     * replaces one has to take the old index entry out like any other, not
+     * take the NaN for "had no grade" and leave a second entry behind.
+     */
+    private static void importOverNaNGrade() throws Exception
+    {
+        StudentRegistry registry = new StudentRegistry();
+        for (int i = 0; i < 100; i++)
+        {
+            Student s = new Student("S" + i, "Student " + i);
+            s.addOrUpdateSubject("Math", i == 42 ? Double.NaN : i % 90);
+            registry.add(s);
+        }
+        Path rows = dir.resolve("nan-import.csv");
+        Files.writeString(rows, "S42,Math,95\n");
+        new GradeImporter().importInto(rows.toString(), registry, dir.resolve("nan-import.rejects").toString());
+
+        SubjectIndex math = registry.subjectIndex("Math");
+        expectEqual(100, math.size(), "Math index entries");
+        expectEqual(registry.find("S42"), math.highest(), "highest in Math");
+        expectEqual(95.0, math.highestGrade(), "highest Math grade");
+    }
+
+    /**
+     * Opening a journal while one is open closes the old one first, so its
+     * changes are on disk and its writer thread doesn't keep running.
+     */
+    private static void journalReopened() throws Exception
+    {
+        String first = dir.resolve("journal-first").toString();
+        String second = dir.resolve("journal-second").toString();
+        StudentManagementSystem sms = new StudentManagementSystem();
+        sms.openJournal(first);
+        sms.tryAddStudent("A", "Alice", false);
+        sms.openJournal(second);
+        sms.tryAddStudent("B", "Bob", false);
+        sms.openJournal(first);
+
+        expectEqual(1, sms.getStudentCount(), "students recovered from the first journal");
+        expect(sms.findStudentById("A") != null, "student logged to the first journal");
+        int flushers = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet())
+        {
+            if (t.getName().equals("journal-flusher") && t.isAlive())
+            {
+                flushers++;
+            }
+        }
+        expectEqual(1, flushers, "journal writer threads");
+        sms.closeJournal();
+    }
+
+    /**
+     * String.format("%.2f") writes the default locale's decimal point (and
+     * digits), so the report writer has to as well, or toString and the
+     * printed reports disagree outside English locales.
+     */
+    private static void averagesInOtherLocales() throws Exception
+    {
+        Locale saved = Locale.getDefault(Locale.Category.FORMAT);
+        Student s = new Student("S1", "Alice");
+        s.addOrUpdateSubject("Math", 85.5);
+        double[] values = { 85.5, 1.005, -0.001, 0.0, 12345.678, 3.0e15, -7.25e13, Double.NaN };
+        try
+        {
+            for (String tag : new String[] { "de-DE", "fr-FR", "ar-EG", "th-TH-u-nu-thai", "en-US" })
+            {
+                Locale.setDefault(Locale.Category.FORMAT, Locale.forLanguageTag(tag));
+                ReportWriter out = ReportWriter.inMemory();
+                s.writeSummary(out);
+                expectEqual(s.toString() + System.lineSeparator(), out.toString(), "summary line in " + tag);
+
+                for (double value : values)
+                {
+                    ReportWriter number = ReportWriter.inMemory().fixed2(value);
+                    expectEqual(String.format("%.2f", value), number.toString(), value + " in " + tag);
+                }
+            }
+        }
+        finally
+        {
+            Locale.setDefault(Locale.Category.FORMAT, saved);
+        }
+    }
+
+    /**
+     * A snapshot cut short or with bytes overwritten has to fail with an
+     * IOException, not run out of memory on a huge count or throw something
+     * unchecked from a negative length.
+     */
+    private static void damagedSnapshots() throws Exception
+    {
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            Student s = i % 3 == 0 ? new HonorsStudent("S" + i, "Student " + i, 2.5) : new Student("S" + i, "Student " + i);
+            s.addOrUpdateSubject("Math", 60 + i);
+            s.addOrUpdateSubject("Physics", 70.125 + i);
+            students.add(s);
+        }
+        Path good = dir.resolve("good.snapshot");
+        RosterSnapshot.write(students, good.toString());
+        byte[] bytes = Files.readAllBytes(good);
+        Path bad = dir.resolve("bad.snapshot");
+
+        List<byte[]> damaged = new ArrayList<>();
+        for (int length = 0; length < bytes.length; length++)
+        {
+            damaged.add(Arrays.copyOf(bytes, length));
+        }
+        // Huge and negative counts and lengths right after the header
+        byte[][] counts = { { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 },
+                            { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F } };
+        for (byte[] count : counts)
+        {
+            for (int at : new int[] { 8, 9 })
+            {
+                byte[] copy = bytes.clone();
+                System.arraycopy(count, 0, copy, at, count.length);
+                damaged.add(copy);
+            }
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++)
+        {
+            byte[] copy = bytes.clone();
+            for (int n = 1 + random.nextInt(3); n > 0; n--)
+            {
+                copy[8 + random.nextInt(copy.length - 8)] = (byte) random.nextInt(256);
+            }
+            damaged.add(copy);
+        }
+
+        int refused = 0;
+        for (byte[] copy : damaged)
+        {
+            Files.write(bad, copy);
+            try
+            {
+                RosterSnapshot.read(bad.toString());
+            }
+            catch (IOException e)
+            {
+                refused++;
+            }
+        }
+        expect(refused >= bytes.length, "every cut-short snapshot refused (" + refused + " of " + damaged.size() + ")");
+        expectEqual(students.size(), RosterSnapshot.read(good.toString()).size(), "students in the undamaged snapshot");
+    }
+
+    /**
+     * A router that starts on shards which already hold students numbers its
+     * adds after theirs, so a student it adds ranks after everyone tied with
+     * them, like a late add to one system does.
+     */
+    private static void secondRouterOrder() throws Exception
+    {
+        List<LocalShard> shards = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            shards.add(new LocalShard(new StudentManagementSystem()));
+        }
+        int added = 0;
+        try (ShardedSystem first = new ShardedSystem(shards))
+        {
+            // The last few adds go to other shards than LATE's, so LATE's shard
+            // alone doesn't know how far the numbers went
+            int lateShard = first.shardOf("LATE");
+            for (int i = 0; added < 35; i++)
+            {
+                if (added >= 30 && first.shardOf("S" + i) == lateShard)
+                {
+                    continue;
+                }
+                first.tryAddStudent("S" + i, "Student " + i, false);
+                first.addOrUpdateGrade("S" + i, "Math", 80);
+                added++;
+            }
+        }
+        try (ShardedSystem second = new ShardedSystem(shards))
+        {
+            second.tryAddStudent("LATE", "Late Student", false);
+            second.addOrUpdateGrade("LATE", "Math", 80);
+
+            List<Shard.Row> rows = second.leaderboardPage(0, added + 1);
+            expectEqual(added + 1, rows.size(), "students on the leaderboard");
+            expectEqual("S0", rows.get(0).id, "first of the tied students");
+            expectEqual("LATE", rows.get(added).id, "last of the tied students");
+        }
+    }
+
+    /**
+     * GET /students pages by position (after adds, bulk adds and removes it
+     * gives the same slice as walking the roster), and a 500 tells the client
+     * nothing about the exception behind it.
+     */
+    private static void httpPagesAndErrors() throws Exception
+    {
+        StudentManagementSystem sms = new StudentManagementSystem();
+        List<Student> batch = new ArrayList<>();
+        for (int i = 0; i < 1500; i++)
+        {
+            batch.add(new Student("B" + i, "Bulk " + i));
+        }
+        Path snapshot = dir.resolve("paging.snapshot");
+        RosterSnapshot.write(batch, snapshot.toString());
+        sms.loadSnapshot(snapshot.toString());
+        for (int i = 0; i < 1500; i++)
+        {
+            sms.tryAddStudent("S" + i, "Student " + i, i % 5 == 0);
+        }
+        Random random = new Random(11);
+        for (int i = 0; i < 700; i++)
+        {
+            sms.removeStudent((random.nextBoolean() ? "B" : "S") + random.nextInt(1500));
+        }
+        List<String> ids = new ArrayList<>();
+        for (Student s : sms.getStudents())
+        {
+            ids.add(s.getId());
+        }
+
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        try (HttpApi api = HttpApi.start(sms, 0))
+        {
+            for (int from : new int[] { 0, 1, 999, 1500, ids.size() - 3, ids.size(), ids.size() + 10 })
+            {
+                URI uri = URI.create("http://localhost:" + api.getPort() + "/students?from=" + from + "&count=50");
+                HttpResponse<String> page = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+                List<String> expected = ids.subList(Math.min(from, ids.size()), Math.min(from + 50, ids.size()));
+                List<String> got = new ArrayList<>();
+                for (Object row : (List<?>) ((Map<?, ?>) Json.parse(page.body())).get("students"))
+                {
+                    got.add((String) ((Map<?, ?>) row).get("id"));
+                }
+                expectEqual(expected, got, "page from " + from);
+            }
+        }
+
+        StudentManagementSystem broken = new StudentManagementSystem()
+        {
+            @Override
+            public int getStudentCount()
+            {
+                throw new IllegalStateException("secret detail");
+            }
+        };
+        PrintStream savedErr = System.err;
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        try (HttpApi api = HttpApi.start(broken, 0))
+        {
+            System.setErr(new PrintStream(log, true));
+            URI uri = URI.create("http://localhost:" + api.getPort() + "/students");
+            HttpResponse<String> failed = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+            expectEqual(500, failed.statusCode(), "status for a failing handler");
+            expectEqual("{\"error\":\"Internal error\"}", failed.body(), "body for a failing handler");
+        }
+        finally
+        {
+            System.setErr(savedErr);
+        }
+        expect(log.toString().contains("secret detail"), "the exception was not logged on the server");
+    }
+
+    /**
+     * Main stops with a usage message (and status 2) for an option without a
+     * value, a value that isn't a number in range, or an option it doesn't
+     * know, before it opens or starts anything.
+     */
+    private static void badCommandLines() throws Exception
+    {
+        String journal = dir.resolve("cli-journal").toString();
+        String[][] bad = {
+            { "--journal" },
+            { "--batch", "-", "--journal" },
+            { "--cache", "lots" },
+            { "--http", "70000" },
+            { "--parallel-threshold", "-1" },
+            { "--autosave-seconds", "99999999999999999" },
+            { "--bogus", "1" },
+            { "--journal", journal, "--batch", "-", "--verbose", "1" }
+        };
+        for (String[] args : bad)
+        {
+            String what = String.join(" ", args);
+            Process p = startMain(args);
+            p.getOutputStream().close();
+            String output = new String(p.getInputStream().readAllBytes());
+            expectEqual(2, p.waitFor(), "exit status for " + what);
+            expect(output.startsWith("Error: ") && output.contains("Usage: java Main"),
+                "no usage message for " + what + ": " + output);
+        }
+        expect(!Files.exists(Paths.get(journal)), "journal opened before a later bad option was found");
+
+        Process ok = startMain("--parallel-threshold", "0", "--batch", "-");
+        ok.getOutputStream().close();
+        ok.getInputStream().readAllBytes();
+        expectEqual(0, ok.waitFor(), "exit status for good options");
+    }
+
+    private static Process startMain(String... args) throws IOException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("Main");
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+}
@@ -0,0 +1,375 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ShardHarness class
+ * Checks a ShardedSystem against a single StudentManagementSystem.
+ *
+ * The same random script (adds, duplicate adds, grade changes, renames and
+ * removes, with IDs in mixed case) is run on one system, on shards in this JVM
+ * and on shards in separate JVMs (each "java Main --shard-server 0 --batch -")
+ * talking over localhost sockets. Every call must return the same answer, and
+ * afterwards the count, student lookups, leaderboard pages, the sorted-by-average
+ * report and the subject high/low reports must match the single system's exactly.
+ * Grades are whole numbers, so there are many ties to get right.
+ *
+ * Run with: ant shardtest  (or java ShardHarness [shards] [students] [operations] [seed])
+ */
+public class ShardHarness
+{
+
+    private static final String[] SUBJECTS = {
+        "Math", "Physics", "Chemistry", "Biology", "History"
+    };
+
+    private static final String[] NAMES = {
+        "Maria", "John", "Wei", "Aisha", "Lucas", "Olga", "Kenji", "Fatima", "Noah", "Priya"
+    };
+
+    private static final int ADD = 0;
+    private static final int GRADE = 1;
+    private static final int RENAME = 2;
+    private static final int REMOVE = 3;
+
+    private static final class Op
+    {
+        final int kind;
+        final String id;
+        final String text;   // name or subject
+        final double grade;
+        final boolean honors;
+
+        Op(int kind, String id, String text, double grade, boolean honors)
+        {
+            this.kind = kind;
+            this.id = id;
+            this.text = text;
+            this.grade = grade;
+            this.honors = honors;
+        }
+    }
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception
+    {
+        int shardCount = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int students = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        List<Op> script = script(students, operations, new Random(seed));
+        System.out.println(shardCount + " shards, " + students + " students, "
+            + script.size() + " operations, seed " + seed);
+
+        long t0 = System.nanoTime();
+        StudentManagementSystem single = new StudentManagementSystem();
+        boolean[] expected = runSingle(single, script);
+        System.out.printf("Single system:      script %.0f ms%n", (System.nanoTime() - t0) / 1e6);
+
+        try (ShardedSystem inJvm = ShardedSystem.inProcess(shardCount))
+        {
+            check("in-JVM shards", single, inJvm, script, expected);
+        }
+
+        List<Process> nodes = new ArrayList<>();
+        try
+        {
+            StringBuilder addresses = new StringBuilder();
+            for (int i = 0; i < shardCount; i++)
+            {
+                Process node = startNode();
+                nodes.add(node);
+                addresses.append(i > 0 ? "," : "").append("localhost:").append(portOf(node));
+            }
+            try (ShardedSystem remote = ShardedSystem.connect(addresses.toString()))
+            {
+                check("shard processes", single, remote, script, expected);
+            }
+        }
+        finally
+        {
+            for (Process node : nodes)
+            {
+                stopNode(node);
+            }
+        }
+
+        System.out.println(failures == 0 ? "OK: every answer matched" : failures + " mismatches");
+        if (failures > 0)
+        {
+            System.exit(1);
+        }
+    }
+
+    private static List<Op> script(int students, int operations, Random random)
+    {
+        List<Op> ops = new ArrayList<>();
+        for (int i = 0; i < students; i++)
+        {
+            ops.add(new Op(ADD, "S" + i, name(random), 0, random.nextInt(5) == 0));
+            for (String subject : SUBJECTS)
+            {
+                if (random.nextInt(4) > 0)
+                {
+                    ops.add(new Op(GRADE, "S" + i, subject, random.nextInt(101), false));
+                }
+            }
+        }
+
+        int nextId = students;
+        for (int i = 0; i < operations; i++)
+        {
+            int pick = random.nextInt(100);
+            // Mostly existing IDs, some removed or never added; "s12" is the same student as "S12"
+            String id = (random.nextBoolean() ? "S" : "s") + random.nextInt(nextId + 10);
+            if (pick < 70)
+            {
+                ops.add(new Op(GRADE, id, SUBJECTS[random.nextInt(SUBJECTS.length)], random.nextInt(101), false));
+            }
+            else if (pick < 80)
+            {
+                ops.add(new Op(RENAME, id, name(random), 0, false));
+            }
+            else if (pick < 88)
+            {
+                ops.add(new Op(REMOVE, id, null, 0, false));
+            }
+            else
+            {
+                // A new ID, or now and then one that is already taken
+                String newId = random.nextInt(10) == 0 ? id : "S" + nextId++;
+                ops.add(new Op(ADD, newId, name(random), 0, random.nextInt(5) == 0));
+            }
+        }
+        return ops;
+    }
+
+    private static String name(Random random)
+    {
+        return NAMES[random.nextInt(NAMES.length)] + " " + (char) ('A' + random.nextInt(26));
+    }
+
+    private static boolean[] runSingle(StudentManagementSystem sms, List<Op> script)
+    {
+        boolean[] results = new boolean[script.size()];
+        for (int i = 0; i < script.size(); i++)
+        {
+            Op op = script.get(i);
+            Student s;
+            switch (op.kind)
+            {
+                case ADD:
+                    results[i] = sms.tryAddStudent(op.id, op.text, op.honors);
+                    break;
+                case GRADE:
+                    s = sms.findStudentById(op.id);
+                    if (s != null)
+                    {
+                        s.addOrUpdateSubject(op.text, op.grade);
+                    }
+                    results[i] = s != null;
+                    break;
+                case RENAME:
+                    s = sms.findStudentById(op.id);
+                    if (s != null)
+                    {
+                        s.setName(op.text);
+                    }
+                    results[i] = s != null;
+                    break;
+                default:
+                    results[i] = sms.removeStudent(op.id);
+            }
+        }
+        return results;
+    }
+
+    private static boolean[] runSharded(ShardedSystem sharded, List<Op> script) throws IOException
+    {
+        boolean[] results = new boolean[script.size()];
+        for (int i = 0; i < script.size(); i++)
+        {
+            Op op = script.get(i);
+            switch (op.kind)
+            {
+                case ADD:
+                    results[i] = sharded.tryAddStudent(op.id, op.text, op.honors);
+                    break;
+                case GRADE:
+                    results[i] = sharded.addOrUpdateGrade(op.id, op.text, op.grade);
+                    break;
+                case RENAME:
+                    results[i] = sharded.renameStudent(op.id, op.text);
+                    break;
+                default:
+                    results[i] = sharded.removeStudent(op.id);
+            }
+        }
+        return results;
+    }
+
+    private static void check(String label, StudentManagementSystem single, ShardedSystem sharded,
+                              List<Op> script, boolean[] expected) throws IOException
+    {
+        long t0 = System.nanoTime();
+        boolean[] results = runSharded(sharded, script);
+        long scriptNanos = System.nanoTime() - t0;
+
+        int wrong = 0;
+        for (int i = 0; i < results.length; i++)
+        {
+            if (results[i] != expected[i])
+            {
+                wrong++;
+            }
+        }
+        same(label, "call results", 0, wrong);
+        same(label, "student count", single.getStudentCount(), sharded.getStudentCount());
+
+        // Every student, looked up by ID
+        for (Student s : single.getStudents())
+        {
+            String line = RosterFile.line(new StringBuilder(), s, new SubjectView()).toString();
+            if (!line.equals(sharded.findStudent(s.getId().toLowerCase())))
+            {
+                same(label, "student " + s.getId(), line, sharded.findStudent(s.getId()));
+                break;
+            }
+        }
+        same(label, "missing student", null, sharded.findStudent("nobody"));
+
+        int n = single.getStudentCount();
+        same(label, "top page", ids(single.leaderboardPage(0, 10)), rowIds(sharded.leaderboardPage(0, 10)));
+        same(label, "middle page", ids(single.leaderboardPage(n / 2, 25)), rowIds(sharded.leaderboardPage(n / 2, 25)));
+
+        long t1 = System.nanoTime();
+        ReportWriter mine = ReportWriter.inMemory();
+        sharded.printStudentsSortedByAverage(mine);
+        long reportNanos = System.nanoTime() - t1;
+        ReportWriter theirs = ReportWriter.inMemory();
+        single.printStudentsSortedByAverage(theirs);
+        same(label, "sorted report", theirs.toString(), mine.toString());
+
+        long t2 = System.nanoTime();
+        for (String subject : new String[] { "Math", "physics", "Chemistry", "Biology", "History", "Art" })
+        {
+            ReportWriter a = ReportWriter.inMemory();
+            sharded.printSubjectHighLow(subject, a);
+            ReportWriter b = ReportWriter.inMemory();
+            single.printSubjectHighLow(subject, b);
+            same(label, "high/low " + subject, b.toString(), a.toString());
+        }
+        long highLowNanos = System.nanoTime() - t2;
+
+        System.out.printf("%-19s script %.0f ms, sorted report %.0f ms, 6 high/low reports %.1f ms%n",
+            label + ":", scriptNanos / 1e6, reportNanos / 1e6, highLowNanos / 1e6);
+    }
+
+    private static List<String> ids(List<Student> students)
+    {
+        List<String> ids = new ArrayList<>();
+        for (Student s : students)
+        {
+            ids.add(s.getId());
+        }
+        return ids;
+    }
+
+    private static List<String> rowIds(List<Shard.Row> rows)
+    {
+        List<String> ids = new ArrayList<>();
+        for (Shard.Row row : rows)
+        {
+            ids.add(row.id);
+        }
+        return ids;
+    }
+
+    private static void same(String label, String what, Object expected, Object actual)
+    {
+        boolean equal = expected == null ? actual == null : expected.equals(actual);
+        if (!equal)
+        {
+            failures++;
+            String[] e = String.valueOf(expected).split("\n");
+            String[] a = String.valueOf(actual).split("\n");
+
+            // Reports are long, so only the first line that differs is shown
+            int line = 0;
+            while (line < e.length && line < a.length && e[line].equals(a[line]))
+            {
+                line++;
+            }
+            System.out.println("MISMATCH " + label + ", " + what + " (line " + (line + 1) + "): expected \""
+                + (line < e.length ? e[line] : "") + "\" but got \"" + (line < a.length ? a[line] : "") + "\"");
+        }
+    }
+
+    // -------------------------
+    // Shard processes
+    // -------------------------
+
+    private static Process startNode() throws IOException
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Xmx256m",
+            "-cp", System.getProperty("java.class.path"),
+            "Main", "--shard-server", "0", "--batch", "-");
+        builder.redirectErrorStream(true);
+        return builder.start();
+    }
+
+    /**
+     * Reads the node's output up to the line with its port, then keeps
+     * draining the rest so the node never blocks on a full pipe.
+     */
+    private static int portOf(Process node) throws IOException
+    {
+        BufferedReader out = new BufferedReader(new InputStreamReader(node.getInputStream()));
+        String prefix = "Shard server listening on port ";
+        String line;
+        while ((line = out.readLine()) != null)
+        {
+            if (line.startsWith(prefix))
+            {
+                Thread drain = new Thread(() ->
+                {
+                    try
+                    {
+                        while (out.readLine() != null)
+                        {
+                            // Ignored
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        // The node exited
+                    }
+                });
+                drain.setDaemon(true);
+                drain.start();
+                return Integer.parseInt(line.substring(prefix.length()).trim());
+            }
+        }
+        throw new IOException("The shard process exited before it started listening");
+    }
+
+    /**
+     * Closing its input ends the node's batch run, and with it the node.
+     */
+    private static void stopNode(Process node) throws IOException, InterruptedException
+    {
+        node.getOutputStream().close();
+        if (!node.waitFor(10, TimeUnit.SECONDS))
+        {
+            node.destroyForcibly();
+        }
+    }
+}
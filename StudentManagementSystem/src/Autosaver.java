@@ -0,0 +1,287 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Autosaver class
+ * Saves the roster to the text save file from a background thread, every
+ * intervalMillis or as soon as changes reach afterChanges since the last
+ * save, whichever comes first. Nothing is written while nothing has changed.
+ *
+ * Each save opens a RosterView, which copies nothing, and writes it with
+ * RosterFile (temporary file, fsync, rename), or with a SegmentedRosterFile,
+ * which only rewrites the segments holding changed students. Menu and HTTP threads keep
+ * working during the save; a student changed meanwhile is copied once for
+ * the view and goes in the file as it was when the save started.
+ *
+ * The change count is read from the registry (see getChangeCount) a few
+ * times a second, so the after-changes trigger can run up to POLL_MILLIS late.
+ * A load that empties the roster before filling it again calls pause() first,
+ * so a half-loaded roster is never saved over the file.
+ */
+public final class Autosaver implements Closeable
+{
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 60_000;
+    public static final long DEFAULT_AFTER_CHANGES = 1000;
+
+    private static final long POLL_MILLIS = 100;
+
+    // After a failed save, wait this long before trying again (unless asked to)
+    private static final long RETRY_MILLIS = 5000;
+
+    private static final Metrics.Timer SAVES = Metrics.timer("Autosaver.save");
+
+    private final StudentRegistry registry;
+    private final String fileName;
+    private final SegmentedRosterFile segments;
+    private final long intervalMillis;
+    private final long afterChanges;
+    private final Thread saver;
+
+    // Guarded by "this"
+    private boolean closed;
+    private boolean saveRequested;
+    private int pauses;
+    private boolean saving;
+
+    // Registry change count the last good save started at, and when the last
+    // save (good or not) finished. Only the saver thread writes them.
+    private volatile long savedChanges;
+    private volatile long savedAt;
+
+    // For the status report
+    private volatile int saves;
+    private volatile int lastStudents;
+    private volatile long lastMillis;
+    private volatile String lastError;
+
+    /**
+     * Starts saving registry to fileName. A value of 0 (or less) turns that
+     * trigger off. Nothing is saved until something changes.
+     */
+    public Autosaver(StudentRegistry registry, String fileName, long intervalMillis, long afterChanges)
+    {
+        this(registry, fileName, null, intervalMillis, afterChanges);
+    }
+
+    /**
+     * Same, but saves incrementally to a segmented file.
+     */
+    public Autosaver(StudentRegistry registry, SegmentedRosterFile file, long intervalMillis, long afterChanges)
+    {
+        this(registry, file.getFileName(), file, intervalMillis, afterChanges);
+    }
+
+    private Autosaver(StudentRegistry registry, String fileName, SegmentedRosterFile segments,
+                      long intervalMillis, long afterChanges)
+    {
+        if (intervalMillis <= 0 && afterChanges <= 0)
+        {
+            throw new IllegalArgumentException("an interval or a change count is needed");
+        }
+        this.registry = registry;
+        this.fileName = fileName;
+        this.segments = segments;
+        this.intervalMillis = intervalMillis;
+        this.afterChanges = afterChanges;
+        this.savedChanges = registry.getChangeCount();
+        this.savedAt = System.nanoTime();
+
+        this.saver = new Thread(this::saveLoop, "autosave");
+        this.saver.setDaemon(true);
+        this.saver.start();
+    }
+
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    /**
+     * The segmented file saved to, or null when the whole text file is rewritten.
+     */
+    public SegmentedRosterFile getSegmentedFile()
+    {
+        return segments;
+    }
+
+    /**
+     * Changes made since the last save started (they may be in a running save).
+     */
+    public long getUnsavedChanges()
+    {
+        return registry.getChangeCount() - savedChanges;
+    }
+
+    /**
+     * Asks for a save now, if anything changed, without waiting for it.
+     */
+    public synchronized void requestSave()
+    {
+        saveRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Keeps new saves from starting until resume() and waits for a running one.
+     */
+    public synchronized void pause()
+    {
+        pauses++;
+        while (saving)
+        {
+            waitQuietly(0);
+        }
+    }
+
+    public synchronized void resume()
+    {
+        pauses--;
+        notifyAll();
+    }
+
+    /**
+     * One line about the autosave: where, how often, and how the last save went.
+     */
+    public String status()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(segments != null ? "Autosaving incrementally to " : "Autosaving to ")
+            .append(fileName).append(" every ");
+        if (intervalMillis > 0)
+        {
+            sb.append(intervalMillis / 1000.0).append(" s");
+        }
+        if (intervalMillis > 0 && afterChanges > 0)
+        {
+            sb.append(" or ");
+        }
+        if (afterChanges > 0)
+        {
+            sb.append(afterChanges).append(" changes");
+        }
+        sb.append(String.format(": %d saves, %d unsaved changes", saves, getUnsavedChanges()));
+        if (saves > 0)
+        {
+            sb.append(String.format(", last save %d students in %d ms, %.1f s ago",
+                lastStudents, lastMillis, (System.nanoTime() - savedAt) / 1e9));
+        }
+        String error = lastError;
+        if (error != null)
+        {
+            sb.append(", last error: ").append(error);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops the saver thread after one last save of whatever changed, and waits for it.
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            notifyAll();
+        }
+        try
+        {
+            saver.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void saveLoop()
+    {
+        while (true)
+        {
+            boolean last;
+            boolean requested;
+            synchronized (this)
+            {
+                if (!closed && !saveRequested)
+                {
+                    waitQuietly(POLL_MILLIS);
+                }
+                // Paused: sleep until resume() or close(); a save asked for
+                // meanwhile stays requested and runs after the pause
+                while (pauses > 0 && !closed)
+                {
+                    waitQuietly(0);
+                }
+                last = closed;
+                requested = saveRequested;
+                saveRequested = false;
+                saving = true;
+            }
+
+            long unsaved = getUnsavedChanges();
+            long sinceSave = (System.nanoTime() - savedAt) / 1_000_000;
+            boolean due = (afterChanges > 0 && unsaved >= afterChanges)
+                || (intervalMillis > 0 && sinceSave >= intervalMillis);
+            if (lastError != null && sinceSave < RETRY_MILLIS)
+            {
+                due = false;
+            }
+            if (unsaved > 0 && (due || requested || last))
+            {
+                save();
+            }
+            synchronized (this)
+            {
+                saving = false;
+                notifyAll();
+            }
+            if (last)
+            {
+                return;
+            }
+        }
+    }
+
+    private void save()
+    {
+        long start = Metrics.start();
+        long begin = System.nanoTime();
+        // Read before the view opens: every change counted so far is in the view,
+        // and a later one is still unsaved afterwards (see StudentRegistry.stamp)
+        long changes = registry.getChangeCount();
+        try (RosterView view = registry.openView())
+        {
+            lastStudents = segments != null
+                ? segments.save(view).students
+                : RosterFile.write(view, fileName);
+            lastMillis = (System.nanoTime() - begin) / 1_000_000;
+            lastError = null;
+            savedChanges = changes;
+            saves++;
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            lastError = e.getMessage();
+            System.out.println("Autosave to " + fileName + " failed: " + e.getMessage());
+        }
+        finally
+        {
+            savedAt = System.nanoTime();
+            SAVES.record(start);
+        }
+    }
+
+    private void waitQuietly(long millis)
+    {
+        try
+        {
+            wait(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * BatchRunner class
+ * Runs menu operations from a script instead of asking for each field.
+ * One command per line, fields separated by '|' (like the roster file):
+ *
+ *   ADD|id|name[|Y]          1. add student (Y = honors)
+ *   REMOVE|id                2. remove student
+ *   RENAME|id|new name       3. update student name
+ *   GRADE|id|subject|grade   4. add or update grade
+ *   DETAILS|id               5. view student details
+ *   LIST                     6. list all students
+ *   SORTED                   7. students sorted by average
+ *   AVERAGES                 8. average grade for each student
+ *   REPORT|subject           9. high/low grade for a subject
+ *   SAVE|file                10. save to file
+ *   LOAD|file                11. load from file
+ *   FIND|prefix[|page]       20. search students by name (page 1 by default)
+ *   FUZZY|name[|typos[|page]] 21. search by name allowing typos (1 by default)
+ *   QUERY|conditions         22. students matching a query, e.g. QUERY|average < 60
+ *   COUNT|conditions         22. only count them
+ *   METRICS                  23. operation metrics so far
+ *   IMPORT|file[|rejects]    24. bulk grade import (rejects go to file.rejects by default)
+ *   AUTOSAVE|file[|seconds[|changes[|Y]]] 25. autosave in the background (60 s / 1000 changes
+ *                            by default, Y = incremental)
+ *   AUTOSAVE|OFF             25. stop autosave (after a last save)
+ *   SAVEINC|file             26. incremental save (only changed students are rewritten)
+ *
+ * Command names are case-insensitive, blank lines and lines starting with '#'
+ * are skipped. Nothing is prompted, output is buffered, and a summary with the
+ * count and time of each command is printed at the end.
+ */
+public class BatchRunner
+{
+
+    private static final String[] COMMANDS = {
+        "ADD", "REMOVE", "RENAME", "GRADE", "DETAILS", "LIST",
+        "SORTED", "AVERAGES", "REPORT", "SAVE", "LOAD", "FIND", "FUZZY", "QUERY", "COUNT",
+        "METRICS", "IMPORT", "AUTOSAVE", "SAVEINC"
+    };
+
+    private final StudentManagementSystem sms;
+
+    // Command -> { times run, total nanoseconds }
+    private final Map<String, long[]> stats = new LinkedHashMap<>();
+    private long lines;
+    private long errors;
+
+    public BatchRunner(StudentManagementSystem sms)
+    {
+        this.sms = sms;
+        for (String command : COMMANDS)
+        {
+            stats.put(command, new long[2]);
+        }
+    }
+
+    /**
+     * Runs the commands in a file, or from standard input when the name is "-".
+     */
+    public void run(String source)
+    {
+        PrintStream console = System.out;
+        PrintStream buffered = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        System.setOut(buffered);
+
+        long start = System.nanoTime();
+        try (Reader reader = source.equals("-")
+                ? new InputStreamReader(System.in)
+                : new FileReader(source);
+             BufferedReader in = new BufferedReader(reader, 1 << 16))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                lines++;
+                execute(line);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error reading batch file: " + e.getMessage());
+            errors++;
+        }
+        finally
+        {
+            buffered.flush();
+            System.setOut(console);
+        }
+
+        printSummary(System.nanoTime() - start);
+    }
+
+    /**
+     * Runs one line. Returns false if the line was a bad command.
+     */
+    boolean execute(String line)
+    {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#"))
+        {
+            return true;
+        }
+
+        String[] fields = trimmed.split("\\|", -1);
+        for (int i = 0; i < fields.length; i++)
+        {
+            fields[i] = fields[i].trim();
+        }
+        String command = fields[0].toUpperCase();
+
+        long[] counter = stats.get(command);
+        if (counter == null)
+        {
+            return fail("unknown command " + fields[0]);
+        }
+
+        long start = System.nanoTime();
+        boolean ok;
+        try
+        {
+            ok = dispatch(command, fields);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // e.g. a name too long for a mapped roster
+            ok = fail(e.getMessage());
+        }
+        counter[0]++;
+        counter[1] += System.nanoTime() - start;
+        return ok;
+    }
+
+    private boolean dispatch(String command, String[] f)
+    {
+        switch (command)
+        {
+            case "ADD":
+            {
+                if (!fieldCount(f, 3, 4))
+                {
+                    return false;
+                }
+                boolean isHonors = f.length == 4 && f[3].equalsIgnoreCase("Y");
+                if (sms.findStudentById(f[1]) != null)
+                {
+                    System.out.println("Student with ID " + f[1] + " already exists.");
+                    return true;
+                }
+                sms.addStudent(f[1], f[2], isHonors);
+                System.out.println(isHonors ? "Honors student added." : "Student added.");
+                return true;
+            }
+
+            case "REMOVE":
+                if (!fieldCount(f, 2, 2))
+                {
+                    return false;
+                }
+                System.out.println(sms.removeStudent(f[1]) ? "Student removed." : "Student not found.");
+                return true;
+
+            case "RENAME":
+            {
+                if (!fieldCount(f, 3, 3))
+                {
+                    return false;
+                }
+                Student student = sms.findStudentById(f[1]);
+                if (student == null)
+                {
+                    System.out.println("Student not found.");
+                    return true;
+                }
+                student.setName(f[2]);
+                System.out.println("Name updated.");
+                return true;
+            }
+
+            case "GRADE":
+            {
+                if (!fieldCount(f, 4, 4))
+                {
+                    return false;
+                }
+                double grade;
+                try
+                {
+                    grade = Double.parseDouble(f[3]);
+                }
+                catch (NumberFormatException e)
+                {
+                    return fail("not a valid grade: " + f[3]);
+                }
+                if (!(grade >= 0 && grade <= 100))
+                {
+                    return fail("grade must be between 0 and 100: " + f[3]);
+                }
+                Student student = sms.findStudentById(f[1]);
+                if (student == null)
+                {
+                    System.out.println("Student not found.");
+                    return true;
+                }
+                student.addOrUpdateSubject(f[2], grade);
+                System.out.println("Grade saved.");
+                return true;
+            }
+
+            case "DETAILS":
+            {
+                if (!fieldCount(f, 2, 2))
+                {
+                    return false;
+                }
+                Student student = sms.findStudentById(f[1]);
+                if (student == null)
+                {
+                    System.out.println("Student not found.");
+                }
+                else
+                {
+                    student.printDetails();
+                }
+                return true;
+            }
+
+            case "LIST":
+                sms.listStudents();
+                return true;
+
+            case "SORTED":
+                sms.printStudentsSortedByAverage();
+                return true;
+
+            case "AVERAGES":
+                sms.printAllStudentAverages();
+                return true;
+
+            case "REPORT":
+                if (!fieldCount(f, 2, 2))
+                {
+                    return false;
+                }
+                sms.printSubjectHighLow(f[1]);
+                return true;
+
+            case "SAVE":
+                if (!fieldCount(f, 2, 2))
+                {
+                    return false;
+                }
+                sms.saveToFile(f[1]);
+                return true;
+
+            case "LOAD":
+                if (!fieldCount(f, 2, 2))
+                {
+                    return false;
+                }
+                sms.loadFromFile(f[1]);
+                return true;
+
+            case "FIND":
+            {
+                if (!fieldCount(f, 2, 3))
+                {
+                    return false;
+                }
+                int page = f.length > 2 ? number(f[2]) : 1;
+                if (page == Integer.MIN_VALUE)
+                {
+                    return fail("not a valid page: " + f[2]);
+                }
+                sms.printNameSearch(f[1], page);
+                return true;
+            }
+
+            case "FUZZY":
+            {
+                if (!fieldCount(f, 2, 4))
+                {
+                    return false;
+                }
+                int typos = f.length > 2 ? number(f[2]) : 1;
+                int page = f.length > 3 ? number(f[3]) : 1;
+                if (typos == Integer.MIN_VALUE || page == Integer.MIN_VALUE)
+                {
+                    return fail("not a valid number: " + String.join("|", f));
+                }
+                sms.printFuzzyNameSearch(f[1], typos, page);
+                return true;
+            }
+
+            case "QUERY":
+            case "COUNT":
+                if (!fieldCount(f, 2, 2))
+                {
+                    return false;
+                }
+                sms.printQuery(f[1], command.equals("COUNT"));
+                return true;
+
+            case "METRICS":
+                sms.printMetrics();
+                return true;
+
+            case "IMPORT":
+                if (!fieldCount(f, 2, 3))
+                {
+                    return false;
+                }
+                sms.importGrades(f[1], f.length > 2 && !f[2].isEmpty() ? f[2] : f[1] + ".rejects");
+                return true;
+
+            case "AUTOSAVE":
+            {
+                if (!fieldCount(f, 2, 5))
+                {
+                    return false;
+                }
+                if (f.length == 2 && f[1].equalsIgnoreCase("OFF"))
+                {
+                    sms.stopAutosave();
+                    return true;
+                }
+                int seconds = f.length > 2 ? number(f[2]) : (int) (Autosaver.DEFAULT_INTERVAL_MILLIS / 1000);
+                int changes = f.length > 3 ? number(f[3]) : (int) Autosaver.DEFAULT_AFTER_CHANGES;
+                if (seconds == Integer.MIN_VALUE || changes == Integer.MIN_VALUE)
+                {
+                    return fail("not a valid number: " + String.join("|", f));
+                }
+                sms.startAutosave(f[1], seconds, changes, f.length > 4 && f[4].equalsIgnoreCase("Y"));
+                return true;
+            }
+
+            case "SAVEINC":
+                if (!fieldCount(f, 2, 2))
+                {
+                    return false;
+                }
+                sms.saveIncremental(f[1]);
+                return true;
+
+            default:
+                return fail("unknown command " + command);
+        }
+    }
+
+    // A whole number, or Integer.MIN_VALUE if the text isn't one
+    private static int number(String text)
+    {
+        try
+        {
+            return Integer.parseInt(text.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return Integer.MIN_VALUE;
+        }
+    }
+
+    private boolean fieldCount(String[] f, int min, int max)
+    {
+        if (f.length < min || f.length > max)
+        {
+            return fail(f[0] + " needs " + (min == max ? "" + (min - 1) : (min - 1) + "-" + (max - 1))
+                + " field(s), got " + (f.length - 1));
+        }
+        for (int i = 1; i < min; i++)
+        {
+            if (f[i].isEmpty())
+            {
+                return fail(f[0] + " field " + i + " cannot be empty");
+            }
+        }
+        return true;
+    }
+
+    private boolean fail(String message)
+    {
+        System.out.println("Line " + lines + ": " + message);
+        errors++;
+        return false;
+    }
+
+    private void printSummary(long nanos)
+    {
+        long commands = 0;
+        System.out.println("=== Batch Summary ===");
+        System.out.println(String.format("%-10s %10s %12s %10s", "Command", "Count", "Total ms", "Avg us"));
+        for (Map.Entry<String, long[]> e : stats.entrySet())
+        {
+            long[] c = e.getValue();
+            if (c[0] == 0)
+            {
+                continue;
+            }
+            commands += c[0];
+            System.out.println(String.format("%-10s %10d %12.1f %10.2f",
+                e.getKey(), c[0], c[1] / 1e6, c[1] / 1e3 / c[0]));
+        }
+        System.out.println(String.format("Lines: %d, commands: %d, errors: %d, time: %.1f ms (%.0f commands/sec)",
+            lines, commands, errors, nanos / 1e6, nanos == 0 ? 0.0 : commands * 1e9 / nanos));
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FrozenGrades class
+ * A fixed set of grades for the read-only student copies a RosterView keeps.
+ * It has a single slot (0) and the grades can't be changed.
+ */
+public class FrozenGrades implements GradeSlots
+{
+
+    private final String[] names;
+    private final double[] grades;
+
+    public FrozenGrades(List<Subject> subjects)
+    {
+        this.names = new String[subjects.size()];
+        this.grades = new double[subjects.size()];
+        for (int i = 0; i < names.length; i++)
+        {
+            names[i] = subjects.get(i).getName();
+            grades[i] = subjects.get(i).getGrade();
+        }
+    }
+
+    @Override
+    public Double get(int slot, String subjectName)
+    {
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equalsIgnoreCase(subjectName))
+            {
+                return grades[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Double put(int slot, String subjectName, double grade)
+    {
+        throw new UnsupportedOperationException("This is a read-only copy of the student.");
+    }
+
+    @Override
+    public List<Subject> subjects(int slot)
+    {
+        List<Subject> result = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++)
+        {
+            result.add(new Subject(names[i], grades[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public void read(int slot, SubjectView view)
+    {
+        view.reset(names.length);
+        for (int i = 0; i < names.length; i++)
+        {
+            view.set(i, names[i], grades[i]);
+        }
+    }
+
+    @Override
+    public double sum(int slot)
+    {
+        double sum = 0.0;
+        for (double grade : grades)
+        {
+            sum += grade;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,435 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * GradeImporter class
+ * Imports a flat file of grades, one "studentId,subject,grade" row per line
+ * (no quoting; spaces around a field are ignored). A first line whose grade
+ * isn't a number is taken as a header and skipped.
+ *
+ * The file is cut into chunks and parsed in parallel straight from bytes, like
+ * RosterLoader does. Each row's ID is looked up once while parsing (a row for
+ * the same student as the row before reuses that lookup). The rows are then
+ * grouped by student, keeping file order within a student, and applied in
+ * batches of students with StudentRegistry.applyGrades: each student is locked
+ * once for all of their grades and the indexes are updated once per batch.
+ *
+ * A row is rejected if it doesn't have three fields, the ID or subject is
+ * empty, the grade isn't a number between 0 and 100 (the same rule as the menu),
+ * or no student has that ID. Rejected rows aren't printed; they are written to
+ * the reject file as "line|reason|row", in file order.
+ */
+public class GradeImporter
+{
+
+    // Students per call to StudentRegistry.applyGrades; big batches let each
+    // subject index be rebuilt once instead of moving entries row by row
+    public static final int DEFAULT_BATCH_SIZE = 1 << 20;
+
+    // Distinct subjects remembered per chunk, so a subject name is only turned into a String once
+    private static final int SUBJECT_CACHE = 64;
+
+    /**
+     * What one import did, for the throughput report.
+     */
+    public static final class Result
+    {
+        public final long rows;
+        public final long applied;
+        public final long rejected;
+        public final int students;
+        public final long bytes;
+        public final long nanos;
+
+        Result(long rows, long applied, long rejected, int students, long bytes, long nanos)
+        {
+            this.rows = rows;
+            this.applied = applied;
+            this.rejected = rejected;
+            this.students = students;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public double rowsPerSecond()
+        {
+            return nanos == 0 ? 0.0 : rows * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Imported %d of %d grades for %d students (%d rejected) in %.1f ms: %.0f rows/sec, %.1f MB/sec",
+                applied, rows, students, rejected, nanos / 1e6, rowsPerSecond(),
+                nanos == 0 ? 0.0 : bytes * 1e9 / nanos / (1024.0 * 1024.0));
+        }
+    }
+
+    /**
+     * The rows parsed from one chunk. Line numbers are counted from the start
+     * of the chunk until the chunks are put together.
+     */
+    private static final class Chunk
+    {
+        Student[] students = new Student[1024];
+        String[] subjects = new String[1024];
+        double[] grades = new double[1024];
+        int[] lines = new int[1024];
+        int size;
+        int lineCount;
+        final List<Reject> rejects = new ArrayList<>();
+
+        // Subject names seen in this chunk, as bytes and as the String handed out
+        final byte[][] subjectBytes = new byte[SUBJECT_CACHE][];
+        final String[] subjectNames = new String[SUBJECT_CACHE];
+        int subjectCount;
+
+        // Where the ID of the last looked-up row is, and who it belongs to
+        int lastIdStart;
+        int lastIdEnd = -1;
+        Student lastStudent;
+
+        void add(Student student, String subject, double grade, int line)
+        {
+            if (size == students.length)
+            {
+                int capacity = size * 2;
+                students = Arrays.copyOf(students, capacity);
+                subjects = Arrays.copyOf(subjects, capacity);
+                grades = Arrays.copyOf(grades, capacity);
+                lines = Arrays.copyOf(lines, capacity);
+            }
+            students[size] = student;
+            subjects[size] = subject;
+            grades[size] = grade;
+            lines[size] = line;
+            size++;
+        }
+    }
+
+    private static final class Reject
+    {
+        long line;
+        final String reason;
+        final String row;
+
+        Reject(long line, String reason, String row)
+        {
+            this.line = line;
+            this.reason = reason;
+            this.row = row;
+        }
+    }
+
+    private final int chunkSize;
+    private final int batchSize;
+
+    public GradeImporter()
+    {
+        this(RosterLoader.DEFAULT_CHUNK_SIZE, DEFAULT_BATCH_SIZE);
+    }
+
+    public GradeImporter(int chunkSize, int batchSize)
+    {
+        this.chunkSize = chunkSize;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Imports every valid row of the file into the registry and writes the
+     * rejected rows to rejectFileName (an empty file if there are none).
+     */
+    public Result importInto(String fileName, StudentRegistry registry, String rejectFileName) throws IOException
+    {
+        long start = System.nanoTime();
+
+        List<Chunk> chunks;
+        long size;
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+        {
+            size = channel.size();
+            List<long[]> ranges = RosterLoader.splitIntoChunks(channel, size, chunkSize);
+            try
+            {
+                chunks = IntStream.range(0, ranges.size())
+                    .parallel()
+                    .mapToObj(i -> parse(RosterLoader.readRange(channel, ranges.get(i)), i == 0, registry))
+                    .collect(Collectors.toList());
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+        }
+
+        // Line numbers for the whole file
+        List<Reject> rejects = new ArrayList<>();
+        long firstLine = 1;
+        long rows = 0;
+        for (Chunk chunk : chunks)
+        {
+            for (Reject r : chunk.rejects)
+            {
+                r.line += firstLine;
+                rejects.add(r);
+            }
+            firstLine += chunk.lineCount;
+            rows += chunk.size + chunk.rejects.size();
+        }
+
+        // Group the rows by student, keeping file order within each student
+        IdentityHashMap<Student, Integer> group = new IdentityHashMap<>();
+        List<Student> order = new ArrayList<>();
+        int[] counts = new int[16];
+        for (Chunk chunk : chunks)
+        {
+            for (int i = 0; i < chunk.size; i++)
+            {
+                Integer g = group.get(chunk.students[i]);
+                if (g == null)
+                {
+                    g = order.size();
+                    group.put(chunk.students[i], g);
+                    order.add(chunk.students[i]);
+                    if (g == counts.length)
+                    {
+                        counts = Arrays.copyOf(counts, g * 2);
+                    }
+                }
+                counts[g]++;
+            }
+        }
+
+        int groups = order.size();
+        int[] starts = new int[groups + 1];
+        for (int g = 0; g < groups; g++)
+        {
+            starts[g + 1] = starts[g] + counts[g];
+        }
+        int total = starts[groups];
+        String[] subjects = new String[total];
+        double[] grades = new double[total];
+        long[] lines = new long[total];
+        int[] next = Arrays.copyOf(starts, groups);
+        firstLine = 1;
+        for (Chunk chunk : chunks)
+        {
+            for (int i = 0; i < chunk.size; i++)
+            {
+                int at = next[group.get(chunk.students[i])]++;
+                subjects[at] = chunk.subjects[i];
+                grades[at] = chunk.grades[i];
+                lines[at] = firstLine + chunk.lines[i];
+            }
+            firstLine += chunk.lineCount;
+        }
+        Student[] students = order.toArray(new Student[0]);
+        chunks = null;
+        group = null;
+
+        // Apply a batch of students at a time
+        long applied = 0;
+        List<Student> missing = new ArrayList<>();
+        for (int from = 0; from < groups; from += batchSize)
+        {
+            int to = (int) Math.min(groups, (long) from + batchSize);
+            applied += registry.applyGrades(students, starts, subjects, grades, from, to, missing);
+        }
+
+        // Students removed while the file was being read
+        if (!missing.isEmpty())
+        {
+            IdentityHashMap<Student, Integer> gone = new IdentityHashMap<>();
+            for (int g = 0; g < groups; g++)
+            {
+                gone.put(students[g], g);
+            }
+            for (Student s : missing)
+            {
+                int g = gone.get(s);
+                for (int row = starts[g]; row < starts[g + 1]; row++)
+                {
+                    rejects.add(new Reject(lines[row], "no student with ID " + s.getId(),
+                        s.getId() + "," + subjects[row] + "," + grades[row]));
+                }
+            }
+            rejects.sort((a, b) -> Long.compare(a.line, b.line));
+        }
+
+        writeRejects(rejects, rejectFileName);
+        return new Result(rows, applied, rejects.size(), groups - missing.size(), size, System.nanoTime() - start);
+    }
+
+    private static void writeRejects(List<Reject> rejects, String rejectFileName) throws IOException
+    {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                Metrics.countWrites(new FileOutputStream(rejectFileName)), StandardCharsets.UTF_8), 1 << 16))
+        {
+            for (Reject r : rejects)
+            {
+                out.write(r.line + "|" + r.reason + "|" + r.row);
+                out.write(System.lineSeparator());
+            }
+        }
+    }
+
+    // -------------------------
+    // Parsing
+    // -------------------------
+
+    /**
+     * Parses the lines of one chunk. Lines end at "\n", "\r" or "\r\n", and
+     * blank lines are skipped (but still counted for the line numbers).
+     */
+    private static Chunk parse(byte[] b, boolean firstChunk, StudentRegistry registry)
+    {
+        Chunk chunk = new Chunk();
+        int pos = 0;
+        int length = b.length;
+
+        while (pos < length)
+        {
+            int end = pos;
+            while (end < length && b[end] != '\n' && b[end] != '\r')
+            {
+                end++;
+            }
+            int line = chunk.lineCount++;
+            if (skipSpaces(b, pos, end) < end)
+            {
+                parseRow(b, pos, end, line, firstChunk && line == 0, chunk, registry);
+            }
+
+            if (end < length && b[end] == '\r' && end + 1 < length && b[end + 1] == '\n')
+            {
+                end++;
+            }
+            pos = end + 1;
+        }
+        return chunk;
+    }
+
+    /**
+     * Checks one "id,subject,grade" row and adds it to the chunk, or rejects it.
+     */
+    private static void parseRow(byte[] b, int start, int end, int line, boolean mayBeHeader,
+        Chunk chunk, StudentRegistry registry)
+    {
+        int comma1 = RosterLoader.indexOf(b, start, end, (byte) ',');
+        int comma2 = comma1 < 0 ? -1 : RosterLoader.indexOf(b, comma1 + 1, end, (byte) ',');
+        if (comma2 < 0 || RosterLoader.indexOf(b, comma2 + 1, end, (byte) ',') >= 0)
+        {
+            reject(chunk, line, "expected 3 fields (id,subject,grade)", b, start, end);
+            return;
+        }
+
+        double grade;
+        try
+        {
+            grade = RosterLoader.parseGrade(b, comma2 + 1, end);
+        }
+        catch (NumberFormatException e)
+        {
+            if (!mayBeHeader)
+            {
+                reject(chunk, line, "grade is not a number", b, start, end);
+            }
+            return;
+        }
+
+        int idStart = skipSpaces(b, start, comma1);
+        int idEnd = trimEnd(b, idStart, comma1);
+        int subjectStart = skipSpaces(b, comma1 + 1, comma2);
+        int subjectEnd = trimEnd(b, subjectStart, comma2);
+        if (idEnd == idStart)
+        {
+            reject(chunk, line, "empty student ID", b, start, end);
+            return;
+        }
+        if (subjectEnd == subjectStart)
+        {
+            reject(chunk, line, "empty subject", b, start, end);
+            return;
+        }
+        if (!(grade >= 0 && grade <= 100))
+        {
+            reject(chunk, line, "grade must be between 0 and 100", b, start, end);
+            return;
+        }
+
+        // A run of rows for the same student only looks the ID up once
+        if (chunk.lastIdEnd - chunk.lastIdStart != idEnd - idStart
+            || !Arrays.equals(b, chunk.lastIdStart, chunk.lastIdEnd, b, idStart, idEnd))
+        {
+            chunk.lastStudent = registry.find(RosterLoader.text(b, idStart, idEnd));
+            chunk.lastIdStart = idStart;
+            chunk.lastIdEnd = idEnd;
+        }
+
+        if (chunk.lastStudent == null)
+        {
+            reject(chunk, line, "no student with ID " + RosterLoader.text(b, idStart, idEnd), b, start, end);
+            return;
+        }
+        chunk.add(chunk.lastStudent, subjectName(chunk, b, subjectStart, subjectEnd), grade, line);
+    }
+
+    private static void reject(Chunk chunk, int line, String reason, byte[] b, int start, int end)
+    {
+        chunk.rejects.add(new Reject(line, reason, RosterLoader.text(b, start, end)));
+    }
+
+    // The subject as a String, reusing the one made for the same bytes earlier in the chunk
+    private static String subjectName(Chunk chunk, byte[] b, int start, int end)
+    {
+        for (int i = 0; i < chunk.subjectCount; i++)
+        {
+            byte[] known = chunk.subjectBytes[i];
+            if (Arrays.equals(known, 0, known.length, b, start, end))
+            {
+                return chunk.subjectNames[i];
+            }
+        }
+
+        String name = RosterLoader.text(b, start, end);
+        if (chunk.subjectCount < SUBJECT_CACHE)
+        {
+            chunk.subjectBytes[chunk.subjectCount] = Arrays.copyOfRange(b, start, end);
+            chunk.subjectNames[chunk.subjectCount] = name;
+            chunk.subjectCount++;
+        }
+        return name;
+    }
+
+    private static int skipSpaces(byte[] b, int start, int end)
+    {
+        while (start < end && (b[start] & 0xFF) <= ' ')
+        {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(byte[] b, int start, int end)
+    {
+        while (end > start && (b[end - 1] & 0xFF) <= ' ')
+        {
+            end--;
+        }
+        return end;
+    }
+}
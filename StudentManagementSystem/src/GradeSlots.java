@@ -0,0 +1,39 @@
+import java.util.List;
+
+/**
+ * GradeSlots interface
+ * Where a Student's grades are kept. Each student owns one slot number.
+ * GradeStore keeps them on the heap; MappedStudentStore keeps them in a
+ * memory-mapped file, so a Student reads and writes straight through to it.
+ */
+public interface GradeSlots
+{
+
+    /**
+     * The grade for a subject (case-insensitive), or null if the slot doesn't have it.
+     */
+    Double get(int slot, String subjectName);
+
+    /**
+     * Sets a subject's grade, adding the subject at the end if it's new.
+     * Returns the old grade, or null if the subject is new.
+     */
+    Double put(int slot, String subjectName, double grade);
+
+    /**
+     * Copies the slot's subjects out as Subject objects, in the order they were added.
+     */
+    List<Subject> subjects(int slot);
+
+    /**
+     * Fills the view with the slot's subjects, in the order they were added,
+     * without allocating anything per subject.
+     */
+    void read(int slot, SubjectView view);
+
+    /**
+     * Adds up the slot's grades in the order they were added, which is the
+     * same total a loop over the subjects list gives, to the last bit.
+     */
+    double sum(int slot);
+}
@@ -0,0 +1,679 @@
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GradeStore class
+ * Holds every grade of every student in a few big primitive arrays instead of
+ * one Subject object (plus map entry and name string) per grade.
+ *
+ *  - Subject names are interned once in a global dictionary and stored as int ids.
+ *  - All grades live in "arenas": subjectIds[] and grades[] side by side.
+ *  - Each student owns a slot; offset / count / capacity say where that student's
+ *    grades are in the arena. When a student outgrows their space the grades are
+ *    moved to the end, and the arena is compacted once too much space is left behind.
+ *
+ * Lookup by subject is a short scan over the student's ints. Students with a lot
+ * of subjects also get entries in a primitive hash table, so an upsert stays O(1)
+ * even for them.
+ *
+ * The store is split into stripes, each with its own arena and its own lock, so
+ * threads working on different students rarely wait for each other. A slot number
+ * carries its stripe in the low bits. The subject dictionary is shared and only
+ * locks when a brand new subject name shows up.
+ *
+ * Student objects are thin views that only remember their slot. A slot is freed
+ * by a Cleaner once its Student object is garbage collected, so a Student that was
+ * removed from the roster but is still referenced somewhere keeps working.
+ */
+public class GradeStore implements GradeSlots
+{
+
+    private static final int STRIPE_BITS = 5;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private static final GradeStore SHARED = new GradeStore();
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    // Students with more subjects than this are also put in the hash index
+    private static final int SCAN_LIMIT = 8;
+
+    private static final int FIRST_CAPACITY = 4;
+
+    // ---- subject dictionary ----
+    // A name's entries in names/foldOf are written before its id goes into idByName,
+    // so any thread that got an id from the map can read them.
+    private final ConcurrentHashMap<String, Integer> idByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> foldIdByKey = new ConcurrentHashMap<>();
+    private final Object dictionaryLock = new Object();
+    private volatile String[] names = new String[16];
+    private volatile int[] foldOf = new int[16];
+    private int nameCount; // guarded by dictionaryLock
+
+    private final Stripe[] stripes;
+
+    public GradeStore()
+    {
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+        {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public static GradeStore shared()
+    {
+        return SHARED;
+    }
+
+    // -------------------------
+    // Public API (slot = local slot << STRIPE_BITS | stripe)
+    // -------------------------
+
+    /**
+     * Gives the owner a new empty slot, freed again when the owner is collected.
+     * Each thread allocates from its own stripe, so parallel loaders don't collide.
+     */
+    public int allocate(Object owner)
+    {
+        int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+        int slot = (stripes[stripe].allocate() << STRIPE_BITS) | stripe;
+
+        CLEANER.register(owner, new SlotReleaser(this, slot));
+        return slot;
+    }
+
+    public int size(int slot)
+    {
+        return stripe(slot).size(local(slot));
+    }
+
+    /**
+     * The grade for a subject (case-insensitive), or null if the slot doesn't have it.
+     */
+    @Override
+    public Double get(int slot, String subjectName)
+    {
+        Integer fold = foldIdByKey.get(StudentRegistry.foldKey(subjectName));
+        return fold == null ? null : stripe(slot).get(local(slot), fold);
+    }
+
+    /**
+     * Sets a subject's grade, adding the subject at the end if it's new.
+     * Returns the old grade, or null if the subject is new.
+     */
+    @Override
+    public Double put(int slot, String subjectName, double grade)
+    {
+        int id = intern(subjectName);
+        return stripe(slot).put(local(slot), id, foldOf[id], grade);
+    }
+
+    /**
+     * Copies the slot's subjects out as Subject objects, in the order they were added.
+     */
+    @Override
+    public List<Subject> subjects(int slot)
+    {
+        return stripe(slot).subjects(local(slot));
+    }
+
+    @Override
+    public void read(int slot, SubjectView view)
+    {
+        stripe(slot).read(local(slot), view);
+    }
+
+    @Override
+    public double sum(int slot)
+    {
+        return stripe(slot).sum(local(slot));
+    }
+
+    private Stripe stripe(int slot)
+    {
+        return stripes[slot & (STRIPES - 1)];
+    }
+
+    private static int local(int slot)
+    {
+        return slot >>> STRIPE_BITS;
+    }
+
+    /**
+     * Runs on the Cleaner thread. Must not refer to the Student itself.
+     */
+    private static final class SlotReleaser implements Runnable
+    {
+        private final GradeStore store;
+        private final int slot;
+
+        SlotReleaser(GradeStore store, int slot)
+        {
+            this.store = store;
+            this.slot = slot;
+        }
+
+        @Override
+        public void run()
+        {
+            store.stripe(slot).release(local(slot));
+        }
+    }
+
+    // -------------------------
+    // Subject dictionary
+    // -------------------------
+
+    private int intern(String subjectName)
+    {
+        Integer id = idByName.get(subjectName);
+        if (id != null)
+        {
+            return id;
+        }
+
+        synchronized (dictionaryLock)
+        {
+            id = idByName.get(subjectName);
+            if (id != null)
+            {
+                return id;
+            }
+
+            int newId = nameCount++;
+            String key = StudentRegistry.foldKey(subjectName);
+            Integer fold = foldIdByKey.get(key);
+            if (fold == null)
+            {
+                fold = foldIdByKey.size();
+                foldIdByKey.put(key, fold);
+            }
+
+            String[] n = names;
+            int[] f = foldOf;
+            if (newId == n.length)
+            {
+                n = Arrays.copyOf(n, newId * 2);
+                f = Arrays.copyOf(f, newId * 2);
+            }
+            n[newId] = subjectName;
+            f[newId] = fold;
+            names = n;
+            foldOf = f;
+
+            idByName.put(subjectName, newId);
+            return newId;
+        }
+    }
+
+    // -------------------------
+    // Memory report
+    // -------------------------
+
+    /**
+     * Compares the bytes used per grade here with an estimate of the old layout
+     * (a Subject object in a LinkedHashMap keyed by a folded name string),
+     * assuming a 64-bit JVM with compressed pointers.
+     */
+    public String memoryReport()
+    {
+        long[] totals = new long[7];
+        for (Stripe s : stripes)
+        {
+            s.addStats(totals);
+        }
+        long liveSlots = totals[0];
+        long gradeCount = totals[1];
+        long arenaBytes = totals[2];
+        long slotBytes = totals[5];
+        long indexBytes = totals[6];
+
+        int nameTotal;
+        long nameChars = 0;
+        long dictionaryBytes = 0;
+        synchronized (dictionaryLock)
+        {
+            nameTotal = nameCount;
+            for (int i = 0; i < nameCount; i++)
+            {
+                dictionaryBytes += stringBytes(names[i].length()) * 2 + 32 * 2; // name + fold key, two map entries
+                nameChars += names[i].length();
+            }
+            dictionaryBytes += (long) foldOf.length * 4 + (long) names.length * 4;
+        }
+        long total = arenaBytes + slotBytes + indexBytes + dictionaryBytes;
+
+        // Old layout per grade: Subject (24) + LinkedHashMap.Entry (40) + table slot (~5)
+        // + its own name String + a folded key String
+        int averageName = nameTotal == 0 ? 4 : (int) Math.max(1, nameChars / nameTotal);
+        long oldPerGrade = 24 + 40 + 5 + 2 * stringBytes(averageName);
+        long oldPerStudent = 48 + 16; // LinkedHashMap + empty table
+
+        StringBuilder report = new StringBuilder();
+        report.append("=== Grade Store Memory ===\n");
+        report.append("Students (slots in use): ").append(liveSlots).append('\n');
+        report.append("Grades                 : ").append(gradeCount).append('\n');
+        report.append("Distinct subject names : ").append(nameTotal).append('\n');
+        report.append("Arena                  : ").append(arenaBytes).append(" bytes (")
+            .append(totals[3]).append(" used of ").append(totals[4]).append(" entries, ")
+            .append(STRIPES).append(" stripes)\n");
+        report.append("Slot tables            : ").append(slotBytes).append(" bytes\n");
+        report.append("Large-student index    : ").append(indexBytes).append(" bytes\n");
+        report.append("Dictionary             : ").append(dictionaryBytes).append(" bytes\n");
+        if (gradeCount > 0)
+        {
+            double perGradeNow = (double) total / gradeCount;
+            double perGradeBefore = oldPerGrade + (double) oldPerStudent * liveSlots / gradeCount;
+            report.append(String.format("Bytes per grade now    : %.1f%n", perGradeNow));
+            report.append(String.format("Bytes per grade before : %.1f (estimated object layout)%n", perGradeBefore));
+        }
+        return report.toString();
+    }
+
+    private static long stringBytes(int length)
+    {
+        // String header and fields (24) + byte[] header (16) + Latin-1 bytes, rounded to 8
+        return 24 + ((16 + length + 7) / 8) * 8;
+    }
+
+    // -------------------------
+    // One stripe
+    // -------------------------
+
+    /**
+     * An arena with its own slots and its own lock. Slot numbers in here are local.
+     */
+    private final class Stripe
+    {
+        // ---- per-student slots ----
+        private int[] offset = new int[64];
+        private int[] count = new int[64];
+        private int[] capacity = new int[64];
+        private int slotCount;
+        private int[] freeSlots = new int[16];
+        private int freeCount;
+        private int liveSlots;
+
+        // ---- the arena ----
+        private int[] subjectIds = new int[256];
+        private double[] grades = new double[256];
+        private int top;
+        private long wasted;
+        private long gradeCount;
+
+        // ---- (slot, fold id) -> position, only for students with many subjects ----
+        private final LongIntTable bigStudents = new LongIntTable();
+
+        synchronized int allocate()
+        {
+            int slot;
+            if (freeCount > 0)
+            {
+                slot = freeSlots[--freeCount];
+            }
+            else
+            {
+                if (slotCount == offset.length)
+                {
+                    int size = offset.length * 2;
+                    offset = Arrays.copyOf(offset, size);
+                    count = Arrays.copyOf(count, size);
+                    capacity = Arrays.copyOf(capacity, size);
+                }
+                slot = slotCount++;
+            }
+            offset[slot] = 0;
+            count[slot] = 0;
+            capacity[slot] = 0;
+            liveSlots++;
+            return slot;
+        }
+
+        synchronized void release(int slot)
+        {
+            int n = count[slot];
+            if (n > SCAN_LIMIT)
+            {
+                int[] folds = foldOf;
+                for (int i = 0; i < n; i++)
+                {
+                    bigStudents.remove(key(slot, folds[subjectIds[offset[slot] + i]]));
+                }
+            }
+
+            gradeCount -= n;
+            wasted += capacity[slot];
+            count[slot] = 0;
+            capacity[slot] = 0;
+            liveSlots--;
+
+            if (freeCount == freeSlots.length)
+            {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            maybeCompact();
+        }
+
+        synchronized int size(int slot)
+        {
+            return count[slot];
+        }
+
+        synchronized Double get(int slot, int fold)
+        {
+            int position = findFold(slot, fold);
+            return position < 0 ? null : grades[offset[slot] + position];
+        }
+
+        synchronized List<Subject> subjects(int slot)
+        {
+            String[] n = names;
+            int start = offset[slot];
+            List<Subject> result = new ArrayList<>(count[slot]);
+            for (int i = 0; i < count[slot]; i++)
+            {
+                result.add(new Subject(n[subjectIds[start + i]], grades[start + i]));
+            }
+            return result;
+        }
+
+        synchronized void read(int slot, SubjectView view)
+        {
+            String[] n = names;
+            int start = offset[slot];
+            int size = count[slot];
+            view.reset(size);
+            for (int i = 0; i < size; i++)
+            {
+                view.set(i, n[subjectIds[start + i]], grades[start + i]);
+            }
+        }
+
+        synchronized double sum(int slot)
+        {
+            int start = offset[slot];
+            double sum = 0.0;
+            for (int i = 0; i < count[slot]; i++)
+            {
+                sum += grades[start + i];
+            }
+            return sum;
+        }
+
+        synchronized Double put(int slot, int id, int fold, double grade)
+        {
+            int position = findFold(slot, fold);
+
+            if (position >= 0)
+            {
+                int at = offset[slot] + position;
+                double old = grades[at];
+                grades[at] = grade;
+                return old;
+            }
+
+            int n = count[slot];
+            if (n == capacity[slot])
+            {
+                grow(slot);
+            }
+
+            int at = offset[slot] + n;
+            subjectIds[at] = id;
+            grades[at] = grade;
+            count[slot] = n + 1;
+            gradeCount++;
+
+            if (n + 1 > SCAN_LIMIT)
+            {
+                if (n == SCAN_LIMIT)
+                {
+                    // Just crossed the limit: index the subjects that were only scanned so far
+                    int[] folds = foldOf;
+                    for (int i = 0; i < n; i++)
+                    {
+                        bigStudents.put(key(slot, folds[subjectIds[offset[slot] + i]]), i);
+                    }
+                }
+                bigStudents.put(key(slot, fold), n);
+            }
+            return null;
+        }
+
+        private int findFold(int slot, int fold)
+        {
+            int n = count[slot];
+            if (n > SCAN_LIMIT)
+            {
+                return bigStudents.get(key(slot, fold));
+            }
+
+            int[] folds = foldOf;
+            int start = offset[slot];
+            for (int i = 0; i < n; i++)
+            {
+                if (folds[subjectIds[start + i]] == fold)
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Makes room for one more grade. A slot at the very end of the arena (the
+         * usual case while a student is being filled in) just grows in place by one;
+         * any other full slot is moved to the end with twice the room.
+         */
+        private void grow(int slot)
+        {
+            int oldCapacity = capacity[slot];
+            if (oldCapacity > 0 && offset[slot] + oldCapacity == top)
+            {
+                ensureArena(top + 1);
+                capacity[slot] = oldCapacity + 1;
+                top++;
+                return;
+            }
+
+            int newCapacity = oldCapacity == 0 ? FIRST_CAPACITY : oldCapacity * 2;
+
+            ensureArena(top + newCapacity);
+            System.arraycopy(subjectIds, offset[slot], subjectIds, top, count[slot]);
+            System.arraycopy(grades, offset[slot], grades, top, count[slot]);
+
+            wasted += oldCapacity;
+            offset[slot] = top;
+            capacity[slot] = newCapacity;
+            top += newCapacity;
+            maybeCompact();
+        }
+
+        private void ensureArena(int needed)
+        {
+            if (needed > subjectIds.length)
+            {
+                int size = Math.max(needed, subjectIds.length + (subjectIds.length >> 1));
+                subjectIds = Arrays.copyOf(subjectIds, size);
+                grades = Arrays.copyOf(grades, size);
+            }
+        }
+
+        /**
+         * Squeezes out the space left behind by moved and freed slots once it is
+         * more than half the arena. Positions inside a slot don't change, so the
+         * hash index stays valid.
+         */
+        private void maybeCompact()
+        {
+            if (top < 4096 || wasted * 2 < top)
+            {
+                return;
+            }
+
+            int live = top - (int) wasted;
+            int[] newIds = new int[Math.max(live + (live >> 1), 256)];
+            double[] newGrades = new double[newIds.length];
+            int next = 0;
+
+            for (int slot = 0; slot < slotCount; slot++)
+            {
+                int cap = capacity[slot];
+                if (cap == 0)
+                {
+                    continue;
+                }
+                System.arraycopy(subjectIds, offset[slot], newIds, next, count[slot]);
+                System.arraycopy(grades, offset[slot], newGrades, next, count[slot]);
+                offset[slot] = next;
+                next += cap;
+            }
+
+            subjectIds = newIds;
+            grades = newGrades;
+            top = next;
+            wasted = 0;
+        }
+
+        /**
+         * Adds this stripe's numbers to totals: live slots, grades, arena bytes,
+         * used entries, arena entries, slot table bytes, hash index bytes.
+         */
+        synchronized void addStats(long[] totals)
+        {
+            totals[0] += liveSlots;
+            totals[1] += gradeCount;
+            totals[2] += (long) subjectIds.length * (4 + 8);
+            totals[3] += top - wasted;
+            totals[4] += subjectIds.length;
+            totals[5] += (long) offset.length * 3 * 4 + (long) freeSlots.length * 4;
+            totals[6] += bigStudents.bytes();
+        }
+    }
+
+    private static long key(int slot, int fold)
+    {
+        return ((long) slot << 32) | (fold & 0xFFFFFFFFL);
+    }
+
+    // -------------------------
+    // Primitive hash table
+    // -------------------------
+
+    /**
+     * Open-addressing long -> int map with linear probing, no boxing.
+     * Deletion shifts later entries back so lookups never need tombstones.
+     */
+    private static final class LongIntTable
+    {
+        private static final long EMPTY = -1L;
+
+        private long[] keys = newKeys(16);
+        private int[] values = new int[16];
+        private int size;
+
+        private static long[] newKeys(int n)
+        {
+            long[] k = new long[n];
+            Arrays.fill(k, EMPTY);
+            return k;
+        }
+
+        private int slotOf(long key, int mask)
+        {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        int get(long key)
+        {
+            int mask = keys.length - 1;
+            for (int i = slotOf(key, mask); ; i = (i + 1) & mask)
+            {
+                if (keys[i] == key)
+                {
+                    return values[i];
+                }
+                if (keys[i] == EMPTY)
+                {
+                    return -1;
+                }
+            }
+        }
+
+        void put(long key, int value)
+        {
+            if ((size + 1) * 2 > keys.length)
+            {
+                resize(keys.length * 2);
+            }
+
+            int mask = keys.length - 1;
+            int i = slotOf(key, mask);
+            while (keys[i] != EMPTY && keys[i] != key)
+            {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY)
+            {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        void remove(long key)
+        {
+            int mask = keys.length - 1;
+            int i = slotOf(key, mask);
+            while (keys[i] != key)
+            {
+                if (keys[i] == EMPTY)
+                {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+
+            // Shift following entries back into the gap if their home allows it
+            int gap = i;
+            for (int j = (gap + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask)
+            {
+                int home = slotOf(keys[j], mask);
+                if (((j - home) & mask) >= ((j - gap) & mask))
+                {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+            keys[gap] = EMPTY;
+            size--;
+        }
+
+        private void resize(int n)
+        {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = newKeys(n);
+            values = new int[n];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++)
+            {
+                if (oldKeys[i] != EMPTY)
+                {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        long bytes()
+        {
+            return (long) keys.length * 8 + (long) values.length * 4;
+        }
+    }
+}
@@ -1,65 +1,86 @@
-/**
- * HonorsStudent class
- * This class extends Student and slightly boosts the average grade.
- * It shows an example of inheritance and polymorphism in the project.
- */
-public class HonorsStudent extends Student 
-{
-
-    // Extra field just for honors students
-    private double bonusPoints;
-
-    /**
-     * Basic constructor for an honors student.
-     * Uses the Student constructor for id and name.
-     */
-    public HonorsStudent(String id, String name) 
-    {
-        super(id, name);
-        this.bonusPoints = 5.0; // small bonus to show different behavior
-    }
-
-    /**
-     * Constructor that lets us choose the bonus amount.
-     */
-    public HonorsStudent(String id, String name, double bonusPoints) 
-    {
-        super(id, name);
-        this.bonusPoints = bonusPoints;
-    }
-
-    /**
-     * Overrides the normal calculateAverage to add a small bonus.
-     * This is where polymorphism happens: if a Student variable
-     * actually refers to an HonorsStudent object, this version
-     * will run instead of the one in Student.
-     */
-    @Override
-    public double calculateAverage() 
-    {
-        double baseAverage = super.calculateAverage();
-
-        // If there are no subjects yet, just return 0.0
-        if (baseAverage == 0.0) 
-        {
-            return 0.0;
-        }
-
-        double withBonus = baseAverage + bonusPoints;
-
-        // Keep the grade between 0 and 100
-        if (withBonus > 100.0) 
-        {
-            withBonus = 100.0;
-        }
-
-        return withBonus;
-    }
-
-    @Override
-    public void printDetails() 
-    {
-        System.out.println("[Honors Student]");
-        super.printDetails();
-    }
-}
+/**
+ * HonorsStudent class
+ * This class extends Student and slightly boosts the average grade.
+ * It shows an example of inheritance and polymorphism in the project.
+ */
+public class HonorsStudent extends Student 
+{
+
+    // Extra field just for honors students
+    private double bonusPoints;
+
+    /**
+     * Basic constructor for an honors student.
+     * Uses the Student constructor for id and name.
+     */
+    public HonorsStudent(String id, String name) 
+    {
+        super(id, name);
+        this.bonusPoints = 5.0; // small bonus to show different behavior
+    }
+
+    /**
+     * Constructor that lets us choose the bonus amount.
+     */
+    public HonorsStudent(String id, String name, double bonusPoints) 
+    {
+        super(id, name);
+        this.bonusPoints = bonusPoints;
+    }
+
+    /**
+     * An honors student whose grades are already in another store (see Student).
+     */
+    HonorsStudent(String id, String name, double bonusPoints, GradeSlots store, int slot, int subjectCount, double gradeSum) 
+    {
+        super(id, name, store, slot, subjectCount, gradeSum);
+        this.bonusPoints = bonusPoints;
+    }
+
+    public double getBonusPoints() 
+    {
+        return bonusPoints;
+    }
+
+    /**
+     * Overrides the normal calculateAverage to add a small bonus.
+     * This is where polymorphism happens: if a Student variable
+     * actually refers to an HonorsStudent object, this version
+     * will run instead of the one in Student.
+     * The base average comes from Student's running total, so this is O(1) too.
+     */
+    @Override
+    public double calculateAverage() 
+    {
+        double baseAverage = super.calculateAverage();
+
+        // If there are no subjects yet, just return 0.0
+        if (baseAverage == 0.0) 
+        {
+            return 0.0;
+        }
+
+        double withBonus = baseAverage + bonusPoints;
+
+        // Keep the grade between 0 and 100
+        if (withBonus > 100.0) 
+        {
+            withBonus = 100.0;
+        }
+
+        return withBonus;
+    }
+
+    @Override
+    Student frozenCopy(GradeSlots grades, int subjectCount, double gradeSum) 
+    {
+        return new HonorsStudent(getId(), getName(), bonusPoints, grades, 0, subjectCount, gradeSum);
+    }
+
+    @Override
+    public void writeDetails(ReportWriter out) 
+    {
+        out.line("[Honors Student]");
+        super.writeDetails(out);
+    }
+}
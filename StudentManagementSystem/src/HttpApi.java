@@ -0,0 +1,662 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HttpApi class
+ * A small JSON API over StudentManagementSystem, using the JDK's built-in HttpServer.
+ * Every request runs on its own virtual thread, so thousands of slow or idle
+ * clients don't tie up platform threads. The registry underneath is thread-safe.
+ *
+ *   GET    /students?from=0&count=100          students in the order they were added
+ *   GET    /students?name=Mar&from=0&count=100 names starting with "Mar", in name order
+ *   GET    /students?like=Marc&distance=1      names within 1 typo of "Marc", closest first
+ *   GET    /students?where=average<60&from=0&count=100   students matching a query (see StudentQuery.parse)
+ *   POST   /students                           {"id": "...", "name": "...", "honors": false}
+ *   GET    /students/{id}                      one student with all grades
+ *   PUT    /students/{id}                      {"name": "..."} renames
+ *   DELETE /students/{id}
+ *   PUT    /students/{id}/grades/{subject}     {"grade": 91.5} adds or updates
+ *   POST   /grades/bulk                        [{"id": "...", "subject": "...", "grade": 80}, ...]
+ *   GET    /reports/averages?from=0&count=100  same rows as "average grade for each student"
+ *   GET    /reports/sorted?from=0&count=100    leaderboard rows, best average first
+ *   GET    /reports/rank/{id}                  a student's leaderboard rank
+ *   GET    /reports/subject/{subject}          highest and lowest grade for a subject
+ *   GET    /reports/count?where=...            how many students match a query
+ *
+ * Errors come back as {"error": "..."} with a 4xx/5xx status. A body larger
+ * than MAX_BODY_BYTES gets a 413, and JSON nested deeper than Json.MAX_DEPTH a 400.
+ * A 500 only says "Internal error"; what went wrong is printed on the server's
+ * standard error.
+ */
+public class HttpApi implements AutoCloseable
+{
+
+    public static final int MAX_PAGE = 10000;
+
+    // Bigger request bodies are refused (413) instead of read into memory
+    public static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    private static final int DEFAULT_PAGE = 100;
+
+    /**
+     * Thrown by a handler to answer with an error status.
+     */
+    private static final class ApiException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        ApiException(int status, String message)
+        {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final StudentManagementSystem sms;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private HttpApi(StudentManagementSystem sms, HttpServer server, ExecutorService executor)
+    {
+        this.sms = sms;
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts serving on the port (0 picks a free one).
+     */
+    public static HttpApi start(StudentManagementSystem sms, int port) throws IOException
+    {
+        // A deep accept queue so a burst of new clients isn't refused
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 4096);
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpApi api = new HttpApi(sms, server, executor);
+
+        server.createContext("/", api::handle);
+        server.setExecutor(executor);
+        server.start();
+        return api;
+    }
+
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.close();
+    }
+
+    // -------------------------
+    // Routing
+    // -------------------------
+
+    private void handle(HttpExchange exchange)
+    {
+        // Answered even if the handler fails with an Error (which still goes on up)
+        int status = 500;
+        String body = error("Internal error");
+        try
+        {
+            String[] path = segments(exchange.getRequestURI().getRawPath());
+            Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+
+            StringBuilder out = new StringBuilder(256);
+            status = route(method, path, query, exchange, out);
+            body = out.toString();
+        }
+        catch (ApiException e)
+        {
+            status = e.status;
+            body = error(e.getMessage());
+        }
+        catch (IllegalArgumentException e)
+        {
+            status = 400;
+            body = error(e.getMessage());
+        }
+        catch (RuntimeException | IOException e)
+        {
+            // The details stay in the server's log; the client only learns it failed
+            System.err.println("Internal error answering " + exchange.getRequestMethod() + " "
+                + exchange.getRequestURI() + ":");
+            e.printStackTrace();
+            status = 500;
+            body = error("Internal error");
+        }
+        finally
+        {
+            send(exchange, status, body);
+        }
+    }
+
+    /**
+     * Picks the handler for a request. Returns the status; the body goes in out.
+     */
+    private int route(String method, String[] path, Map<String, String> query,
+                      HttpExchange exchange, StringBuilder out) throws IOException
+    {
+        if (path.length >= 1 && path[0].equals("students"))
+        {
+            if (path.length == 1)
+            {
+                if (method.equals("GET") && query.containsKey("where"))
+                {
+                    return queryStudents(query, out);
+                }
+                if (method.equals("GET") && (query.containsKey("name") || query.containsKey("like")))
+                {
+                    return searchStudents(query, out);
+                }
+                if (method.equals("GET"))
+                {
+                    return listStudents(query, out, false);
+                }
+                if (method.equals("POST"))
+                {
+                    return createStudent(readObject(exchange), out);
+                }
+            }
+            else if (path.length == 2)
+            {
+                switch (method)
+                {
+                    case "GET":
+                        writeStudent(out, existing(path[1]), true);
+                        return 200;
+                    case "PUT":
+                        return renameStudent(existing(path[1]), readObject(exchange), out);
+                    case "DELETE":
+                        if (!sms.removeStudent(path[1]))
+                        {
+                            throw new ApiException(404, "Student not found: " + path[1]);
+                        }
+                        out.append("{\"removed\":");
+                        Json.quote(out, path[1]).append('}');
+                        return 200;
+                    default:
+                        break;
+                }
+            }
+            else if (path.length == 4 && path[2].equals("grades") && method.equals("PUT"))
+            {
+                Student s = existing(path[1]);
+                s.addOrUpdateSubject(path[3], grade(readObject(exchange).get("grade")));
+                writeStudent(out, s, true);
+                return 200;
+            }
+        }
+        else if (path.length == 2 && path[0].equals("grades") && path[1].equals("bulk") && method.equals("POST"))
+        {
+            return bulkGrades(readBody(exchange), out);
+        }
+        else if (path.length >= 2 && path[0].equals("reports") && method.equals("GET"))
+        {
+            switch (path[1])
+            {
+                case "averages":
+                    if (path.length == 2)
+                    {
+                        return listStudents(query, out, true);
+                    }
+                    break;
+                case "sorted":
+                    if (path.length == 2)
+                    {
+                        return sortedReport(query, out);
+                    }
+                    break;
+                case "rank":
+                    if (path.length == 3)
+                    {
+                        Student s = existing(path[2]);
+                        out.append("{\"id\":");
+                        Json.quote(out, s.getId()).append(",\"rank\":").append(sms.getLeaderboardRank(path[2])).append('}');
+                        return 200;
+                    }
+                    break;
+                case "subject":
+                    if (path.length == 3)
+                    {
+                        return subjectReport(path[2], out);
+                    }
+                    break;
+                case "count":
+                    if (path.length == 2)
+                    {
+                        StudentQuery q = sms.query(StudentQuery.parse(required(query, "where")));
+                        out.append("{\"count\":").append(q.count()).append(",\"plan\":");
+                        Json.quote(out, q.plan()).append('}');
+                        return 200;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        throw new ApiException(404, "No such endpoint: " + method + " /" + String.join("/", path));
+    }
+
+    // -------------------------
+    // Handlers
+    // -------------------------
+
+    private int listStudents(Map<String, String> query, StringBuilder out, boolean averagesOnly)
+    {
+        int from = intParam(query, "from", 0);
+        int count = Math.min(intParam(query, "count", DEFAULT_PAGE), MAX_PAGE);
+
+        out.append("{\"total\":").append(sms.getStudentCount()).append(",\"students\":[");
+        List<Student> page = sms.studentsPage(from, count);
+        for (int i = 0; i < page.size(); i++)
+        {
+            if (i > 0)
+            {
+                out.append(',');
+            }
+            writeStudent(out, page.get(i), !averagesOnly);
+        }
+        out.append("]}");
+        return 200;
+    }
+
+    private int searchStudents(Map<String, String> query, StringBuilder out)
+    {
+        int from = intParam(query, "from", 0);
+        int count = Math.min(intParam(query, "count", DEFAULT_PAGE), MAX_PAGE);
+
+        NameIndex.Page page;
+        if (query.containsKey("name"))
+        {
+            page = sms.searchByName(query.get("name"), from, count);
+        }
+        else
+        {
+            page = sms.fuzzySearchByName(query.get("like"), intParam(query, "distance", 1), from, count);
+        }
+
+        out.append("{\"total\":").append(page.total).append(",\"students\":[");
+        for (int i = 0; i < page.matches.size(); i++)
+        {
+            NameIndex.Match m = page.matches.get(i);
+            if (i > 0)
+            {
+                out.append(',');
+            }
+            out.append("{\"id\":");
+            Json.quote(out, m.student.getId()).append(",\"name\":");
+            Json.quote(out, m.name).append(",\"distance\":").append(m.distance).append('}');
+        }
+        out.append("]}");
+        return 200;
+    }
+
+    private int queryStudents(Map<String, String> query, StringBuilder out)
+    {
+        int from = intParam(query, "from", 0);
+        int count = Math.min(intParam(query, "count", DEFAULT_PAGE), MAX_PAGE);
+        StudentQuery q = sms.query(StudentQuery.parse(query.get("where")));
+
+        // Only the requested page is pulled from the query, so there is no total here
+        // (GET /reports/count gives it)
+        out.append("{\"plan\":");
+        Json.quote(out, q.plan()).append(",\"students\":[");
+        Iterator<Student> it = q.stream().skip(from).limit(count).iterator();
+        for (int i = 0; it.hasNext(); i++)
+        {
+            if (i > 0)
+            {
+                out.append(',');
+            }
+            writeStudent(out, it.next(), false);
+        }
+        out.append("]}");
+        return 200;
+    }
+
+    private int createStudent(Map<String, Object> body, StringBuilder out)
+    {
+        String id = text(body, "id");
+        String name = text(body, "name");
+        boolean honors = Boolean.TRUE.equals(body.get("honors"));
+
+        if (!sms.tryAddStudent(id, name, honors))
+        {
+            throw new ApiException(409, "Student with ID " + id + " already exists.");
+        }
+        writeStudent(out, sms.findStudentById(id), true);
+        return 201;
+    }
+
+    private int renameStudent(Student s, Map<String, Object> body, StringBuilder out)
+    {
+        s.setName(text(body, "name"));
+        writeStudent(out, s, true);
+        return 200;
+    }
+
+    /**
+     * Applies every valid row and reports the bad ones by position.
+     */
+    private int bulkGrades(String body, StringBuilder out)
+    {
+        Object parsed = Json.parse(body);
+        if (!(parsed instanceof List))
+        {
+            throw new IllegalArgumentException("Expected a JSON array of grades");
+        }
+
+        int applied = 0;
+        StringBuilder rejected = new StringBuilder();
+        int index = 0;
+        for (Object item : (List<?>) parsed)
+        {
+            String reason = null;
+            try
+            {
+                if (!(item instanceof Map))
+                {
+                    throw new IllegalArgumentException("not an object");
+                }
+                Map<?, ?> row = (Map<?, ?>) item;
+                Student s = sms.findStudentById(textValue(row.get("id"), "id"));
+                if (s == null)
+                {
+                    reason = "Student not found.";
+                }
+                else
+                {
+                    s.addOrUpdateSubject(textValue(row.get("subject"), "subject"), grade(row.get("grade")));
+                    applied++;
+                }
+            }
+            catch (IllegalArgumentException e)
+            {
+                reason = e.getMessage();
+            }
+
+            if (reason != null)
+            {
+                if (rejected.length() > 0)
+                {
+                    rejected.append(',');
+                }
+                rejected.append("{\"index\":").append(index).append(",\"reason\":");
+                Json.quote(rejected, reason).append('}');
+            }
+            index++;
+        }
+
+        out.append("{\"applied\":").append(applied).append(",\"rejected\":[").append(rejected).append("]}");
+        return 200;
+    }
+
+    private int sortedReport(Map<String, String> query, StringBuilder out)
+    {
+        int from = intParam(query, "from", 0);
+        int count = Math.min(intParam(query, "count", DEFAULT_PAGE), MAX_PAGE);
+
+        out.append("{\"total\":").append(sms.getStudentCount()).append(",\"students\":[");
+        int rank = from + 1;
+        for (Student s : sms.leaderboardPage(from, count))
+        {
+            if (rank > from + 1)
+            {
+                out.append(',');
+            }
+            out.append("{\"rank\":").append(rank++).append(",\"id\":");
+            Json.quote(out, s.getId()).append(",\"name\":");
+            Json.quote(out, s.getName()).append(",\"average\":");
+            Json.number(out, s.calculateAverage()).append('}');
+        }
+        out.append("]}");
+        return 200;
+    }
+
+    private int subjectReport(String subject, StringBuilder out)
+    {
+        SubjectIndex index = sms.getSubjectIndex(subject);
+        Student highest = null;
+        Student lowest = null;
+        Double highestGrade = null;
+        Double lowestGrade = null;
+        if (index != null)
+        {
+            synchronized (index)
+            {
+                highest = index.highest();
+                lowest = index.lowest();
+                highestGrade = index.highestGrade();
+                lowestGrade = index.lowestGrade();
+            }
+        }
+        if (highest == null)
+        {
+            throw new ApiException(404, "No grades found for subject: " + subject);
+        }
+
+        out.append("{\"subject\":");
+        Json.quote(out, subject).append(",\"count\":").append(index.size());
+        out.append(",\"highest\":{\"id\":");
+        Json.quote(out, highest.getId()).append(",\"name\":");
+        Json.quote(out, highest.getName()).append(",\"grade\":");
+        Json.number(out, highestGrade).append("},\"lowest\":{\"id\":");
+        Json.quote(out, lowest.getId()).append(",\"name\":");
+        Json.quote(out, lowest.getName()).append(",\"grade\":");
+        Json.number(out, lowestGrade).append("}}");
+        return 200;
+    }
+
+    // -------------------------
+    // Helpers
+    // -------------------------
+
+    private Student existing(String id)
+    {
+        Student s = sms.findStudentById(id);
+        if (s == null)
+        {
+            throw new ApiException(404, "Student not found: " + id);
+        }
+        return s;
+    }
+
+    private static void writeStudent(StringBuilder out, Student s, boolean withGrades)
+    {
+        out.append("{\"id\":");
+        Json.quote(out, s.getId()).append(",\"name\":");
+        Json.quote(out, s.getName());
+        out.append(",\"honors\":").append(s instanceof HonorsStudent);
+        out.append(",\"average\":");
+        Json.number(out, s.calculateAverage());
+
+        if (withGrades)
+        {
+            out.append(",\"subjects\":[");
+            SubjectView subjects = s.readSubjects(new SubjectView());
+            for (int i = 0; i < subjects.size(); i++)
+            {
+                if (i > 0)
+                {
+                    out.append(',');
+                }
+                out.append("{\"name\":");
+                Json.quote(out, subjects.name(i)).append(",\"grade\":");
+                Json.number(out, subjects.grade(i)).append('}');
+            }
+            out.append(']');
+        }
+        out.append('}');
+    }
+
+    /**
+     * Same rule as the menu: a number from 0 to 100.
+     */
+    private static double grade(Object value)
+    {
+        if (!(value instanceof Double))
+        {
+            throw new IllegalArgumentException("grade must be a number");
+        }
+        double grade = (Double) value;
+        if (!(grade >= 0 && grade <= 100))
+        {
+            throw new IllegalArgumentException("Grade must be between 0 and 100.");
+        }
+        return grade;
+    }
+
+    private static String text(Map<String, Object> body, String field)
+    {
+        return textValue(body.get(field), field);
+    }
+
+    private static String textValue(Object value, String field)
+    {
+        if (!(value instanceof String) || ((String) value).trim().isEmpty())
+        {
+            throw new IllegalArgumentException(field + " must be a non-empty string");
+        }
+        return ((String) value).trim();
+    }
+
+    private static String required(Map<String, String> query, String name)
+    {
+        String value = query.get(name);
+        if (value == null || value.trim().isEmpty())
+        {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        return value;
+    }
+
+    private static int intParam(Map<String, String> query, String name, int fallback)
+    {
+        String value = query.get(name);
+        if (value == null)
+        {
+            return fallback;
+        }
+        try
+        {
+            int n = Integer.parseInt(value);
+            if (n < 0)
+            {
+                throw new IllegalArgumentException(name + " can't be negative");
+            }
+            return n;
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readObject(HttpExchange exchange) throws IOException
+    {
+        Object parsed = Json.parse(readBody(exchange));
+        if (!(parsed instanceof Map))
+        {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        return (Map<String, Object>) parsed;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException
+    {
+        try (InputStream in = exchange.getRequestBody())
+        {
+            // Read one byte past the limit to tell a body that is too big
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES)
+            {
+                // Skip the rest without keeping it, so the client gets the answer
+                // instead of a connection reset in the middle of its upload
+                in.transferTo(OutputStream.nullOutputStream());
+                throw new ApiException(413, "Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String[] segments(String rawPath)
+    {
+        List<String> parts = new ArrayList<>();
+        for (String part : rawPath.split("/"))
+        {
+            if (!part.isEmpty())
+            {
+                parts.add(URLDecoder.decode(part.replace("+", "%2B"), StandardCharsets.UTF_8));
+            }
+        }
+        return parts.toArray(new String[0]);
+    }
+
+    private static Map<String, String> query(String rawQuery)
+    {
+        Map<String, String> result = new HashMap<>();
+        if (rawQuery == null)
+        {
+            return result;
+        }
+        for (String pair : rawQuery.split("&"))
+        {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+            {
+                result.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    private static String error(String message)
+    {
+        StringBuilder out = new StringBuilder("{\"error\":");
+        return Json.quote(out, message == null ? "" : message).append('}').toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String body)
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        try
+        {
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(bytes);
+            }
+        }
+        catch (IOException e)
+        {
+            // The client went away; nothing more to do
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+}
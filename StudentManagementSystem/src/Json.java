@@ -0,0 +1,346 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Json class
+ * Just enough JSON for the HTTP API, with no outside library.
+ *
+ * parse() turns text into Map (objects, keys in order), List (arrays), String,
+ * Double (every number), Boolean or null, and throws IllegalArgumentException
+ * with the position for anything malformed (or nested deeper than MAX_DEPTH,
+ * so a request can't run the parser out of stack).
+ * quote() escapes a string for writing; the API builds its responses with a
+ * StringBuilder and these helpers.
+ */
+public class Json
+{
+
+    public static final int MAX_DEPTH = 64;
+
+    private final String text;
+    private int pos;
+    private int depth;  // objects and arrays open around pos
+
+    private Json(String text)
+    {
+        this.text = text;
+    }
+
+    public static Object parse(String text)
+    {
+        Json parser = new Json(text);
+        parser.skipSpace();
+        Object value = parser.value();
+        parser.skipSpace();
+        if (parser.pos != text.length())
+        {
+            throw parser.error("unexpected text after the value");
+        }
+        return value;
+    }
+
+    /**
+     * Appends value as a JSON string literal.
+     */
+    public static StringBuilder quote(StringBuilder out, String value)
+    {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        out.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"');
+    }
+
+    /**
+     * Appends a number. JSON has no NaN or Infinity, so those become null.
+     */
+    public static StringBuilder number(StringBuilder out, double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return out.append("null");
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            return out.append((long) value);
+        }
+        return out.append(value);
+    }
+
+    // -------------------------
+    // Parsing
+    // -------------------------
+
+    private Object value()
+    {
+        if (pos >= text.length())
+        {
+            throw error("unexpected end of input");
+        }
+
+        char c = text.charAt(pos);
+        switch (c)
+        {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                {
+                    return number();
+                }
+                throw error("unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        enter();
+        pos++; // {
+        skipSpace();
+        if (peek('}'))
+        {
+            pos++;
+            depth--;
+            return result;
+        }
+
+        while (true)
+        {
+            skipSpace();
+            if (!peek('"'))
+            {
+                throw error("expected a key");
+            }
+            String key = string();
+            skipSpace();
+            expect(':');
+            skipSpace();
+            result.put(key, value());
+            skipSpace();
+            if (peek(','))
+            {
+                pos++;
+                continue;
+            }
+            expect('}');
+            depth--;
+            return result;
+        }
+    }
+
+    private List<Object> array()
+    {
+        List<Object> result = new ArrayList<>();
+        enter();
+        pos++; // [
+        skipSpace();
+        if (peek(']'))
+        {
+            pos++;
+            depth--;
+            return result;
+        }
+
+        while (true)
+        {
+            skipSpace();
+            result.add(value());
+            skipSpace();
+            if (peek(','))
+            {
+                pos++;
+                continue;
+            }
+            expect(']');
+            depth--;
+            return result;
+        }
+    }
+
+    private void enter()
+    {
+        if (++depth > MAX_DEPTH)
+        {
+            throw error("nested deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+
+    private String string()
+    {
+        pos++; // opening quote
+        StringBuilder out = null;
+        int start = pos;
+
+        while (pos < text.length())
+        {
+            char c = text.charAt(pos);
+            if (c == '"')
+            {
+                String value = out == null ? text.substring(start, pos) : out.append(text, start, pos).toString();
+                pos++;
+                return value;
+            }
+            if (c == '\\')
+            {
+                if (out == null)
+                {
+                    out = new StringBuilder();
+                }
+                out.append(text, start, pos);
+                out.append(escape());
+                start = pos;
+                continue;
+            }
+            if (c < 0x20)
+            {
+                throw error("control character in string");
+            }
+            pos++;
+        }
+        throw error("unterminated string");
+    }
+
+    private char escape()
+    {
+        pos++; // backslash
+        if (pos >= text.length())
+        {
+            throw error("unterminated escape");
+        }
+        char c = text.charAt(pos++);
+        switch (c)
+        {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (pos + 4 > text.length())
+                {
+                    throw error("short \\u escape");
+                }
+                try
+                {
+                    char decoded = (char) Integer.parseInt(text.substring(pos, pos + 4), 16);
+                    pos += 4;
+                    return decoded;
+                }
+                catch (NumberFormatException e)
+                {
+                    throw error("bad \\u escape");
+                }
+            default:
+                throw error("bad escape \\" + c);
+        }
+    }
+
+    private Double number()
+    {
+        int start = pos;
+        if (peek('-'))
+        {
+            pos++;
+        }
+        while (pos < text.length() && "0123456789.eE+-".indexOf(text.charAt(pos)) >= 0)
+        {
+            pos++;
+        }
+        try
+        {
+            return Double.valueOf(text.substring(start, pos));
+        }
+        catch (NumberFormatException e)
+        {
+            pos = start;
+            throw error("bad number");
+        }
+    }
+
+    private Object literal(String word, Object value)
+    {
+        if (!text.startsWith(word, pos))
+        {
+            throw error("unexpected word");
+        }
+        pos += word.length();
+        return value;
+    }
+
+    private void skipSpace()
+    {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+        {
+            pos++;
+        }
+    }
+
+    private boolean peek(char c)
+    {
+        return pos < text.length() && text.charAt(pos) == c;
+    }
+
+    private void expect(char c)
+    {
+        if (!peek(c))
+        {
+            throw error("expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return new IllegalArgumentException("Bad JSON at position " + pos + ": " + message);
+    }
+}
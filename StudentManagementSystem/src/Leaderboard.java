@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leaderboard class
+ * Keeps all students ordered by average grade, highest first, all the time.
+ * When a grade changes only that one student is moved (O(log n)),
+ * instead of re-sorting the whole roster for every report.
+ * Students with the same average stay in the order they were added,
+ * which is what the old stable sort produced.
+ *
+ * Writers never wait for the leaderboard: add, remove and update only note the
+ * student in a concurrent "pending" map. The next read takes the lock, moves the
+ * pending students to their new places and then answers, so readers always see
+ * every change that finished before they started. The reader reads each average
+ * itself, so a student that changed twice is only moved once.
+ */
+public class Leaderboard
+{
+
+    /**
+     * The average is saved in the entry because the tree needs the old value
+     * to find the student again after their average has changed.
+     */
+    private static final class Entry
+    {
+        final double average;
+        final long sequence;
+        final Student student;
+
+        Entry(double average, long sequence, Student student)
+        {
+            this.average = average;
+            this.sequence = sequence;
+            this.student = student;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = (a, b) ->
+    {
+        int cmp = Double.compare(b.average, a.average);
+        return cmp != 0 ? cmp : Long.compare(a.sequence, b.sequence);
+    };
+
+    private final RankedTree<Entry> ranking;
+    private final HashMap<Student, Entry> entries;
+
+    // Students waiting to be (re)placed: TRUE = on the leaderboard, FALSE = removed
+    private final ConcurrentHashMap<Student, Boolean> pending;
+
+    public Leaderboard()
+    {
+        this.ranking = new RankedTree<>(ORDER);
+        this.entries = new HashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+    }
+
+    public void add(Student student)
+    {
+        pending.put(student, Boolean.TRUE);
+    }
+
+    /**
+     * Adds many students at once (used when loading a file).
+     */
+    public synchronized void addAll(List<Student> students)
+    {
+        List<Entry> batch = new ArrayList<>(students.size());
+        for (Student s : students)
+        {
+            Entry entry = new Entry(s.calculateAverage(), s.getSequence(), s);
+            entries.put(s, entry);
+            batch.add(entry);
+        }
+        ranking.addAll(batch);
+    }
+
+    public void remove(Student student)
+    {
+        pending.put(student, Boolean.FALSE);
+    }
+
+    /**
+     * Marks a student to be moved to their new place after their average changed.
+     */
+    public void update(Student student)
+    {
+        pending.put(student, Boolean.TRUE);
+    }
+
+    public synchronized void clear()
+    {
+        pending.clear();
+        ranking.clear();
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        applyPending();
+        return ranking.size();
+    }
+
+    /**
+     * Returns up to count students starting at a 0-based position.
+     * Only that page is copied out, not the whole sorted roster.
+     */
+    public synchronized List<Student> page(int from, int count)
+    {
+        applyPending();
+        List<Student> result = new ArrayList<>();
+        for (Entry e : ranking.range(from, from + count))
+        {
+            result.add(e.student);
+        }
+        return result;
+    }
+
+    /**
+     * Receives one row of pageAfter: the student with the average and
+     * sequence they are ranked by.
+     */
+    public interface RowVisitor
+    {
+        void visit(Student student, double average, long sequence);
+    }
+
+    /**
+     * Hands visitor up to count students that come after the given average and
+     * sequence (a student ranked at exactly that place is left out), best first.
+     * Start with Double.POSITIVE_INFINITY and Long.MIN_VALUE. Passing the last
+     * row's values back gets the next page, so a student who didn't move between
+     * two pages is never repeated or skipped (ShardedSystem reads shards this way).
+     */
+    public synchronized void pageAfter(double average, long sequence, int count, RowVisitor visitor)
+    {
+        applyPending();
+        long after = sequence == Long.MAX_VALUE ? sequence : sequence + 1;
+        int from = ranking.countBefore(new Entry(average, after, null));
+        for (Entry e : ranking.range(from, from + count))
+        {
+            visitor.visit(e.student, e.average, e.sequence);
+        }
+    }
+
+    /**
+     * Positions [from, to) of the students whose average is between low and
+     * high (both included). Higher averages come first, so high sets from.
+     */
+    public synchronized int[] positionsBetween(double low, double high)
+    {
+        applyPending();
+        int from = ranking.countBefore(new Entry(high, Long.MIN_VALUE, null));
+        int to = ranking.countBefore(new Entry(low, Long.MAX_VALUE, null));
+        return new int[] { from, Math.max(from, to) };
+    }
+
+    /**
+     * 1-based position of a student, or -1 if they aren't on the leaderboard.
+     */
+    public synchronized int rankOf(Student student)
+    {
+        applyPending();
+        Entry entry = entries.get(student);
+        return entry == null ? -1 : ranking.countBefore(entry) + 1;
+    }
+
+    /**
+     * Moves every pending student to where their current average belongs.
+     * Called with the lock held.
+     */
+    private void applyPending()
+    {
+        if (pending.size() > ranking.size() / 8 + 1024)
+        {
+            applyPendingInBulk();
+            return;
+        }
+        for (Student student : pending.keySet())
+        {
+            Boolean present = pending.remove(student);
+            if (present == null)
+            {
+                continue;
+            }
+
+            Entry old = present ? entries.get(student) : entries.remove(student);
+            double average = present ? student.calculateAverage() : 0.0;
+            if (present && old != null && Double.compare(old.average, average) == 0
+                && old.sequence == student.getSequence())
+            {
+                continue; // same average, same place
+            }
+            if (old != null)
+            {
+                ranking.remove(old);
+            }
+            if (present)
+            {
+                Entry entry = new Entry(average, student.getSequence(), student);
+                entries.put(student, entry);
+                ranking.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Same as applyPending, but rebuilds the tree in one pass. Used when a big
+     * part of the roster changed at once (a bulk grade import).
+     */
+    private void applyPendingInBulk()
+    {
+        Set<Student> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Entry> batch = new ArrayList<>();
+        for (Student student : pending.keySet())
+        {
+            Boolean present = pending.remove(student);
+            if (present == null)
+            {
+                continue;
+            }
+
+            moved.add(student);
+            entries.remove(student);
+            if (present)
+            {
+                Entry entry = new Entry(student.calculateAverage(), student.getSequence(), student);
+                entries.put(student, entry);
+                batch.add(entry);
+            }
+        }
+        ranking.replaceAll(e -> moved.contains(e.student), batch);
+    }
+}
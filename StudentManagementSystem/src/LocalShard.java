@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LocalShard class
+ * A shard in the same JVM: calls go straight to its StudentManagementSystem.
+ * ShardServer uses one to answer a RemoteShard, so both kinds give the same answers.
+ */
+public class LocalShard implements Shard
+{
+
+    private final StudentManagementSystem sms;
+
+    public LocalShard(StudentManagementSystem sms)
+    {
+        this.sms = sms;
+    }
+
+    public StudentManagementSystem getSystem()
+    {
+        return sms;
+    }
+
+    @Override
+    public boolean add(String id, String name, boolean isHonors, long order)
+    {
+        return sms.tryAddStudent(id, name, isHonors, order);
+    }
+
+    @Override
+    public boolean remove(String id)
+    {
+        return sms.removeStudent(id);
+    }
+
+    @Override
+    public boolean rename(String id, String name)
+    {
+        Student s = sms.findStudentById(id);
+        if (s == null)
+        {
+            return false;
+        }
+        s.setName(name);
+        return true;
+    }
+
+    @Override
+    public boolean setGrade(String id, String subject, double grade)
+    {
+        Student s = sms.findStudentById(id);
+        if (s == null)
+        {
+            return false;
+        }
+        s.addOrUpdateSubject(subject, grade);
+        return true;
+    }
+
+    @Override
+    public String find(String id)
+    {
+        Student s = sms.findStudentById(id);
+        return s == null ? null : RosterFile.line(new StringBuilder(), s, new SubjectView()).toString();
+    }
+
+    @Override
+    public int size()
+    {
+        return sms.getStudentCount();
+    }
+
+    @Override
+    public long nextOrder()
+    {
+        return sms.nextAddOrder();
+    }
+
+    @Override
+    public List<Row> sortedAfter(double average, long order, int count)
+    {
+        List<Row> rows = new ArrayList<>(Math.min(count, 1024));
+        sms.getLeaderboard().pageAfter(average, order, count,
+            (s, avg, sequence) -> rows.add(new Row(s.getId(), s.getName(), avg, sequence)));
+        return rows;
+    }
+
+    @Override
+    public Row[] subjectHighLow(String subject)
+    {
+        SubjectIndex index = sms.getSubjectIndex(subject);
+        if (index == null)
+        {
+            return null;
+        }
+
+        // Both ends under the index lock, so they come from the same moment
+        synchronized (index)
+        {
+            Student highest = index.highest();
+            Student lowest = index.lowest();
+            if (highest == null)
+            {
+                return null;
+            }
+            return new Row[] {
+                new Row(highest.getId(), highest.getName(), index.highestGrade(), highest.getSequence()),
+                new Row(lowest.getId(), lowest.getName(), index.lowestGrade(), lowest.getSequence())
+            };
+        }
+    }
+
+    /**
+     * Nothing to release; the system stays usable.
+     */
+    @Override
+    public void close()
+    {
+    }
+}
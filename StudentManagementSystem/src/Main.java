@@ -1,299 +1,790 @@
-import java.util.Scanner;
-
-/**
- * Main class
- * This runs the Student Management System.
- * I used a scanner for input and a menu loop so the user can pick what to do.
- * Most of the work is done inside StudentManagementSystem, which my partner made.
- */
-public class Main 
-{
-
-    public static void main(String[] args) 
-    {
-
-        Scanner scanner = new Scanner(System.in);
-        StudentManagementSystem sms = new StudentManagementSystem();
-
-        int choice;
-
-        // Loop keeps showing the menu until the user exits
-        do 
-        {
-            printMenu();
-            choice = readInt(scanner, "Enter your choice: ");
-
-            switch (choice) 
-            {
-
-                case 1:
-                    handleAddStudent(scanner, sms);
-                    break;
-
-                case 2:
-                    handleRemoveStudent(scanner, sms);
-                    break;
-
-                case 3:
-                    handleUpdateStudentName(scanner, sms);
-                    break;
-
-                case 4:
-                    handleAddOrUpdateGrade(scanner, sms);
-                    break;
-
-                case 5:
-                    handleViewStudentDetails(scanner, sms);
-                    break;
-
-                case 6:
-                    sms.listStudents();
-                    break;
-
-                case 7:
-                    sms.printStudentsSortedByAverage();
-                    break;
-
-                case 8:
-                    sms.printAllStudentAverages();
-                    break;
-
-                case 9:
-                    handleSubjectReport(scanner, sms);
-                    break;
-
-                case 10:
-                    handleSaveToFile(scanner, sms);
-                    break;
-
-                case 11:
-                    handleLoadFromFile(scanner, sms);
-                    break;
-
-                case 0:
-                    System.out.println("Exiting. Goodbye!");
-                    break;
-
-                default:
-                    System.out.println("Invalid choice. Try again.");
-            }
-
-            System.out.println();
-
-        } 
-        while (choice != 0);
-
-        scanner.close();
-    }
-
-    /**
-     * Prints the menu options.
-     */
-    private static void printMenu() 
-    {
-        System.out.println("======================================");
-        System.out.println("       Student Management System      ");
-        System.out.println("======================================");
-        System.out.println("1. Add student");
-        System.out.println("2. Remove student");
-        System.out.println("3. Update student name");
-        System.out.println("4. Add or update grade");
-        System.out.println("5. View student details");
-        System.out.println("6. List all students");
-        System.out.println("7. Show students sorted by average");
-        System.out.println("8. Report: average grade for each student");
-        System.out.println("9. Report: high/low grade for a subject");
-        System.out.println("10. Save to file");
-        System.out.println("11. Load from file");
-        System.out.println("0. Exit");
-        System.out.println("======================================");
-    }
-
-    // -------------------------
-    // Input helpers
-    // -------------------------
-
-    /**
-     * Reads an integer safely.
-     * If the user types something wrong, they will retry until valid.
-     */
-    private static int readInt(Scanner scanner, String prompt) 
-    {
-        while (true) 
-        {
-            System.out.print(prompt);
-            String input = scanner.nextLine();
-
-            try 
-            {
-                return Integer.parseInt(input.trim());
-            } 
-            catch (NumberFormatException e) 
-            {
-                System.out.println("Please enter a whole number.");
-            }
-        }
-    }
-
-    /**
-     * Reads a non-empty string (for names, IDs, subject names, etc.)
-     */
-    private static String readNonEmptyString(Scanner scanner, String prompt) 
-    {
-        while (true) 
-        {
-            System.out.print(prompt);
-            String input = scanner.nextLine().trim();
-
-            if (!input.isEmpty()) 
-            {
-                return input;
-            } 
-            else 
-            {
-                System.out.println("Input cannot be empty.");
-            }
-        }
-    }
-
-    /**
-     * Reads a double safely. Used for grades.
-     */
-    private static double readDouble(Scanner scanner, String prompt) 
-    {
-        while (true) 
-        {
-            System.out.print(prompt);
-            String input = scanner.nextLine();
-
-            try 
-            {
-                return Double.parseDouble(input.trim());
-            } 
-            catch (NumberFormatException e) 
-            {
-                System.out.println("Please enter a valid number.");
-            }
-        }
-    }
-
-    // -------------------------
-    // Menu option handlers
-    // -------------------------
-
-    private static void handleAddStudent(Scanner scanner, StudentManagementSystem sms) 
-{
-    String id = readNonEmptyString(scanner, "Enter student ID: ");
-    String name = readNonEmptyString(scanner, "Enter student name: ");
-
-    System.out.print("Is this an honors student? (Y/N): ");
-    String honorsInput = scanner.nextLine().trim();
-
-    boolean isHonors = honorsInput.equalsIgnoreCase("Y");
-
-    // Call the overloaded method that knows about honors students
-    sms.addStudent(id, name, isHonors);
-
-    if (isHonors) 
-    {
-        System.out.println("Honors student added.");
-    } 
-    else 
-    {
-        System.out.println("Student added.");
-    }
-}
-
-
-    private static void handleRemoveStudent(Scanner scanner, StudentManagementSystem sms) 
-    {
-        String id = readNonEmptyString(scanner, "Enter ID to remove: ");
-
-        if (sms.removeStudent(id)) 
-        {
-            System.out.println("Student removed.");
-        } 
-        else 
-        {
-            System.out.println("Student not found.");
-        }
-    }
-
-    private static void handleUpdateStudentName(Scanner scanner, StudentManagementSystem sms) 
-    {
-        String id = readNonEmptyString(scanner, "Enter ID: ");
-        Student student = sms.findStudentById(id);
-
-        if (student == null) 
-        {
-            System.out.println("Student not found.");
-            return;
-        }
-
-        String newName = readNonEmptyString(scanner, "Enter new name: ");
-        student.setName(newName);
-
-        System.out.println("Name updated.");
-    }
-
-    private static void handleAddOrUpdateGrade(Scanner scanner, StudentManagementSystem sms) 
-    {
-        String id = readNonEmptyString(scanner, "Enter ID: ");
-        Student student = sms.findStudentById(id);
-
-        if (student == null) 
-        {
-            System.out.println("Student not found.");
-            return;
-        }
-
-        String subjectName = readNonEmptyString(scanner, "Subject name: ");
-
-        double grade;
-        while (true) 
-        {
-            grade = readDouble(scanner, "Grade (0–100): ");
-            if (grade >= 0 && grade <= 100) 
-            {
-                break;
-            }
-            System.out.println("Grade must be between 0 and 100.");
-        }
-
-        student.addOrUpdateSubject(subjectName, grade);
-        System.out.println("Grade saved.");
-    }
-
-    private static void handleViewStudentDetails(Scanner scanner, StudentManagementSystem sms) 
-    {
-        String id = readNonEmptyString(scanner, "Enter ID: ");
-        Student student = sms.findStudentById(id);
-
-        if (student == null)
-        {
-            System.out.println("Student not found.");
-        } 
-        else 
-        {
-            student.printDetails();
-        }
-    }
-
-    private static void handleSubjectReport(Scanner scanner, StudentManagementSystem sms) 
-    {
-        String subject = readNonEmptyString(scanner, "Enter subject: ");
-        sms.printSubjectHighLow(subject);
-    }
-
-    private static void handleSaveToFile(Scanner scanner, StudentManagementSystem sms) 
-    {
-        String file = readNonEmptyString(scanner, "File name: ");
-        sms.saveToFile(file);
-    }
-
-    private static void handleLoadFromFile(Scanner scanner, StudentManagementSystem sms) 
-    {
-        String file = readNonEmptyString(scanner, "File name: ");
-        sms.loadFromFile(file);
-    }
-}
+import java.io.IOException;
+import java.util.Scanner;
+import javax.management.JMException;
+
+/**
+ * Main class
+ * This runs the Student Management System.
+ * I used a scanner for input and a menu loop so the user can pick what to do.
+ * Most of the work is done inside StudentManagementSystem, which my partner made.
+ */
+public class Main 
+{
+
+    public static void main(String[] args) 
+    {
+
+        StudentManagementSystem sms = new StudentManagementSystem();
+
+        // "--journal <dir>" turns on durable mode: recover from the directory
+        // and log every change to it.
+        // "--batch <file>" (or "--batch -" for standard input) runs a command
+        // script instead of the menu, see BatchRunner.
+        // "--parallel-threshold <n>" reports rosters of n or more students on
+        // all cores (0 = never).
+        // "--http <port>" also serves the JSON API (see HttpApi) while the menu runs.
+        // "--paged <file>" keeps the roster in a paged file instead of memory,
+        // with "--cache <n>" students cached (see PagedStudentStore).
+        // "--mapped <file>" keeps it off the heap in a memory-mapped file (see MappedStudentStore).
+        // "--autosave <file>" saves the roster to the file in the background, every
+        // "--autosave-seconds <n>" (60 by default) or after "--autosave-changes <n>"
+        // changes (1000 by default), see Autosaver. "--autosave-incremental <file>"
+        // does the same with a segmented file that only rewrites changed students.
+        // "--shard-server <port>" serves the roster as one shard of a ShardedSystem
+        // (see ShardServer); with "--batch -" the node runs until its input is closed.
+        // Everything is checked before anything is opened, so a bad option stops
+        // the program with a usage message instead of being skipped.
+        String journalDirectory = null;
+        int parallelThreshold = -1;
+        String batchSource = null;
+        int httpPort = -1;
+        int shardPort = -1;
+        String pagedFile = null;
+        String mappedFile = null;
+        int cacheSize = PagedStudentStore.DEFAULT_CACHE_SIZE;
+        String autosaveFile = null;
+        boolean autosaveIncremental = false;
+        long autosaveSeconds = Autosaver.DEFAULT_INTERVAL_MILLIS / 1000;
+        long autosaveChanges = Autosaver.DEFAULT_AFTER_CHANGES;
+        try 
+        {
+            for (int i = 0; i < args.length; i += 2) 
+            {
+                String option = args[i];
+                if (!isOption(option)) 
+                {
+                    throw new IllegalArgumentException("Unknown option " + option);
+                }
+                if (i + 1 == args.length) 
+                {
+                    throw new IllegalArgumentException(option + " needs a value");
+                }
+                String value = args[i + 1];
+
+                if (option.equals("--journal")) 
+                {
+                    journalDirectory = value;
+                } 
+                else if (option.equals("--batch")) 
+                {
+                    batchSource = value;
+                } 
+                else if (option.equals("--parallel-threshold")) 
+                {
+                    parallelThreshold = (int) numberOption(option, value, 0, Integer.MAX_VALUE);
+                } 
+                else if (option.equals("--http")) 
+                {
+                    httpPort = (int) numberOption(option, value, 0, 65535);
+                } 
+                else if (option.equals("--shard-server")) 
+                {
+                    shardPort = (int) numberOption(option, value, 0, 65535);
+                } 
+                else if (option.equals("--paged")) 
+                {
+                    pagedFile = value;
+                } 
+                else if (option.equals("--mapped")) 
+                {
+                    mappedFile = value;
+                } 
+                else if (option.equals("--cache")) 
+                {
+                    cacheSize = (int) numberOption(option, value, 1, Integer.MAX_VALUE);
+                }
+                else if (option.equals("--autosave")) 
+                {
+                    autosaveFile = value;
+                    autosaveIncremental = false;
+                }
+                else if (option.equals("--autosave-incremental")) 
+                {
+                    autosaveFile = value;
+                    autosaveIncremental = true;
+                }
+                else if (option.equals("--autosave-seconds")) 
+                {
+                    // Kept small enough that the interval still fits in milliseconds
+                    autosaveSeconds = numberOption(option, value, 0, Long.MAX_VALUE / 1000);
+                }
+                else if (option.equals("--autosave-changes")) 
+                {
+                    autosaveChanges = numberOption(option, value, 0, Long.MAX_VALUE);
+                }
+            }
+        } 
+        catch (IllegalArgumentException e) 
+        {
+            System.out.println("Error: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        if (journalDirectory != null) 
+        {
+            sms.openJournal(journalDirectory);
+        }
+        if (parallelThreshold >= 0) 
+        {
+            sms.setParallelThreshold(parallelThreshold);
+        }
+
+        if (pagedFile != null) 
+        {
+            sms.openPagedStore(pagedFile, cacheSize);
+        } 
+        else if (mappedFile != null) 
+        {
+            sms.openMappedStore(mappedFile);
+        }
+
+        if (autosaveFile != null) 
+        {
+            sms.startAutosave(autosaveFile, autosaveSeconds, autosaveChanges, autosaveIncremental);
+        }
+
+        // The same numbers as menu option 23 can be watched in jconsole or VisualVM
+        registerMetrics();
+
+        HttpApi api = null;
+        if (httpPort >= 0 && sms.isOnDisk()) 
+        {
+            System.out.println("The HTTP API needs the in-memory roster, so it isn't started with a roster on disk.");
+        } 
+        else if (httpPort >= 0) 
+        {
+            try 
+            {
+                api = HttpApi.start(sms, httpPort);
+                System.out.println("HTTP API listening on port " + api.getPort());
+            } 
+            catch (IOException e) 
+            {
+                System.out.println("Could not start the HTTP API: " + e.getMessage());
+            }
+        }
+
+        ShardServer shardServer = null;
+        if (shardPort >= 0 && sms.isOnDisk()) 
+        {
+            System.out.println("A shard needs the in-memory roster, so the shard server isn't started with a roster on disk.");
+        } 
+        else if (shardPort >= 0) 
+        {
+            try 
+            {
+                shardServer = ShardServer.start(sms, shardPort);
+                System.out.println("Shard server listening on port " + shardServer.getPort());
+            } 
+            catch (IOException e) 
+            {
+                System.out.println("Could not start the shard server: " + e.getMessage());
+            }
+        }
+
+        if (batchSource != null) 
+        {
+            new BatchRunner(sms).run(batchSource);
+            stopApi(api);
+            stopShardServer(shardServer);
+            sms.stopAutosave();
+            sms.closeJournal();
+            sms.closeDiskRoster();
+            return;
+        }
+
+        Scanner scanner = new Scanner(System.in);
+
+        int choice;
+
+        // Loop keeps showing the menu until the user exits
+        do 
+        {
+            printMenu();
+            choice = readInt(scanner, "Enter your choice: ");
+
+            switch (choice) 
+            {
+
+                case 1:
+                    handleAddStudent(scanner, sms);
+                    break;
+
+                case 2:
+                    handleRemoveStudent(scanner, sms);
+                    break;
+
+                case 3:
+                    handleUpdateStudentName(scanner, sms);
+                    break;
+
+                case 4:
+                    handleAddOrUpdateGrade(scanner, sms);
+                    break;
+
+                case 5:
+                    handleViewStudentDetails(scanner, sms);
+                    break;
+
+                case 6:
+                    sms.listStudents();
+                    break;
+
+                case 7:
+                    sms.printStudentsSortedByAverage();
+                    break;
+
+                case 8:
+                    sms.printAllStudentAverages();
+                    break;
+
+                case 9:
+                    handleSubjectReport(scanner, sms);
+                    break;
+
+                case 10:
+                    handleSaveToFile(scanner, sms);
+                    break;
+
+                case 11:
+                    handleLoadFromFile(scanner, sms);
+                    break;
+
+                case 12:
+                    handleSubjectTopBottom(scanner, sms);
+                    break;
+
+                case 13:
+                    handleLeaderboardPage(scanner, sms);
+                    break;
+
+                case 14:
+                    handleLeaderboardRank(scanner, sms);
+                    break;
+
+                case 15:
+                    handleSaveSnapshot(scanner, sms);
+                    break;
+
+                case 16:
+                    handleLoadSnapshot(scanner, sms);
+                    break;
+
+                case 17:
+                    sms.printMemoryReport();
+                    break;
+
+                case 18:
+                    handleSaveSortedReport(scanner, sms);
+                    break;
+
+                case 19:
+                    handleExportCsv(scanner, sms);
+                    break;
+
+                case 20:
+                    handleNameSearch(scanner, sms);
+                    break;
+
+                case 21:
+                    handleFuzzyNameSearch(scanner, sms);
+                    break;
+
+                case 22:
+                    handleQuery(scanner, sms);
+                    break;
+
+                case 23:
+                    sms.printMetrics();
+                    break;
+
+                case 24:
+                    handleImportGrades(scanner, sms);
+                    break;
+
+                case 25:
+                    handleAutosave(scanner, sms);
+                    break;
+
+                case 26:
+                    handleSaveIncremental(scanner, sms);
+                    break;
+
+                case 0:
+                    System.out.println("Exiting. Goodbye!");
+                    break;
+
+                default:
+                    System.out.println("Invalid choice. Try again.");
+            }
+
+            System.out.println();
+
+        } 
+        while (choice != 0);
+
+        stopApi(api);
+        stopShardServer(shardServer);
+        sms.stopAutosave();
+        sms.closeJournal();
+        sms.closeDiskRoster();
+        scanner.close();
+    }
+
+    // Every option main understands; each one takes a value
+    private static final String[] OPTIONS = {
+        "--journal", "--batch", "--parallel-threshold", "--http", "--shard-server", "--paged",
+        "--mapped", "--cache", "--autosave", "--autosave-incremental", "--autosave-seconds",
+        "--autosave-changes"
+    };
+
+    private static boolean isOption(String arg) 
+    {
+        for (String option : OPTIONS) 
+        {
+            if (option.equals(arg)) 
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a whole number given for an option, which must be between min and max.
+     */
+    private static long numberOption(String option, String value, long min, long max) 
+    {
+        long n;
+        try 
+        {
+            n = Long.parseLong(value.trim());
+        } 
+        catch (NumberFormatException e) 
+        {
+            throw new IllegalArgumentException(option + " needs a whole number, not \"" + value + "\"");
+        }
+        if (n < min || n > max) 
+        {
+            throw new IllegalArgumentException(option + " must be between " + min + " and " + max + ", not " + n);
+        }
+        return n;
+    }
+
+    private static void printUsage() 
+    {
+        System.out.println("Usage: java Main [options]");
+        System.out.println("  --journal <dir>               recover from and log every change to a journal");
+        System.out.println("  --batch <file>                run a command script (- for standard input) instead of the menu");
+        System.out.println("  --parallel-threshold <n>      report rosters of n or more students on all cores (0 = never)");
+        System.out.println("  --http <port>                 also serve the JSON API (0 = any free port)");
+        System.out.println("  --shard-server <port>         serve the roster as a shard (0 = any free port)");
+        System.out.println("  --paged <file>                keep the roster in a paged file");
+        System.out.println("  --cache <n>                   students the paged file keeps in memory (at least 1)");
+        System.out.println("  --mapped <file>               keep the roster in a memory-mapped file");
+        System.out.println("  --autosave <file>             save the roster in the background");
+        System.out.println("  --autosave-incremental <file> same, only rewriting changed students");
+        System.out.println("  --autosave-seconds <n>        seconds between autosaves (0 = only count changes)");
+        System.out.println("  --autosave-changes <n>        changes that trigger an autosave (0 = only the timer)");
+    }
+
+    private static void registerMetrics() 
+    {
+        try 
+        {
+            Metrics.registerMBean();
+        } 
+        catch (JMException e) 
+        {
+            System.out.println("Could not register the metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    private static void stopApi(HttpApi api) 
+    {
+        if (api != null) 
+        {
+            api.close();
+        }
+    }
+
+    private static void stopShardServer(ShardServer server) 
+    {
+        if (server != null) 
+        {
+            server.close();
+        }
+    }
+
+    /**
+     * Prints the menu options.
+     */
+    private static void printMenu() 
+    {
+        System.out.println("======================================");
+        System.out.println("       Student Management System      ");
+        System.out.println("======================================");
+        System.out.println("1. Add student");
+        System.out.println("2. Remove student");
+        System.out.println("3. Update student name");
+        System.out.println("4. Add or update grade");
+        System.out.println("5. View student details");
+        System.out.println("6. List all students");
+        System.out.println("7. Show students sorted by average");
+        System.out.println("8. Report: average grade for each student");
+        System.out.println("9. Report: high/low grade for a subject");
+        System.out.println("10. Save to file");
+        System.out.println("11. Load from file");
+        System.out.println("12. Report: top/bottom students for a subject");
+        System.out.println("13. Leaderboard: show a page of rows");
+        System.out.println("14. Leaderboard: find a student's rank");
+        System.out.println("15. Save binary snapshot");
+        System.out.println("16. Load binary snapshot");
+        System.out.println("17. Report: grade storage memory");
+        System.out.println("18. Save sorted report to a file");
+        System.out.println("19. Export students as CSV");
+        System.out.println("20. Search students by name");
+        System.out.println("21. Search students by name, allowing typos");
+        System.out.println("22. Query students (e.g. Math < 50 and Physics > 90)");
+        System.out.println("23. Report: operation metrics (calls, latency, file bytes)");
+        System.out.println("24. Import grades from a file (id,subject,grade rows)");
+        System.out.println("25. Autosave in the background (start, stop, save now)");
+        System.out.println("26. Save incrementally (only changed students are rewritten)");
+        System.out.println("0. Exit");
+        System.out.println("======================================");
+    }
+
+    // -------------------------
+    // Input helpers
+    // -------------------------
+
+    /**
+     * Reads an integer safely.
+     * If the user types something wrong, they will retry until valid.
+     */
+    private static int readInt(Scanner scanner, String prompt) 
+    {
+        while (true) 
+        {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+
+            try 
+            {
+                return Integer.parseInt(input.trim());
+            } 
+            catch (NumberFormatException e) 
+            {
+                System.out.println("Please enter a whole number.");
+            }
+        }
+    }
+
+    /**
+     * Reads a non-empty string (for names, IDs, subject names, etc.)
+     */
+    private static String readNonEmptyString(Scanner scanner, String prompt) 
+    {
+        while (true) 
+        {
+            System.out.print(prompt);
+            String input = scanner.nextLine().trim();
+
+            if (!input.isEmpty()) 
+            {
+                return input;
+            } 
+            else 
+            {
+                System.out.println("Input cannot be empty.");
+            }
+        }
+    }
+
+    /**
+     * Reads a double safely. Used for grades.
+     */
+    private static double readDouble(Scanner scanner, String prompt) 
+    {
+        while (true) 
+        {
+            System.out.print(prompt);
+            String input = scanner.nextLine();
+
+            try 
+            {
+                return Double.parseDouble(input.trim());
+            } 
+            catch (NumberFormatException e) 
+            {
+                System.out.println("Please enter a valid number.");
+            }
+        }
+    }
+
+    // -------------------------
+    // Menu option handlers
+    // -------------------------
+
+    private static void handleAddStudent(Scanner scanner, StudentManagementSystem sms) 
+{
+    String id = readNonEmptyString(scanner, "Enter student ID: ");
+    String name = readNonEmptyString(scanner, "Enter student name: ");
+
+    System.out.print("Is this an honors student? (Y/N): ");
+    String honorsInput = scanner.nextLine().trim();
+
+    boolean isHonors = honorsInput.equalsIgnoreCase("Y");
+
+    // Call the overloaded method that knows about honors students
+    sms.addStudent(id, name, isHonors);
+
+    if (isHonors) 
+    {
+        System.out.println("Honors student added.");
+    } 
+    else 
+    {
+        System.out.println("Student added.");
+    }
+}
+
+
+    private static void handleRemoveStudent(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String id = readNonEmptyString(scanner, "Enter ID to remove: ");
+
+        if (sms.removeStudent(id)) 
+        {
+            System.out.println("Student removed.");
+        } 
+        else 
+        {
+            System.out.println("Student not found.");
+        }
+    }
+
+    private static void handleUpdateStudentName(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String id = readNonEmptyString(scanner, "Enter ID: ");
+        Student student = sms.findStudentById(id);
+
+        if (student == null) 
+        {
+            System.out.println("Student not found.");
+            return;
+        }
+
+        String newName = readNonEmptyString(scanner, "Enter new name: ");
+        try 
+        {
+            student.setName(newName);
+        } 
+        catch (IllegalArgumentException e) 
+        {
+            // A roster on disk may limit how long a name can be
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        System.out.println("Name updated.");
+    }
+
+    private static void handleAddOrUpdateGrade(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String id = readNonEmptyString(scanner, "Enter ID: ");
+        Student student = sms.findStudentById(id);
+
+        if (student == null) 
+        {
+            System.out.println("Student not found.");
+            return;
+        }
+
+        String subjectName = readNonEmptyString(scanner, "Subject name: ");
+
+        double grade;
+        while (true) 
+        {
+            grade = readDouble(scanner, "Grade (0–100): ");
+            if (grade >= 0 && grade <= 100) 
+            {
+                break;
+            }
+            System.out.println("Grade must be between 0 and 100.");
+        }
+
+        try 
+        {
+            student.addOrUpdateSubject(subjectName, grade);
+        } 
+        catch (IllegalArgumentException e) 
+        {
+            System.out.println(e.getMessage());
+            return;
+        }
+        System.out.println("Grade saved.");
+    }
+
+    private static void handleViewStudentDetails(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String id = readNonEmptyString(scanner, "Enter ID: ");
+        Student student = sms.findStudentById(id);
+
+        if (student == null)
+        {
+            System.out.println("Student not found.");
+        } 
+        else 
+        {
+            student.printDetails();
+        }
+    }
+
+    private static void handleSubjectReport(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String subject = readNonEmptyString(scanner, "Enter subject: ");
+        sms.printSubjectHighLow(subject);
+    }
+
+    private static void handleSubjectTopBottom(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String subject = readNonEmptyString(scanner, "Enter subject: ");
+        int k = readInt(scanner, "How many students? ");
+        sms.printSubjectTopBottom(subject, k);
+    }
+
+    private static void handleLeaderboardPage(Scanner scanner, StudentManagementSystem sms) 
+    {
+        int firstRow = readInt(scanner, "First row: ");
+        int count = readInt(scanner, "Number of rows: ");
+        sms.printLeaderboardPage(firstRow, count);
+    }
+
+    private static void handleLeaderboardRank(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String id = readNonEmptyString(scanner, "Enter ID: ");
+        int rank = sms.getLeaderboardRank(id);
+
+        if (rank < 0) 
+        {
+            System.out.println("Student not found.");
+        } 
+        else 
+        {
+            System.out.println("Rank: " + rank);
+        }
+    }
+
+    private static void handleSaveToFile(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String file = readNonEmptyString(scanner, "File name: ");
+        sms.saveToFile(file);
+    }
+
+    private static void handleLoadFromFile(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String file = readNonEmptyString(scanner, "File name: ");
+        sms.loadFromFile(file);
+    }
+
+    private static void handleSaveSnapshot(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String file = readNonEmptyString(scanner, "Snapshot file name: ");
+        sms.saveSnapshot(file);
+    }
+
+    private static void handleLoadSnapshot(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String file = readNonEmptyString(scanner, "Snapshot file name: ");
+        sms.loadSnapshot(file);
+    }
+
+    private static void handleSaveSortedReport(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String file = readNonEmptyString(scanner, "Report file name: ");
+        sms.saveSortedReport(file);
+    }
+
+    private static void handleExportCsv(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String file = readNonEmptyString(scanner, "CSV file name: ");
+        sms.exportCsv(file);
+    }
+
+    private static void handleImportGrades(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String file = readNonEmptyString(scanner, "Grades file name: ");
+
+        System.out.print("File for rejected rows (Enter for " + file + ".rejects): ");
+        String rejects = scanner.nextLine().trim();
+        if (rejects.isEmpty()) 
+        {
+            rejects = file + ".rejects";
+        }
+        sms.importGrades(file, rejects);
+    }
+
+    private static void handleSaveIncremental(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String file = readNonEmptyString(scanner, "File name: ");
+        sms.saveIncremental(file);
+    }
+
+    private static void handleAutosave(Scanner scanner, StudentManagementSystem sms) 
+    {
+        sms.printAutosaveStatus();
+        System.out.println("1. Start (or change)  2. Stop  3. Save now  0. Back");
+        int choice = readInt(scanner, "Choice: ");
+        switch (choice) 
+        {
+            case 1:
+                String file = readNonEmptyString(scanner, "Save file name: ");
+                int seconds = readInt(scanner, "Save every how many seconds (0 = no timer): ");
+                int changes = readInt(scanner, "Or after how many changes (0 = no limit): ");
+                System.out.print("Save incrementally, only rewriting changed students? (Y/N): ");
+                boolean incremental = scanner.nextLine().trim().equalsIgnoreCase("Y");
+                sms.startAutosave(file, seconds, changes, incremental);
+                break;
+
+            case 2:
+                sms.stopAutosave();
+                break;
+
+            case 3:
+                sms.autosaveNow();
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private static void handleNameSearch(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String prefix = readNonEmptyString(scanner, "Name starts with: ");
+        int page = readInt(scanner, "Page: ");
+        sms.printNameSearch(prefix, page);
+    }
+
+    private static void handleFuzzyNameSearch(Scanner scanner, StudentManagementSystem sms) 
+    {
+        String name = readNonEmptyString(scanner, "Name: ");
+        int typos = readInt(scanner, "Typos allowed (0-" + NameIndex.MAX_DISTANCE + "): ");
+        int page = readInt(scanner, "Page: ");
+        sms.printFuzzyNameSearch(name, typos, page);
+    }
+
+    private static void handleQuery(Scanner scanner, StudentManagementSystem sms) 
+    {
+        System.out.println("Join conditions with \"and\": average < 60, Math >= 90, honors, regular,");
+        System.out.println("top 10%, id = S1, name starts with Mar (put \"not\" in front to flip one).");
+        String query = readNonEmptyString(scanner, "Query: ");
+
+        System.out.print("Count only? (Y/N): ");
+        boolean countOnly = scanner.nextLine().trim().equalsIgnoreCase("Y");
+        sms.printQuery(query, countOnly);
+    }
+}
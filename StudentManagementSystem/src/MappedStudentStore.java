@@ -0,0 +1,1000 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * MappedStudentStore class
+ * Keeps students and their grades off the heap, in fixed-size slots of a
+ * memory-mapped file. Opening the file maps it and reads a small header:
+ * there is no load phase, no matter how many grades are in it.
+ *
+ * The Student objects handed out are thin handles: their grades are read and
+ * written straight in the mapped slot (the store is their GradeSlots), and a
+ * rename is written through by the store listening to the handle. Handles are
+ * only kept while something references them, so the heap holds just the
+ * students in use plus the subject dictionary.
+ *
+ * Students are found through an open-addressing hash table in a second mapped
+ * file (name + ".idx"), rebuilt from the slots if it is missing or doesn't match.
+ *
+ * Record file layout (big-endian):
+ *   0         header: int magic "SMSM", int version, int slot size, int slots used,
+ *             int live students, int subject names, long next sequence
+ *   4096      subject dictionary: MAX_SUBJECTS entries of byte length + 63 bytes UTF-8
+ *   266240    slots, SLOT_SIZE bytes each, in the order they were handed out:
+ *     student slot:  byte state, byte type, short grade count, int next slot,
+ *                    long sequence, double bonus, double grade total,
+ *                    byte length + 47 bytes ID, byte length + 79 bytes name,
+ *                    HEAD_GRADES grades of (short subject, double grade)
+ *     overflow slot: byte state, byte unused, short unused, int next slot,
+ *                    MORE_GRADES more grades
+ * Removed slots are not reused, so slot order is always the order students were added.
+ * Changes go to the OS page cache right away; flush() forces them to disk.
+ */
+public class MappedStudentStore implements RosterStore, GradeSlots, StudentListener
+{
+
+    public static final int MAGIC = 0x534D534D; // "SMSM"
+    public static final int VERSION = 1;
+    public static final int SLOT_SIZE = 256;
+    public static final int MAX_SUBJECTS = 4096;
+    public static final int MAX_ID_BYTES = 47;
+    public static final int MAX_NAME_BYTES = 79;
+    public static final int MAX_SUBJECT_BYTES = 63;
+
+    private static final int INDEX_MAGIC = 0x534D5349; // "SMSI"
+
+    // Header fields
+    private static final int H_SLOT_SIZE = 8;
+    private static final int H_SLOTS = 12;
+    private static final int H_LIVE = 16;
+    private static final int H_SUBJECTS = 20;
+    private static final int H_SEQUENCE = 24;
+
+    private static final int DICTIONARY_START = 4096;
+    private static final int DICTIONARY_ENTRY = 64;
+    private static final long DATA_START = DICTIONARY_START + (long) MAX_SUBJECTS * DICTIONARY_ENTRY;
+
+    // Slot fields
+    private static final int S_STATE = 0;
+    private static final int S_TYPE = 1;
+    private static final int S_COUNT = 2;
+    private static final int S_NEXT = 4;
+    private static final int S_SEQUENCE = 8;
+    private static final int S_BONUS = 16;
+    private static final int S_SUM = 24;
+    private static final int S_ID = 32;
+    private static final int S_NAME = 80;
+    private static final int S_GRADES = 160;
+    private static final int M_GRADES = 8;
+
+    private static final int GRADE_SIZE = 2 + 8;
+    private static final int HEAD_GRADES = (SLOT_SIZE - S_GRADES) / GRADE_SIZE;
+    private static final int MORE_GRADES = (SLOT_SIZE - M_GRADES) / GRADE_SIZE;
+
+    private static final byte STATE_FREE = 0;
+    private static final byte STATE_LIVE = 1;
+    private static final byte STATE_MORE = 2;
+    private static final byte STATE_REMOVED = 3;
+
+    // The file is mapped in pieces of this size (a multiple of SLOT_SIZE, so no slot is split)
+    private static final int CHUNK_SIZE = 32 * 1024 * 1024;
+
+    private static final int INDEX_HEADER = 16;
+    private static final int FIRST_INDEX_CAPACITY = 1 << 12;
+
+    private static final byte[] EMPTY_SLOT = new byte[SLOT_SIZE];
+
+    /**
+     * A handle that disappears from the handle table once nothing else uses it.
+     */
+    private static final class Handle extends WeakReference<Student>
+    {
+        final int slot;
+
+        Handle(Student student, int slot, ReferenceQueue<Student> queue)
+        {
+            super(student, queue);
+            this.slot = slot;
+        }
+    }
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+    private MappedByteBuffer index;
+    private int indexCapacity;
+
+    // Subject dictionary: ids are positions in the dictionary region
+    private final HashMap<String, Integer> idByName = new HashMap<>();
+    private final HashMap<String, Integer> foldIdByKey = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private int[] foldOf = new int[16];
+
+    private final HashMap<Integer, Handle> handles = new HashMap<>();
+    private final ReferenceQueue<Student> released = new ReferenceQueue<>();
+
+    private MappedStudentStore(String fileName, FileChannel channel, FileChannel indexChannel)
+    {
+        this.fileName = fileName;
+        this.channel = channel;
+        this.indexChannel = indexChannel;
+    }
+
+    /**
+     * Opens the file, creating it if needed. Takes about the same time for any size of roster.
+     */
+    public static MappedStudentStore open(String fileName) throws IOException
+    {
+        FileChannel channel = FileChannel.open(Paths.get(fileName),
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        FileChannel indexChannel = null;
+        try
+        {
+            indexChannel = FileChannel.open(Paths.get(fileName + ".idx"),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            MappedStudentStore store = new MappedStudentStore(fileName, channel, indexChannel);
+            store.mapRecords();
+            store.openIndex();
+            return store;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            if (indexChannel != null)
+            {
+                indexChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return header().getInt(H_LIVE);
+    }
+
+    public synchronized int getSubjectNameCount()
+    {
+        return names.size();
+    }
+
+    // -------------------------
+    // Students
+    // -------------------------
+
+    /**
+     * Copies the student into a new slot. Use find() afterwards for a handle
+     * whose changes are stored; the object passed in stays an ordinary Student.
+     */
+    @Override
+    public boolean add(Student s)
+    {
+        // Read the student before taking our lock (never hold ours while waiting for a student's)
+        String id = s.getId();
+        String name = s.getName();
+        List<Subject> subjects = s.getSubjects();
+        double gradeSum = s.getGradeSum();
+        byte[] idBytes = encode(id, MAX_ID_BYTES, "ID");
+        byte[] nameBytes = encode(name, MAX_NAME_BYTES, "Name");
+
+        synchronized (this)
+        {
+            if (lookup(id) >= 0)
+            {
+                return false;
+            }
+
+            // Intern first, so a subject that doesn't fit stops the add before anything is written
+            int[] subjectIds = new int[subjects.size()];
+            for (int i = 0; i < subjectIds.length; i++)
+            {
+                subjectIds[i] = intern(subjects.get(i).getName());
+            }
+
+            int slot = newSlot();
+            long at = slotOffset(slot);
+            MappedByteBuffer chunk = chunk(at);
+            int p = position(at);
+            long sequence = header().getLong(H_SEQUENCE);
+
+            chunk.put(p + S_STATE, STATE_LIVE);
+            if (s instanceof HonorsStudent)
+            {
+                chunk.put(p + S_TYPE, RosterSnapshot.TYPE_HONORS);
+                chunk.putDouble(p + S_BONUS, ((HonorsStudent) s).getBonusPoints());
+            }
+            else
+            {
+                chunk.put(p + S_TYPE, RosterSnapshot.TYPE_STUDENT);
+            }
+            chunk.putInt(p + S_NEXT, -1);
+            chunk.putLong(p + S_SEQUENCE, sequence);
+            chunk.putDouble(p + S_SUM, gradeSum);
+            putString(chunk, p + S_ID, idBytes);
+            putString(chunk, p + S_NAME, nameBytes);
+
+            for (int i = 0; i < subjectIds.length; i++)
+            {
+                long entry = gradeOffset(slot, i, true);
+                chunk(entry).putShort(position(entry), (short) subjectIds[i]);
+                chunk(entry).putDouble(position(entry) + 2, subjects.get(i).getGrade());
+            }
+            chunk.putShort(p + S_COUNT, (short) subjectIds.length);
+
+            indexInsert(hash(StudentRegistry.foldKey(id)), slot);
+            header().putLong(H_SEQUENCE, sequence + 1);
+            header().putInt(H_LIVE, header().getInt(H_LIVE) + 1);
+            return true;
+        }
+    }
+
+    /**
+     * A handle on the stored student: the same object while it's in use,
+     * and every grade change or rename goes straight into the file.
+     */
+    @Override
+    public synchronized Student find(String id)
+    {
+        int slot = lookup(id);
+        if (slot < 0)
+        {
+            return null;
+        }
+
+        expungeHandles();
+        Handle handle = handles.get(slot);
+        Student s = handle == null ? null : handle.get();
+        if (s == null)
+        {
+            s = readStudent(slot);
+            s.attach(this, s.getSequence());
+            handles.put(slot, new Handle(s, slot, released));
+        }
+        return s;
+    }
+
+    @Override
+    public synchronized Student peek(String id)
+    {
+        int slot = lookup(id);
+        return slot < 0 ? null : readStudent(slot);
+    }
+
+    @Override
+    public synchronized Student remove(String id)
+    {
+        int slot = lookup(id);
+        if (slot < 0)
+        {
+            return null;
+        }
+
+        indexRemove(slot);
+        Handle handle = handles.remove(slot);
+        Student live = handle == null ? null : handle.get();
+        if (live != null)
+        {
+            live.attach(null, 0);
+        }
+
+        // The grades stay in the slot, so the returned copy can still read them
+        long at = slotOffset(slot);
+        chunk(at).put(position(at) + S_STATE, STATE_REMOVED);
+        header().putInt(H_LIVE, header().getInt(H_LIVE) - 1);
+        return readStudent(slot);
+    }
+
+    /**
+     * Walks the slots in order. Our lock is only held while a copy is made,
+     * not while the action runs.
+     */
+    @Override
+    public void forEach(Consumer<Student> action)
+    {
+        for (int slot = 0; ; slot++)
+        {
+            Student s;
+            synchronized (this)
+            {
+                if (slot >= header().getInt(H_SLOTS))
+                {
+                    return;
+                }
+                long at = slotOffset(slot);
+                if (chunk(at).get(position(at) + S_STATE) != STATE_LIVE)
+                {
+                    continue;
+                }
+                s = readStudent(slot);
+            }
+            action.accept(s);
+        }
+    }
+
+    /**
+     * Removes every student. The file keeps its size and its subject dictionary;
+     * the slots are simply handed out again from the start.
+     */
+    @Override
+    public synchronized void clear()
+    {
+        for (Handle handle : handles.values())
+        {
+            Student s = handle.get();
+            if (s != null)
+            {
+                s.attach(null, 0);
+            }
+        }
+        handles.clear();
+
+        header().putInt(H_SLOTS, 0);
+        header().putInt(H_LIVE, 0);
+        header().putLong(H_SEQUENCE, 0);
+        resetIndex(FIRST_INDEX_CAPACITY);
+    }
+
+    @Override
+    public synchronized void flush()
+    {
+        for (MappedByteBuffer chunk : chunks)
+        {
+            chunk.force();
+        }
+        index.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        flush();
+        for (Handle handle : handles.values())
+        {
+            Student s = handle.get();
+            if (s != null)
+            {
+                s.attach(null, 0);
+            }
+        }
+        handles.clear();
+        indexChannel.close();
+        channel.close();
+    }
+
+    @Override
+    public synchronized String stats()
+    {
+        expungeHandles();
+        long mapped = (long) chunks.length * CHUNK_SIZE + INDEX_HEADER + (long) indexCapacity * 8;
+        return String.format(
+            "Mapped roster %s: %d students in %d slots, %d subject names, %.1f MB mapped%n"
+            + "Student handles on the heap: %d%n",
+            fileName, header().getInt(H_LIVE), header().getInt(H_SLOTS), names.size(),
+            mapped / (1024.0 * 1024.0), handles.size());
+    }
+
+    // -------------------------
+    // GradeSlots (the handles' grades)
+    // -------------------------
+
+    @Override
+    public synchronized Double get(int slot, String subjectName)
+    {
+        Integer fold = foldIdByKey.get(StudentRegistry.foldKey(subjectName));
+        if (fold == null)
+        {
+            return null;
+        }
+        long entry = findGrade(slot, fold);
+        return entry < 0 ? null : chunk(entry).getDouble(position(entry) + 2);
+    }
+
+    /**
+     * Same arithmetic on the stored total as Student does on its own,
+     * so a handle made later starts from exactly the same total.
+     */
+    @Override
+    public synchronized Double put(int slot, String subjectName, double grade)
+    {
+        int id = intern(subjectName);
+        long at = slotOffset(slot);
+        MappedByteBuffer chunk = chunk(at);
+        int p = position(at);
+
+        long entry = findGrade(slot, foldOf[id]);
+        if (entry >= 0)
+        {
+            double oldGrade = chunk(entry).getDouble(position(entry) + 2);
+            chunk(entry).putDouble(position(entry) + 2, grade);
+            chunk.putDouble(p + S_SUM, sum(slot));
+            return oldGrade;
+        }
+
+        int count = chunk.getShort(p + S_COUNT);
+        if (count == Short.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("A student in the mapped roster can have at most " + Short.MAX_VALUE + " subjects");
+        }
+        entry = gradeOffset(slot, count, true);
+        chunk(entry).putShort(position(entry), (short) id);
+        chunk(entry).putDouble(position(entry) + 2, grade);
+        chunk.putShort(p + S_COUNT, (short) (count + 1));
+        chunk.putDouble(p + S_SUM, chunk.getDouble(p + S_SUM) + grade);
+        return null;
+    }
+
+    @Override
+    public synchronized List<Subject> subjects(int slot)
+    {
+        SubjectView view = new SubjectView();
+        read(slot, view);
+        List<Subject> result = new ArrayList<>(view.size());
+        for (int i = 0; i < view.size(); i++)
+        {
+            result.add(new Subject(view.name(i), view.grade(i)));
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void read(int slot, SubjectView view)
+    {
+        long at = slotOffset(slot);
+        int count = chunk(at).getShort(position(at) + S_COUNT);
+        view.reset(count);
+
+        long block = at;
+        long entry = at + S_GRADES;
+        int left = HEAD_GRADES;
+        for (int k = 0; k < count; k++)
+        {
+            if (left == 0)
+            {
+                block = slotOffset(chunk(block).getInt(position(block) + S_NEXT));
+                entry = block + M_GRADES;
+                left = MORE_GRADES;
+            }
+            MappedByteBuffer chunk = chunk(entry);
+            view.set(k, names.get(chunk.getShort(position(entry))), chunk.getDouble(position(entry) + 2));
+            entry += GRADE_SIZE;
+            left--;
+        }
+    }
+
+    @Override
+    public synchronized double sum(int slot)
+    {
+        long at = slotOffset(slot);
+        int count = chunk(at).getShort(position(at) + S_COUNT);
+
+        double sum = 0.0;
+        long block = at;
+        long entry = at + S_GRADES;
+        int left = HEAD_GRADES;
+        for (int k = 0; k < count; k++)
+        {
+            if (left == 0)
+            {
+                block = slotOffset(chunk(block).getInt(position(block) + S_NEXT));
+                entry = block + M_GRADES;
+                left = MORE_GRADES;
+            }
+            sum += chunk(entry).getDouble(position(entry) + 2);
+            entry += GRADE_SIZE;
+            left--;
+        }
+        return sum;
+    }
+
+    // -------------------------
+    // StudentListener (renames of handles)
+    // -------------------------
+
+    @Override
+    public void gradeChanged(Student student, String subjectName, Double oldGrade, double newGrade)
+    {
+        // Already written by put()
+    }
+
+    @Override
+    public void nameChanged(Student student, String oldName)
+    {
+        byte[] bytes;
+        try
+        {
+            bytes = encode(student.getName(), MAX_NAME_BYTES, "Name");
+        }
+        catch (IllegalArgumentException e)
+        {
+            student.setName(oldName);
+            throw e;
+        }
+
+        synchronized (this)
+        {
+            int slot = lookup(student.getId());
+            if (slot >= 0)
+            {
+                long at = slotOffset(slot);
+                putString(chunk(at), position(at) + S_NAME, bytes);
+            }
+        }
+    }
+
+    // -------------------------
+    // Slots
+    // -------------------------
+
+    /**
+     * A detached Student for the slot, reading its grades from the file.
+     */
+    private Student readStudent(int slot)
+    {
+        long at = slotOffset(slot);
+        MappedByteBuffer chunk = chunk(at);
+        int p = position(at);
+
+        String id = getString(chunk, p + S_ID);
+        String name = getString(chunk, p + S_NAME);
+        int count = chunk.getShort(p + S_COUNT);
+        double gradeSum = chunk.getDouble(p + S_SUM);
+
+        Student s;
+        if (chunk.get(p + S_TYPE) == RosterSnapshot.TYPE_HONORS)
+        {
+            s = new HonorsStudent(id, name, chunk.getDouble(p + S_BONUS), this, slot, count, gradeSum);
+        }
+        else
+        {
+            s = new Student(id, name, this, slot, count, gradeSum);
+        }
+        s.attach(null, chunk.getLong(p + S_SEQUENCE));
+        return s;
+    }
+
+    /**
+     * Where the slot's grade for this subject is, or -1.
+     */
+    private long findGrade(int slot, int fold)
+    {
+        long at = slotOffset(slot);
+        int count = chunk(at).getShort(position(at) + S_COUNT);
+
+        long block = at;
+        long entry = at + S_GRADES;
+        int left = HEAD_GRADES;
+        for (int k = 0; k < count; k++)
+        {
+            if (left == 0)
+            {
+                block = slotOffset(chunk(block).getInt(position(block) + S_NEXT));
+                entry = block + M_GRADES;
+                left = MORE_GRADES;
+            }
+            if (foldOf[chunk(entry).getShort(position(entry))] == fold)
+            {
+                return entry;
+            }
+            entry += GRADE_SIZE;
+            left--;
+        }
+        return -1;
+    }
+
+    /**
+     * Where grade number k of the slot goes, adding an overflow slot if needed.
+     */
+    private long gradeOffset(int slot, int k, boolean create)
+    {
+        if (k < HEAD_GRADES)
+        {
+            return slotOffset(slot) + S_GRADES + (long) k * GRADE_SIZE;
+        }
+
+        k -= HEAD_GRADES;
+        long link = slotOffset(slot) + S_NEXT;
+        while (true)
+        {
+            int next = chunk(link).getInt(position(link));
+            if (next < 0)
+            {
+                if (!create)
+                {
+                    return -1;
+                }
+                next = newSlot();
+                long more = slotOffset(next);
+                chunk(more).put(position(more) + S_STATE, STATE_MORE);
+                chunk(more).putInt(position(more) + S_NEXT, -1);
+                chunk(link).putInt(position(link), next);
+            }
+            if (k < MORE_GRADES)
+            {
+                return slotOffset(next) + M_GRADES + (long) k * GRADE_SIZE;
+            }
+            k -= MORE_GRADES;
+            link = slotOffset(next) + S_NEXT;
+        }
+    }
+
+    private int newSlot()
+    {
+        int slot = header().getInt(H_SLOTS);
+        if (slot == Integer.MAX_VALUE)
+        {
+            throw new IllegalStateException("The mapped roster is full");
+        }
+        long at = slotOffset(slot);
+        ensureMapped(at + SLOT_SIZE);
+        chunk(at).put(position(at), EMPTY_SLOT);
+        header().putInt(H_SLOTS, slot + 1);
+        return slot;
+    }
+
+    private static long slotOffset(int slot)
+    {
+        return DATA_START + (long) slot * SLOT_SIZE;
+    }
+
+    // -------------------------
+    // Subject dictionary
+    // -------------------------
+
+    private int intern(String subjectName)
+    {
+        Integer id = idByName.get(subjectName);
+        if (id != null)
+        {
+            return id;
+        }
+        if (names.size() == MAX_SUBJECTS)
+        {
+            throw new IllegalArgumentException("The mapped roster holds at most " + MAX_SUBJECTS + " different subject names");
+        }
+
+        byte[] bytes = encode(subjectName, MAX_SUBJECT_BYTES, "Subject name");
+        int newId = names.size();
+        putString(header(), DICTIONARY_START + newId * DICTIONARY_ENTRY, bytes);
+        header().putInt(H_SUBJECTS, newId + 1);
+        remember(subjectName, newId);
+        return newId;
+    }
+
+    private void remember(String subjectName, int id)
+    {
+        Integer fold = foldIdByKey.get(StudentRegistry.foldKey(subjectName));
+        if (fold == null)
+        {
+            fold = foldIdByKey.size();
+            foldIdByKey.put(StudentRegistry.foldKey(subjectName), fold);
+        }
+        if (id == foldOf.length)
+        {
+            foldOf = Arrays.copyOf(foldOf, id * 2);
+        }
+        foldOf[id] = fold;
+        names.add(subjectName);
+        idByName.put(subjectName, id);
+    }
+
+    // -------------------------
+    // ID index (open addressing, linear probing; entries are int hash, int slot + 1)
+    // -------------------------
+
+    private static int hash(String key)
+    {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The slot of the live student with this ID, or -1.
+     */
+    private int lookup(String id)
+    {
+        String key = StudentRegistry.foldKey(id);
+        int h = hash(key);
+        int mask = indexCapacity - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask)
+        {
+            int entry = INDEX_HEADER + i * 8;
+            int slot = index.getInt(entry + 4) - 1;
+            if (slot < 0)
+            {
+                return -1;
+            }
+            if (index.getInt(entry) == h)
+            {
+                long at = slotOffset(slot);
+                if (StudentRegistry.foldKey(getString(chunk(at), position(at) + S_ID)).equals(key))
+                {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private void indexInsert(int h, int slot)
+    {
+        int count = index.getInt(8);
+        if ((count + 1) * 2 > indexCapacity)
+        {
+            growIndex();
+        }
+        int mask = indexCapacity - 1;
+        int i = h & mask;
+        while (index.getInt(INDEX_HEADER + i * 8 + 4) != 0)
+        {
+            i = (i + 1) & mask;
+        }
+        index.putInt(INDEX_HEADER + i * 8, h);
+        index.putInt(INDEX_HEADER + i * 8 + 4, slot + 1);
+        index.putInt(8, count + 1);
+    }
+
+    /**
+     * Takes the slot out of the table and shifts later entries back,
+     * so lookups never need tombstones.
+     */
+    private void indexRemove(int slot)
+    {
+        int mask = indexCapacity - 1;
+        long at = slotOffset(slot);
+        int h = hash(StudentRegistry.foldKey(getString(chunk(at), position(at) + S_ID)));
+        int hole = h & mask;
+        while (index.getInt(INDEX_HEADER + hole * 8 + 4) != slot + 1)
+        {
+            hole = (hole + 1) & mask;
+        }
+
+        int j = hole;
+        while (true)
+        {
+            j = (j + 1) & mask;
+            int entry = INDEX_HEADER + j * 8;
+            if (index.getInt(entry + 4) == 0)
+            {
+                break;
+            }
+            int home = index.getInt(entry) & mask;
+            // Move j back if its home isn't between the hole and j (cyclically)
+            boolean between = hole <= j ? (home > hole && home <= j) : (home > hole || home <= j);
+            if (!between)
+            {
+                index.putLong(INDEX_HEADER + hole * 8, index.getLong(entry));
+                hole = j;
+            }
+        }
+        index.putLong(INDEX_HEADER + hole * 8, 0L);
+        index.putInt(8, index.getInt(8) - 1);
+    }
+
+    private void growIndex()
+    {
+        int count = index.getInt(8);
+        long[] entries = new long[count];
+        int n = 0;
+        for (int i = 0; i < indexCapacity; i++)
+        {
+            long entry = index.getLong(INDEX_HEADER + i * 8);
+            if ((int) entry != 0)
+            {
+                entries[n++] = entry;
+            }
+        }
+
+        resetIndex(indexCapacity * 2);
+        int mask = indexCapacity - 1;
+        for (int k = 0; k < n; k++)
+        {
+            int i = (int) (entries[k] >> 32) & mask;
+            while (index.getInt(INDEX_HEADER + i * 8 + 4) != 0)
+            {
+                i = (i + 1) & mask;
+            }
+            index.putLong(INDEX_HEADER + i * 8, entries[k]);
+        }
+        index.putInt(8, n);
+    }
+
+    /**
+     * Maps an empty table of the given capacity.
+     */
+    private void resetIndex(int capacity)
+    {
+        try
+        {
+            long size = INDEX_HEADER + (long) capacity * 8;
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IllegalStateException("The mapped roster index is full");
+            }
+            indexChannel.truncate(0);
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            indexCapacity = capacity;
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, capacity);
+            index.putInt(8, 0);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Uses the index file if it matches the records, otherwise builds it again from the slots.
+     */
+    private void openIndex() throws IOException
+    {
+        long size = indexChannel.size();
+        if (size >= INDEX_HEADER)
+        {
+            MappedByteBuffer existing = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int capacity = existing.getInt(4);
+            boolean usable = existing.getInt(0) == INDEX_MAGIC
+                && capacity >= FIRST_INDEX_CAPACITY && Integer.bitCount(capacity) == 1
+                && size == INDEX_HEADER + (long) capacity * 8
+                && existing.getInt(8) == header().getInt(H_LIVE);
+            if (usable)
+            {
+                index = existing;
+                indexCapacity = capacity;
+                return;
+            }
+        }
+
+        int live = header().getInt(H_LIVE);
+        int capacity = FIRST_INDEX_CAPACITY;
+        while (capacity < live * 2L)
+        {
+            capacity *= 2;
+        }
+        resetIndex(capacity);
+
+        int slots = header().getInt(H_SLOTS);
+        int found = 0;
+        for (int slot = 0; slot < slots; slot++)
+        {
+            long at = slotOffset(slot);
+            if (chunk(at).get(position(at) + S_STATE) == STATE_LIVE)
+            {
+                indexInsert(hash(StudentRegistry.foldKey(getString(chunk(at), position(at) + S_ID))), slot);
+                found++;
+            }
+        }
+        header().putInt(H_LIVE, found);
+    }
+
+    private void expungeHandles()
+    {
+        Object ref;
+        while ((ref = released.poll()) != null)
+        {
+            Handle handle = (Handle) ref;
+            handles.remove(handle.slot, handle);
+        }
+    }
+
+    // -------------------------
+    // Mapping
+    // -------------------------
+
+    private void mapRecords() throws IOException
+    {
+        long size = channel.size();
+        boolean fresh = size == 0;
+        ensureMapped(Math.max(size, DATA_START));
+
+        MappedByteBuffer header = header();
+        if (fresh)
+        {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(H_SLOT_SIZE, SLOT_SIZE);
+            return;
+        }
+
+        if (header.getInt(0) != MAGIC)
+        {
+            throw new IOException(fileName + " is not a mapped roster file");
+        }
+        if (header.getInt(4) != VERSION)
+        {
+            throw new IOException("Unsupported mapped roster version " + header.getInt(4));
+        }
+        if (header.getInt(H_SLOT_SIZE) != SLOT_SIZE)
+        {
+            throw new IOException("Mapped roster uses " + header.getInt(H_SLOT_SIZE) + "-byte slots, expected " + SLOT_SIZE);
+        }
+
+        int subjects = header.getInt(H_SUBJECTS);
+        for (int id = 0; id < subjects; id++)
+        {
+            remember(getString(header, DICTIONARY_START + id * DICTIONARY_ENTRY), id);
+        }
+    }
+
+    /**
+     * Maps more of the file (growing it) until the first end bytes are mapped.
+     */
+    private void ensureMapped(long end)
+    {
+        while ((long) chunks.length * CHUNK_SIZE < end)
+        {
+            try
+            {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) chunks.length * CHUNK_SIZE, CHUNK_SIZE);
+                chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                chunks[chunks.length - 1] = chunk;
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private MappedByteBuffer header()
+    {
+        return chunks[0];
+    }
+
+    private MappedByteBuffer chunk(long offset)
+    {
+        return chunks[(int) (offset / CHUNK_SIZE)];
+    }
+
+    private static int position(long offset)
+    {
+        return (int) (offset % CHUNK_SIZE);
+    }
+
+    // -------------------------
+    // Strings (byte length, then UTF-8)
+    // -------------------------
+
+    private static byte[] encode(String value, int maxBytes, String what)
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes)
+        {
+            throw new IllegalArgumentException(what + " is too long for the mapped roster (at most " + maxBytes + " bytes): " + value);
+        }
+        return bytes;
+    }
+
+    private static void putString(MappedByteBuffer buffer, int at, byte[] bytes)
+    {
+        buffer.put(at, (byte) bytes.length);
+        buffer.put(at + 1, bytes);
+    }
+
+    private static String getString(MappedByteBuffer buffer, int at)
+    {
+        byte[] bytes = new byte[buffer.get(at) & 0xFF];
+        buffer.get(at + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,456 @@
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics class
+ * Counts calls and times every operation of the system, and counts the bytes
+ * read from and written to files. The numbers can be printed from the menu or
+ * read over JMX (see MetricsMBean) while the program runs.
+ *
+ * Each operation has a Timer with a latency histogram: 16 buckets for every
+ * power of two of nanoseconds, so a percentile is within about 6% of the real
+ * value. Recording an operation is two System.nanoTime() calls and two atomic
+ * adds on arrays made up front, so it allocates nothing and can stay on all the
+ * time. The arrays are split into stripes by thread, so threads recording the
+ * same operation mostly don't fight over one counter.
+ *
+ * Start the program with -Dsms.metrics=false to turn the recording off.
+ */
+public final class Metrics implements MetricsMBean
+{
+
+    /** False when the program was started with -Dsms.metrics=false. */
+    public static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("sms.metrics"));
+
+    /** Name the metrics are registered under in the platform MBean server. */
+    public static final String OBJECT_NAME = "StudentManagementSystem:type=Metrics";
+
+    // Histogram layout: values below 2^SUB_BITS ns get a bucket each, every
+    // power of two above that gets SUB buckets, up to 2^MAX_EXP ns (about 18 minutes)
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 40;
+    private static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+    // Each stripe holds the buckets, then the total and the largest time
+    private static final int TOTAL = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final LongAdder BYTES_READ = new LongAdder();
+    private static final LongAdder BYTES_WRITTEN = new LongAdder();
+    private static volatile long resetAt = System.nanoTime();
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    /**
+     * Call count and latency histogram for one operation. Make one per operation
+     * up front (usually a static final field) with Metrics.timer.
+     */
+    public static final class Timer
+    {
+        private final String name;
+        private final AtomicLongArray[] stripes;
+
+        private Timer(String name)
+        {
+            this.name = name;
+            this.stripes = new AtomicLongArray[STRIPES];
+            for (int i = 0; i < STRIPES; i++)
+            {
+                stripes[i] = new AtomicLongArray(BUCKETS + 2);
+            }
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Records one call that began at start (from Metrics.start()).
+         */
+        public void record(long start)
+        {
+            if (ENABLED)
+            {
+                recordNanos(System.nanoTime() - start);
+            }
+        }
+
+        public void recordNanos(long nanos)
+        {
+            if (!ENABLED)
+            {
+                return;
+            }
+            if (nanos < 0)
+            {
+                nanos = 0;
+            }
+            AtomicLongArray stripe = stripes[(int) Thread.currentThread().threadId() & (STRIPES - 1)];
+            stripe.getAndIncrement(bucket(nanos));
+            stripe.getAndAdd(TOTAL, nanos);
+            long max = stripe.get(MAX);
+            while (nanos > max && !stripe.compareAndSet(MAX, max, nanos))
+            {
+                max = stripe.get(MAX);
+            }
+        }
+
+        /**
+         * Adds up the stripes. Reading allocates; only recording has to be free.
+         */
+        public Snapshot snapshot()
+        {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            long max = 0;
+            for (AtomicLongArray stripe : stripes)
+            {
+                for (int i = 0; i < BUCKETS; i++)
+                {
+                    counts[i] += stripe.get(i);
+                }
+                total += stripe.get(TOTAL);
+                max = Math.max(max, stripe.get(MAX));
+            }
+            return new Snapshot(name, counts, total, max);
+        }
+
+        private void reset()
+        {
+            for (AtomicLongArray stripe : stripes)
+            {
+                for (int i = 0; i < stripe.length(); i++)
+                {
+                    stripe.set(i, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * The numbers of one Timer at one moment.
+     */
+    public static final class Snapshot
+    {
+        public final String name;
+        public final long calls;
+        public final long totalNanos;
+        public final long maxNanos;
+        private final long[] counts;
+
+        private Snapshot(String name, long[] counts, long totalNanos, long maxNanos)
+        {
+            long calls = 0;
+            for (long c : counts)
+            {
+                calls += c;
+            }
+            this.name = name;
+            this.calls = calls;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.counts = counts;
+        }
+
+        /**
+         * Time (ns) that the given fraction of calls took at most, e.g. 0.99 for p99.
+         * Returns the top of the bucket, so it errs on the slow side.
+         */
+        public long percentile(double fraction)
+        {
+            if (calls == 0)
+            {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * calls));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                seen += counts[i];
+                if (seen >= rank)
+                {
+                    return Math.min(maxNanos, upperBound(i));
+                }
+            }
+            return maxNanos;
+        }
+
+        public double meanNanos()
+        {
+            return calls == 0 ? 0.0 : (double) totalNanos / calls;
+        }
+    }
+
+    private Metrics()
+    {
+    }
+
+    /**
+     * The timer for an operation, made the first time it is asked for.
+     */
+    public static Timer timer(String name)
+    {
+        return TIMERS.computeIfAbsent(name, Timer::new);
+    }
+
+    /**
+     * Start time to pass to Timer.record when the operation is done.
+     */
+    public static long start()
+    {
+        return ENABLED ? System.nanoTime() : 0L;
+    }
+
+    public static void bytesRead(long bytes)
+    {
+        if (ENABLED && bytes > 0)
+        {
+            BYTES_READ.add(bytes);
+        }
+    }
+
+    public static void bytesWritten(long bytes)
+    {
+        if (ENABLED && bytes > 0)
+        {
+            BYTES_WRITTEN.add(bytes);
+        }
+    }
+
+    /**
+     * Wraps a file stream so every byte read through it is counted.
+     */
+    public static InputStream countReads(InputStream in)
+    {
+        return new FilterInputStream(in)
+        {
+            @Override
+            public int read() throws IOException
+            {
+                int b = super.read();
+                if (b >= 0)
+                {
+                    bytesRead(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                int n = in.read(b, off, len);
+                bytesRead(n);
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Wraps a file stream so every byte written through it is counted.
+     */
+    public static OutputStream countWrites(OutputStream out)
+    {
+        return new FilterOutputStream(out)
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                out.write(b);
+                bytesWritten(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                out.write(b, off, len);
+                bytesWritten(len);
+            }
+        };
+    }
+
+    /**
+     * Every timer that has recorded at least one call, by name.
+     */
+    public static List<Snapshot> snapshots()
+    {
+        List<Snapshot> result = new ArrayList<>();
+        for (Timer t : TIMERS.values())
+        {
+            Snapshot s = t.snapshot();
+            if (s.calls > 0)
+            {
+                result.add(s);
+            }
+        }
+        result.sort((a, b) -> a.name.compareTo(b.name));
+        return result;
+    }
+
+    /**
+     * Sets every count back to zero. Calls that are being recorded right now
+     * may land on either side of the reset.
+     */
+    public static void resetAll()
+    {
+        for (Timer t : TIMERS.values())
+        {
+            t.reset();
+        }
+        BYTES_READ.reset();
+        BYTES_WRITTEN.reset();
+        resetAt = System.nanoTime();
+    }
+
+    /**
+     * A table of every operation that has been called, for the menu.
+     */
+    public static String text()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("=== Metrics (last %.1f s) ===%n", (System.nanoTime() - resetAt) / 1e9));
+        if (!ENABLED)
+        {
+            sb.append("Metrics are turned off (-Dsms.metrics=false).").append(System.lineSeparator());
+            return sb.toString();
+        }
+
+        List<Snapshot> all = snapshots();
+        if (all.isEmpty())
+        {
+            sb.append("No operations recorded yet.").append(System.lineSeparator());
+        }
+        else
+        {
+            sb.append(String.format("%-34s %10s %10s %10s %10s %10s %10s%n",
+                "Operation", "Calls", "Mean us", "p50 us", "p99 us", "p99.9 us", "Max us"));
+            for (Snapshot s : all)
+            {
+                sb.append(String.format("%-34s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    s.name, s.calls, s.meanNanos() / 1e3, s.percentile(0.50) / 1e3,
+                    s.percentile(0.99) / 1e3, s.percentile(0.999) / 1e3, s.maxNanos / 1e3));
+            }
+        }
+        sb.append(String.format("File bytes read: %d, written: %d%n", BYTES_READ.sum(), BYTES_WRITTEN.sum()));
+        return sb.toString();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server (jconsole, VisualVM, ...).
+     * Does nothing if they are already registered.
+     */
+    public static void registerMBean() throws JMException
+    {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+        }
+    }
+
+    // -------------------------
+    // MetricsMBean
+    // -------------------------
+
+    @Override
+    public String[] getOperations()
+    {
+        List<Snapshot> all = snapshots();
+        String[] names = new String[all.size()];
+        for (int i = 0; i < names.length; i++)
+        {
+            names[i] = all.get(i).name;
+        }
+        return names;
+    }
+
+    @Override
+    public long getBytesRead()
+    {
+        return BYTES_READ.sum();
+    }
+
+    @Override
+    public long getBytesWritten()
+    {
+        return BYTES_WRITTEN.sum();
+    }
+
+    @Override
+    public String getReport()
+    {
+        return text();
+    }
+
+    @Override
+    public long calls(String operation)
+    {
+        Timer t = TIMERS.get(operation);
+        return t == null ? 0 : t.snapshot().calls;
+    }
+
+    @Override
+    public double percentileMicros(String operation, double percentile)
+    {
+        Timer t = TIMERS.get(operation);
+        return t == null ? 0.0 : t.snapshot().percentile(percentile / 100.0) / 1e3;
+    }
+
+    @Override
+    public double maxMicros(String operation)
+    {
+        Timer t = TIMERS.get(operation);
+        return t == null ? 0.0 : t.snapshot().maxNanos / 1e3;
+    }
+
+    @Override
+    public void reset()
+    {
+        resetAll();
+    }
+
+    // -------------------------
+    // Histogram buckets
+    // -------------------------
+
+    private static int bucket(long nanos)
+    {
+        if (nanos < SUB)
+        {
+            return (int) nanos;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exp > MAX_EXP)
+        {
+            return BUCKETS - 1;
+        }
+        return (exp - SUB_BITS + 1) * SUB + (int) ((nanos >>> (exp - SUB_BITS)) & (SUB - 1));
+    }
+
+    // Largest value that lands in bucket i
+    private static long upperBound(int i)
+    {
+        if (i < SUB)
+        {
+            return i;
+        }
+        int shift = i / SUB - 1;
+        long lower = (long) (SUB + i % SUB) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * MetricsMBean interface
+ * What Metrics shows over JMX, under the name StudentManagementSystem:type=Metrics.
+ * Operation names are the ones in the metrics report (e.g. "saveToFile" or
+ * "Student.addOrUpdateSubject").
+ */
+public interface MetricsMBean
+{
+
+    /** Names of the operations called so far. */
+    String[] getOperations();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    /** The same table the metrics menu option prints. */
+    String getReport();
+
+    long calls(String operation);
+
+    /** Latency in microseconds at a percentile from 0 to 100 (e.g. 99.9). */
+    double percentileMicros(String operation, double percentile);
+
+    double maxMicros(String operation);
+
+    /** Sets every count back to zero. */
+    void reset();
+}
@@ -0,0 +1,772 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * MutationJournal class
+ * Makes the roster durable without rewriting the whole file on every save.
+ * Every change (add, remove, rename, grade) is appended to a journal file as a
+ * small record, so the cost of a change is proportional to the change itself.
+ *
+ * The data directory holds:
+ *   snapshot-N.snap  a RosterSnapshot with every change from journals before N
+ *   journal-N.log    the changes made after that, in order
+ * On startup the newest snapshot is loaded and the later journals are replayed.
+ *
+ * Records are collected in memory and written by a background thread in batches
+ * (group commit): one write and one fsync cover every record that arrived while
+ * the previous batch was being written. When a journal file gets big, a new one is
+ * started and a background compaction folds the old ones into a fresh snapshot,
+ * working only from the files, never from the live roster.
+ *
+ * Record layout: int body length, int CRC32 of the body, then the body:
+ *   byte op, then op-specific fields (strings and varints as in RosterSnapshot).
+ * Replay stops at the first record that is cut short or fails its checksum,
+ * which is what a crash in the middle of a write leaves behind, and doesn't go
+ * on to later journals either: their changes were made on top of the lost ones.
+ * The damaged journal and any later ones are copied to *.damaged, and a
+ * checkpoint of what was recovered replaces them.
+ */
+public class MutationJournal implements Closeable
+{
+
+    static final byte OP_ADD = 1;
+    static final byte OP_REMOVE = 2;
+    static final byte OP_NAME = 3;
+    static final byte OP_GRADE = 4;
+
+    public static final long DEFAULT_SEGMENT_BYTES = 8L * 1024 * 1024;
+    public static final long DEFAULT_FLUSH_MILLIS = 5;
+
+    // A batch this big is written right away instead of waiting for the flush interval
+    private static final int BATCH_BYTES = 256 * 1024;
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String JOURNAL_SUFFIX = ".log";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long flushMillis;
+
+    // Records waiting to be written, and the number of records appended/made durable.
+    // All guarded by "this".
+    private ByteArrayOutputStream pending;
+    private ByteArrayOutputStream spare;
+    private long appendedCount;
+    private long durableCount;
+    private boolean flushRequested;
+    private boolean closed;
+    private IOException failure;
+
+    // Reused to encode one record at a time (also guarded by "this")
+    private final ByteArrayOutputStream recordBytes;
+    private final DataOutputStream record;
+    private final CRC32 crc;
+
+    // The open journal file. Only touched while holding ioLock.
+    private final Object ioLock = new Object();
+    private FileChannel channel;
+    private long segment;
+
+    private final Thread flusher;
+    private final ExecutorService compactor;
+
+    // What recovery found, for the startup message
+    private int recoveredStudents;
+    private long replayedRecords;
+
+    /**
+     * What replaying journal files found: how many records were applied,
+     * and where the first bad record is (badFile stays null if there was none).
+     */
+    private static final class Replay
+    {
+        long applied;
+        Path badFile;
+        long badOffset;
+    }
+
+    private MutationJournal(Path directory, long segment, long segmentBytes, long flushMillis) throws IOException
+    {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.flushMillis = flushMillis;
+        this.pending = new ByteArrayOutputStream(BATCH_BYTES);
+        this.spare = new ByteArrayOutputStream(BATCH_BYTES);
+        this.recordBytes = new ByteArrayOutputStream(128);
+        this.record = new DataOutputStream(recordBytes);
+        this.crc = new CRC32();
+
+        this.segment = segment;
+        this.channel = openSegment(segment);
+
+        this.compactor = Executors.newSingleThreadExecutor(r ->
+        {
+            Thread t = new Thread(r, "journal-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Rebuilds the registry from the data directory (newest snapshot plus journal
+     * replay) and returns a journal that logs every later change to it.
+     * The registry is cleared first.
+     */
+    public static MutationJournal open(String directoryName, StudentRegistry registry) throws IOException
+    {
+        return open(directoryName, registry, DEFAULT_SEGMENT_BYTES, DEFAULT_FLUSH_MILLIS);
+    }
+
+    public static MutationJournal open(String directoryName, StudentRegistry registry,
+                                       long segmentBytes, long flushMillis) throws IOException
+    {
+        Path directory = Paths.get(directoryName);
+        Files.createDirectories(directory);
+
+        registry.clear();
+        long snapshot = newestSnapshot(directory);
+        if (snapshot >= 0)
+        {
+            registry.addAll(RosterSnapshot.read(snapshotPath(directory, snapshot).toString()), new ArrayList<>());
+        }
+
+        Replay replay = new Replay();
+        List<Path> skipped = new ArrayList<>();
+        long lastSegment = -1;
+        for (long n : numbers(directory, JOURNAL_PREFIX, JOURNAL_SUFFIX))
+        {
+            lastSegment = Math.max(lastSegment, n);
+            if (n < snapshot)
+            {
+                continue;
+            }
+            Path file = journalPath(directory, n);
+            if (replay.badFile == null)
+            {
+                replay(file, registry, replay);
+            }
+            else
+            {
+                skipped.add(file);
+            }
+        }
+
+        MutationJournal journal = new MutationJournal(directory, Math.max(lastSegment + 1, Math.max(snapshot, 0)),
+            segmentBytes, flushMillis);
+        journal.recoveredStudents = registry.size();
+        journal.replayedRecords = replay.applied;
+        registry.setJournal(journal);
+
+        if (replay.badFile != null)
+        {
+            System.out.println("Journal replay stopped at byte " + replay.badOffset + " of " + replay.badFile.getFileName()
+                + " (a record cut short or failing its checksum)"
+                + (skipped.isEmpty() ? "" : "; " + skipped.size()
+                    + (skipped.size() == 1 ? " later journal file was" : " later journal files were") + " not replayed"));
+
+            // Keep the unreplayed files for a look, then start over from what was recovered
+            // (copied, not moved, so a crash before the checkpoint finds them again)
+            skipped.add(0, replay.badFile);
+            for (Path file : skipped)
+            {
+                Files.copy(file, file.resolveSibling(file.getFileName() + ".damaged"), StandardCopyOption.REPLACE_EXISTING);
+            }
+            try
+            {
+                journal.checkpoint(registry);
+            }
+            catch (IOException e)
+            {
+                registry.setJournal(null);
+                journal.close();
+                throw e;
+            }
+        }
+        return journal;
+    }
+
+    public int getRecoveredStudents()
+    {
+        return recoveredStudents;
+    }
+
+    public long getReplayedRecords()
+    {
+        return replayedRecords;
+    }
+
+    // -------------------------
+    // Logging changes
+    // -------------------------
+
+    /**
+     * Logs a new student, including any grades they already have.
+     */
+    public synchronized void logAdd(Student s)
+    {
+        try
+        {
+            startRecord(OP_ADD);
+            boolean honors = s instanceof HonorsStudent;
+            record.writeBoolean(honors);
+            if (honors)
+            {
+                record.writeDouble(((HonorsStudent) s).getBonusPoints());
+            }
+            RosterSnapshot.writeString(record, s.getId());
+            RosterSnapshot.writeString(record, s.getName());
+            finishRecord();
+
+            for (Subject subj : s.getSubjects())
+            {
+                logGrade(s, subj.getName(), subj.getGrade());
+            }
+        }
+        catch (IOException e)
+        {
+            // Writing to a ByteArrayOutputStream can't really fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized void logRemove(String id)
+    {
+        try
+        {
+            startRecord(OP_REMOVE);
+            RosterSnapshot.writeString(record, id);
+            finishRecord();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized void logName(Student s)
+    {
+        try
+        {
+            startRecord(OP_NAME);
+            RosterSnapshot.writeString(record, s.getId());
+            RosterSnapshot.writeString(record, s.getName());
+            finishRecord();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized void logGrade(Student s, String subjectName, double grade)
+    {
+        try
+        {
+            startRecord(OP_GRADE);
+            RosterSnapshot.writeString(record, s.getId());
+            RosterSnapshot.writeString(record, subjectName);
+            RosterSnapshot.writeGrade(record, grade);
+            finishRecord();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void startRecord(byte op) throws IOException
+    {
+        recordBytes.reset();
+        record.writeByte(op);
+    }
+
+    private void finishRecord()
+    {
+        boolean wasEmpty = pending.size() == 0;
+
+        byte[] body = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(body, 0, body.length);
+
+        writeInt(pending, body.length);
+        writeInt(pending, (int) crc.getValue());
+        pending.write(body, 0, body.length);
+
+        appendedCount++;
+        if (wasEmpty || pending.size() >= BATCH_BYTES)
+        {
+            notifyAll(); // wake the flusher: a new batch started, or this one is full
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value)
+    {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // -------------------------
+    // Flushing and rotation
+    // -------------------------
+
+    /**
+     * Waits until every change logged so far is on disk.
+     */
+    public void flush() throws IOException
+    {
+        synchronized (this)
+        {
+            long target = appendedCount;
+            flushRequested = true;
+            notifyAll();
+
+            while (durableCount < target && failure == null)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while flushing the journal");
+                }
+            }
+            if (failure != null)
+            {
+                throw failure;
+            }
+        }
+    }
+
+    private void flushLoop()
+    {
+        while (true)
+        {
+            ByteArrayOutputStream batch;
+            long batchCount;
+
+            synchronized (this)
+            {
+                while (pending.size() == 0 && !closed)
+                {
+                    waitQuietly(0);
+                }
+                if (pending.size() == 0 && closed)
+                {
+                    return;
+                }
+
+                // Give other changes a moment to join this batch
+                if (!closed && !flushRequested && pending.size() < BATCH_BYTES)
+                {
+                    waitQuietly(flushMillis);
+                }
+
+                batch = pending;
+                pending = spare;
+                spare = null;
+                batchCount = appendedCount;
+                flushRequested = false;
+            }
+
+            IOException error = null;
+            try
+            {
+                synchronized (ioLock)
+                {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch.toByteArray());
+                    while (buffer.hasRemaining())
+                    {
+                        Metrics.bytesWritten(channel.write(buffer));
+                    }
+                    channel.force(false);
+
+                    if (channel.size() >= segmentBytes)
+                    {
+                        rotateAndCompact();
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+
+            synchronized (this)
+            {
+                if (error != null && failure == null)
+                {
+                    failure = error;
+                    System.out.println("Journal write failed: " + error.getMessage());
+                }
+                durableCount = batchCount;
+                batch.reset();
+                spare = batch;
+                notifyAll();
+            }
+        }
+    }
+
+    private void waitQuietly(long millis)
+    {
+        try
+        {
+            wait(millis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts a new journal file and folds the finished ones into a snapshot
+     * in the background. Must hold ioLock.
+     */
+    private void rotateAndCompact() throws IOException
+    {
+        long next = rotate();
+        compactor.submit(() ->
+        {
+            try
+            {
+                compact(next);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Journal compaction failed: " + e.getMessage());
+            }
+        });
+    }
+
+    // Must hold ioLock. Returns the number of the new journal file.
+    private long rotate() throws IOException
+    {
+        channel.close();
+        segment++;
+        channel = openSegment(segment);
+        return segment;
+    }
+
+    /**
+     * Builds snapshot-upTo from the newest older snapshot plus journals before upTo,
+     * then deletes the files it replaces. Runs on the compactor thread.
+     */
+    private void compact(long upTo) throws IOException
+    {
+        long base = newestSnapshot(directory);
+        if (base >= upTo)
+        {
+            return; // a checkpoint already wrote this or a newer snapshot
+        }
+
+        StudentRegistry scratch = new StudentRegistry();
+        if (base >= 0)
+        {
+            scratch.addAll(RosterSnapshot.read(snapshotPath(directory, base).toString()), new ArrayList<>());
+        }
+
+        Replay replay = new Replay();
+        for (long n : numbers(directory, JOURNAL_PREFIX, JOURNAL_SUFFIX))
+        {
+            if (n >= Math.max(base, 0) && n < upTo && !replay(journalPath(directory, n), scratch, replay))
+            {
+                // Leave the files alone; the next startup stops there and reports it
+                throw new IOException("Bad record at byte " + replay.badOffset + " of " + replay.badFile.getFileName());
+            }
+        }
+
+        try (RosterView view = scratch.openView())
+        {
+            writeSnapshot(view, upTo);
+        }
+    }
+
+    /**
+     * Writes snapshot-n atomically (temp file, fsync, rename), then removes the
+     * snapshots and journals it makes unnecessary.
+     */
+    private void writeSnapshot(RosterView view, long n) throws IOException
+    {
+        Path target = snapshotPath(directory, n);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+
+        RosterSnapshot.write(view, temp.toString());
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE))
+        {
+            file.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (long old : numbers(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX))
+        {
+            if (old < n)
+            {
+                Files.deleteIfExists(snapshotPath(directory, old));
+            }
+        }
+        for (long old : numbers(directory, JOURNAL_PREFIX, JOURNAL_SUFFIX))
+        {
+            if (old < n)
+            {
+                Files.deleteIfExists(journalPath(directory, old));
+            }
+        }
+    }
+
+    /**
+     * Writes a fresh snapshot of the roster and starts a new journal file.
+     * Used after a bulk load, which replaces the roster without logging each student.
+     * The snapshot comes from a RosterView, so other threads can keep changing
+     * the roster. The view is opened after the new journal file is started: a
+     * change made in between lands in both, and replaying it again changes
+     * nothing, where one made before the rotation would be in neither.
+     */
+    public void checkpoint(StudentRegistry registry) throws IOException
+    {
+        flush();
+
+        long next;
+        synchronized (ioLock)
+        {
+            next = rotate();
+        }
+
+        try (RosterView view = registry.openView())
+        {
+            // Run on the compactor thread so it never overlaps a compaction
+            compactor.submit(() ->
+            {
+                writeSnapshot(view, next);
+                return null;
+            }).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing a checkpoint");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Flushes everything, waits for a running compaction and closes the journal file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                closed = true;
+                notifyAll();
+            }
+            try
+            {
+                flusher.join();
+                compactor.shutdown();
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (ioLock)
+            {
+                channel.close();
+            }
+        }
+    }
+
+    // -------------------------
+    // Replay
+    // -------------------------
+
+    /**
+     * Applies the records in one journal file to the registry, up to the first
+     * one that is cut short or fails its checksum. Counts them in result, and
+     * returns false (with the bad record's place in result) if it stopped early.
+     */
+    private static boolean replay(Path file, StudentRegistry registry, Replay result) throws IOException
+    {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        Metrics.bytesRead(in.remaining());
+        CRC32 check = new CRC32();
+
+        while (in.hasRemaining())
+        {
+            int start = in.position();
+            int length = 0;
+            int expected = 0;
+            if (in.remaining() >= 8)
+            {
+                length = in.getInt();
+                expected = in.getInt();
+            }
+            boolean good = length >= 1 && length <= in.remaining();
+            if (good)
+            {
+                check.reset();
+                check.update(in.array(), in.position(), length);
+                good = (int) check.getValue() == expected;
+            }
+            if (!good)
+            {
+                result.badFile = file;
+                result.badOffset = start;
+                return false;
+            }
+
+            ByteBuffer body = ByteBuffer.wrap(in.array(), in.position(), length);
+            in.position(in.position() + length);
+
+            try
+            {
+                apply(body, registry);
+            }
+            catch (BufferUnderflowException e)
+            {
+                throw new IOException("Bad journal record in " + file);
+            }
+            result.applied++;
+        }
+        return true;
+    }
+
+    private static void apply(ByteBuffer body, StudentRegistry registry) throws IOException
+    {
+        byte op = body.get();
+
+        switch (op)
+        {
+            case OP_ADD:
+            {
+                boolean honors = body.get() != 0;
+                double bonus = honors ? body.getDouble() : 0.0;
+                String id = RosterSnapshot.readString(body);
+                String name = RosterSnapshot.readString(body);
+                registry.add(honors ? new HonorsStudent(id, name, bonus) : new Student(id, name));
+                break;
+            }
+            case OP_REMOVE:
+                registry.remove(RosterSnapshot.readString(body));
+                break;
+
+            case OP_NAME:
+            {
+                Student s = registry.find(RosterSnapshot.readString(body));
+                String name = RosterSnapshot.readString(body);
+                if (s != null)
+                {
+                    s.setName(name);
+                }
+                break;
+            }
+            case OP_GRADE:
+            {
+                Student s = registry.find(RosterSnapshot.readString(body));
+                String subjectName = RosterSnapshot.readString(body);
+                double grade = RosterSnapshot.readGrade(body);
+                if (s != null)
+                {
+                    s.addOrUpdateSubject(subjectName, grade);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal record type " + op);
+        }
+    }
+
+    // -------------------------
+    // Files
+    // -------------------------
+
+    private FileChannel openSegment(long n) throws IOException
+    {
+        return FileChannel.open(journalPath(directory, n),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static Path snapshotPath(Path directory, long n)
+    {
+        return directory.resolve(String.format("%s%010d%s", SNAPSHOT_PREFIX, n, SNAPSHOT_SUFFIX));
+    }
+
+    private static Path journalPath(Path directory, long n)
+    {
+        return directory.resolve(String.format("%s%010d%s", JOURNAL_PREFIX, n, JOURNAL_SUFFIX));
+    }
+
+    private static long newestSnapshot(Path directory) throws IOException
+    {
+        long newest = -1;
+        for (long n : numbers(directory, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX))
+        {
+            newest = Math.max(newest, n);
+        }
+        return newest;
+    }
+
+    /**
+     * The numbers of all files named prefix + number + suffix, smallest first.
+     */
+    private static List<Long> numbers(Path directory, String prefix, String suffix) throws IOException
+    {
+        List<Long> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                String digits = name.substring(prefix.length(), name.length() - suffix.length());
+                try
+                {
+                    result.add(Long.parseLong(digits));
+                }
+                catch (NumberFormatException e)
+                {
+                    // not one of ours
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+}
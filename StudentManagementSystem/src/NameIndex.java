@@ -0,0 +1,304 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * NameIndex class
+ * Keeps every student sorted by name (case-insensitive), so a name search
+ * doesn't have to scan the whole roster.
+ *
+ * Prefix search finds the first and last matching position with two O(log n)
+ * probes into a RankedTree, so the total is known right away and any page of
+ * results costs O(log n + page size).
+ * Fuzzy search finds names within a small edit distance (insert, delete or
+ * change one character) of the query. It walks the names in sorted order like
+ * a trie: names that share a prefix reuse the edit-distance rows already worked
+ * out for it, and as soon as a prefix is too far from the query every name
+ * starting with it is skipped with one more probe.
+ *
+ * Students with the same name stay in the order they were added to the system.
+ * All methods are synchronized.
+ */
+public class NameIndex
+{
+
+    /** Largest edit distance fuzzy search accepts. */
+    public static final int MAX_DISTANCE = 3;
+
+    // Fuzzy search reads the sorted names in chunks of this many
+    private static final int CHUNK = 256;
+
+    private static final class Entry
+    {
+        final String name;
+        final long sequence;
+        final Student student;
+
+        Entry(String name, long sequence, Student student)
+        {
+            this.name = name;
+            this.sequence = sequence;
+            this.student = student;
+        }
+    }
+
+    // Name ignoring case (folded the same way as IDs), then earliest added student first
+    private static final Comparator<Entry> ORDER = (a, b) ->
+    {
+        int cmp = String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+        return cmp != 0 ? cmp : Long.compare(a.sequence, b.sequence);
+    };
+
+    /**
+     * One search result. The distance is 0 for prefix matches.
+     */
+    public static final class Match
+    {
+        public final Student student;
+        public final String name;
+        public final int distance;
+
+        Match(Student student, String name, int distance)
+        {
+            this.student = student;
+            this.name = name;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * One page of search results, plus how many matched in total.
+     */
+    public static final class Page
+    {
+        public final int total;
+        public final List<Match> matches;
+
+        Page(int total, List<Match> matches)
+        {
+            this.total = total;
+            this.matches = matches;
+        }
+    }
+
+    private final RankedTree<Entry> names;
+
+    public NameIndex()
+    {
+        this.names = new RankedTree<>(ORDER);
+    }
+
+    public synchronized void add(Student student)
+    {
+        names.add(new Entry(student.getName(), student.getSequence(), student));
+    }
+
+    /**
+     * Adds a batch of students in one go (used when loading a file).
+     */
+    public synchronized void addAll(List<Student> students)
+    {
+        List<Entry> batch = new ArrayList<>(students.size());
+        for (Student s : students)
+        {
+            batch.add(new Entry(s.getName(), s.getSequence(), s));
+        }
+        names.addAll(batch);
+    }
+
+    public synchronized void remove(Student student, String name)
+    {
+        names.remove(new Entry(name, student.getSequence(), null));
+    }
+
+    /**
+     * Moves a student from their old name to their current one.
+     */
+    public synchronized void rename(Student student, String oldName)
+    {
+        names.remove(new Entry(oldName, student.getSequence(), null));
+        names.add(new Entry(student.getName(), student.getSequence(), student));
+    }
+
+    public synchronized void clear()
+    {
+        names.clear();
+    }
+
+    public synchronized int size()
+    {
+        return names.size();
+    }
+
+    /**
+     * Students whose name starts with prefix (ignoring case), in name order.
+     * Returns up to count matches starting at the 0-based match position from.
+     */
+    public synchronized Page prefix(String prefix, int from, int count)
+    {
+        // Every name with the prefix sorts after the bare prefix and before
+        // prefix + the largest char (which isn't a real character)
+        int start = names.countBefore(new Entry(prefix, Long.MIN_VALUE, null));
+        int end = names.countBefore(new Entry(prefix + Character.MAX_VALUE, Long.MAX_VALUE, null));
+
+        List<Match> matches = new ArrayList<>();
+        if (from >= 0 && count > 0 && from < end - start)
+        {
+            int to = (int) Math.min(end, (long) start + from + count);
+            for (Entry e : names.range(start + from, to))
+            {
+                matches.add(new Match(e.student, e.name, 0));
+            }
+        }
+        return new Page(end - start, matches);
+    }
+
+    /**
+     * Students whose whole name is within maxDistance edits of the query
+     * (ignoring case), closest first and then in name order.
+     * Returns up to count matches starting at the 0-based match position from.
+     */
+    public synchronized Page fuzzy(String query, int maxDistance, int from, int count)
+    {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE)
+        {
+            throw new IllegalArgumentException("The edit distance must be between 0 and " + MAX_DISTANCE + ".");
+        }
+
+        char[] q = fold(query);
+        int width = q.length + 1;
+
+        // rows[d] is the edit-distance row after the first d characters of a name;
+        // rows[0] is 0, 1, 2, ... (the cost of inserting the query)
+        int[][] rows = new int[16][];
+        rows[0] = new int[width];
+        for (int j = 0; j < width; j++)
+        {
+            rows[0][j] = j;
+        }
+
+        List<Match> found = new ArrayList<>();
+        String previous = "";
+        int known = 0; // rows[0..known] belong to the first characters of previous
+        int pos = 0;
+        int size = names.size();
+
+        scan:
+        while (pos < size)
+        {
+            for (Entry e : names.range(pos, Math.min(size, pos + CHUNK)))
+            {
+                String name = e.name;
+                int depth = sharedPrefix(previous, name, known);
+
+                if (name.length() >= rows.length)
+                {
+                    rows = Arrays.copyOf(rows, Math.max(rows.length * 2, name.length() + 1));
+                }
+
+                int pruneAt = -1;
+                while (depth < name.length())
+                {
+                    int best = nextRow(rows, depth, q, fold(name.charAt(depth)));
+                    depth++;
+                    if (best > maxDistance)
+                    {
+                        pruneAt = depth;
+                        break;
+                    }
+                }
+                previous = name;
+                known = depth;
+
+                if (pruneAt >= 0)
+                {
+                    // No name starting with these characters can be close enough
+                    String dead = name.substring(0, pruneAt);
+                    pos = names.countBefore(new Entry(dead + Character.MAX_VALUE, Long.MAX_VALUE, null));
+                    continue scan;
+                }
+
+                int distance = rows[name.length()][q.length];
+                if (distance <= maxDistance)
+                {
+                    found.add(new Match(e.student, name, distance));
+                }
+                pos++;
+            }
+        }
+
+        // Stable sort, so equal distances stay in name order
+        found.sort(Comparator.comparingInt(m -> m.distance));
+
+        List<Match> page = new ArrayList<>();
+        for (int i = Math.max(from, 0); i < found.size() && page.size() < count; i++)
+        {
+            page.add(found.get(i));
+        }
+        return new Page(found.size(), page);
+    }
+
+    // -------------------------
+    // Internal helpers
+    // -------------------------
+
+    /**
+     * Works out rows[depth + 1] from rows[depth] for the next name character c.
+     * Returns the smallest value in the new row.
+     */
+    private static int nextRow(int[][] rows, int depth, char[] q, char c)
+    {
+        int[] prev = rows[depth];
+        int[] row = rows[depth + 1];
+        if (row == null)
+        {
+            row = new int[prev.length];
+            rows[depth + 1] = row;
+        }
+
+        row[0] = prev[0] + 1;
+        int best = row[0];
+        for (int j = 1; j < row.length; j++)
+        {
+            int change = prev[j - 1] + (q[j - 1] == c ? 0 : 1);
+            int value = Math.min(change, Math.min(prev[j] + 1, row[j - 1] + 1));
+            row[j] = value;
+            if (value < best)
+            {
+                best = value;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Length of the shared start of a and b (ignoring case), but no more than limit.
+     */
+    private static int sharedPrefix(String a, String b, int limit)
+    {
+        int max = Math.min(limit, Math.min(a.length(), b.length()));
+        int i = 0;
+        while (i < max && fold(a.charAt(i)) == fold(b.charAt(i)))
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private static char[] fold(String text)
+    {
+        char[] folded = new char[text.length()];
+        for (int i = 0; i < folded.length; i++)
+        {
+            folded[i] = fold(text.charAt(i));
+        }
+        return folded;
+    }
+
+    // Same folding as String.CASE_INSENSITIVE_ORDER and StudentRegistry.foldKey
+    private static char fold(char c)
+    {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+}
@@ -0,0 +1,932 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * PagedStudentStore class
+ * Keeps the roster in a file of 4 KB pages instead of on the heap, so the roster
+ * can be much bigger than memory. Only two things stay in memory:
+ *   - the ID index (folded ID -> where the record is in the file), in the order
+ *     students were added, and
+ *   - a bounded cache of Student objects, least recently used thrown out first.
+ *
+ * find() returns the cached Student or reads ("faults in") its record from disk.
+ * The store listens to the students it hands out; a changed student is marked
+ * dirty and its record is written back when it leaves the cache (or on flush/close).
+ * An evicted Student that somebody still holds can still be changed, so the
+ * store keeps a weak reference to it: find() hands that same object back
+ * instead of reading a second copy, and there is never more than one live
+ * Student per ID whose changes could overwrite each other's.
+ *
+ * File layout (fixed-size numbers are big-endian):
+ *   page 0: int magic "SMSP", int version, int page size
+ *   pages 1..: records, each one
+ *     byte  state: 1 = live, 2 = free (0 = rest of the page is unused)
+ *     int   capacity (bytes reserved for the body)
+ *     int   length (bytes of the body in use)
+ *     long  sequence (the order the student was added)
+ *     body  type (0 = Student, 1 = HonorsStudent + bonus), id, name,
+ *           grade count, then subject name + grade for each grade
+ * Strings, counts and grades use the same encodings as RosterSnapshot.
+ * A record smaller than a page never crosses a page boundary, so reading one
+ * is usually a single page read. Records get some spare room, so most grade
+ * changes are rewritten in place; a record that outgrows its room moves to a
+ * new place and the old space goes on a free list for reuse.
+ * The index is rebuilt by scanning the file when it is opened.
+ */
+public class PagedStudentStore implements RosterStore, StudentListener
+{
+
+    public static final int MAGIC = 0x534D5350; // "SMSP"
+    public static final int VERSION = 1;
+    public static final int PAGE_SIZE = 4096;
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private static final byte STATE_UNUSED = 0;
+    private static final byte STATE_LIVE = 1;
+    private static final byte STATE_FREE = 2;
+    private static final int HEADER_SIZE = 1 + 4 + 4 + 8;
+
+    // Appends are collected here and written in one go
+    private static final int APPEND_BUFFER_SIZE = 16 * PAGE_SIZE;
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final int cacheCapacity;
+
+    // Folded ID -> record position, in the order the students were added
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>();
+
+    // Free records by capacity, so a moved or removed record's space gets reused
+    private final TreeMap<Integer, ArrayDeque<Long>> freeSpace = new TreeMap<>();
+    private long freeBytes;
+
+    // Folded ID -> Student, oldest use first
+    private final LinkedHashMap<String, Student> cache;
+
+    // Folded ID -> a Student evicted from the cache, while somebody still holds it
+    private final Map<String, Evicted> evicted = new HashMap<>();
+    private final ReferenceQueue<Student> collected = new ReferenceQueue<>();
+
+    /**
+     * Weak reference to an evicted student that remembers its key, so the map
+     * entry can be dropped once the student is garbage collected.
+     */
+    private static final class Evicted extends WeakReference<Student>
+    {
+        final String key;
+
+        Evicted(String key, Student student, ReferenceQueue<Student> queue)
+        {
+            super(student, queue);
+            this.key = key;
+        }
+    }
+
+    // Students changed since they were last written. Changes come from the
+    // students' own threads, so this is a concurrent set and never needs our lock.
+    private final Set<Student> dirty = ConcurrentHashMap.newKeySet();
+
+    private long fileEnd;
+    private long nextSequence;
+
+    // Appended records not written to the file yet: [appendStart, fileEnd)
+    private final ByteBuffer appendBuffer = ByteBuffer.allocate(APPEND_BUFFER_SIZE);
+    private long appendStart;
+
+    // The last page read, so a scan reads each page once
+    private final ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+    private long pageStart = -1;
+    private long pageEnd = -1;
+    private ByteBuffer bigRecord = ByteBuffer.allocate(PAGE_SIZE * 2);
+
+    private final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream body = new DataOutputStream(bodyBytes);
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+
+    private PagedStudentStore(String fileName, FileChannel channel, int cacheCapacity)
+    {
+        this.fileName = fileName;
+        this.channel = channel;
+        this.cacheCapacity = Math.max(1, cacheCapacity);
+        this.cache = new LinkedHashMap<String, Student>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Student> eldest)
+            {
+                if (size() <= PagedStudentStore.this.cacheCapacity)
+                {
+                    return false;
+                }
+                evict(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Opens the file (creating it if needed) with room for cacheCapacity students in memory.
+     */
+    public static PagedStudentStore open(String fileName, int cacheCapacity) throws IOException
+    {
+        FileChannel channel = FileChannel.open(Paths.get(fileName),
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        PagedStudentStore store = new PagedStudentStore(fileName, channel, cacheCapacity);
+        try
+        {
+            if (channel.size() == 0)
+            {
+                store.writeHeader();
+            }
+            else
+            {
+                store.readHeader();
+                store.scan();
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    @Override
+    public String getFileName()
+    {
+        return fileName;
+    }
+
+    public int getCacheCapacity()
+    {
+        return cacheCapacity;
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return index.isEmpty();
+    }
+
+    public synchronized int getCachedCount()
+    {
+        return cache.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public synchronized long getWriteBacks()
+    {
+        return writeBacks;
+    }
+
+    // -------------------------
+    // Students
+    // -------------------------
+
+    /**
+     * Writes a new student to the file and caches it. False if the ID is taken.
+     */
+    @Override
+    public synchronized boolean add(Student s)
+    {
+        String key = StudentRegistry.foldKey(s.getId());
+        if (index.containsKey(key))
+        {
+            return false;
+        }
+
+        try
+        {
+            long sequence = nextSequence++;
+            encode(s);
+            long position = allocate(bodyBytes.size());
+            writeRecord(position, sequence);
+            index.put(key, position);
+
+            s.attach(this, sequence);
+            cache.put(key, s);
+            writeBackOrphans();
+            return true;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The student with this ID (case-insensitive), read from disk if it isn't cached.
+     */
+    @Override
+    public synchronized Student find(String id)
+    {
+        String key = StudentRegistry.foldKey(id);
+        Student s = cache.get(key);
+        if (s != null)
+        {
+            hits++;
+            return s;
+        }
+
+        Long position = index.get(key);
+        if (position == null)
+        {
+            return null;
+        }
+
+        // Still held by somebody since it was evicted: that object is the
+        // current one (its changes may not be on disk yet), so hand it out again
+        misses++;
+        s = takeEvicted(key);
+        if (s == null)
+        {
+            s = read(position);
+            s.attach(this, s.getSequence());
+        }
+        cache.put(key, s);
+        writeBackOrphans();
+        return s;
+    }
+
+    /**
+     * A throwaway copy of the student's current record, for reports: unlike find()
+     * it doesn't touch the cache or the hit/miss counts.
+     */
+    @Override
+    public synchronized Student peek(String id)
+    {
+        Long position = index.get(StudentRegistry.foldKey(id));
+        if (position == null)
+        {
+            return null;
+        }
+        writeBackAll();
+        return read(index.get(StudentRegistry.foldKey(id)));
+    }
+
+    /**
+     * Removes the student and returns its last state, or null if there is none.
+     */
+    @Override
+    public synchronized Student remove(String id)
+    {
+        String key = StudentRegistry.foldKey(id);
+        Long position = index.remove(key);
+        if (position == null)
+        {
+            return null;
+        }
+
+        Student s = cache.remove(key);
+        if (s == null)
+        {
+            s = takeEvicted(key);
+        }
+        if (s == null)
+        {
+            s = read(position);
+        }
+        s.attach(null, 0);
+        dirty.remove(s);
+
+        try
+        {
+            release(position);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return s;
+    }
+
+    /**
+     * Hands every student to the action in the order they were added, as
+     * throwaway copies read from disk, so a full scan doesn't push the working
+     * set out of the cache. Changes are written back first so the copies are current.
+     */
+    @Override
+    public synchronized void forEach(Consumer<Student> action)
+    {
+        writeBackAll();
+        for (long position : index.values())
+        {
+            action.accept(read(position));
+        }
+    }
+
+    /**
+     * Removes every student and shrinks the file back to its header.
+     */
+    @Override
+    public synchronized void clear()
+    {
+        for (Student s : cache.values())
+        {
+            s.attach(null, 0);
+        }
+        cache.clear();
+        detachEvicted();
+        dirty.clear();
+        index.clear();
+        freeSpace.clear();
+        freeBytes = 0;
+        nextSequence = 0;
+        appendBuffer.clear();
+        pageStart = -1;
+
+        try
+        {
+            channel.truncate(PAGE_SIZE);
+            fileEnd = PAGE_SIZE;
+            appendStart = PAGE_SIZE;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes back every changed student and any buffered appends.
+     */
+    @Override
+    public synchronized void flush()
+    {
+        writeBackAll();
+        try
+        {
+            flushAppends();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            flush();
+            channel.force(true);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            for (Student s : cache.values())
+            {
+                s.attach(null, 0);
+            }
+            cache.clear();
+            detachEvicted();
+            channel.close();
+        }
+    }
+
+    /**
+     * Cache hit rate and file usage, for the memory report.
+     */
+    @Override
+    public synchronized String stats()
+    {
+        long lookups = hits + misses;
+        return String.format(
+            "Paged roster %s: %d students, %d pages (%.1f KB), %.1f KB free for reuse%n"
+            + "Student cache: %d of %d in memory, %d hits, %d misses (%.1f%% hit rate), %d evictions, %d write-backs%n",
+            fileName, index.size(), fileEnd / PAGE_SIZE, fileEnd / 1024.0, freeBytes / 1024.0,
+            cache.size(), cacheCapacity, hits, misses, lookups == 0 ? 0.0 : hits * 100.0 / lookups,
+            evictions, writeBacks);
+    }
+
+    // -------------------------
+    // StudentListener (called on the student's thread, under the student's lock)
+    // -------------------------
+
+    @Override
+    public void gradeChanged(Student student, String subjectName, Double oldGrade, double newGrade)
+    {
+        dirty.add(student);
+    }
+
+    @Override
+    public void nameChanged(Student student, String oldName)
+    {
+        dirty.add(student);
+    }
+
+    // -------------------------
+    // Cache
+    // -------------------------
+
+    private void evict(String key, Student s)
+    {
+        evictions++;
+        if (dirty.remove(s))
+        {
+            writeBack(key, s);
+        }
+        dropCollected();
+        evicted.put(key, new Evicted(key, s, collected));
+    }
+
+    /**
+     * The evicted student with this key if it is still around, or null.
+     */
+    private Student takeEvicted(String key)
+    {
+        dropCollected();
+        Evicted ref = evicted.remove(key);
+        return ref == null ? null : ref.get();
+    }
+
+    // Forgets evicted students that nobody held any more
+    private void dropCollected()
+    {
+        Evicted ref;
+        while ((ref = (Evicted) collected.poll()) != null)
+        {
+            evicted.remove(ref.key, ref);
+        }
+    }
+
+    private void detachEvicted()
+    {
+        for (Evicted ref : evicted.values())
+        {
+            Student s = ref.get();
+            if (s != null)
+            {
+                s.attach(null, 0);
+            }
+        }
+        evicted.clear();
+    }
+
+    /**
+     * A student changed after it was evicted is still in the dirty set;
+     * write those out before the set grows past the cache size.
+     */
+    private void writeBackOrphans()
+    {
+        if (dirty.size() > cacheCapacity)
+        {
+            writeBackAll();
+        }
+    }
+
+    private void writeBackAll()
+    {
+        for (Student s : dirty.toArray(new Student[0]))
+        {
+            if (dirty.remove(s))
+            {
+                writeBack(StudentRegistry.foldKey(s.getId()), s);
+            }
+        }
+    }
+
+    /**
+     * Rewrites the record in place if it still fits, otherwise moves it.
+     */
+    private void writeBack(String key, Student s)
+    {
+        Long position = index.get(key);
+        if (position == null)
+        {
+            return; // removed since it changed
+        }
+
+        try
+        {
+            encode(s);
+            int capacity = recordHeader(position).getInt(1);
+            long target = position;
+            if (bodyBytes.size() > capacity)
+            {
+                release(position);
+                target = allocate(bodyBytes.size());
+                index.put(key, target);
+            }
+            writeRecord(target, s.getSequence());
+            writeBacks++;
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // -------------------------
+    // Records
+    // -------------------------
+
+    private void encode(Student s) throws IOException
+    {
+        bodyBytes.reset();
+        if (s instanceof HonorsStudent)
+        {
+            body.writeByte(RosterSnapshot.TYPE_HONORS);
+            body.writeDouble(((HonorsStudent) s).getBonusPoints());
+        }
+        else
+        {
+            body.writeByte(RosterSnapshot.TYPE_STUDENT);
+        }
+
+        RosterSnapshot.writeString(body, s.getId());
+        RosterSnapshot.writeString(body, s.getName());
+
+        List<Subject> subjects = s.getSubjects();
+        RosterSnapshot.writeVarint(body, subjects.size());
+        for (Subject subj : subjects)
+        {
+            RosterSnapshot.writeString(body, subj.getName());
+            RosterSnapshot.writeGrade(body, subj.getGrade());
+        }
+    }
+
+    /**
+     * Writes the encoded body as a live record at position (which has room for it).
+     */
+    private void writeRecord(long position, long sequence) throws IOException
+    {
+        int capacity = position >= fileEnd ? roomFor(bodyBytes.size()) : recordHeader(position).getInt(1);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodyBytes.size());
+        record.put(STATE_LIVE).putInt(capacity).putInt(bodyBytes.size()).putLong(sequence);
+        record.put(bodyBytes.toByteArray());
+        record.flip();
+
+        if (position >= fileEnd)
+        {
+            append(position, record, HEADER_SIZE + capacity);
+        }
+        else
+        {
+            writeAt(position, record);
+        }
+    }
+
+    /**
+     * Decodes the live record at position into a new, unattached Student
+     * (its sequence is set, its listener isn't).
+     */
+    private Student read(long position)
+    {
+        try
+        {
+            ByteBuffer header = recordHeader(position);
+            int length = header.getInt(5);
+            long sequence = header.getLong(9);
+            ByteBuffer in = readBytes(position + HEADER_SIZE, length);
+
+            Student s;
+            if (in.get() == RosterSnapshot.TYPE_HONORS)
+            {
+                double bonus = in.getDouble();
+                s = new HonorsStudent(RosterSnapshot.readString(in), RosterSnapshot.readString(in), bonus);
+            }
+            else
+            {
+                s = new Student(RosterSnapshot.readString(in), RosterSnapshot.readString(in));
+            }
+
+            int gradeCount = RosterSnapshot.readVarint(in);
+            for (int i = 0; i < gradeCount; i++)
+            {
+                s.addOrUpdateSubject(RosterSnapshot.readString(in), RosterSnapshot.readGrade(in));
+            }
+            s.attach(null, sequence);
+            return s;
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new UncheckedIOException(new IOException("Record at " + position + " in " + fileName + " is cut short"));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // -------------------------
+    // Space
+    // -------------------------
+
+    // Spare room so a few more grades fit without moving the record
+    private static int roomFor(int length)
+    {
+        return (length + length / 4 + 16 + 7) & ~7;
+    }
+
+    /**
+     * Finds a place for a body of this length: a free record that is big enough
+     * (but not more than twice the size), or the end of the file.
+     */
+    private long allocate(int length) throws IOException
+    {
+        int needed = roomFor(length);
+        Map.Entry<Integer, ArrayDeque<Long>> free = freeSpace.ceilingEntry(length);
+        if (free != null && free.getKey() <= needed * 2)
+        {
+            long position = free.getValue().poll();
+            if (free.getValue().isEmpty())
+            {
+                freeSpace.remove(free.getKey());
+            }
+            freeBytes -= HEADER_SIZE + free.getKey();
+            return position;
+        }
+
+        // A record that fits in a page starts on a fresh page rather than crossing into the next one
+        long position = fileEnd;
+        int size = HEADER_SIZE + needed;
+        long left = PAGE_SIZE - position % PAGE_SIZE;
+        if (left < HEADER_SIZE || (size > left && left != PAGE_SIZE))
+        {
+            position += left;
+        }
+        return position;
+    }
+
+    /**
+     * Marks the record at position free and remembers it for reuse.
+     */
+    private void release(long position) throws IOException
+    {
+        int capacity = recordHeader(position).getInt(1);
+        ByteBuffer state = ByteBuffer.allocate(1).put(STATE_FREE);
+        state.flip();
+        writeAt(position, state);
+
+        freeSpace.computeIfAbsent(capacity, c -> new ArrayDeque<>()).add(position);
+        freeBytes += HEADER_SIZE + capacity;
+    }
+
+    // -------------------------
+    // File I/O
+    // -------------------------
+
+    private void writeHeader() throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(PAGE_SIZE);
+        header.clear();
+        writeFully(header, 0);
+        fileEnd = PAGE_SIZE;
+        appendStart = PAGE_SIZE;
+    }
+
+    private void readHeader() throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC)
+        {
+            throw new IOException(fileName + " is not a paged roster file");
+        }
+        if (header.getInt(4) != VERSION)
+        {
+            throw new IOException("Unsupported paged roster version " + header.getInt(4));
+        }
+        if (header.getInt(8) != PAGE_SIZE)
+        {
+            throw new IOException("Paged roster uses " + header.getInt(8) + "-byte pages, expected " + PAGE_SIZE);
+        }
+        fileEnd = channel.size();
+        appendStart = fileEnd;
+    }
+
+    /**
+     * Walks every record to rebuild the index and the free list.
+     */
+    private void scan() throws IOException
+    {
+        List<long[]> live = new ArrayList<>(); // {sequence, position}
+        long position = PAGE_SIZE;
+        while (position < fileEnd)
+        {
+            long left = PAGE_SIZE - position % PAGE_SIZE;
+            if (left < HEADER_SIZE)
+            {
+                position += left;
+                continue;
+            }
+
+            ByteBuffer header = recordHeader(position);
+            byte state = header.get(0);
+            int capacity = header.getInt(1);
+            if (state == STATE_UNUSED)
+            {
+                position += left;
+                continue;
+            }
+            if (capacity < 0 || position + HEADER_SIZE + capacity > fileEnd)
+            {
+                throw new IOException("Bad record at " + position + " in " + fileName);
+            }
+
+            if (state == STATE_LIVE)
+            {
+                live.add(new long[] { header.getLong(9), position });
+            }
+            else
+            {
+                freeSpace.computeIfAbsent(capacity, c -> new ArrayDeque<>()).add(position);
+                freeBytes += HEADER_SIZE + capacity;
+            }
+            position += HEADER_SIZE + capacity;
+        }
+
+        live.sort((a, b) -> Long.compare(a[0], b[0]));
+        for (long[] record : live)
+        {
+            // Only the ID is needed here, so the record is read without building a Student
+            ByteBuffer in = readBytes(record[1] + HEADER_SIZE, recordHeader(record[1]).getInt(5));
+            if (in.get() == RosterSnapshot.TYPE_HONORS)
+            {
+                in.getDouble();
+            }
+            index.put(StudentRegistry.foldKey(RosterSnapshot.readString(in)), record[1]);
+            nextSequence = record[0] + 1;
+        }
+        pageStart = -1;
+    }
+
+    /**
+     * The record header at position (state at 0, capacity at 1, length at 5,
+     * sequence at 9). Valid until the next read.
+     */
+    private ByteBuffer recordHeader(long position) throws IOException
+    {
+        return readBytes(position, HEADER_SIZE).slice();
+    }
+
+    /**
+     * length bytes starting at position, read through the one-page buffer.
+     * Valid until the next read.
+     */
+    private ByteBuffer readBytes(long position, int length) throws IOException
+    {
+        if (position + length > appendStart)
+        {
+            flushAppends();
+        }
+
+        long start = position - position % PAGE_SIZE;
+        if (position + length <= start + PAGE_SIZE)
+        {
+            if (start != pageStart || position + length > pageEnd)
+            {
+                // The last page may be partly written yet
+                page.clear();
+                page.limit((int) Math.min(PAGE_SIZE, appendStart - start));
+                readFully(page, start);
+                pageStart = start;
+                pageEnd = start + page.limit();
+            }
+            return ByteBuffer.wrap(page.array(), (int) (position - start), length);
+        }
+
+        // Spans pages: only records bigger than a page do this
+        if (bigRecord.capacity() < length)
+        {
+            bigRecord = ByteBuffer.allocate(Math.max(length, bigRecord.capacity() * 2));
+        }
+        bigRecord.clear();
+        bigRecord.limit(length);
+        readFully(bigRecord, position);
+        return ByteBuffer.wrap(bigRecord.array(), 0, length);
+    }
+
+    /**
+     * Adds a new record of size bytes (the rest zero) at position, at or after the end of the file.
+     */
+    private void append(long position, ByteBuffer record, int size) throws IOException
+    {
+        long gap = position - fileEnd;
+        if (appendBuffer.remaining() < gap + size)
+        {
+            flushAppends();
+        }
+
+        if (gap + size > appendBuffer.capacity())
+        {
+            // Too big to buffer: write it straight to the file
+            writeFully(record, position);
+            ByteBuffer zeros = ByteBuffer.allocate(size - record.capacity());
+            writeFully(zeros, position + record.capacity());
+            fileEnd = position + size;
+            appendStart = fileEnd;
+            return;
+        }
+
+        // The buffer is reused, so the padding and spare room have to be zeroed by hand
+        int start = appendBuffer.position();
+        int end = start + (int) gap + size;
+        Arrays.fill(appendBuffer.array(), start, end, (byte) 0);
+        appendBuffer.position(start + (int) gap);
+        appendBuffer.put(record);
+        appendBuffer.position(end);
+        fileEnd = position + size;
+    }
+
+    private void flushAppends() throws IOException
+    {
+        if (appendBuffer.position() == 0)
+        {
+            return;
+        }
+        appendBuffer.flip();
+        writeFully(appendBuffer, appendStart);
+        appendBuffer.clear();
+        appendStart = fileEnd;
+    }
+
+    private void writeAt(long position, ByteBuffer data) throws IOException
+    {
+        if (position + data.remaining() > appendStart)
+        {
+            flushAppends();
+        }
+        writeFully(data, position);
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException
+    {
+        long start = position;
+        while (data.hasRemaining())
+        {
+            position += channel.write(data, position);
+        }
+        Metrics.bytesWritten(position - start);
+        // Keep the page buffer in step with what is on disk
+        if (pageStart >= 0 && position > pageStart && start < pageStart + PAGE_SIZE)
+        {
+            pageStart = -1;
+        }
+    }
+
+    private void readFully(ByteBuffer into, long position) throws IOException
+    {
+        while (into.hasRemaining())
+        {
+            int n = channel.read(into, position);
+            if (n < 0)
+            {
+                throw new IOException(fileName + " ended in the middle of a record");
+            }
+            Metrics.bytesRead(n);
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ParallelReports class
+ * Computes the big roster reports on a fork-join pool.
+ * The roster is copied into an array and split into ranges; each range renders
+ * its rows into its own in-memory chunk (or computes its part of the sort),
+ * and the chunks are joined back in roster order. Nothing depends on which
+ * thread finishes first, so the output is exactly what the sequential loop prints.
+ *
+ * Rosters smaller than the threshold are done on the calling thread.
+ */
+public class ParallelReports
+{
+
+    /**
+     * One row of the sorted report: the average is read once, so the sort
+     * sees a stable value even if a grade changes while it runs.
+     */
+    private static final class Row
+    {
+        final Student student;
+        final double average;
+        final long sequence;
+
+        Row(Student student)
+        {
+            this.student = student;
+            this.average = student.calculateAverage();
+            this.sequence = student.getSequence();
+        }
+    }
+
+    // Same order as the Leaderboard: highest average first, then the order students were added
+    private static final Comparator<Row> BY_AVERAGE = (a, b) ->
+    {
+        int cmp = Double.compare(b.average, a.average);
+        return cmp != 0 ? cmp : Long.compare(a.sequence, b.sequence);
+    };
+
+    /**
+     * Writes one row of a report.
+     */
+    public interface RowWriter
+    {
+        void write(ReportWriter out, Student s);
+    }
+
+    private final int threshold;
+    private final ForkJoinPool pool;
+
+    public ParallelReports(int threshold)
+    {
+        this(threshold, ForkJoinPool.commonPool());
+    }
+
+    public ParallelReports(int threshold, ForkJoinPool pool)
+    {
+        this.threshold = Math.max(1, threshold);
+        this.pool = pool;
+    }
+
+    /**
+     * True if a roster of this size is worth splitting up.
+     */
+    public boolean isParallel(int size)
+    {
+        return size >= threshold && pool.getParallelism() > 1;
+    }
+
+    /**
+     * Writes one row per student, in the order given.
+     */
+    public void render(Student[] students, RowWriter rows, ReportWriter out)
+    {
+        if (!isParallel(students.length))
+        {
+            for (Student s : students)
+            {
+                rows.write(out, s);
+            }
+            return;
+        }
+
+        List<String> chunks = pool.invoke(new RenderTask(students, 0, students.length, leafSize(students.length), rows));
+        for (String chunk : chunks)
+        {
+            out.text(chunk);
+        }
+    }
+
+    /**
+     * The students ordered by average, highest first, ties in the order they were added.
+     */
+    public Student[] sortByAverage(Student[] students)
+    {
+        Row[] rows = new Row[students.length];
+        if (isParallel(students.length))
+        {
+            pool.submit(() -> Arrays.parallelSetAll(rows, i -> new Row(students[i]))).join();
+            // parallelSort of objects is a stable merge sort, so the result doesn't depend on timing
+            pool.submit(() -> Arrays.parallelSort(rows, BY_AVERAGE)).join();
+        }
+        else
+        {
+            Arrays.setAll(rows, i -> new Row(students[i]));
+            Arrays.sort(rows, BY_AVERAGE);
+        }
+
+        Student[] sorted = new Student[rows.length];
+        for (int i = 0; i < rows.length; i++)
+        {
+            sorted[i] = rows[i].student;
+        }
+        return sorted;
+    }
+
+    private int leafSize(int size)
+    {
+        // A few ranges per worker so a slow range doesn't hold everyone up
+        return Math.max(1024, size / (pool.getParallelism() * 4));
+    }
+
+    /**
+     * Renders students[from, to) and returns the text chunks in order.
+     * (Tasks are never serialized, hence the warning suppression.)
+     */
+    @SuppressWarnings("serial")
+    private static final class RenderTask extends RecursiveTask<List<String>>
+    {
+        private final Student[] students;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+        private final RowWriter rows;
+
+        RenderTask(Student[] students, int from, int to, int leafSize, RowWriter rows)
+        {
+            this.students = students;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+            this.rows = rows;
+        }
+
+        @Override
+        protected List<String> compute()
+        {
+            if (to - from <= leafSize)
+            {
+                ReportWriter chunk = ReportWriter.inMemory();
+                for (int i = from; i < to; i++)
+                {
+                    rows.write(chunk, students[i]);
+                }
+                List<String> result = new ArrayList<>(1);
+                result.add(chunk.toString());
+                return result;
+            }
+
+            int middle = (from + to) >>> 1;
+            RenderTask left = new RenderTask(students, from, middle, leafSize, rows);
+            RenderTask right = new RenderTask(students, middle, to, leafSize, rows);
+            left.fork();
+            List<String> rightChunks = right.compute();
+            List<String> result = left.join();
+            result.addAll(rightChunks);
+            return result;
+        }
+    }
+}
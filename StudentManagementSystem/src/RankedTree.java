@@ -0,0 +1,415 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * RankedTree class
+ * A balanced (AVL) binary search tree where every node also remembers the
+ * size of its subtree. That extra count lets us answer "what is at position i"
+ * and "what position is this element at" in O(log n), on top of the usual
+ * O(log n) add and remove.
+ * Elements are ordered by the comparator given to the constructor, which must
+ * never report two different elements as equal.
+ */
+public class RankedTree<E>
+{
+
+    private static final class Node<E>
+    {
+        E value;
+        Node<E> left;
+        Node<E> right;
+        int height;
+        int size;
+
+        Node(E value)
+        {
+            this.value = value;
+            this.height = 1;
+            this.size = 1;
+        }
+    }
+
+    private final Comparator<? super E> comparator;
+    private Node<E> root;
+
+    public RankedTree(Comparator<? super E> comparator)
+    {
+        this.comparator = comparator;
+    }
+
+    public int size()
+    {
+        return size(root);
+    }
+
+    public boolean isEmpty()
+    {
+        return root == null;
+    }
+
+    public void clear()
+    {
+        root = null;
+    }
+
+    /**
+     * Adds an element. Returns false if an equal element is already there.
+     */
+    public boolean add(E value)
+    {
+        int before = size();
+        root = insert(root, value);
+        return size() != before;
+    }
+
+    /**
+     * Adds many elements at once. Sorting them as an array and building the
+     * tree bottom-up is much faster than one insert at a time when the batch is
+     * big (e.g. loading a file), because it skips all the rebalancing.
+     * Small batches into a big tree just fall back to normal inserts.
+     */
+    @SuppressWarnings("unchecked")
+    public void addAll(Collection<? extends E> values)
+    {
+        if (values.size() < size() / 8 + 1)
+        {
+            for (E value : values)
+            {
+                add(value);
+            }
+            return;
+        }
+
+        E[] incoming = (E[]) values.toArray();
+        rebuild(range(0, size()), incoming);
+    }
+
+    /**
+     * Removes every element drop says yes to and adds the new values, by
+     * rebuilding the whole tree in one pass. When a big part of the tree
+     * changes at once (a bulk grade import) this is much faster than one
+     * remove and one add per element.
+     */
+    @SuppressWarnings("unchecked")
+    public void replaceAll(Predicate<? super E> drop, Collection<? extends E> values)
+    {
+        List<E> kept = new ArrayList<>(size());
+        for (E value : range(0, size()))
+        {
+            if (!drop.test(value))
+            {
+                kept.add(value);
+            }
+        }
+        rebuild(kept, (E[]) values.toArray());
+    }
+
+    /**
+     * Sorts incoming, merges it into existing (already in order) and builds a
+     * balanced tree from the result, dropping duplicates.
+     */
+    private void rebuild(List<E> existing, E[] incoming)
+    {
+        Arrays.sort(incoming, comparator);
+
+        // Merge with what is already in the tree, dropping duplicates
+        List<E> merged = new ArrayList<>(existing.size() + incoming.length);
+        int i = 0;
+        int j = 0;
+        while (i < existing.size() || j < incoming.length)
+        {
+            E next;
+            if (j >= incoming.length)
+            {
+                next = existing.get(i++);
+            }
+            else if (i >= existing.size())
+            {
+                next = incoming[j++];
+            }
+            else
+            {
+                int cmp = comparator.compare(existing.get(i), incoming[j]);
+                next = cmp <= 0 ? existing.get(i++) : incoming[j++];
+                if (cmp == 0)
+                {
+                    j++;
+                }
+            }
+
+            if (merged.isEmpty() || comparator.compare(merged.get(merged.size() - 1), next) != 0)
+            {
+                merged.add(next);
+            }
+        }
+
+        root = build(merged, 0, merged.size());
+    }
+
+    /**
+     * Removes an element. Returns false if it wasn't in the tree.
+     */
+    public boolean remove(E value)
+    {
+        int before = size();
+        root = delete(root, value);
+        return size() != before;
+    }
+
+    /**
+     * Returns the element at a position (0 = first in comparator order).
+     */
+    public E get(int index)
+    {
+        if (index < 0 || index >= size())
+        {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for size " + size());
+        }
+
+        Node<E> node = root;
+        while (true)
+        {
+            int leftSize = size(node.left);
+            if (index < leftSize)
+            {
+                node = node.left;
+            }
+            else if (index > leftSize)
+            {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+            else
+            {
+                return node.value;
+            }
+        }
+    }
+
+    public E first()
+    {
+        return isEmpty() ? null : get(0);
+    }
+
+    public E last()
+    {
+        return isEmpty() ? null : get(size() - 1);
+    }
+
+    /**
+     * Counts the elements that come strictly before the given value.
+     * The value doesn't have to be in the tree, so this also works with a probe.
+     */
+    public int countBefore(E value)
+    {
+        int count = 0;
+        Node<E> node = root;
+
+        while (node != null)
+        {
+            if (comparator.compare(value, node.value) > 0)
+            {
+                count += size(node.left) + 1;
+                node = node.right;
+            }
+            else
+            {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the first element that is not before the given value, or null.
+     */
+    public E ceiling(E value)
+    {
+        int index = countBefore(value);
+        return index < size() ? get(index) : null;
+    }
+
+    /**
+     * Copies the elements at positions [from, to) into a list, in order.
+     * Costs O(log n + (to - from)), not a walk over the whole tree.
+     */
+    public List<E> range(int from, int to)
+    {
+        from = Math.max(from, 0);
+        to = Math.min(to, size());
+
+        List<E> result = new ArrayList<>(Math.max(to - from, 0));
+        if (from < to)
+        {
+            collect(root, from, to, 0, result);
+        }
+        return result;
+    }
+
+    // -------------------------
+    // Internal helpers
+    // -------------------------
+
+    private static <E> Node<E> build(List<E> sorted, int from, int to)
+    {
+        if (from >= to)
+        {
+            return null;
+        }
+
+        int mid = (from + to) >>> 1;
+        Node<E> node = new Node<>(sorted.get(mid));
+        node.left = build(sorted, from, mid);
+        node.right = build(sorted, mid + 1, to);
+        update(node);
+        return node;
+    }
+
+    private void collect(Node<E> node, int from, int to, int offset, List<E> out)
+    {
+        if (node == null)
+        {
+            return;
+        }
+
+        int index = offset + size(node.left);
+        if (from < index)
+        {
+            collect(node.left, from, to, offset, out);
+        }
+        if (from <= index && index < to)
+        {
+            out.add(node.value);
+        }
+        if (index + 1 < to)
+        {
+            collect(node.right, from, to, index + 1, out);
+        }
+    }
+
+    private Node<E> insert(Node<E> node, E value)
+    {
+        if (node == null)
+        {
+            return new Node<>(value);
+        }
+
+        int cmp = comparator.compare(value, node.value);
+        if (cmp < 0)
+        {
+            node.left = insert(node.left, value);
+        }
+        else if (cmp > 0)
+        {
+            node.right = insert(node.right, value);
+        }
+        else
+        {
+            return node;
+        }
+        return rebalance(node);
+    }
+
+    private Node<E> delete(Node<E> node, E value)
+    {
+        if (node == null)
+        {
+            return null;
+        }
+
+        int cmp = comparator.compare(value, node.value);
+        if (cmp < 0)
+        {
+            node.left = delete(node.left, value);
+        }
+        else if (cmp > 0)
+        {
+            node.right = delete(node.right, value);
+        }
+        else
+        {
+            if (node.left == null)
+            {
+                return node.right;
+            }
+            if (node.right == null)
+            {
+                return node.left;
+            }
+
+            // Replace with the smallest value of the right subtree
+            Node<E> successor = node.right;
+            while (successor.left != null)
+            {
+                successor = successor.left;
+            }
+            node.value = successor.value;
+            node.right = delete(node.right, successor.value);
+        }
+        return rebalance(node);
+    }
+
+    private Node<E> rebalance(Node<E> node)
+    {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+
+        if (balance > 1)
+        {
+            if (height(node.left.left) < height(node.left.right))
+            {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1)
+        {
+            if (height(node.right.right) < height(node.right.left))
+            {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private Node<E> rotateRight(Node<E> node)
+    {
+        Node<E> pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private Node<E> rotateLeft(Node<E> node)
+    {
+        Node<E> pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        update(node);
+        update(pivot);
+        return pivot;
+    }
+
+    private static <E> void update(Node<E> node)
+    {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int height(Node<?> node)
+    {
+        return node == null ? 0 : node.height;
+    }
+
+    private static int size(Node<?> node)
+    {
+        return node == null ? 0 : node.size;
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * RemoteShard class
+ * A shard in another process, reached through its ShardServer.
+ *
+ * Each call borrows a connection, sends one request and waits for the answer.
+ * Connections are kept open and reused (up to MAX_IDLE of them), so a busy
+ * router doesn't pay for a new connection per call, and several threads can
+ * have requests in flight to the same shard at once.
+ */
+public class RemoteShard implements Shard
+{
+
+    private static final int MAX_IDLE = 16;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * One open socket to the server.
+     */
+    private static final class Connection implements Closeable
+    {
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(Socket socket) throws IOException
+        {
+            this.socket = socket;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+        }
+
+        @Override
+        public void close()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing more to do
+            }
+        }
+    }
+
+    /**
+     * Writes the fields of a request after its op.
+     */
+    private interface Request
+    {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads the result of an answer after its OK.
+     */
+    private interface Answer<T>
+    {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private final InetSocketAddress address;
+    private final ArrayBlockingQueue<Connection> idle;
+    private volatile boolean closed;
+
+    public RemoteShard(String host, int port)
+    {
+        this.address = new InetSocketAddress(host, port);
+        this.idle = new ArrayBlockingQueue<>(MAX_IDLE);
+    }
+
+    @Override
+    public String toString()
+    {
+        return address.getHostString() + ":" + address.getPort();
+    }
+
+    @Override
+    public boolean add(String id, String name, boolean isHonors, long order) throws IOException
+    {
+        return call(ShardServer.OP_ADD, out ->
+        {
+            out.writeUTF(id);
+            out.writeUTF(name);
+            out.writeBoolean(isHonors);
+            out.writeLong(order);
+        }, DataInputStream::readBoolean);
+    }
+
+    @Override
+    public boolean remove(String id) throws IOException
+    {
+        return call(ShardServer.OP_REMOVE, out -> out.writeUTF(id), DataInputStream::readBoolean);
+    }
+
+    @Override
+    public boolean rename(String id, String name) throws IOException
+    {
+        return call(ShardServer.OP_RENAME, out ->
+        {
+            out.writeUTF(id);
+            out.writeUTF(name);
+        }, DataInputStream::readBoolean);
+    }
+
+    @Override
+    public boolean setGrade(String id, String subject, double grade) throws IOException
+    {
+        return call(ShardServer.OP_GRADE, out ->
+        {
+            out.writeUTF(id);
+            out.writeUTF(subject);
+            out.writeDouble(grade);
+        }, DataInputStream::readBoolean);
+    }
+
+    @Override
+    public String find(String id) throws IOException
+    {
+        return call(ShardServer.OP_FIND, out -> out.writeUTF(id),
+            in -> in.readBoolean() ? in.readUTF() : null);
+    }
+
+    @Override
+    public int size() throws IOException
+    {
+        return call(ShardServer.OP_SIZE, out -> { }, DataInputStream::readInt);
+    }
+
+    @Override
+    public long nextOrder() throws IOException
+    {
+        return call(ShardServer.OP_NEXT_ORDER, out -> { }, DataInputStream::readLong);
+    }
+
+    @Override
+    public List<Row> sortedAfter(double average, long order, int count) throws IOException
+    {
+        return call(ShardServer.OP_SORTED, out ->
+        {
+            out.writeDouble(average);
+            out.writeLong(order);
+            out.writeInt(count);
+        }, in ->
+        {
+            int n = in.readInt();
+            List<Row> rows = new ArrayList<>(n);
+            for (int i = 0; i < n; i++)
+            {
+                rows.add(ShardServer.readRow(in));
+            }
+            return rows;
+        });
+    }
+
+    @Override
+    public Row[] subjectHighLow(String subject) throws IOException
+    {
+        return call(ShardServer.OP_HIGH_LOW, out -> out.writeUTF(subject),
+            in -> in.readBoolean() ? new Row[] { ShardServer.readRow(in), ShardServer.readRow(in) } : null);
+    }
+
+    /**
+     * Closes every idle connection. Calls still running finish, then close theirs.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        Connection c;
+        while ((c = idle.poll()) != null)
+        {
+            c.close();
+        }
+    }
+
+    private <T> T call(byte op, Request request, Answer<T> answer) throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Shard " + this + " is closed");
+        }
+        Connection c = idle.poll();
+        if (c == null)
+        {
+            c = connect();
+        }
+
+        // A connection is only reused after a complete answer; after anything
+        // else the two ends may not agree on where the next answer starts
+        boolean reusable = false;
+        try
+        {
+            c.out.writeByte(op);
+            request.write(c.out);
+            c.out.flush();
+
+            if (c.in.readByte() != ShardServer.OK)
+            {
+                String message = c.in.readUTF();
+                reusable = true;
+                throw new IOException("Shard " + this + " failed: " + message);
+            }
+            T result = answer.read(c.in);
+            reusable = true;
+            return result;
+        }
+        finally
+        {
+            if (!reusable || closed || !idle.offer(c))
+            {
+                c.close();
+            }
+        }
+    }
+
+    private Connection connect() throws IOException
+    {
+        Socket socket = new Socket();
+        try
+        {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            return new Connection(socket);
+        }
+        catch (IOException e)
+        {
+            socket.close();
+            throw new IOException("Could not reach shard " + this + ": " + e.getMessage(), e);
+        }
+    }
+}
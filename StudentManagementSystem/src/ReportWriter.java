@@ -0,0 +1,363 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * ReportWriter class
+ * Renders report text into one reusable char buffer instead of a println,
+ * a String.format and a few string concatenations per row.
+ * The buffer grows up to CHUNK_SIZE; after that it is written to the sink in
+ * one go each time it fills up, so a report of any size streams out in chunks.
+ *
+ * Sinks: standard output (whatever System.out currently is), a file, or memory.
+ * Numbers use a fixed-point formatter that gives the same text as
+ * String.format("%.2f") (in the default locale, so "85,50" in Germany)
+ * without building any objects in the common case.
+ * There are also helpers for writing CSV.
+ *
+ * Methods return this, so a row can be written as
+ *   out.text(id).text(" - ").text(name).text(" | Average: ").fixed2(avg).newLine();
+ */
+public class ReportWriter implements AutoCloseable
+{
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    // Same line ending println uses
+    private static final String NEW_LINE = System.lineSeparator();
+
+    // Values at or above this are formatted with BigDecimal (value * 100 would lose the cents)
+    private static final double FAST_LIMIT = 1e13;
+
+    // Starts small so a one-line report stays cheap, grows up to CHUNK_SIZE
+    private char[] buffer = new char[256];
+    private int used;
+
+    private final Writer sink;          // null for an in-memory report
+    private final StringBuilder memory; // null unless in memory
+    private final boolean closeSink;
+
+    private final char[] digits = new char[20];
+
+    // Decimal point and zero digit of the default format locale, looked up
+    // again only when that locale changes
+    private Locale numberLocale;
+    private char decimalSeparator;
+    private char zeroDigit;
+
+    private ReportWriter(Writer sink, StringBuilder memory, boolean closeSink)
+    {
+        this.sink = sink;
+        this.memory = memory;
+        this.closeSink = closeSink;
+    }
+
+    /**
+     * Writes to the current System.out (so a redirected System.out is respected).
+     * close() flushes it but leaves System.out open.
+     */
+    public static ReportWriter toStdout()
+    {
+        return new ReportWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), null, false);
+    }
+
+    public static ReportWriter toFile(String fileName) throws IOException
+    {
+        return new ReportWriter(new OutputStreamWriter(Metrics.countWrites(new FileOutputStream(fileName)), StandardCharsets.UTF_8), null, true);
+    }
+
+    /**
+     * Keeps everything in memory; get it with toString().
+     */
+    public static ReportWriter inMemory()
+    {
+        return new ReportWriter(null, new StringBuilder(), false);
+    }
+
+    // -------------------------
+    // Text
+    // -------------------------
+
+    public ReportWriter text(String s)
+    {
+        int length = s.length();
+        int start = 0;
+        while (start < length)
+        {
+            if (used == buffer.length)
+            {
+                makeRoom();
+            }
+            int n = Math.min(length - start, buffer.length - used);
+            s.getChars(start, start + n, buffer, used);
+            used += n;
+            start += n;
+        }
+        return this;
+    }
+
+    public ReportWriter ch(char c)
+    {
+        if (used == buffer.length)
+        {
+            makeRoom();
+        }
+        buffer[used++] = c;
+        return this;
+    }
+
+    public ReportWriter newLine()
+    {
+        return NEW_LINE.length() == 1 ? ch(NEW_LINE.charAt(0)) : text(NEW_LINE);
+    }
+
+    public ReportWriter line(String s)
+    {
+        return text(s).newLine();
+    }
+
+    public ReportWriter number(long value)
+    {
+        if (value < 0)
+        {
+            if (value == Long.MIN_VALUE)
+            {
+                return text(Long.toString(value));
+            }
+            ch('-');
+            value = -value;
+        }
+        return digits(value, '0');
+    }
+
+    /**
+     * Same text as Double.toString (used for raw grades like "90.0").
+     */
+    public ReportWriter plain(double value)
+    {
+        return text(Double.toString(value));
+    }
+
+    /**
+     * Same text as String.format("%.2f", value). Like Formatter, this rounds the
+     * shortest decimal form of the double (the digits Double.toString prints) half up,
+     * so 1.005 gives "1.01", and a negative number that rounds to 0 keeps its "-".
+     * The decimal point and digits are the default format locale's, as in Formatter.
+     */
+    public ReportWriter fixed2(double value)
+    {
+        if (Double.isNaN(value))
+        {
+            return text("NaN");
+        }
+        if (Double.isInfinite(value))
+        {
+            return text(value > 0 ? "Infinity" : "-Infinity");
+        }
+
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        if (locale != numberLocale)
+        {
+            DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            decimalSeparator = symbols.getDecimalSeparator();
+            zeroDigit = symbols.getZeroDigit();
+            numberLocale = locale;
+        }
+
+        boolean negative = value < 0 || (value == 0 && 1.0 / value < 0);
+        double magnitude = Math.abs(value);
+        if (magnitude >= FAST_LIMIT)
+        {
+            String plain = new BigDecimal(Double.toString(value)).setScale(2, RoundingMode.HALF_UP).toPlainString();
+            for (int i = 0; i < plain.length(); i++)
+            {
+                char c = plain.charAt(i);
+                ch(c == '.' ? decimalSeparator : c >= '0' && c <= '9' ? (char) (zeroDigit + c - '0') : c);
+            }
+            return this;
+        }
+
+        double scaled = magnitude * 100.0;
+        double fraction = scaled - Math.floor(scaled);
+        long hundredths;
+        if (Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled))
+        {
+            // Close to a tie: decide on the decimal digits, like Formatter does
+            hundredths = new BigDecimal(Double.toString(magnitude)).movePointRight(2)
+                .setScale(0, RoundingMode.HALF_UP).longValueExact();
+        }
+        else
+        {
+            hundredths = Math.round(scaled);
+        }
+
+        if (negative)
+        {
+            ch('-');
+        }
+        digits(hundredths / 100, zeroDigit);
+        ch(decimalSeparator);
+        long cents = hundredths % 100;
+        ch((char) (zeroDigit + cents / 10));
+        return ch((char) (zeroDigit + cents % 10));
+    }
+
+    // -------------------------
+    // CSV
+    // -------------------------
+
+    /**
+     * Writes one CSV field, quoted only when it contains a comma, quote or line break.
+     */
+    public ReportWriter csv(String field)
+    {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++)
+        {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote)
+        {
+            return text(field);
+        }
+
+        ch('"');
+        for (int i = 0; i < field.length(); i++)
+        {
+            char c = field.charAt(i);
+            if (c == '"')
+            {
+                ch('"');
+            }
+            ch(c);
+        }
+        return ch('"');
+    }
+
+    public ReportWriter comma()
+    {
+        return ch(',');
+    }
+
+    // -------------------------
+    // Flushing
+    // -------------------------
+
+    /**
+     * Pushes everything written so far to the sink.
+     */
+    public void flush()
+    {
+        drain();
+        if (sink != null)
+        {
+            try
+            {
+                sink.flush();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        flush();
+        if (closeSink)
+        {
+            try
+            {
+                sink.close();
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * The whole report, for an in-memory writer.
+     */
+    @Override
+    public String toString()
+    {
+        drain();
+        return memory == null ? super.toString() : memory.toString();
+    }
+
+    /**
+     * Writes a non-negative number with the given zero digit ('0' for plain digits).
+     */
+    private ReportWriter digits(long value, char zero)
+    {
+        int pos = digits.length;
+        do
+        {
+            digits[--pos] = (char) (zero + value % 10);
+            value /= 10;
+        }
+        while (value != 0);
+        return chars(digits, pos, digits.length - pos);
+    }
+
+    private ReportWriter chars(char[] source, int offset, int length)
+    {
+        while (buffer.length - used < length)
+        {
+            makeRoom();
+        }
+        System.arraycopy(source, offset, buffer, used, length);
+        used += length;
+        return this;
+    }
+
+    private void makeRoom()
+    {
+        if (buffer.length < CHUNK_SIZE)
+        {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        else
+        {
+            drain();
+        }
+    }
+
+    private void drain()
+    {
+        if (used == 0)
+        {
+            return;
+        }
+        if (memory != null)
+        {
+            memory.append(buffer, 0, used);
+        }
+        else
+        {
+            try
+            {
+                sink.write(buffer, 0, used);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+        used = 0;
+    }
+}
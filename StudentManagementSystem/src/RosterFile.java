@@ -0,0 +1,124 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Consumer;
+
+/**
+ * RosterFile class
+ * Writes the text save file, one "id|name|subj:grade,subj:grade" line per
+ * student (the format loadFromFile reads).
+ *
+ * The file is never written in place. The lines go to "name.tmp" in the same
+ * directory, which is forced to disk and then renamed over the old file in one
+ * step. A crash or a full disk in the middle of a save leaves the old file as it
+ * was, never a cut-off one (a leftover .tmp is overwritten by the next save).
+ * Saves run one at a time, so a menu save and an autosave never share a .tmp.
+ */
+public class RosterFile
+{
+
+    private static final Object SAVE_LOCK = new Object();
+
+    private RosterFile()
+    {
+    }
+
+    /**
+     * Writes every student in a point-in-time view and returns how many were written.
+     */
+    public static int write(RosterView view, String fileName) throws IOException
+    {
+        return write(view::forEach, fileName);
+    }
+
+    /**
+     * Writes every student that students hands to its action (it's called once)
+     * and returns how many were written.
+     */
+    public static int write(Consumer<Consumer<Student>> students, String fileName) throws IOException
+    {
+        int[] count = new int[1];
+        synchronized (SAVE_LOCK)
+        {
+            replace(Paths.get(fileName), out ->
+            {
+                // One line buffer and one subject view are reused for every student
+                StringBuilder line = new StringBuilder();
+                SubjectView subjects = new SubjectView();
+                students.accept(s ->
+                {
+                    out.println(line(line, s, subjects));
+                    count[0]++;
+                });
+            });
+        }
+        return count[0];
+    }
+
+    /**
+     * Writes the whole text of a file for replace().
+     */
+    interface Contents
+    {
+        void writeTo(PrintWriter out) throws IOException;
+    }
+
+    /**
+     * Writes contents to "target.tmp", forces it to disk and renames it over
+     * target. SegmentedRosterFile writes its manifest this way too.
+     */
+    static void replace(Path target, Contents contents) throws IOException
+    {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try
+        {
+            FileOutputStream file = new FileOutputStream(temp.toFile());
+            try (PrintWriter out = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(Metrics.countWrites(file)), 1 << 16)))
+            {
+                contents.writeTo(out);
+                out.flush();
+                if (out.checkError())
+                {
+                    throw new IOException("write failed");
+                }
+                file.getFD().sync();
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally
+        {
+            // Only still there if something went wrong before the rename
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Builds one line of the save file in line (cleared first) and returns it.
+     */
+    static StringBuilder line(StringBuilder line, Student s, SubjectView subjects)
+    {
+        line.setLength(0);
+        line.append(s.getId()).append("|")
+            .append(s.getName()).append("|");
+
+        s.readSubjects(subjects);
+        for (int i = 0; i < subjects.size(); i++)
+        {
+            line.append(subjects.name(i))
+                .append(":")
+                .append(subjects.grade(i));
+            if (i < subjects.size() - 1)
+            {
+                line.append(",");
+            }
+        }
+        return line;
+    }
+}
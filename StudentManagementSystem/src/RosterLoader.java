@@ -0,0 +1,542 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * RosterLoader class
+ * Reads the pipe-delimited roster file (id|name|subj:grade,subj:grade,...)
+ * straight from bytes instead of using readLine and String.split.
+ * Big files are cut into chunks at line breaks and the chunks are parsed
+ * in parallel, then merged into the registry in file order, so the result
+ * (and every message printed) is the same as the old line-by-line loader.
+ */
+public class RosterLoader
+{
+
+    // Files smaller than this are parsed as a single chunk
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    // 10^0 .. 10^22 are all exact doubles, which the fast grade parser relies on
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static
+    {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+        {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    /**
+     * What one load did, for the throughput report.
+     */
+    public static final class Stats
+    {
+        public final long rows;
+        public final long bytes;
+        public final long nanos;
+
+        Stats(long rows, long bytes, long nanos)
+        {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public double rowsPerSecond()
+        {
+            return nanos == 0 ? 0.0 : rows * 1e9 / nanos;
+        }
+
+        public double bytesPerSecond()
+        {
+            return nanos == 0 ? 0.0 : bytes * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Parsed %d rows (%d bytes) in %.1f ms: %.0f rows/sec, %.1f MB/sec",
+                rows, bytes, nanos / 1e6, rowsPerSecond(), bytesPerSecond() / (1024.0 * 1024.0));
+        }
+    }
+
+    /**
+     * The students parsed from one chunk, plus the warnings to print before
+     * each of them (warningRows[i] is the index of the student warnings[i] belongs to).
+     */
+    private static final class Chunk
+    {
+        final List<Student> students = new ArrayList<>();
+        final List<String> warnings = new ArrayList<>();
+        final List<Integer> warningRows = new ArrayList<>();
+        long rows;
+    }
+
+    private final int chunkSize;
+
+    public RosterLoader()
+    {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public RosterLoader(int chunkSize)
+    {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parses the file and adds every student to the registry, in file order.
+     * Invalid grades and duplicate IDs are reported the same way as before.
+     */
+    public Stats loadInto(String fileName, StudentRegistry registry) throws IOException
+    {
+        return loadInto(fileName, null, registry);
+    }
+
+    /**
+     * Like loadInto above, but only reads the given byte ranges of the file
+     * ({start, end} pairs that each hold whole lines), in that order, or the
+     * whole file when ranges is null (SegmentedRosterFile uses this).
+     */
+    Stats loadInto(String fileName, List<long[]> ranges, StudentRegistry registry) throws IOException
+    {
+        long start = System.nanoTime();
+        Path path = Paths.get(fileName);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = 0;
+            if (ranges == null)
+            {
+                size = channel.size();
+                ranges = splitIntoChunks(channel, size, chunkSize);
+            }
+            else
+            {
+                for (long[] range : ranges)
+                {
+                    size += range[1] - range[0];
+                }
+            }
+            List<long[]> toRead = ranges;
+
+            List<Chunk> chunks;
+            try
+            {
+                chunks = IntStream.range(0, toRead.size())
+                    .parallel()
+                    .mapToObj(i -> readAndParse(channel, toRead.get(i)))
+                    .collect(Collectors.toList());
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+
+            long rows = 0;
+            List<Student> all = new ArrayList<>();
+            for (Chunk chunk : chunks)
+            {
+                all.addAll(chunk.students);
+                rows += chunk.rows;
+            }
+
+            // One bulk add builds the indexes far faster than one insert per student
+            List<Student> duplicates = new ArrayList<>();
+            registry.addAll(all, duplicates);
+            report(chunks, duplicates);
+
+            return new Stats(rows, size, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Parses the file into a roster on disk one chunk at a time, so only one
+     * chunk of students is ever in memory. Prints the same messages as above,
+     * plus one for a student the store can't hold.
+     */
+    public Stats loadInto(String fileName, RosterStore store) throws IOException
+    {
+        long start = System.nanoTime();
+        Path path = Paths.get(fileName);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            long rows = 0;
+
+            for (long[] range : splitIntoChunks(channel, size, chunkSize))
+            {
+                Chunk chunk;
+                try
+                {
+                    chunk = readAndParse(channel, range);
+                }
+                catch (UncheckedIOException e)
+                {
+                    throw e.getCause();
+                }
+                rows += chunk.rows;
+
+                int nextWarning = 0;
+                for (int i = 0; i < chunk.students.size(); i++)
+                {
+                    while (nextWarning < chunk.warningRows.size() && chunk.warningRows.get(nextWarning) == i)
+                    {
+                        System.out.println(chunk.warnings.get(nextWarning));
+                        nextWarning++;
+                    }
+
+                    Student s = chunk.students.get(i);
+                    try
+                    {
+                        if (!store.add(s))
+                        {
+                            System.out.println("Skipping duplicate student ID: " + s.getId());
+                        }
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        System.out.println("Skipping student " + s.getId() + ": " + e.getMessage());
+                    }
+                }
+            }
+
+            return new Stats(rows, size, System.nanoTime() - start);
+        }
+    }
+
+    // -------------------------
+    // Chunking
+    // -------------------------
+
+    /**
+     * Picks chunk boundaries about chunkSize apart, each moved forward to just
+     * after a '\n' so no line (and no "\r\n" pair) is split between chunks.
+     * GradeImporter cuts its files the same way.
+     */
+    static List<long[]> splitIntoChunks(FileChannel channel, long size, int chunkSize) throws IOException
+    {
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+
+        while (start < size)
+        {
+            long end = Math.min(start + chunkSize, size);
+
+            // Walk forward to the end of the current line
+            while (end < size)
+            {
+                probe.clear();
+                int n = channel.read(probe, end);
+                Metrics.bytesRead(n);
+                if (n <= 0)
+                {
+                    end = size;
+                    break;
+                }
+
+                int newline = -1;
+                for (int i = 0; i < n; i++)
+                {
+                    if (probe.get(i) == '\n')
+                    {
+                        newline = i;
+                        break;
+                    }
+                }
+
+                if (newline >= 0)
+                {
+                    end += newline + 1;
+                    break;
+                }
+                end += n;
+            }
+
+            ranges.add(new long[] { start, end });
+            start = end;
+        }
+        return ranges;
+    }
+
+    private Chunk readAndParse(FileChannel channel, long[] range)
+    {
+        byte[] bytes = readRange(channel, range);
+        Chunk chunk = new Chunk();
+        parseLines(bytes, bytes.length, chunk);
+        return chunk;
+    }
+
+    /**
+     * Reads the bytes of one chunk. Throws UncheckedIOException so it can be
+     * called from a parallel stream.
+     */
+    static byte[] readRange(FileChannel channel, long[] range)
+    {
+        int length = (int) (range[1] - range[0]);
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        try
+        {
+            // Positional reads don't move the channel, so chunks can read at the same time
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer, range[0] + buffer.position()) < 0)
+                {
+                    throw new IOException("File changed while loading");
+                }
+            }
+            Metrics.bytesRead(length);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes;
+    }
+
+    /**
+     * Prints the invalid-grade and duplicate-ID messages in file order,
+     * exactly where the line-by-line loader used to print them.
+     */
+    private static void report(List<Chunk> chunks, List<Student> duplicates)
+    {
+        if (duplicates.isEmpty() && chunks.stream().allMatch(c -> c.warnings.isEmpty()))
+        {
+            return;
+        }
+
+        // The file may repeat an ID; the first one wins, like findStudentById did
+        Set<Student> rejected = Collections.newSetFromMap(new IdentityHashMap<>());
+        rejected.addAll(duplicates);
+
+        for (Chunk chunk : chunks)
+        {
+            int nextWarning = 0;
+
+            for (int i = 0; i < chunk.students.size(); i++)
+            {
+                while (nextWarning < chunk.warningRows.size() && chunk.warningRows.get(nextWarning) == i)
+                {
+                    System.out.println(chunk.warnings.get(nextWarning));
+                    nextWarning++;
+                }
+
+                Student s = chunk.students.get(i);
+                if (rejected.contains(s))
+                {
+                    System.out.println("Skipping duplicate student ID: " + s.getId());
+                }
+            }
+        }
+    }
+
+    // -------------------------
+    // Parsing
+    // -------------------------
+
+    /**
+     * Splits the bytes into lines the way BufferedReader.readLine does:
+     * a line ends at "\n", "\r" or "\r\n".
+     */
+    private static void parseLines(byte[] b, int length, Chunk chunk)
+    {
+        int pos = 0;
+
+        while (pos < length)
+        {
+            int end = pos;
+            while (end < length && b[end] != '\n' && b[end] != '\r')
+            {
+                end++;
+            }
+
+            parseLine(b, pos, end, chunk);
+            chunk.rows++;
+
+            if (end < length && b[end] == '\r' && end + 1 < length && b[end + 1] == '\n')
+            {
+                end++;
+            }
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * Parses one "id|name|subjects" line.
+     * String.split drops trailing empty fields, so trailing '|' characters are
+     * ignored here too; a line needs at least an ID and a name field.
+     */
+    private static void parseLine(byte[] b, int start, int end, Chunk chunk)
+    {
+        while (end > start && b[end - 1] == '|')
+        {
+            end--;
+        }
+
+        int idEnd = indexOf(b, start, end, (byte) '|');
+        if (idEnd < 0)
+        {
+            return; // only one field
+        }
+
+        int nameEnd = indexOf(b, idEnd + 1, end, (byte) '|');
+        String id = text(b, start, idEnd);
+        String name = text(b, idEnd + 1, nameEnd < 0 ? end : nameEnd);
+        Student s = new Student(id, name);
+
+        if (nameEnd >= 0)
+        {
+            int subjectsEnd = indexOf(b, nameEnd + 1, end, (byte) '|');
+            parseSubjects(b, nameEnd + 1, subjectsEnd < 0 ? end : subjectsEnd, s, chunk);
+        }
+
+        chunk.students.add(s);
+    }
+
+    /**
+     * Parses "subj:grade,subj:grade". Like the old split(":") check, a token
+     * counts only if it has exactly two parts once trailing ':' are dropped.
+     */
+    private static void parseSubjects(byte[] b, int start, int end, Student s, Chunk chunk)
+    {
+        int tokenStart = start;
+
+        while (tokenStart < end)
+        {
+            int tokenEnd = indexOf(b, tokenStart, end, (byte) ',');
+            if (tokenEnd < 0)
+            {
+                tokenEnd = end;
+            }
+
+            int partsEnd = tokenEnd;
+            while (partsEnd > tokenStart && b[partsEnd - 1] == ':')
+            {
+                partsEnd--;
+            }
+
+            int colon = indexOf(b, tokenStart, partsEnd, (byte) ':');
+            if (colon >= 0 && indexOf(b, colon + 1, partsEnd, (byte) ':') < 0)
+            {
+                try
+                {
+                    double grade = parseGrade(b, colon + 1, partsEnd);
+                    s.addOrUpdateSubject(text(b, tokenStart, colon), grade);
+                }
+                catch (NumberFormatException e)
+                {
+                    chunk.warnings.add("Skipping invalid grade: " + text(b, tokenStart, tokenEnd));
+                    chunk.warningRows.add(chunk.students.size());
+                }
+            }
+
+            tokenStart = tokenEnd + 1;
+        }
+    }
+
+    /**
+     * Parses a grade without building a String for the common "85" / "72.5" cases.
+     * When the digits fit in 53 bits and there are at most 22 decimals, one
+     * division of two exact doubles gives the same correctly rounded result as
+     * Double.parseDouble. Anything else (exponents, "NaN", long numbers, junk)
+     * falls back to Double.parseDouble so the behavior is identical.
+     */
+    static double parseGrade(byte[] b, int start, int end)
+    {
+        int i = start;
+        int stop = end;
+
+        // parseDouble ignores leading and trailing whitespace
+        while (i < stop && (b[i] & 0xFF) <= ' ')
+        {
+            i++;
+        }
+        while (stop > i && (b[stop - 1] & 0xFF) <= ' ')
+        {
+            stop--;
+        }
+
+        boolean negative = false;
+        if (i < stop && (b[i] == '-' || b[i] == '+'))
+        {
+            negative = b[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean seenDot = false;
+        boolean simple = true;
+
+        for (; i < stop; i++)
+        {
+            byte c = b[i];
+            if (c >= '0' && c <= '9')
+            {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (seenDot)
+                {
+                    decimals++;
+                }
+                if (digits > 15)
+                {
+                    simple = false;
+                    break;
+                }
+            }
+            else if (c == '.' && !seenDot)
+            {
+                seenDot = true;
+            }
+            else
+            {
+                simple = false;
+                break;
+            }
+        }
+
+        if (simple && digits > 0 && decimals < POWERS_OF_TEN.length)
+        {
+            double value = mantissa / POWERS_OF_TEN[decimals];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(text(b, start, end));
+    }
+
+    static int indexOf(byte[] b, int start, int end, byte target)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (b[i] == target)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String text(byte[] b, int start, int end)
+    {
+        return new String(b, start, end - start, StandardCharsets.UTF_8);
+    }
+}
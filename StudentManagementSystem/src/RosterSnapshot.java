@@ -0,0 +1,431 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * RosterSnapshot class
+ * A compact binary file format for the whole roster, used next to the text format.
+ * Unlike the text file it keeps HonorsStudent objects (and their bonus points),
+ * and grades are stored as numbers instead of decimal strings.
+ *
+ * Layout (version 1, fixed-size numbers are big-endian):
+ *   int    magic "SMSS"
+ *   int    version
+ *   varint subject count, then each subject name as a string
+ *   varint student count, then one record per student:
+ *     varint record length in bytes (so a reader can skip a record it doesn't understand)
+ *     byte   type: 0 = Student, 1 = HonorsStudent (followed by the bonus as a double)
+ *     string id, string name
+ *     varint grade count, then for each grade: varint subject number, grade
+ *
+ * A string is a varint byte length followed by UTF-8 bytes. A grade that is an exact
+ * number of hundredths (85, 72.5, 91.25 ...) is written as varint(hundredths * 2);
+ * anything else is written as varint(1) followed by the raw 8-byte double,
+ * so every grade comes back bit-for-bit the same.
+ *
+ * Reading checks every count and length against the bytes left in the file or
+ * record, so a damaged file gives an IOException instead of a huge allocation.
+ */
+public class RosterSnapshot
+{
+
+    public static final int MAGIC = 0x534D5353; // "SMSS"
+    public static final int VERSION = 1;
+
+    public static final byte TYPE_STUDENT = 0;
+    public static final byte TYPE_HONORS = 1;
+
+    private static final int RAW_GRADE = 1;
+
+    private RosterSnapshot()
+    {
+    }
+
+    /**
+     * Writes every student to the file and returns the number of bytes written.
+     */
+    public static long write(Collection<Student> students, String fileName) throws IOException
+    {
+        return write(students::forEach, fileName);
+    }
+
+    /**
+     * Writes every student in a point-in-time view. Both passes below then see
+     * the same roster even while other threads keep changing it.
+     */
+    public static long write(RosterView view, String fileName) throws IOException
+    {
+        return write(view::forEach, fileName);
+    }
+
+    // students runs an action for every student; it's called once per pass
+    private static long write(Consumer<Consumer<Student>> students, String fileName) throws IOException
+    {
+        // First pass: number every distinct subject name and count the students
+        HashMap<String, Integer> dictionary = new HashMap<>();
+        List<String> subjectNames = new ArrayList<>();
+        SubjectView subjects = new SubjectView();
+        int[] studentCount = new int[1];
+        students.accept(s ->
+        {
+            s.readSubjects(subjects);
+            for (int i = 0; i < subjects.size(); i++)
+            {
+                if (!dictionary.containsKey(subjects.name(i)))
+                {
+                    dictionary.put(subjects.name(i), subjectNames.size());
+                    subjectNames.add(subjects.name(i));
+                }
+            }
+            studentCount[0]++;
+        });
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Metrics.countWrites(new FileOutputStream(fileName)), 1 << 16)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            writeVarint(out, subjectNames.size());
+            for (String name : subjectNames)
+            {
+                writeString(out, name);
+            }
+
+            writeVarint(out, studentCount[0]);
+
+            // Each record is built here first so its length can go in front of it
+            ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+            DataOutputStream record = new DataOutputStream(recordBytes);
+
+            try
+            {
+                students.accept(s ->
+                {
+                    try
+                    {
+                        recordBytes.reset();
+                        writeRecord(record, s, dictionary, subjects);
+
+                        writeVarint(out, recordBytes.size());
+                        recordBytes.writeTo(out);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+
+            out.flush();
+            return out.size();
+        }
+    }
+
+    /**
+     * Reads every student from the file, in the order they were written.
+     */
+    public static List<Student> read(String fileName) throws IOException
+    {
+        FileInputStream file = new FileInputStream(fileName);
+        Position position = new Position(new BufferedInputStream(Metrics.countReads(file), 1 << 16));
+        try (DataInputStream in = new DataInputStream(position))
+        {
+            long size = file.getChannel().size();
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException(fileName + " is not a roster snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+
+            // Every subject name and every record takes at least one byte
+            int subjectCount = readLength(in, size - position.offset, fileName);
+            String[] subjectNames = new String[subjectCount];
+            for (int i = 0; i < subjectCount; i++)
+            {
+                int length = readLength(in, size - position.offset, fileName);
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                subjectNames[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            int studentCount = readLength(in, size - position.offset, fileName);
+            List<Student> students = new ArrayList<>(studentCount);
+            byte[] buffer = new byte[256];
+
+            for (int i = 0; i < studentCount; i++)
+            {
+                int length = readLength(in, size - position.offset, fileName);
+                if (length > buffer.length)
+                {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+
+                Student s;
+                try
+                {
+                    s = readRecord(ByteBuffer.wrap(buffer, 0, length), subjectNames);
+                }
+                catch (BufferUnderflowException e)
+                {
+                    throw new IOException("Snapshot record " + i + " is cut short");
+                }
+
+                if (s != null)
+                {
+                    students.add(s);
+                }
+            }
+            return students;
+        }
+    }
+
+    /**
+     * Reads a count or byte length that can't be more than the bytes left.
+     */
+    private static int readLength(DataInputStream in, long left, String fileName) throws IOException
+    {
+        int value = readVarint(in);
+        if (value < 0 || value > left)
+        {
+            throw new IOException("Corrupt snapshot " + fileName + ": a count of " + Integer.toUnsignedString(value)
+                + " with only " + left + " bytes left");
+        }
+        return value;
+    }
+
+    /**
+     * Counts the bytes read through it, so the reader knows how much of the file is left.
+     */
+    private static final class Position extends FilterInputStream
+    {
+        long offset;
+
+        Position(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = in.read();
+            if (b >= 0)
+            {
+                offset++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = in.read(b, off, len);
+            if (n > 0)
+            {
+                offset += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = in.skip(n);
+            offset += skipped;
+            return skipped;
+        }
+    }
+
+    // -------------------------
+    // Records
+    // -------------------------
+
+    private static void writeRecord(DataOutputStream out, Student s, HashMap<String, Integer> dictionary,
+                                    SubjectView subjects) throws IOException
+    {
+        if (s instanceof HonorsStudent)
+        {
+            out.writeByte(TYPE_HONORS);
+            out.writeDouble(((HonorsStudent) s).getBonusPoints());
+        }
+        else
+        {
+            out.writeByte(TYPE_STUDENT);
+        }
+
+        writeString(out, s.getId());
+        writeString(out, s.getName());
+
+        s.readSubjects(subjects);
+        writeVarint(out, subjects.size());
+        for (int i = 0; i < subjects.size(); i++)
+        {
+            writeVarint(out, dictionary.get(subjects.name(i)));
+            writeGrade(out, subjects.grade(i));
+        }
+    }
+
+    /**
+     * Returns null for a record type this version doesn't know, so it gets skipped.
+     */
+    private static Student readRecord(ByteBuffer in, String[] subjectNames) throws IOException
+    {
+        byte type = in.get();
+        Student s;
+
+        if (type == TYPE_HONORS)
+        {
+            double bonus = in.getDouble();
+            s = new HonorsStudent(readString(in), readString(in), bonus);
+        }
+        else if (type == TYPE_STUDENT)
+        {
+            s = new Student(readString(in), readString(in));
+        }
+        else
+        {
+            return null;
+        }
+
+        int gradeCount = readVarint(in);
+        for (int i = 0; i < gradeCount; i++)
+        {
+            int subject = readVarint(in);
+            if (subject < 0 || subject >= subjectNames.length)
+            {
+                throw new IOException("Bad subject number " + subject + " in snapshot");
+            }
+            s.addOrUpdateSubject(subjectNames[subject], readGrade(in));
+        }
+        return s;
+    }
+
+    // -------------------------
+    // Primitive encodings
+    // -------------------------
+
+    static void writeGrade(DataOutputStream out, double grade) throws IOException
+    {
+        long hundredths = Math.round(grade * 100.0);
+        boolean exact = hundredths >= 0 && hundredths <= Integer.MAX_VALUE / 2
+            && Double.doubleToRawLongBits(hundredths / 100.0) == Double.doubleToRawLongBits(grade);
+
+        if (exact)
+        {
+            writeVarint(out, (int) hundredths * 2);
+        }
+        else
+        {
+            writeVarint(out, RAW_GRADE);
+            out.writeDouble(grade);
+        }
+    }
+
+    static double readGrade(ByteBuffer in) throws IOException
+    {
+        int code = readVarint(in);
+        if (code == RAW_GRADE)
+        {
+            return in.getDouble();
+        }
+        return (code >>> 1) / 100.0;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) throws IOException
+    {
+        int length = readVarint(in);
+        if (length < 0 || length > in.remaining())
+        {
+            throw new IOException("Corrupt snapshot: a string of " + Integer.toUnsignedString(length)
+                + " bytes with only " + in.remaining() + " left in the record");
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * Unsigned LEB128: 7 bits per byte, high bit set on every byte but the last.
+     */
+    static void writeVarint(DataOutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            int b = in.read();
+            if (b < 0)
+            {
+                throw new EOFException("Snapshot ended in the middle of a number");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Bad number in snapshot");
+    }
+
+    static int readVarint(ByteBuffer in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            if (!in.hasRemaining())
+            {
+                throw new EOFException("Snapshot record ended in the middle of a number");
+            }
+            int b = in.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Bad number in snapshot");
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * RosterStore interface
+ * A roster kept on disk instead of in the StudentRegistry, for rosters bigger
+ * than the heap (PagedStudentStore, MappedStudentStore).
+ * StudentManagementSystem uses one of these in place of the registry while it is open.
+ */
+public interface RosterStore extends AutoCloseable
+{
+
+    /**
+     * Stores a new student. False if the ID is taken.
+     */
+    boolean add(Student s);
+
+    /**
+     * The student with this ID (case-insensitive), or null.
+     * Changes made to the returned Student are kept by the store.
+     */
+    Student find(String id);
+
+    /**
+     * A read-only copy of the student for reports, or null.
+     * Unlike find() it doesn't count as a use of the student.
+     */
+    Student peek(String id);
+
+    /**
+     * Removes the student and returns its last state, or null if there is none.
+     */
+    Student remove(String id);
+
+    int size();
+
+    /**
+     * Hands every student to the action in the order they were added (as read-only copies).
+     */
+    void forEach(Consumer<Student> action);
+
+    /**
+     * Removes every student.
+     */
+    void clear();
+
+    /**
+     * Makes sure every change so far is in the file.
+     */
+    void flush();
+
+    String getFileName();
+
+    /**
+     * A few lines about the store, for the memory report.
+     */
+    String stats();
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * RosterView class
+ * A point-in-time view of the roster for saves and reports. Opened with
+ * StudentRegistry.openView() and closed (try-with-resources) when done.
+ *
+ * Opening a view copies nothing. Every student remembers the tick of the
+ * registry's clock at its last change, and the view remembers the tick it was
+ * opened at. While the view is open, the first change to a student the view
+ * still needs makes a read-only copy of just that student first, and a
+ * removed student is kept the same way. Writers never wait for the view, and
+ * only the students that really change while it is open get copied.
+ *
+ * forEach hands out every student as they were when the view opened, in the
+ * order they were added: the live Student if it hasn't changed since, or the
+ * saved copy if it has. Students added after the view opened are left out.
+ * The action runs while that one student is locked, so the row can't change
+ * halfway through; it must not lock anything else.
+ *
+ * The subject indexes and the leaderboard aren't versioned, so reports built
+ * from them still show the latest state.
+ */
+public class RosterView implements AutoCloseable
+{
+
+    private final StudentRegistry registry;
+
+    // Tick the view was opened at; 0 until it is set right after the view is published
+    private volatile long openedAt;
+
+    // Live student -> copy of the student as they were when the view opened
+    private final ConcurrentHashMap<Student, Student> copies;
+
+    // Sequence -> copy, for students removed since the view opened
+    private final ConcurrentSkipListMap<Long, Student> removed;
+
+    RosterView(StudentRegistry registry)
+    {
+        this.registry = registry;
+        this.copies = new ConcurrentHashMap<>();
+        this.removed = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Calls action for every student in the view, in the order they were added.
+     */
+    public void forEach(Consumer<Student> action)
+    {
+        walk(0, Long.MAX_VALUE, s -> visit(s, action));
+    }
+
+    /**
+     * Like forEach, but only for the students whose sequence (place in the
+     * insertion order) is from fromSequence up to but not including toSequence.
+     */
+    public void forEach(long fromSequence, long toSequence, Consumer<Student> action)
+    {
+        walk(fromSequence, toSequence, s -> visit(s, action));
+    }
+
+    /**
+     * Every student the view may hold, in order, for splitting the work across
+     * threads. Each one still has to go through visit().
+     */
+    public Student[] candidates()
+    {
+        List<Student> all = new ArrayList<>();
+        walk(0, Long.MAX_VALUE, all::add);
+        return all.toArray(new Student[0]);
+    }
+
+    /**
+     * Calls action with the student as they were when the view opened, while
+     * the student is locked. Returns false (and does nothing) for a student
+     * added after the view opened.
+     */
+    public boolean visit(Student student, Consumer<Student> action)
+    {
+        synchronized (student)
+        {
+            Student copy = copies.get(student);
+            if (copy != null)
+            {
+                action.accept(copy);
+                return true;
+            }
+            // Copies themselves are never changed, so their version stays 0
+            if (student.getVersion() < openedAt)
+            {
+                action.accept(student);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Number of students copied so far because they changed while the view was open.
+     */
+    public int getCopies()
+    {
+        return copies.size();
+    }
+
+    @Override
+    public void close()
+    {
+        registry.closeView(this);
+        copies.clear();
+        removed.clear();
+    }
+
+    // -------------------------
+    // Called by the registry
+    // -------------------------
+
+    void open(long tick)
+    {
+        openedAt = tick;
+    }
+
+    /**
+     * Called while the student is locked, just before a change stamped with tick
+     * (or before the student is removed). Keeps a copy if the view still needs
+     * the student as they are now.
+     */
+    void beforeChange(Student student, long tick, boolean removing)
+    {
+        long at = openedAt;
+        while (at == 0)
+        {
+            // Published but not opened yet; that's only ever a few instructions away
+            Thread.onSpinWait();
+            at = openedAt;
+        }
+        if (tick < at)
+        {
+            return; // this change happened before the view opened, so the view shows it
+        }
+
+        Student copy = copies.get(student);
+        if (copy == null && student.getVersion() < at)
+        {
+            copy = student.copyForView();
+            copies.put(student, copy);
+        }
+        if (removing && copy != null)
+        {
+            removed.put(student.getSequence(), copy);
+        }
+    }
+
+    /**
+     * Goes through the live students and the removed copies with a sequence in
+     * [from, to), merged by sequence.
+     * A removed copy is skipped when the live walk already reached that student.
+     */
+    private void walk(long from, long to, Consumer<Student> each)
+    {
+        long last = from - 1;
+        for (Map.Entry<Long, Student> e : registry.bySequence(from, to))
+        {
+            long sequence = e.getKey();
+            // Checked on every step (a student can be removed while the walk runs),
+            // but without making a sub-map when there is nothing to merge in
+            Long removedNext = removed.higherKey(last);
+            if (removedNext != null && removedNext < sequence)
+            {
+                for (Student copy : removed.subMap(last, false, sequence, false).values())
+                {
+                    each.accept(copy);
+                }
+            }
+            each.accept(e.getValue());
+            last = sequence;
+        }
+        for (Student copy : removed.subMap(last, false, to, false).values())
+        {
+            each.accept(copy);
+        }
+    }
+}
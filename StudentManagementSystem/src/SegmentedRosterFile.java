@@ -0,0 +1,599 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SegmentedRosterFile class
+ * A save file for big rosters where only a few students change between saves.
+ * A save only rewrites the parts of the file holding changed students.
+ *
+ * The students are cut into segments by their place in the insertion order
+ * (at most SEGMENT_SIZE sequence numbers per segment). Each segment's lines,
+ * in the RosterFile format, sit somewhere in a data file next to the save file,
+ * and the save file itself is a small manifest listing the segments in order:
+ *
+ *   SMS-SEGMENTS 1
+ *   roster.txt.3.seg          the data file (in the same directory)
+ *   <students> <offset> <length>   one line per segment, in roster order
+ *
+ * A save goes over the roster once to find the segments with a dirty student
+ * (see Student.isDirty) or a student added or removed since the last save.
+ * It appends just those segments to the end of the data file, forces it to disk
+ * and then replaces the manifest (temp file, fsync, rename) so it points at the
+ * new copies. A crash before the rename leaves the last save whole.
+ *
+ * The old copies stay behind in the data file. Once they would outweigh the
+ * live ones, the save writes every segment to a fresh data file instead and
+ * deletes the old one, so the file stays under about twice the roster's size.
+ *
+ * An object remembers the segments of one file between saves. The dirty flags
+ * are cleared by whichever SegmentedRosterFile saves a student, so only one of
+ * them should be saving a roster at a time; a fresh one always writes everything.
+ */
+public class SegmentedRosterFile
+{
+
+    public static final String MAGIC = "SMS-SEGMENTS 1";
+
+    // Sequence numbers per segment. Smaller segments rewrite fewer unchanged
+    // students per change but make the manifest longer.
+    public static final int SEGMENT_SIZE = 32;
+
+    // Segments are appended to the data file in writes of about this size
+    private static final int WRITE_BUFFER = 1 << 20;
+
+    /**
+     * What one save did.
+     */
+    public static final class Result
+    {
+        public final int students;
+        public final int segments;
+        public final int rewritten;
+        public final long bytes;
+        public final boolean compacted;
+        public final long nanos;
+
+        Result(int students, int segments, int rewritten, long bytes, boolean compacted, long nanos)
+        {
+            this.students = students;
+            this.segments = segments;
+            this.rewritten = rewritten;
+            this.bytes = bytes;
+            this.compacted = compacted;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d students, rewrote %d of %d segments (%d bytes%s) in %.1f ms",
+                students, rewritten, segments, bytes, compacted ? ", new data file" : "", nanos / 1e6);
+        }
+    }
+
+    /**
+     * One segment: the students with a sequence in [lo, hi), and where their
+     * lines are in the data file.
+     */
+    private static final class Segment
+    {
+        final long lo;
+        final long hi;
+        int count;
+        long sequenceSum;
+        long offset;
+        int length;
+
+        Segment(long lo, long hi)
+        {
+            this.lo = lo;
+            this.hi = hi;
+        }
+    }
+
+    private final Path manifest;
+
+    // Segments as of the last save or load, in sequence order; null until then
+    private List<Segment> segments;
+    private Path data;
+    private int generation;
+    private long dataLength;
+    private long liveBytes;
+
+    // True when the manifest lists a segment that is gone, so it must be rewritten
+    private boolean manifestStale;
+
+    public SegmentedRosterFile(String fileName)
+    {
+        this.manifest = Paths.get(fileName).toAbsolutePath().normalize();
+    }
+
+    /**
+     * True if this object keeps track of the file with that name.
+     */
+    public boolean isFor(String fileName)
+    {
+        return manifest.equals(Paths.get(fileName).toAbsolutePath().normalize());
+    }
+
+    public String getFileName()
+    {
+        return manifest.toString();
+    }
+
+    /**
+     * True if the file starts like a manifest (so loadFromFile can tell the formats apart).
+     */
+    public static boolean isSegmented(String fileName)
+    {
+        try (BufferedReader in = new BufferedReader(new FileReader(fileName)))
+        {
+            return MAGIC.equals(in.readLine());
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    // -------------------------
+    // Save
+    // -------------------------
+
+    /**
+     * Saves the students in the view, rewriting only the segments that changed.
+     * Returns without writing anything when nothing did.
+     */
+    public synchronized Result save(RosterView view) throws IOException
+    {
+        long start = System.nanoTime();
+
+        // Pass 1: count each segment's students and look for dirty ones
+        Tally tally = new Tally(segments);
+        view.forEach(tally::add);
+        List<Segment> next = tally.finish();
+
+        // Unchanged segments keep their place in the data file
+        List<Segment> changed = new ArrayList<>();
+        long garbage = dataLength - liveBytes + tally.droppedBytes;
+        long kept = 0;
+        long replaced = 0;
+        for (Segment s : next)
+        {
+            Segment old = tally.previous.get(s);
+            if (old == null || tally.dirty.containsKey(s)
+                || old.count != s.count || old.sequenceSum != s.sequenceSum)
+            {
+                changed.add(s);
+                replaced += old == null ? 0 : old.length;
+            }
+            else
+            {
+                s.offset = old.offset;
+                s.length = old.length;
+                kept += old.length;
+            }
+        }
+        int students = 0;
+        for (Segment s : next)
+        {
+            students += s.count;
+        }
+
+        if (segments != null && changed.isEmpty() && tally.dropped == 0 && !manifestStale)
+        {
+            return new Result(students, next.size(), 0, 0, false, System.nanoTime() - start);
+        }
+
+        if (segments == null)
+        {
+            // Never overwrite the data file an older manifest still points at
+            data = savedDataFile();
+            generation = data == null ? 0 : generationOf(data);
+        }
+
+        // Start a fresh data file the first time, or once old copies would
+        // outweigh live ones (rewritten segments come out about as big as before)
+        long garbageAfter = garbage + replaced;
+        long liveAfter = kept + replaced;
+        boolean compact = segments == null || garbageAfter > liveAfter;
+        List<Segment> toWrite = compact ? next : changed;
+        Path target = compact ? dataPath(generation + 1) : data;
+
+        List<Student> cleared = new ArrayList<>();
+        long written;
+        try
+        {
+            written = writeSegments(view, toWrite, target, compact, cleared);
+            RosterFile.replace(manifest, out ->
+            {
+                out.println(MAGIC);
+                out.println(target.getFileName());
+                for (Segment s : next)
+                {
+                    out.println(s.count + " " + s.offset + " " + s.length);
+                }
+            });
+        }
+        catch (IOException | UncheckedIOException e)
+        {
+            // Nothing was saved, so the students are still unsaved
+            for (Student s : cleared)
+            {
+                synchronized (s)
+                {
+                    s.setDirty(true);
+                }
+            }
+            if (compact)
+            {
+                Files.deleteIfExists(target);
+            }
+            throw e;
+        }
+
+        if (compact)
+        {
+            if (data != null)
+            {
+                Files.deleteIfExists(data);
+            }
+            generation++;
+            data = target;
+            dataLength = written;
+        }
+        else
+        {
+            dataLength += written;
+        }
+        liveBytes = 0;
+        for (Segment s : next)
+        {
+            liveBytes += s.length;
+        }
+        segments = next;
+        manifestStale = false;
+        return new Result(students, next.size(), toWrite.size(), written, compact, System.nanoTime() - start);
+    }
+
+    /**
+     * Pass 2: appends the lines of each segment to the data file (or writes a
+     * new one) and records where they went. Clears the dirty flag of every live
+     * student written, and puts them in cleared. Returns the bytes written.
+     */
+    private long writeSegments(RosterView view, List<Segment> toWrite, Path target, boolean fresh,
+                               List<Student> cleared) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        SubjectView subjects = new SubjectView();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(WRITE_BUFFER + (WRITE_BUFFER >> 2));
+
+        try (FileChannel channel = fresh
+                ? FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)
+                : FileChannel.open(target, StandardOpenOption.WRITE))
+        {
+            long begin = channel.size();
+            long position = begin;
+            for (Segment s : toWrite)
+            {
+                long offset = position + buffer.size();
+                view.forEach(s.lo, s.hi, student ->
+                {
+                    byte[] bytes = RosterFile.line(line, student, subjects).append('\n')
+                        .toString().getBytes(StandardCharsets.UTF_8);
+                    buffer.write(bytes, 0, bytes.length);
+                    if (student.isDirty())
+                    {
+                        student.setDirty(false);
+                        cleared.add(student);
+                    }
+                });
+                s.offset = offset;
+                s.length = (int) (position + buffer.size() - offset);
+
+                if (buffer.size() >= WRITE_BUFFER)
+                {
+                    position += writeAt(channel, buffer, position);
+                }
+            }
+            position += writeAt(channel, buffer, position);
+            channel.force(true);
+            return position - begin;
+        }
+    }
+
+    private static int writeAt(FileChannel channel, ByteArrayOutputStream buffer, long position) throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        int length = bytes.remaining();
+        while (bytes.hasRemaining())
+        {
+            channel.write(bytes, position + bytes.position());
+        }
+        Metrics.bytesWritten(length);
+        buffer.reset();
+        return length;
+    }
+
+    /**
+     * Pass 1 state: walks the students in sequence order next to the segments
+     * of the last save and builds the new segment list.
+     */
+    private static final class Tally
+    {
+        final List<Segment> old;
+        final List<Segment> next = new ArrayList<>();
+
+        // New segment -> the segment it replaces (same range), and new segments with a dirty student
+        final Map<Segment, Segment> previous = new IdentityHashMap<>();
+        final Map<Segment, Boolean> dirty = new IdentityHashMap<>();
+
+        int nextOld;
+        int dropped;
+        long droppedBytes;
+        long lastHi;
+        Segment current;
+
+        Tally(List<Segment> old)
+        {
+            this.old = old == null ? new ArrayList<>() : old;
+        }
+
+        void add(Student s)
+        {
+            long sequence = s.getSequence();
+            if (current == null || sequence >= current.hi)
+            {
+                current = segmentFor(sequence);
+            }
+            current.count++;
+            current.sequenceSum += sequence;
+            if (s.isDirty())
+            {
+                dirty.put(current, Boolean.TRUE);
+            }
+        }
+
+        // Moves on to the segment holding sequence: the next old segment that
+        // covers it, or a new one past the end (students are only ever added there)
+        private Segment segmentFor(long sequence)
+        {
+            while (nextOld < old.size() && old.get(nextOld).hi <= sequence)
+            {
+                skip(old.get(nextOld++));
+            }
+
+            Segment segment;
+            if (nextOld < old.size() && old.get(nextOld).lo <= sequence)
+            {
+                Segment o = old.get(nextOld++);
+                segment = new Segment(o.lo, o.hi);
+                previous.put(segment, o);
+            }
+            else
+            {
+                long lo = Math.max(lastHi, sequence - Math.floorMod(sequence - lastHi, SEGMENT_SIZE));
+                segment = new Segment(lo, lo + SEGMENT_SIZE);
+            }
+            lastHi = Math.max(lastHi, segment.hi);
+            next.add(segment);
+            return segment;
+        }
+
+        // An old segment no student landed in: all of its students were removed
+        private void skip(Segment o)
+        {
+            dropped++;
+            droppedBytes += o.length;
+            lastHi = Math.max(lastHi, o.hi);
+        }
+
+        List<Segment> finish()
+        {
+            while (nextOld < old.size())
+            {
+                skip(old.get(nextOld++));
+            }
+            return next;
+        }
+    }
+
+    // -------------------------
+    // Load
+    // -------------------------
+
+    /**
+     * Loads the roster from a manifest and its data file into the registry
+     * (which should be empty), and remembers the segments so the next save
+     * only rewrites what changes after the load.
+     */
+    public RosterLoader.Stats loadInto(StudentRegistry registry) throws IOException
+    {
+        List<String> lines = Files.readAllLines(manifest);
+        Metrics.bytesRead(Files.size(manifest));
+        if (lines.size() < 2 || !MAGIC.equals(lines.get(0)))
+        {
+            throw new IOException(manifest.getFileName() + " is not a segmented roster file");
+        }
+        Path dataFile = manifest.resolveSibling(lines.get(1).trim());
+
+        List<long[]> ranges = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        for (int i = 2; i < lines.size(); i++)
+        {
+            String[] f = lines.get(i).trim().split(" ");
+            if (f.length != 3)
+            {
+                throw new IOException("Bad segment line " + (i + 1) + " in " + manifest.getFileName());
+            }
+            long offset;
+            long length;
+            try
+            {
+                counts.add(Integer.parseInt(f[0]));
+                offset = Long.parseLong(f[1]);
+                length = Long.parseLong(f[2]);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IOException("Bad segment line " + (i + 1) + " in " + manifest.getFileName());
+            }
+            ranges.add(new long[] { offset, offset + length });
+        }
+
+        // Segments that follow each other in the data file are read as one chunk
+        List<long[]> chunks = new ArrayList<>();
+        for (long[] range : ranges)
+        {
+            long[] last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (last != null && last[1] == range[0] && last[1] - last[0] < RosterLoader.DEFAULT_CHUNK_SIZE)
+            {
+                last[1] = range[1];
+            }
+            else
+            {
+                chunks.add(new long[] { range[0], range[1] });
+            }
+        }
+
+        RosterLoader.Stats stats = new RosterLoader().loadInto(dataFile.toString(), chunks, registry);
+        remember(registry, ranges, counts, dataFile);
+        return stats;
+    }
+
+    /**
+     * Rebuilds the segment list after a load. The registry gave the students new
+     * sequence numbers in file order, so each segment now starts at the number
+     * of its first student and ends where the next one starts. If a student was
+     * lost on the way (a bad line or a duplicate ID) the students can't be
+     * matched to their segments, and the next save writes everything again.
+     */
+    private void remember(StudentRegistry registry, List<long[]> ranges, List<Integer> counts, Path dataFile)
+        throws IOException
+    {
+        long total = 0;
+        for (int count : counts)
+        {
+            total += count;
+        }
+        data = dataFile;
+        generation = generationOf(dataFile);
+        dataLength = Files.size(dataFile);
+        if (total != registry.size())
+        {
+            segments = null;
+            return;
+        }
+
+        List<Segment> loaded = new ArrayList<>();
+        Iterator<Student> students = registry.students().iterator();
+        for (int i = 0; i < counts.size(); i++)
+        {
+            Segment s = null;
+            for (int k = 0; k < counts.get(i); k++)
+            {
+                Student student = students.next();
+                synchronized (student)
+                {
+                    student.setDirty(false);
+                }
+                long sequence = student.getSequence();
+                if (s == null)
+                {
+                    s = new Segment(sequence, sequence + SEGMENT_SIZE);
+                }
+                s.count++;
+                s.sequenceSum += sequence;
+            }
+            if (s == null)
+            {
+                // An empty segment in the manifest: the next save leaves it out
+                manifestStale = true;
+                continue;
+            }
+            if (!loaded.isEmpty())
+            {
+                Segment before = loaded.remove(loaded.size() - 1);
+                loaded.add(copy(before, before.lo, s.lo));
+            }
+            s.offset = ranges.get(i)[0];
+            s.length = (int) (ranges.get(i)[1] - ranges.get(i)[0]);
+            loaded.add(s);
+        }
+
+        segments = loaded;
+        liveBytes = 0;
+        for (Segment s : loaded)
+        {
+            liveBytes += s.length;
+        }
+    }
+
+    // The data file the manifest on disk points at, or null if there is none
+    private Path savedDataFile()
+    {
+        if (!Files.exists(manifest) || !isSegmented(manifest.toString()))
+        {
+            return null;
+        }
+        try
+        {
+            List<String> lines = Files.readAllLines(manifest);
+            return lines.size() < 2 ? null : manifest.resolveSibling(lines.get(1).trim());
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    private static Segment copy(Segment s, long lo, long hi)
+    {
+        Segment c = new Segment(lo, hi);
+        c.count = s.count;
+        c.sequenceSum = s.sequenceSum;
+        c.offset = s.offset;
+        c.length = s.length;
+        return c;
+    }
+
+    // Data files are named "<manifest>.<generation>.seg"
+    private Path dataPath(int generation)
+    {
+        return manifest.resolveSibling(manifest.getFileName() + "." + generation + ".seg");
+    }
+
+    private int generationOf(Path dataFile)
+    {
+        String name = dataFile.getFileName().toString();
+        String prefix = manifest.getFileName() + ".";
+        if (name.startsWith(prefix) && name.endsWith(".seg"))
+        {
+            try
+            {
+                return Integer.parseInt(name.substring(prefix.length(), name.length() - ".seg".length()));
+            }
+            catch (NumberFormatException e)
+            {
+                // fall through: a renamed file, start counting again
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Shard interface
+ * One part of a ShardedSystem: a StudentManagementSystem holding the students
+ * whose ID hashes to it. LocalShard is one in the same JVM, RemoteShard talks
+ * to a ShardServer in another process.
+ *
+ * Every call can fail with an IOException (a remote shard can go away);
+ * a LocalShard never throws one.
+ */
+public interface Shard extends Closeable
+{
+
+    /**
+     * One row of a shard's answer to a report: a student with the value they
+     * are ranked by (an average, or a grade) and their add order, which breaks
+     * ties between equal values the same way in every shard.
+     */
+    final class Row
+    {
+        public final String id;
+        public final String name;
+        public final double value;
+        public final long order;
+
+        public Row(String id, String name, double value, long order)
+        {
+            this.id = id;
+            this.name = name;
+            this.value = value;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Adds a student with add order order (see StudentManagementSystem.tryAddStudent).
+     * False if the ID is already taken.
+     */
+    boolean add(String id, String name, boolean isHonors, long order) throws IOException;
+
+    boolean remove(String id) throws IOException;
+
+    /**
+     * False if there is no such student.
+     */
+    boolean rename(String id, String name) throws IOException;
+
+    /**
+     * Adds or updates one grade. False if there is no such student.
+     */
+    boolean setGrade(String id, String subject, double grade) throws IOException;
+
+    /**
+     * The student as a save file line ("id|name|subj:grade,..."), or null.
+     */
+    String find(String id) throws IOException;
+
+    int size() throws IOException;
+
+    /**
+     * One past the largest add order this shard has given out (0 if none),
+     * so a router can number its adds after the students already here.
+     */
+    long nextOrder() throws IOException;
+
+    /**
+     * Up to count leaderboard rows (best average first) that come after the row
+     * with this average and order; see Leaderboard.pageAfter.
+     */
+    List<Row> sortedAfter(double average, long order, int count) throws IOException;
+
+    /**
+     * The highest and lowest grade in a subject, as two rows, or null if nobody
+     * in this shard has a grade for it.
+     */
+    Row[] subjectHighLow(String subject) throws IOException;
+}
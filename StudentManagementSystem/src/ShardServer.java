@@ -0,0 +1,280 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ShardServer class
+ * Serves one StudentManagementSystem as a shard to RemoteShard clients over a
+ * plain socket, so a ShardedSystem can keep its shards in other JVM processes.
+ * Start a node with "--shard-server <port>" (see Main).
+ *
+ * Only the loopback address is listened on: there is no login, so any local
+ * process can change the roster, but nothing from the network can.
+ * Each connection is served on its own virtual thread and answers one request
+ * at a time; a client opens more connections to send requests in parallel.
+ *
+ * Requests and answers are DataOutputStream values:
+ *   request: byte op, then the op's fields (strings with writeUTF)
+ *   answer:  byte OK, then the result, or byte FAILED and a message
+ */
+public class ShardServer implements AutoCloseable
+{
+
+    static final byte OP_ADD = 1;         // id, name, honors, order -> boolean
+    static final byte OP_REMOVE = 2;      // id -> boolean
+    static final byte OP_RENAME = 3;      // id, name -> boolean
+    static final byte OP_GRADE = 4;       // id, subject, grade -> boolean
+    static final byte OP_FIND = 5;        // id -> boolean found, line
+    static final byte OP_SIZE = 6;        // -> int
+    static final byte OP_SORTED = 7;      // average, order, count -> int n, n rows
+    static final byte OP_HIGH_LOW = 8;    // subject -> boolean found, 2 rows
+    static final byte OP_NEXT_ORDER = 9;  // -> long
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final LocalShard shard;
+    private final ServerSocket server;
+    private final ExecutorService executor;
+    private final Set<Socket> clients;
+
+    private ShardServer(StudentManagementSystem sms, ServerSocket server)
+    {
+        this.shard = new LocalShard(sms);
+        this.server = server;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.clients = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Starts serving sms on the port (0 picks a free one).
+     */
+    public static ShardServer start(StudentManagementSystem sms, int port) throws IOException
+    {
+        ServerSocket server = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        ShardServer shardServer = new ShardServer(sms, server);
+        Thread acceptor = new Thread(shardServer::acceptLoop, "shard-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return shardServer;
+    }
+
+    public int getPort()
+    {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stops accepting, drops every connection and waits for their threads.
+     */
+    @Override
+    public void close()
+    {
+        try
+        {
+            server.close();
+        }
+        catch (IOException e)
+        {
+            // Closing anyway
+        }
+        for (Socket client : clients)
+        {
+            closeQuietly(client);
+        }
+        executor.close();
+    }
+
+    private void acceptLoop()
+    {
+        while (true)
+        {
+            Socket client;
+            try
+            {
+                client = server.accept();
+            }
+            catch (IOException e)
+            {
+                return; // closed
+            }
+            clients.add(client);
+            executor.submit(() -> serve(client));
+        }
+    }
+
+    private void serve(Socket client)
+    {
+        try
+        {
+            client.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream(), BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(client.getOutputStream(), BUFFER_SIZE));
+            int op;
+            while ((op = in.read()) >= 0)
+            {
+                answer((byte) op, in, out);
+                out.flush();
+            }
+        }
+        catch (EOFException | SocketException e)
+        {
+            // The client went away
+        }
+        catch (IOException e)
+        {
+            System.out.println("Shard connection failed: " + e.getMessage());
+        }
+        finally
+        {
+            clients.remove(client);
+            closeQuietly(client);
+        }
+    }
+
+    /**
+     * Reads the rest of one request and writes the answer. The answer is only
+     * written once the shard is done, so a failure never leaves half of one.
+     */
+    private void answer(byte op, DataInputStream in, DataOutputStream out) throws IOException
+    {
+        try
+        {
+            switch (op)
+            {
+                case OP_ADD:
+                {
+                    String id = in.readUTF();
+                    String name = in.readUTF();
+                    boolean honors = in.readBoolean();
+                    long order = in.readLong();
+                    boolean added = shard.add(id, name, honors, order);
+                    out.writeByte(OK);
+                    out.writeBoolean(added);
+                    break;
+                }
+                case OP_REMOVE:
+                {
+                    boolean removed = shard.remove(in.readUTF());
+                    out.writeByte(OK);
+                    out.writeBoolean(removed);
+                    break;
+                }
+                case OP_RENAME:
+                {
+                    String id = in.readUTF();
+                    boolean renamed = shard.rename(id, in.readUTF());
+                    out.writeByte(OK);
+                    out.writeBoolean(renamed);
+                    break;
+                }
+                case OP_GRADE:
+                {
+                    String id = in.readUTF();
+                    String subject = in.readUTF();
+                    boolean found = shard.setGrade(id, subject, in.readDouble());
+                    out.writeByte(OK);
+                    out.writeBoolean(found);
+                    break;
+                }
+                case OP_FIND:
+                {
+                    String line = shard.find(in.readUTF());
+                    out.writeByte(OK);
+                    out.writeBoolean(line != null);
+                    if (line != null)
+                    {
+                        out.writeUTF(line);
+                    }
+                    break;
+                }
+                case OP_SIZE:
+                {
+                    int size = shard.size();
+                    out.writeByte(OK);
+                    out.writeInt(size);
+                    break;
+                }
+                case OP_NEXT_ORDER:
+                {
+                    long next = shard.nextOrder();
+                    out.writeByte(OK);
+                    out.writeLong(next);
+                    break;
+                }
+                case OP_SORTED:
+                {
+                    double average = in.readDouble();
+                    long order = in.readLong();
+                    List<Shard.Row> rows = shard.sortedAfter(average, order, in.readInt());
+                    out.writeByte(OK);
+                    out.writeInt(rows.size());
+                    for (Shard.Row row : rows)
+                    {
+                        writeRow(out, row);
+                    }
+                    break;
+                }
+                case OP_HIGH_LOW:
+                {
+                    Shard.Row[] rows = shard.subjectHighLow(in.readUTF());
+                    out.writeByte(OK);
+                    out.writeBoolean(rows != null);
+                    if (rows != null)
+                    {
+                        writeRow(out, rows[0]);
+                        writeRow(out, rows[1]);
+                    }
+                    break;
+                }
+                default:
+                    // The rest of the stream can't be read any more
+                    throw new IOException("Unknown shard request " + op);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            out.writeByte(FAILED);
+            out.writeUTF(String.valueOf(e.getMessage()));
+        }
+    }
+
+    static void writeRow(DataOutputStream out, Shard.Row row) throws IOException
+    {
+        out.writeUTF(row.id);
+        out.writeUTF(row.name);
+        out.writeDouble(row.value);
+        out.writeLong(row.order);
+    }
+
+    static Shard.Row readRow(DataInputStream in) throws IOException
+    {
+        return new Shard.Row(in.readUTF(), in.readUTF(), in.readDouble(), in.readLong());
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing more to do
+        }
+    }
+}
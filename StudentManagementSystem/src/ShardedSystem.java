@@ -0,0 +1,444 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * ShardedSystem class
+ * Spreads the roster over several StudentManagementSystem shards, so it isn't
+ * limited to what one system in one JVM can hold and do. The shards can live
+ * in this JVM (inProcess) or in other processes running a ShardServer (connect).
+ *
+ * A student lives in the shard their folded ID hashes to (String.hashCode is
+ * the same in every JVM), so an add, remove, rename, grade change or lookup
+ * goes to that one shard only. Reports ask every shard at once and combine
+ * the parts (scatter-gather):
+ *   - sorted by average: each shard streams its leaderboard in pages, best
+ *     first, and the streams are merged, so only a page per shard is held at a time
+ *   - subject high/low: each shard sends its own highest and lowest grade,
+ *     and the best and worst of those win
+ *
+ * Every add is numbered here, and a shard ranks ties by that number (see
+ * StudentManagementSystem.tryAddStudent), so equal averages and grades come out
+ * in the order the students were added, exactly as in one system. Before its
+ * first add a router asks every shard how far its numbers go and carries on
+ * after the largest, so a new router's students rank after the ones already
+ * there. Two routers adding at the same time can still hand out the same
+ * number; two students tied on it can then come out in either order.
+ *
+ * A report is not one point in time across shards (or across a shard's pages):
+ * a student who moves while the report runs can be missed or shown twice.
+ * Students added straight to a shard, not through here, rank after everyone
+ * the shard had before them.
+ */
+public class ShardedSystem implements AutoCloseable
+{
+
+    // Rows fetched from a shard at a time while merging a report
+    static final int PAGE_SIZE = 1000;
+
+    // Best value first, then the earliest added (the order Leaderboard uses)
+    private static final Comparator<Shard.Row> RANKING = (a, b) ->
+    {
+        int cmp = Double.compare(b.value, a.value);
+        return cmp != 0 ? cmp : Long.compare(a.order, b.order);
+    };
+
+    // Highest grade first, then the earliest added, compared the way SubjectIndex does
+    private static final Comparator<Shard.Row> HIGHEST = (a, b) ->
+    {
+        int cmp = SubjectIndex.compareGrades(a.value, b.value);
+        return cmp != 0 ? cmp : Long.compare(a.order, b.order);
+    };
+
+    // Lowest grade first, then the earliest added; a NaN grade still goes last
+    private static final Comparator<Shard.Row> LOWEST = (a, b) ->
+    {
+        int cmp = Boolean.compare(Double.isNaN(a.value), Double.isNaN(b.value));
+        if (cmp == 0)
+        {
+            cmp = SubjectIndex.compareGrades(b.value, a.value);
+        }
+        return cmp != 0 ? cmp : Long.compare(a.order, b.order);
+    };
+
+    /**
+     * One call made on every shard at once.
+     */
+    private interface ShardCall<T>
+    {
+        T run(Shard shard) throws IOException;
+    }
+
+    /**
+     * Where the merge is in one shard's sorted stream.
+     */
+    private static final class Cursor
+    {
+        final Shard shard;
+        final int pageSize;
+        List<Shard.Row> page;
+        int next;
+
+        Cursor(Shard shard, int pageSize, List<Shard.Row> firstPage)
+        {
+            this.shard = shard;
+            this.pageSize = pageSize;
+            this.page = firstPage;
+        }
+
+        Shard.Row current()
+        {
+            return page.get(next);
+        }
+
+        /**
+         * Moves past the current row, reading the next page when this one is
+         * used up. False when the shard has no more rows.
+         */
+        boolean advance() throws IOException
+        {
+            Shard.Row row = page.get(next++);
+            if (next < page.size())
+            {
+                return true;
+            }
+            if (page.size() < pageSize)
+            {
+                return false; // a short page is the last one
+            }
+            page = shard.sortedAfter(row.value, row.order, pageSize);
+            next = 0;
+            return !page.isEmpty();
+        }
+    }
+
+    private final List<Shard> shards;
+    private final ExecutorService executor;
+
+    // Add order handed to the shards, so ties rank the same as in one system
+    private final AtomicLong nextOrder;
+
+    // True once nextOrder was moved past the shards' own numbers
+    private volatile boolean orderSeeded;
+
+    public ShardedSystem(List<? extends Shard> shards)
+    {
+        if (shards.isEmpty())
+        {
+            throw new IllegalArgumentException("at least one shard is needed");
+        }
+        this.shards = new ArrayList<>(shards);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.nextOrder = new AtomicLong();
+    }
+
+    /**
+     * count new, empty systems in this JVM.
+     */
+    public static ShardedSystem inProcess(int count)
+    {
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            shards.add(new LocalShard(new StudentManagementSystem()));
+        }
+        return new ShardedSystem(shards);
+    }
+
+    /**
+     * Shards served by ShardServers, given as "host:port,host:port,...".
+     * Every router must list the shards in the same order, or students
+     * would be looked for in the wrong shard.
+     */
+    public static ShardedSystem connect(String addresses)
+    {
+        List<Shard> shards = new ArrayList<>();
+        for (String address : addresses.split(","))
+        {
+            String trimmed = address.trim();
+            int colon = trimmed.lastIndexOf(':');
+            if (colon < 0)
+            {
+                throw new IllegalArgumentException("Not host:port: " + trimmed);
+            }
+            shards.add(new RemoteShard(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1))));
+        }
+        return new ShardedSystem(shards);
+    }
+
+    public int getShardCount()
+    {
+        return shards.size();
+    }
+
+    /**
+     * Index of the shard that holds (or would hold) the student with this ID.
+     */
+    public int shardOf(String id)
+    {
+        return Math.floorMod(StudentRegistry.foldKey(id).hashCode(), shards.size());
+    }
+
+    // -------------------------
+    // Point operations (one shard)
+    // -------------------------
+
+    /**
+     * False if the ID is already taken.
+     */
+    public boolean tryAddStudent(String id, String name, boolean isHonors) throws IOException
+    {
+        if (!orderSeeded)
+        {
+            seedOrder();
+        }
+        return shardFor(id).add(id, name, isHonors, nextOrder.getAndIncrement());
+    }
+
+    public boolean removeStudent(String id) throws IOException
+    {
+        return shardFor(id).remove(id);
+    }
+
+    /**
+     * False if there is no such student.
+     */
+    public boolean renameStudent(String id, String name) throws IOException
+    {
+        return shardFor(id).rename(id, name);
+    }
+
+    /**
+     * Adds or updates one grade. False if there is no such student.
+     */
+    public boolean addOrUpdateGrade(String id, String subject, double grade) throws IOException
+    {
+        return shardFor(id).setGrade(id, subject, grade);
+    }
+
+    /**
+     * The student as a save file line ("id|name|subj:grade,..."), or null.
+     */
+    public String findStudent(String id) throws IOException
+    {
+        return shardFor(id).find(id);
+    }
+
+    // -------------------------
+    // Reports (every shard)
+    // -------------------------
+
+    public int getStudentCount() throws IOException
+    {
+        int total = 0;
+        for (int size : scatter(Shard::size))
+        {
+            total += size;
+        }
+        return total;
+    }
+
+    /**
+     * Up to count leaderboard rows from a 0-based position, best average first.
+     * Each shard sends at most from + count rows.
+     */
+    public List<Shard.Row> leaderboardPage(int from, int count) throws IOException
+    {
+        List<Shard.Row> rows = new ArrayList<>();
+        int[] position = new int[1];
+        forEachByAverage(from + count, row ->
+        {
+            if (position[0]++ >= from)
+            {
+                rows.add(row);
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * Same rows and text as StudentManagementSystem.printStudentsSortedByAverage.
+     */
+    public void printStudentsSortedByAverage(ReportWriter out) throws IOException
+    {
+        boolean[] any = new boolean[1];
+        forEachByAverage(Integer.MAX_VALUE, row ->
+        {
+            if (!any[0])
+            {
+                out.line("=== Students Sorted by Average Grade (High to Low) ===");
+                any[0] = true;
+            }
+            out.text(row.id).text(" - ").text(row.name)
+                .text(" | Average: ").fixed2(row.value).newLine();
+        });
+        if (!any[0])
+        {
+            out.line("No students to report.");
+        }
+    }
+
+    /**
+     * Same text as StudentManagementSystem.printSubjectHighLow.
+     */
+    public void printSubjectHighLow(String subjectName, ReportWriter out) throws IOException
+    {
+        Shard.Row highest = null;
+        Shard.Row lowest = null;
+        for (Shard.Row[] part : scatter(shard -> shard.subjectHighLow(subjectName)))
+        {
+            if (part == null)
+            {
+                continue;
+            }
+            if (highest == null || HIGHEST.compare(part[0], highest) < 0)
+            {
+                highest = part[0];
+            }
+            if (lowest == null || LOWEST.compare(part[1], lowest) < 0)
+            {
+                lowest = part[1];
+            }
+        }
+
+        if (highest == null)
+        {
+            out.line(getStudentCount() == 0
+                ? "No students available."
+                : "No grades found for subject: " + subjectName);
+            return;
+        }
+        out.line("=== Subject Report: " + subjectName + " ===");
+        out.line("Highest: " + highest.id + " - " + highest.name + " | Grade: " + highest.value);
+        out.line("Lowest: " + lowest.id + " - " + lowest.name + " | Grade: " + lowest.value);
+    }
+
+    /**
+     * Closes every shard connection (in-process shards keep their students).
+     */
+    @Override
+    public void close()
+    {
+        for (Shard shard : shards)
+        {
+            try
+            {
+                shard.close();
+            }
+            catch (IOException e)
+            {
+                // Closing the rest anyway
+            }
+        }
+        executor.close();
+    }
+
+    // -------------------------
+    // Internal helpers
+    // -------------------------
+
+    private Shard shardFor(String id)
+    {
+        return shards.get(shardOf(id));
+    }
+
+    /**
+     * Moves nextOrder past every add order the shards have given out, so this
+     * router's adds don't reuse the numbers of students they already hold.
+     */
+    private synchronized void seedOrder() throws IOException
+    {
+        if (orderSeeded)
+        {
+            return;
+        }
+        long largest = 0;
+        for (long next : scatter(Shard::nextOrder))
+        {
+            largest = Math.max(largest, next);
+        }
+        nextOrder.accumulateAndGet(largest, Math::max);
+        orderSeeded = true;
+    }
+
+    /**
+     * Hands action the first limit rows of the whole leaderboard, best first,
+     * by merging the shards' sorted streams.
+     */
+    private void forEachByAverage(int limit, Consumer<Shard.Row> action) throws IOException
+    {
+        int pageSize = Math.max(1, Math.min(PAGE_SIZE, limit));
+        List<List<Shard.Row>> firstPages = scatter(
+            shard -> shard.sortedAfter(Double.POSITIVE_INFINITY, Long.MIN_VALUE, pageSize));
+
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(shards.size(),
+            (a, b) -> RANKING.compare(a.current(), b.current()));
+        for (int i = 0; i < shards.size(); i++)
+        {
+            if (!firstPages.get(i).isEmpty())
+            {
+                heads.add(new Cursor(shards.get(i), pageSize, firstPages.get(i)));
+            }
+        }
+
+        int emitted = 0;
+        while (emitted < limit && !heads.isEmpty())
+        {
+            Cursor cursor = heads.poll();
+            action.accept(cursor.current());
+            emitted++;
+            if (emitted < limit && cursor.advance())
+            {
+                heads.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * Runs call on every shard at once and returns the answers in shard order.
+     */
+    private <T> List<T> scatter(ShardCall<T> call) throws IOException
+    {
+        List<Future<T>> futures = new ArrayList<>(shards.size());
+        for (Shard shard : shards)
+        {
+            futures.add(executor.submit(() -> call.run(shard)));
+        }
+
+        List<T> results = new ArrayList<>(shards.size());
+        try
+        {
+            for (Future<T> future : futures)
+            {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the shards", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        return results;
+    }
+}
@@ -1,120 +1,378 @@
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Student class
- * This class stores the student’s ID, name, and their list of subjects.
- * It uses encapsulation and simple methods to update grades and get averages.
- */
-public class Student 
-{
-
-    private String id;
-    private String name;
-    private ArrayList<Subject> subjects;
-
-    /**
-     * Creates a student with an ID and name.
-     */
-    public Student(String id, String name) 
-    {
-        this.id = id;
-        this.name = name;
-        this.subjects = new ArrayList<>();
-    }
-
-    public String getId() 
-    {
-        return id;
-    }
-
-    public void setId(String id) 
-    { 
-        this.id = id;
-    }
-
-    public String getName() 
-    {
-        return name;
-    }
-
-    /**
-     * Allows the student’s name to be updated if needed.
-     */
-    public void setName(String name) 
-    {
-        this.name = name;
-    }
-
-    /**
-     * Returns a copy of the subjects list.
-     * This helps keep data safe because the real list stays private.
-     */
-    public List<Subject> getSubjects() 
-    {
-        return new ArrayList<>(subjects);
-    }
-
-    /**
-     * Adds a new subject OR updates the grade if the subject already exists.
-     */
-    public void addOrUpdateSubject(String subjectName, double grade) 
-    {
-        for (Subject s : subjects) 
-        {
-            if (s.getName().equalsIgnoreCase(subjectName)) 
-            {
-                s.setGrade(grade);
-                return;
-            }
-        }
-        subjects.add(new Subject(subjectName, grade));
-    }
-
-    /**
-     * Calculates the student’s average grade across all subjects.
-     */
-    public double calculateAverage() 
-    {
-        if (subjects.isEmpty()) 
-        {
-            return 0.0;
-        }
-
-        double sum = 0.0;
-        for (Subject s : subjects) 
-        {
-            sum += s.getGrade();
-        }
-        return sum / subjects.size();
-    }
-
-    @Override
-    public String toString() 
-    {
-        return id + " - " + name + " (Average: " + String.format("%.2f", calculateAverage()) + ")";
-    }
-
-    /**
-     * Prints a full breakdown of the student's info.
-     * This is called from the main menu when the user picks “view details.”
-     */
-    public void printDetails() 
-    {
-        System.out.println("Student ID: " + id);
-        System.out.println("Name      : " + name);
-        System.out.println("Subjects:");
-
-        if (subjects.isEmpty()) 
-        {
-            System.out.println("  No subjects added yet.");
-        } else {
-            for (Subject s : subjects) 
-            {
-                System.out.println("  " + s.toString());
-            }
-        }
-
-        System.out.println("Average grade: " + String.format("%.2f", calculateAverage()));
-    }
-}
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Student class
+ * This class stores the student’s ID, name, and their subjects.
+ * The grades themselves live in the shared GradeStore (primitive arrays with
+ * interned subject names), or in a MappedStudentStore file; a Student only
+ * remembers its slot there. A new student gets a slot with their first grade.
+ * It uses encapsulation and simple methods to update grades and get averages.
+ * Changes to one student are synchronized on the student, so the running total
+ * and the events sent to the registry stay in step when several threads write.
+ */
+public class Student 
+{
+
+    // Timers for the grade paths (see Metrics)
+    private static final Metrics.Timer GRADE_READS = Metrics.timer("Student.getGrade");
+    private static final Metrics.Timer GRADE_UPDATES = Metrics.timer("Student.addOrUpdateSubject");
+
+    private volatile String id;
+    private volatile String name;
+    private final GradeSlots store;
+    private static final int NO_SLOT = -1;
+
+    // Where this student's grades are in the store (NO_SLOT before the first grade)
+    private volatile int slot;
+    private int subjectCount;
+
+    // Running total of all grades, kept up to date by addOrUpdateSubject
+    // so the average can be read without re-adding every grade.
+    private double gradeSum;
+
+    // Set by the StudentRegistry while this student is part of a system
+    private volatile StudentListener listener;
+    private volatile long sequence;
+
+    // Registry clock tick of the last change, for RosterView (guarded by this)
+    private long version;
+
+    // True when the student changed since a SegmentedRosterFile last saved them
+    // (a new student hasn't been saved yet). Guarded by this.
+    private boolean dirty = true;
+
+    /**
+     * Creates a student with an ID and name.
+     */
+    public Student(String id, String name) 
+    {
+        this.id = id;
+        this.name = name;
+        this.store = GradeStore.shared();
+        this.slot = NO_SLOT;
+    }
+
+    /**
+     * A student whose grades are already in a slot of another store
+     * (used by MappedStudentStore). The count and running total must match the slot.
+     */
+    Student(String id, String name, GradeSlots store, int slot, int subjectCount, double gradeSum) 
+    {
+        this.id = id;
+        this.name = name;
+        this.store = store;
+        this.slot = slot;
+        this.subjectCount = subjectCount;
+        this.gradeSum = gradeSum;
+    }
+
+    public String getId() 
+    {
+        return id;
+    }
+
+    /**
+     * Changes the ID of a student that isn't in a roster yet. The roster finds,
+     * removes, saves and logs students by the ID they were added with, so a
+     * student in one has to be removed, given the new ID and added again.
+     */
+    public synchronized void setId(String id) 
+    { 
+        if (listener != null) 
+        {
+            throw new IllegalStateException("Student " + this.id + " is in a roster; remove them before changing the ID");
+        }
+        this.id = id;
+        this.dirty = true;
+    }
+
+    public String getName() 
+    {
+        return name;
+    }
+
+    /**
+     * Position of this student in the registry's insertion order.
+     * Indexes use it to break ties the same way a list scan would.
+     */
+    long getSequence() 
+    {
+        return sequence;
+    }
+
+    /**
+     * Registry clock tick of this student's last change (see RosterView).
+     * Read and set while the student is locked.
+     */
+    long getVersion() 
+    {
+        return version;
+    }
+
+    void setVersion(long version) 
+    {
+        this.version = version;
+    }
+
+    /**
+     * True if the ID, name or a grade changed since the student was last saved
+     * to a SegmentedRosterFile. Read and cleared while the student is locked.
+     */
+    boolean isDirty() 
+    {
+        return dirty;
+    }
+
+    void setDirty(boolean dirty) 
+    {
+        this.dirty = dirty;
+    }
+
+    /**
+     * Called by StudentRegistry when the student is added (or removed, with null).
+     */
+    void attach(StudentListener listener, long sequence) 
+    {
+        this.listener = listener;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Allows the student’s name to be updated if needed.
+     */
+    public synchronized void setName(String name) 
+    {
+        if (listener != null) 
+        {
+            listener.beforeChange(this);
+        }
+        String oldName = this.name;
+        this.name = name;
+        this.dirty = true;
+
+        if (listener != null) 
+        {
+            listener.nameChanged(this, oldName);
+        }
+    }
+
+    /**
+     * Returns a copy of the subjects list.
+     * This helps keep data safe because the real list stays private.
+     * The Subject objects are copies too, so changing one can't get the
+     * running grade total out of sync.
+     */
+    public List<Subject> getSubjects() 
+    {
+        int at = slot;
+        return at == NO_SLOT ? new ArrayList<>() : store.subjects(at);
+    }
+
+    /**
+     * Fills a read-only view with the subjects and returns it. No list or
+     * Subject objects are made, so reusing one view for many students doesn't
+     * allocate anything per student.
+     */
+    public SubjectView readSubjects(SubjectView view) 
+    {
+        int at = slot;
+        if (at == NO_SLOT) 
+        {
+            view.reset(0);
+        } 
+        else 
+        {
+            store.read(at, view);
+        }
+        return view;
+    }
+
+    /**
+     * Number of subjects this student has a grade for.
+     */
+    public synchronized int getSubjectCount() 
+    {
+        return subjectCount;
+    }
+
+    /**
+     * Returns the grade for one subject (case-insensitive), or null if the
+     * student doesn't take it. Cheaper than copying the whole list.
+     */
+    public Double getGrade(String subjectName) 
+    {
+        long start = Metrics.start();
+        try 
+        {
+            return peekGrade(subjectName);
+        } 
+        finally 
+        {
+            GRADE_READS.record(start);
+        }
+    }
+
+    /**
+     * Adds a new subject OR updates the grade if the subject already exists.
+     * An update keeps the subject's original spelling and position.
+     * The time recorded includes waiting for another thread changing this student.
+     */
+    public void addOrUpdateSubject(String subjectName, double grade) 
+    {
+        long start = Metrics.start();
+        try 
+        {
+            synchronized (this) 
+            {
+                if (listener != null) 
+                {
+                    listener.beforeChange(this);
+                }
+                Double oldGrade = putGrade(subjectName, grade);
+
+                if (listener != null) 
+                {
+                    listener.gradeChanged(this, subjectName, oldGrade, grade);
+                }
+            }
+        } 
+        finally 
+        {
+            GRADE_UPDATES.record(start);
+        }
+    }
+
+    /**
+     * Sets one grade and keeps the running total right, without telling the
+     * listener. Returns the old grade, or null for a new subject.
+     * Called while the student is locked; the registry uses it for bulk
+     * imports and brings its indexes up to date itself afterwards.
+     */
+    Double putGrade(String subjectName, double grade) 
+    {
+        if (slot == NO_SLOT) 
+        {
+            // Taken here rather than in the constructor, so the store's Cleaner
+            // never sees a student that isn't fully built yet
+            slot = GradeStore.shared().allocate(this);
+        }
+        Double oldGrade = store.put(slot, subjectName, grade);
+        dirty = true;
+
+        if (oldGrade != null) 
+        {
+            // Added up again instead of adding (grade - oldGrade), which drifts
+            // with rounding and would print a different average than a fresh
+            // total (or a reload) gives. Only replacing a grade costs the loop.
+            gradeSum = store.sum(slot);
+        } 
+        else 
+        {
+            subjectCount++;
+            gradeSum += grade;
+        }
+        return oldGrade;
+    }
+
+    /**
+     * Same as getGrade, but not counted in the metrics (for bulk work in the indexes).
+     */
+    Double peekGrade(String subjectName) 
+    {
+        int at = slot;
+        return at == NO_SLOT ? null : store.get(at, subjectName);
+    }
+
+    /**
+     * A read-only copy of the student as they are now, kept by a RosterView
+     * before the student changes. Its grades can't be changed. It keeps the
+     * sequence and dirty flag so a save can tell where it goes and whether it changed.
+     */
+    synchronized Student copyForView() 
+    {
+        Student copy = frozenCopy(new FrozenGrades(getSubjects()), subjectCount, gradeSum);
+        copy.sequence = sequence;
+        copy.dirty = dirty;
+        return copy;
+    }
+
+    /**
+     * Makes the bare copy for copyForView, which fills in the rest.
+     * A subclass returns a copy of its own kind.
+     */
+    Student frozenCopy(GradeSlots grades, int subjectCount, double gradeSum) 
+    {
+        return new Student(id, name, grades, 0, subjectCount, gradeSum);
+    }
+
+    /**
+     * The running total of all grades (lets a store copy a student exactly).
+     */
+    synchronized double getGradeSum() 
+    {
+        return gradeSum;
+    }
+
+    /**
+     * Calculates the student’s average grade across all subjects.
+     * Uses the running total, so this is O(1) no matter how many subjects there are.
+     */
+    public synchronized double calculateAverage() 
+    {
+        if (subjectCount == 0) 
+        {
+            return 0.0;
+        }
+        return gradeSum / subjectCount;
+    }
+
+    @Override
+    public String toString() 
+    {
+        return id + " - " + name + " (Average: " + String.format("%.2f", calculateAverage()) + ")";
+    }
+
+    /**
+     * Prints a full breakdown of the student's info.
+     * This is called from the main menu when the user picks “view details.”
+     */
+    public void printDetails() 
+    {
+        try (ReportWriter out = ReportWriter.toStdout()) 
+        {
+            writeDetails(out);
+        }
+    }
+
+    /**
+     * Writes the same breakdown as printDetails into a report.
+     */
+    public void writeDetails(ReportWriter out) 
+    {
+        out.text("Student ID: ").line(id);
+        out.text("Name      : ").line(name);
+        out.line("Subjects:");
+
+        SubjectView subjects = readSubjects(new SubjectView());
+        if (subjects.isEmpty()) 
+        {
+            out.line("  No subjects added yet.");
+        } else {
+            for (int i = 0; i < subjects.size(); i++) 
+            {
+                out.text("  ").text(subjects.name(i)).text(": ").plain(subjects.grade(i)).newLine();
+            }
+        }
+
+        out.text("Average grade: ").fixed2(calculateAverage()).newLine();
+    }
+
+    /**
+     * Writes the same line as toString into a report.
+     */
+    public void writeSummary(ReportWriter out) 
+    {
+        out.text(id).text(" - ").text(name).text(" (Average: ").fixed2(calculateAverage()).ch(')').newLine();
+    }
+}
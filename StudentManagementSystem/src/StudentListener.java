@@ -0,0 +1,28 @@
+/**
+ * StudentListener interface
+ * Lets the registry hear about changes made directly on a Student object
+ * (for example Main calling student.addOrUpdateSubject), so the indexes
+ * built on top of the students stay up to date.
+ */
+public interface StudentListener
+{
+
+    /**
+     * Called after a grade is added or changed.
+     * oldGrade is null when the subject is new for this student.
+     */
+    void gradeChanged(Student student, String subjectName, Double oldGrade, double newGrade);
+
+    /**
+     * Called after the student's name changes.
+     */
+    void nameChanged(Student student, String oldName);
+
+    /**
+     * Called just before the student's ID, name or a grade changes, while the
+     * student is locked (the registry uses it to keep RosterView copies).
+     */
+    default void beforeChange(Student student)
+    {
+    }
+}
@@ -0,0 +1,632 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * StudentQuery class
+ * Finds the students that match a set of conditions on ID, name, honors
+ * status, average and per-subject grades, for example
+ *
+ *   sms.query(StudentQuery.gradeBelow("Math", 50), StudentQuery.gradeAbove("Physics", 90))
+ *
+ * Conditions are built with the static methods here and combined with
+ * and(), or() and not(); the conditions given to sms.query are and-ed.
+ *
+ * Before running, the query asks every and-ed condition how many students its
+ * index could return (an ID lookup, the NameIndex, the Leaderboard or a
+ * SubjectIndex, each answered in O(log n)) and reads only the smallest of
+ * those windows. Conditions without an index (honors, or, not) only filter.
+ * With no index to use it falls back to scanning the roster.
+ *
+ * stream() is lazy: students are read from the index a chunk at a time and
+ * each one is checked against every condition as it is pulled, so limit()
+ * or findFirst() stop early. Results come in the order of the index used.
+ * count() doesn't build any list of students; when a single indexed
+ * condition is the whole query the answer is just the size of its window.
+ *
+ * Like iterating the registry, a query running while others write is safe,
+ * and each student it returns matched at the moment it was checked.
+ */
+public class StudentQuery
+{
+
+    // Students are read from an index this many at a time
+    private static final int CHUNK = 256;
+
+    /**
+     * One condition. Built with the static methods of StudentQuery.
+     */
+    public abstract static class Criterion
+    {
+        /**
+         * Prepares the condition for one run against the registry.
+         */
+        abstract Bound bind(StudentRegistry registry);
+
+        /**
+         * Short text for the plan, e.g. "Math < 50".
+         */
+        abstract String describe();
+
+        @Override
+        public String toString()
+        {
+            return describe();
+        }
+    }
+
+    /**
+     * A condition ready to run: a test, plus the index window holding every
+     * student that can match (or null when there is no index for it).
+     * exact means the window holds only matching students, so its size is the count.
+     */
+    static final class Bound
+    {
+        final Predicate<Student> test;
+        final Window window;
+        final boolean exact;
+
+        Bound(Predicate<Student> test, Window window, boolean exact)
+        {
+            this.test = test;
+            this.window = window;
+            this.exact = exact;
+        }
+    }
+
+    /**
+     * Positions [from, to) of one index, read back a slice at a time.
+     */
+    abstract static class Window
+    {
+        final String indexName;
+        final int from;
+        final int to;
+
+        Window(String indexName, int from, int to)
+        {
+            this.indexName = indexName;
+            this.from = from;
+            this.to = to;
+        }
+
+        int size()
+        {
+            return to - from;
+        }
+
+        abstract List<Student> slice(int start, int end);
+    }
+
+    private final StudentRegistry registry;
+    private final Criterion where;
+
+    public StudentQuery(StudentRegistry registry, Criterion where)
+    {
+        this.registry = registry;
+        this.where = where;
+    }
+
+    /**
+     * The matching students, pulled lazily from the most selective index.
+     */
+    public Stream<Student> stream()
+    {
+        return stream(where.bind(registry));
+    }
+
+    /**
+     * Number of matching students, without building a list of them.
+     */
+    public long count()
+    {
+        Bound bound = where.bind(registry);
+        return bound.exact ? bound.window.size() : stream(bound).count();
+    }
+
+    private Stream<Student> stream(Bound bound)
+    {
+        Iterator<Student> candidates = bound.window != null
+            ? chunks(bound.window)
+            : registry.students().iterator();
+        Stream<Student> all = StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(candidates, Spliterator.ORDERED | Spliterator.NONNULL), false);
+        return all.filter(bound.test);
+    }
+
+    /**
+     * How the query will run, e.g. "Math grades index, 1523 candidates".
+     */
+    public String plan()
+    {
+        Window window = where.bind(registry).window;
+        if (window == null)
+        {
+            return "full scan, " + registry.size() + " candidates";
+        }
+        return window.indexName + ", " + window.size() + " candidate" + (window.size() == 1 ? "" : "s");
+    }
+
+    @Override
+    public String toString()
+    {
+        return where.describe();
+    }
+
+    // -------------------------
+    // Conditions
+    // -------------------------
+
+    public static Criterion idIs(String id)
+    {
+        return new Indexed("ID = " + id)
+        {
+            @Override
+            Bound bind(StudentRegistry registry)
+            {
+                Student match = registry.find(id);
+                List<Student> one = match == null ? Collections.emptyList() : Collections.singletonList(match);
+                Window window = new Window("ID index", 0, one.size())
+                {
+                    @Override
+                    List<Student> slice(int start, int end)
+                    {
+                        return one.subList(start, end);
+                    }
+                };
+                return new Bound(s -> s.getId().equalsIgnoreCase(id), window, true);
+            }
+        };
+    }
+
+    /**
+     * Name starts with prefix, ignoring case.
+     */
+    public static Criterion nameStartsWith(String prefix)
+    {
+        return new Indexed("name starts with " + prefix)
+        {
+            @Override
+            Bound bind(StudentRegistry registry)
+            {
+                NameIndex names = registry.names();
+                Window window = new Window("name index", 0, names.prefix(prefix, 0, 0).total)
+                {
+                    @Override
+                    List<Student> slice(int start, int end)
+                    {
+                        List<Student> result = new ArrayList<>(end - start);
+                        for (NameIndex.Match m : names.prefix(prefix, start, end - start).matches)
+                        {
+                            result.add(m.student);
+                        }
+                        return result;
+                    }
+                };
+                return new Bound(s -> s.getName().regionMatches(true, 0, prefix, 0, prefix.length()), window, true);
+            }
+        };
+    }
+
+    /**
+     * Honors students (true) or regular students (false). Has no index of its own.
+     */
+    public static Criterion honors(boolean honors)
+    {
+        return new Criterion()
+        {
+            @Override
+            Bound bind(StudentRegistry registry)
+            {
+                return new Bound(s -> (s instanceof HonorsStudent) == honors, null, false);
+            }
+
+            @Override
+            String describe()
+            {
+                return honors ? "honors" : "regular";
+            }
+        };
+    }
+
+    /**
+     * Average between low and high, both included.
+     */
+    public static Criterion averageBetween(double low, double high)
+    {
+        return average(trim(low) + " <= average <= " + trim(high), low, high);
+    }
+
+    public static Criterion averageBelow(double limit)
+    {
+        return average("average < " + trim(limit), Double.NEGATIVE_INFINITY, Math.nextDown(limit));
+    }
+
+    public static Criterion averageAbove(double limit)
+    {
+        return average("average > " + trim(limit), Math.nextUp(limit), Double.POSITIVE_INFINITY);
+    }
+
+    private static Criterion average(String text, double low, double high)
+    {
+        return new Indexed(text)
+        {
+            @Override
+            Bound bind(StudentRegistry registry)
+            {
+                Leaderboard board = registry.leaderboard();
+                int[] at = board.positionsBetween(low, high);
+                Window window = new Window("leaderboard", at[0], at[1])
+                {
+                    @Override
+                    List<Student> slice(int start, int end)
+                    {
+                        return board.page(start, end - start);
+                    }
+                };
+                return new Bound(s -> inRange(s.calculateAverage(), low, high), window, true);
+            }
+        };
+    }
+
+    /**
+     * Grade in one subject between low and high, both included.
+     * Students who don't take the subject never match.
+     */
+    public static Criterion gradeBetween(String subject, double low, double high)
+    {
+        return grade(trim(low) + " <= " + subject + " <= " + trim(high), subject, low, high);
+    }
+
+    public static Criterion gradeBelow(String subject, double limit)
+    {
+        return grade(subject + " < " + trim(limit), subject, Double.NEGATIVE_INFINITY, Math.nextDown(limit));
+    }
+
+    public static Criterion gradeAbove(String subject, double limit)
+    {
+        return grade(subject + " > " + trim(limit), subject, Math.nextUp(limit), Double.POSITIVE_INFINITY);
+    }
+
+    private static Criterion grade(String text, String subject, double low, double high)
+    {
+        return new Indexed(text)
+        {
+            @Override
+            Bound bind(StudentRegistry registry)
+            {
+                SubjectIndex index = registry.subjectIndex(subject);
+                int[] at = index == null ? new int[2] : index.positionsBetween(low, high);
+                Window window = new Window(subject + " grades index", at[0], at[1])
+                {
+                    @Override
+                    List<Student> slice(int start, int end)
+                    {
+                        return index.slice(start, end);
+                    }
+                };
+                return new Bound(s ->
+                {
+                    Double grade = s.getGrade(subject);
+                    return grade != null && inRange(grade, low, high);
+                }, window, true);
+            }
+        };
+    }
+
+    /**
+     * The first fraction of the leaderboard, e.g. 0.1 for the top decile
+     * (rounded up, so a roster of 15 has 2 students in its top 10%).
+     */
+    public static Criterion topFraction(double fraction)
+    {
+        if (!(fraction > 0 && fraction <= 1))
+        {
+            throw new IllegalArgumentException("The fraction must be above 0 and at most 1.");
+        }
+        return new Indexed("top " + trim(fraction * 100) + "%")
+        {
+            @Override
+            Bound bind(StudentRegistry registry)
+            {
+                Leaderboard board = registry.leaderboard();
+                int cutoff = (int) Math.ceil(board.size() * fraction);
+                Window window = new Window("leaderboard", 0, cutoff)
+                {
+                    @Override
+                    List<Student> slice(int start, int end)
+                    {
+                        return board.page(start, end - start);
+                    }
+                };
+                return new Bound(s ->
+                {
+                    int rank = board.rankOf(s);
+                    return rank > 0 && rank <= cutoff;
+                }, window, true);
+            }
+        };
+    }
+
+    /**
+     * Every condition matches. Reads from the smallest index window among them.
+     */
+    public static Criterion and(Criterion... parts)
+    {
+        return new And(parts);
+    }
+
+    /**
+     * At least one condition matches. Only filters; doesn't pick an index.
+     */
+    public static Criterion or(Criterion... parts)
+    {
+        Criterion[] copy = parts.clone();
+        return new Criterion()
+        {
+            @Override
+            Bound bind(StudentRegistry registry)
+            {
+                Predicate<Student> any = s -> false;
+                for (Criterion c : copy)
+                {
+                    any = any.or(c.bind(registry).test);
+                }
+                return new Bound(any, null, false);
+            }
+
+            @Override
+            String describe()
+            {
+                return join(copy, " or ");
+            }
+        };
+    }
+
+    /**
+     * The condition doesn't match. Only filters; doesn't pick an index.
+     */
+    public static Criterion not(Criterion part)
+    {
+        return new Criterion()
+        {
+            @Override
+            Bound bind(StudentRegistry registry)
+            {
+                return new Bound(part.bind(registry).test.negate(), null, false);
+            }
+
+            @Override
+            String describe()
+            {
+                return "not (" + part.describe() + ")";
+            }
+        };
+    }
+
+    // -------------------------
+    // Text queries
+    // -------------------------
+
+    private static final Pattern TOP = Pattern.compile("(?i)top\\s+([0-9]+(?:\\.[0-9]+)?)\\s*%");
+    private static final Pattern ID = Pattern.compile("(?i)id\\s*=\\s*(.+)");
+    private static final Pattern NAME = Pattern.compile("(?i)name\\s+starts(?:\\s+with)?\\s+(.+)");
+    private static final Pattern COMPARE = Pattern.compile("(.+?)\\s*(<=|>=|<|>|=)\\s*(-?[0-9]+(?:\\.[0-9]+)?)");
+
+    /**
+     * Reads a query typed by the user: conditions joined with "and", each one of
+     *   honors | regular | top 10% | id = S1 | name starts with Mar
+     *   average < 60 | Math >= 90   (operators &lt; &lt;= &gt; &gt;= =)
+     * and optionally starting with "not". Throws IllegalArgumentException if it
+     * can't be read.
+     */
+    public static Criterion parse(String text)
+    {
+        String[] parts = text.trim().split("(?i)\\s+and\\s+");
+        Criterion[] criteria = new Criterion[parts.length];
+        for (int i = 0; i < parts.length; i++)
+        {
+            criteria[i] = parseOne(parts[i].trim());
+        }
+        return and(criteria);
+    }
+
+    private static Criterion parseOne(String text)
+    {
+        if (text.regionMatches(true, 0, "not ", 0, 4))
+        {
+            return not(parseOne(text.substring(4).trim()));
+        }
+        if (text.equalsIgnoreCase("honors"))
+        {
+            return honors(true);
+        }
+        if (text.equalsIgnoreCase("regular"))
+        {
+            return honors(false);
+        }
+
+        Matcher m = TOP.matcher(text);
+        if (m.matches())
+        {
+            return topFraction(Double.parseDouble(m.group(1)) / 100);
+        }
+        m = ID.matcher(text);
+        if (m.matches())
+        {
+            return idIs(m.group(1).trim());
+        }
+        m = NAME.matcher(text);
+        if (m.matches())
+        {
+            return nameStartsWith(m.group(1).trim());
+        }
+        m = COMPARE.matcher(text);
+        if (m.matches())
+        {
+            String field = m.group(1).trim();
+            double value = Double.parseDouble(m.group(3));
+            String condition = field + " " + m.group(2) + " " + trim(value);
+            double low = Double.NEGATIVE_INFINITY;
+            double high = Double.POSITIVE_INFINITY;
+            switch (m.group(2))
+            {
+                case "<":
+                    high = Math.nextDown(value);
+                    break;
+                case "<=":
+                    high = value;
+                    break;
+                case ">":
+                    low = Math.nextUp(value);
+                    break;
+                case ">=":
+                    low = value;
+                    break;
+                default:
+                    low = value;
+                    high = value;
+            }
+            return field.equalsIgnoreCase("average")
+                ? average(condition, low, high)
+                : grade(condition, field, low, high);
+        }
+        throw new IllegalArgumentException("Don't understand the condition \"" + text + "\".");
+    }
+
+    // -------------------------
+    // Internal helpers
+    // -------------------------
+
+    /**
+     * A condition with an index window that holds exactly the students it matches.
+     */
+    private abstract static class Indexed extends Criterion
+    {
+        private final String text;
+
+        Indexed(String text)
+        {
+            this.text = text;
+        }
+
+        @Override
+        String describe()
+        {
+            return text;
+        }
+    }
+
+    private static final class And extends Criterion
+    {
+        final Criterion[] parts;
+
+        And(Criterion[] parts)
+        {
+            this.parts = parts.clone();
+        }
+
+        @Override
+        Bound bind(StudentRegistry registry)
+        {
+            Predicate<Student> all = s -> true;
+            Bound best = null;
+            for (Criterion c : parts)
+            {
+                Bound b = c.bind(registry);
+                all = all.and(b.test);
+                if (b.window != null && (best == null || b.window.size() < best.window.size()))
+                {
+                    best = b;
+                }
+            }
+            if (best == null)
+            {
+                return new Bound(all, null, false);
+            }
+            // A single indexed condition is answered by its window alone
+            return new Bound(all, best.window, parts.length == 1 && best.exact);
+        }
+
+        @Override
+        String describe()
+        {
+            return join(parts, " and ");
+        }
+    }
+
+    /**
+     * Walks a window a chunk at a time, so only CHUNK students are copied out at once.
+     */
+    private static Iterator<Student> chunks(Window window)
+    {
+        return new Iterator<Student>()
+        {
+            private int next = window.from;
+            private List<Student> chunk = Collections.emptyList();
+            private int inChunk;
+
+            @Override
+            public boolean hasNext()
+            {
+                if (inChunk < chunk.size())
+                {
+                    return true;
+                }
+                if (next >= window.to)
+                {
+                    return false;
+                }
+                int end = Math.min(window.to, next + CHUNK);
+                chunk = window.slice(next, end);
+                inChunk = 0;
+                next = end;
+                return hasNext();
+            }
+
+            @Override
+            public Student next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return chunk.get(inChunk++);
+            }
+        };
+    }
+
+    private static boolean inRange(double value, double low, double high)
+    {
+        return value >= low && value <= high;
+    }
+
+    // 90.0 -> "90"
+    private static String trim(double value)
+    {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static String join(Criterion[] parts, String separator)
+    {
+        StringBuilder text = new StringBuilder();
+        for (Criterion c : parts)
+        {
+            if (text.length() > 0)
+            {
+                text.append(separator);
+            }
+            text.append(c instanceof And ? "(" + c.describe() + ")" : c.describe());
+        }
+        return text.toString();
+    }
+}
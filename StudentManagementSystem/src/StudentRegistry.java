@@ -0,0 +1,679 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * StudentRegistry class
+ * Holds every student in the system, indexed by a case-folded copy of the ID.
+ * Adding, finding and removing a student are all O(1) hash lookups,
+ * and iteration still follows the order the students were added in.
+ * A RankedTree over the same order finds the student at any position in
+ * O(log n), so a page of the roster doesn't walk past the ones before it.
+ * The registry also keeps one SubjectIndex per subject, a Leaderboard
+ * ordered by average and a NameIndex for name searches. It listens to every student it holds, so grade changes
+ * made on a Student update the indexes too.
+ * If a MutationJournal is set, every single add, remove, rename and grade
+ * change is also logged to it. Bulk adds (addAll) are not logged; whoever
+ * does a bulk load writes a checkpoint instead.
+ *
+ * The registry is safe to use from many threads at once. Lookups don't lock.
+ * Adds and removes lock one of a fixed set of stripes picked by the folded ID,
+ * so two threads only wait for each other when their IDs land on the same stripe;
+ * bulk adds and clear lock every stripe. Changes to one student are done while
+ * holding that student's lock, so the indexes and the journal see them in the
+ * same order they happened. Lock order: stripe, then student, then an index.
+ *
+ * openView() gives a point-in-time RosterView for saves and reports. Every
+ * change is stamped with the registry's clock, and a change to a student an
+ * open view still needs copies that one student first (see RosterView).
+ *
+ * getChangeCount() goes up by one for every add, remove and changed student
+ * (a bulk add or import counts each student once), so an Autosaver can tell
+ * how much has changed since its last save.
+ */
+public class StudentRegistry implements StudentListener
+{
+
+    private static final int LOCK_STRIPES = 64;
+
+    // Folded ID -> student
+    private final ConcurrentHashMap<String, Student> byId;
+
+    // Sequence -> student, which is the order the students were added in
+    private final ConcurrentSkipListMap<Long, Student> bySequence;
+
+    // The same students by position, for paging (guarded by itself)
+    private final RankedTree<Student> inOrder;
+
+    // Folded subject name -> grades for that subject, best first.
+    // Indexes are never dropped, so a writer can't update one that was just thrown away.
+    private final ConcurrentHashMap<String, SubjectIndex> subjectIndexes;
+
+    // Every student ordered by average, highest first
+    private final Leaderboard leaderboard;
+
+    // Every student ordered by name, for prefix and fuzzy search
+    private final NameIndex names;
+
+    // Handed out to each added student so ties sort by insertion order
+    private final AtomicLong nextSequence;
+
+    private final ReentrantLock[] locks;
+
+    // Where changes are logged for durability, or null
+    private volatile MutationJournal journal;
+
+    // Ticks once per opened view; every change is stamped with the current tick
+    private final AtomicLong clock;
+
+    // Views that are open right now (replaced, never changed in place)
+    private volatile RosterView[] views;
+    private final Object viewLock = new Object();
+
+    // Adds, removes and changed students so far
+    private final LongAdder changes;
+
+    public StudentRegistry()
+    {
+        this.byId = new ConcurrentHashMap<>();
+        this.bySequence = new ConcurrentSkipListMap<>();
+        this.inOrder = new RankedTree<>(Comparator.comparingLong(Student::getSequence));
+        this.subjectIndexes = new ConcurrentHashMap<>();
+        this.leaderboard = new Leaderboard();
+        this.names = new NameIndex();
+        this.nextSequence = new AtomicLong();
+        this.clock = new AtomicLong();
+        this.views = new RosterView[0];
+        this.changes = new LongAdder();
+        this.locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++)
+        {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Turns an ID into the key used by the index.
+     * Each character is folded the same way String.equalsIgnoreCase compares them,
+     * so two IDs map to the same key exactly when equalsIgnoreCase says they match.
+     */
+    public static String foldKey(String id)
+    {
+        StringBuilder key = null;
+
+        for (int i = 0; i < id.length(); i++)
+        {
+            char c = id.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+
+            if (folded != c && key == null)
+            {
+                key = new StringBuilder(id.length());
+                key.append(id, 0, i);
+            }
+            if (key != null)
+            {
+                key.append(folded);
+            }
+        }
+
+        // Most IDs are already folded, so usually no copy is needed
+        return key == null ? id : key.toString();
+    }
+
+    /**
+     * Adds a student unless another student already uses the same ID.
+     * Returns false (and changes nothing) for a duplicate.
+     */
+    public boolean add(Student student)
+    {
+        return add(student, -1);
+    }
+
+    /**
+     * Same, but the student's sequence number is at least firstSequence (and
+     * the numbering goes on after it). A ShardedSystem numbers its adds across
+     * all shards this way, so ties sort the same as in a single registry.
+     * A negative firstSequence just takes the next number.
+     */
+    boolean add(Student student, long firstSequence)
+    {
+        String key = foldKey(student.getId());
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try
+        {
+            synchronized (student)
+            {
+                if (byId.putIfAbsent(key, student) != null)
+                {
+                    return false;
+                }
+
+                long sequence = firstSequence < 0
+                    ? nextSequence.getAndIncrement()
+                    : nextSequence.accumulateAndGet(firstSequence, (next, first) -> Math.max(next, first) + 1) - 1;
+                student.attach(this, sequence);
+                student.setVersion(clock.get());
+                bySequence.put(sequence, student);
+                synchronized (inOrder)
+                {
+                    inOrder.add(student);
+                }
+                for (Subject s : student.getSubjects())
+                {
+                    indexFor(s.getName()).add(student, s.getGrade());
+                }
+                leaderboard.add(student);
+                names.add(student);
+
+                MutationJournal j = journal;
+                if (j != null)
+                {
+                    j.logAdd(student);
+                }
+                changes.increment();
+                return true;
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a batch of students, in order, and builds their index entries in bulk.
+     * Students whose ID is already taken are skipped and put in duplicates.
+     * The students only become visible once their index entries are in place,
+     * so nobody else may be changing them during the call.
+     */
+    public void addAll(List<Student> batch, List<Student> duplicates)
+    {
+        lockAll();
+        try
+        {
+            List<Student> added = new ArrayList<>(batch.size());
+            List<String> addedKeys = new ArrayList<>(batch.size());
+            HashSet<String> batchKeys = new HashSet<>();
+            HashMap<String, List<Student>> subjectStudents = new HashMap<>();
+            HashMap<String, List<Double>> subjectGrades = new HashMap<>();
+
+            for (Student student : batch)
+            {
+                String key = foldKey(student.getId());
+                if (byId.containsKey(key) || !batchKeys.add(key))
+                {
+                    duplicates.add(student);
+                    continue;
+                }
+
+                student.attach(null, nextSequence.getAndIncrement());
+                student.setVersion(clock.get());
+                added.add(student);
+                addedKeys.add(key);
+
+                for (Subject s : student.getSubjects())
+                {
+                    String subjectKey = foldKey(s.getName());
+                    subjectStudents.computeIfAbsent(subjectKey, k -> new ArrayList<>()).add(student);
+                    subjectGrades.computeIfAbsent(subjectKey, k -> new ArrayList<>()).add(s.getGrade());
+                }
+            }
+
+            for (String subjectKey : subjectStudents.keySet())
+            {
+                List<Double> grades = subjectGrades.get(subjectKey);
+                double[] values = new double[grades.size()];
+                for (int i = 0; i < values.length; i++)
+                {
+                    values[i] = grades.get(i);
+                }
+                subjectIndexes.computeIfAbsent(subjectKey, k -> new SubjectIndex())
+                    .addAll(subjectStudents.get(subjectKey), values);
+            }
+            leaderboard.addAll(added);
+            names.addAll(added);
+            synchronized (inOrder)
+            {
+                inOrder.addAll(added);
+            }
+
+            for (int i = 0; i < added.size(); i++)
+            {
+                Student student = added.get(i);
+                student.attach(this, student.getSequence());
+                bySequence.put(student.getSequence(), student);
+                byId.put(addedKeys.get(i), student);
+            }
+            changes.add(added.size());
+        }
+        finally
+        {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Applies part of a bulk grade import. For each i in [from, to), students[i]
+     * gets the grades at positions starts[i] .. starts[i + 1] - 1 of subjects and
+     * grades, in that order (so a later grade for the same subject wins).
+     * Each student is locked once for all of their grades. The subject indexes
+     * and the leaderboard are brought up to date afterwards, one subject at a
+     * time, and rebuilt in one pass when a big part of them changed.
+     * Students that are no longer in the registry are skipped and put in missing.
+     * Like addAll, the changes are not logged to the journal; whoever imports
+     * writes a checkpoint instead. Returns the number of grades applied.
+     */
+    public long applyGrades(Student[] students, int[] starts, String[] subjects, double[] grades,
+        int from, int to, List<Student> missing)
+    {
+        lockAll();
+        try
+        {
+            // Subject name as given -> the students to move in that subject's index
+            HashMap<String, Regrade> regrades = new HashMap<>();
+            long applied = 0;
+
+            for (int i = from; i < to; i++)
+            {
+                Student student = students[i];
+                synchronized (student)
+                {
+                    if (byId.get(foldKey(student.getId())) != student)
+                    {
+                        missing.add(student);
+                        continue;
+                    }
+
+                    stamp(student, false);
+                    // Big groups remember the subjects seen so far in a set instead of looking back
+                    Set<String> seen = starts[i + 1] - starts[i] > 16 ? new HashSet<>() : null;
+                    for (int row = starts[i]; row < starts[i + 1]; row++)
+                    {
+                        Double old = student.putGrade(subjects[row], grades[row]);
+                        // Only the first grade for a subject says where the index has the student
+                        boolean first = seen != null ? seen.add(foldKey(subjects[row])) : !seenBefore(subjects, starts[i], row);
+                        if (first)
+                        {
+                            regrades.computeIfAbsent(subjects[row], Regrade::new).add(student, old);
+                        }
+                        applied++;
+                    }
+                }
+                leaderboard.update(student);
+            }
+
+            // Spellings of the same subject share one index
+            HashMap<String, Regrade> bySubject = new HashMap<>();
+            for (Map.Entry<String, Regrade> e : regrades.entrySet())
+            {
+                bySubject.merge(foldKey(e.getKey()), e.getValue(), Regrade::addAll);
+            }
+            for (Regrade r : bySubject.values())
+            {
+                indexFor(r.subjectName).regrade(r.students, r.oldGrades, r.hadGrade, r.size, r.subjectName);
+            }
+            return applied;
+        }
+        finally
+        {
+            unlockAll();
+        }
+    }
+
+    // True if subjects[row] (ignoring case) already came up in subjects[first .. row - 1]
+    private static boolean seenBefore(String[] subjects, int first, int row)
+    {
+        for (int j = first; j < row; j++)
+        {
+            if (subjects[j].equalsIgnoreCase(subjects[row]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The students of one subject that a bulk import changed, with the grade the
+     * index still has for each of them (hadGrade is false for a new subject;
+     * not NaN, which is a grade like any other).
+     */
+    private static final class Regrade
+    {
+        final String subjectName;
+        Student[] students = new Student[16];
+        double[] oldGrades = new double[16];
+        boolean[] hadGrade = new boolean[16];
+        int size;
+
+        Regrade(String subjectName)
+        {
+            this.subjectName = subjectName;
+        }
+
+        void add(Student student, Double oldGrade)
+        {
+            if (size == students.length)
+            {
+                students = Arrays.copyOf(students, size * 2);
+                oldGrades = Arrays.copyOf(oldGrades, size * 2);
+                hadGrade = Arrays.copyOf(hadGrade, size * 2);
+            }
+            students[size] = student;
+            oldGrades[size] = oldGrade == null ? 0.0 : oldGrade;
+            hadGrade[size] = oldGrade != null;
+            size++;
+        }
+
+        Regrade addAll(Regrade other)
+        {
+            for (int i = 0; i < other.size; i++)
+            {
+                add(other.students[i], other.hadGrade[i] ? other.oldGrades[i] : null);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Finds a student by ID (case-insensitive), or returns null.
+     */
+    public Student find(String id)
+    {
+        return byId.get(foldKey(id));
+    }
+
+    /**
+     * Removes a student by ID and returns it, or returns null if not found.
+     */
+    public Student remove(String id)
+    {
+        String key = foldKey(id);
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try
+        {
+            Student student = byId.get(key);
+            if (student == null)
+            {
+                return null;
+            }
+
+            synchronized (student)
+            {
+                stamp(student, true);
+                byId.remove(key);
+                bySequence.remove(student.getSequence());
+                synchronized (inOrder)
+                {
+                    inOrder.remove(student);
+                }
+                for (Subject s : student.getSubjects())
+                {
+                    subjectIndexes.get(foldKey(s.getName())).remove(student, s.getGrade());
+                }
+                leaderboard.remove(student);
+                names.remove(student, student.getName());
+                student.attach(null, 0);
+
+                MutationJournal j = journal;
+                if (j != null)
+                {
+                    j.logRemove(student.getId());
+                }
+            }
+            return student;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The sequence number the next added student gets (one past the largest so far).
+     */
+    long nextSequence()
+    {
+        return nextSequence.get();
+    }
+
+    public int size()
+    {
+        return byId.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return byId.isEmpty();
+    }
+
+    public void clear()
+    {
+        lockAll();
+        try
+        {
+            for (Student s : bySequence.values())
+            {
+                synchronized (s)
+                {
+                    stamp(s, true);
+                    s.attach(null, 0);
+                }
+            }
+            byId.clear();
+            bySequence.clear();
+            synchronized (inOrder)
+            {
+                inOrder.clear();
+            }
+            subjectIndexes.clear();
+            leaderboard.clear();
+            names.clear();
+        }
+        finally
+        {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Read-only view of the students in the order they were added.
+     * Iterating it while other threads write is safe; it may or may not
+     * include changes made during the loop.
+     */
+    public Collection<Student> students()
+    {
+        return Collections.unmodifiableCollection(bySequence.values());
+    }
+
+    /**
+     * Up to count students from a 0-based position in the order they were added.
+     * Costs O(log n + count), however far in the page starts.
+     */
+    public List<Student> page(int from, int count)
+    {
+        synchronized (inOrder)
+        {
+            return inOrder.range(from, from + count);
+        }
+    }
+
+    /**
+     * Students with a sequence in [from, to), in the order they were added (for RosterView).
+     */
+    Set<Map.Entry<Long, Student>> bySequence(long from, long to)
+    {
+        return Collections.unmodifiableMap(bySequence.subMap(from, to)).entrySet();
+    }
+
+    /**
+     * Opens a point-in-time view of the roster. Close it when done, or every
+     * change made meanwhile keeps copying students for it.
+     */
+    public RosterView openView()
+    {
+        RosterView view = new RosterView(this);
+        synchronized (viewLock)
+        {
+            RosterView[] open = Arrays.copyOf(views, views.length + 1);
+            open[open.length - 1] = view;
+            views = open;
+        }
+        // Published before the tick, so a writer that sees the new tick also sees the view
+        view.open(clock.incrementAndGet());
+        return view;
+    }
+
+    void closeView(RosterView view)
+    {
+        synchronized (viewLock)
+        {
+            List<RosterView> open = new ArrayList<>(Arrays.asList(views));
+            open.remove(view);
+            views = open.toArray(new RosterView[0]);
+        }
+    }
+
+    /**
+     * Index of all grades for a subject (case-insensitive), or null if nobody takes it.
+     */
+    public SubjectIndex subjectIndex(String subjectName)
+    {
+        SubjectIndex index = subjectIndexes.get(foldKey(subjectName));
+        return index == null || index.isEmpty() ? null : index;
+    }
+
+    public Leaderboard leaderboard()
+    {
+        return leaderboard;
+    }
+
+    public NameIndex names()
+    {
+        return names;
+    }
+
+    /**
+     * Number of adds, removes and student changes since the registry was made.
+     * A change counted here before a view is opened is always in that view.
+     */
+    public long getChangeCount()
+    {
+        return changes.sum();
+    }
+
+    /**
+     * Starts (or with null, stops) logging changes to a journal.
+     */
+    public void setJournal(MutationJournal journal)
+    {
+        this.journal = journal;
+    }
+
+    /**
+     * Keeps the subject index and leaderboard in step when a student's grade changes.
+     * Called while the student is locked.
+     */
+    @Override
+    public void gradeChanged(Student student, String subjectName, Double oldGrade, double newGrade)
+    {
+        SubjectIndex index = indexFor(subjectName);
+        synchronized (index)
+        {
+            if (oldGrade != null)
+            {
+                index.remove(student, oldGrade);
+            }
+            index.add(student, newGrade);
+        }
+        leaderboard.update(student);
+
+        MutationJournal j = journal;
+        if (j != null)
+        {
+            j.logGrade(student, subjectName, newGrade);
+        }
+    }
+
+    /**
+     * Stamps the coming change and lets open views copy the student first.
+     * Called while the student is locked.
+     */
+    @Override
+    public void beforeChange(Student student)
+    {
+        stamp(student, false);
+    }
+
+    /**
+     * Moves the student in the name index. Called while the student is locked.
+     */
+    @Override
+    public void nameChanged(Student student, String oldName)
+    {
+        names.rename(student, oldName);
+
+        MutationJournal j = journal;
+        if (j != null)
+        {
+            j.logName(student);
+        }
+    }
+
+    // The tick is read before the views, so a change stamped at or after a
+    // view's tick always finds that view in the array. The change is counted
+    // after the tick is read: once it shows in getChangeCount, a view opened
+    // later sees the student as changed before it opened, and reads the
+    // student (waiting for the lock) with the change done.
+    private void stamp(Student student, boolean removing)
+    {
+        long tick = clock.get();
+        for (RosterView view : views)
+        {
+            view.beforeChange(student, tick, removing);
+        }
+        student.setVersion(tick);
+        changes.increment();
+    }
+
+    private SubjectIndex indexFor(String subjectName)
+    {
+        return subjectIndexes.computeIfAbsent(foldKey(subjectName), k -> new SubjectIndex());
+    }
+
+    private ReentrantLock lockFor(String key)
+    {
+        return locks[(key.hashCode() & 0x7FFFFFFF) % LOCK_STRIPES];
+    }
+
+    private void lockAll()
+    {
+        for (ReentrantLock lock : locks)
+        {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll()
+    {
+        for (ReentrantLock lock : locks)
+        {
+            lock.unlock();
+        }
+    }
+}
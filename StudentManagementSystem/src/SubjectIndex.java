@@ -0,0 +1,270 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SubjectIndex class
+ * Keeps every grade for one subject sorted from highest to lowest, so subject
+ * reports don't need to look at the whole roster.
+ * Highest/lowest, top-K, bottom-K and a student's rank are all answered
+ * in O(log n) (plus K for the lists) using a RankedTree.
+ * Students with the same grade stay in the order they were added to the system.
+ * Grades compare like > and < do in a roster scan: -0.0 and 0.0 are the same
+ * grade, and a NaN grade comes after every number, so it's only ever the
+ * highest or lowest when nobody in the subject has a real grade.
+ * All methods are synchronized; to get several answers from the same state
+ * (say highest and lowest together), synchronize on the index around the calls.
+ */
+public class SubjectIndex
+{
+
+    /**
+     * One grade in the index. The sequence number is the student's position
+     * in the registry and breaks ties between equal grades.
+     */
+    private static final class Entry
+    {
+        final double grade;
+        final long sequence;
+        final Student student;
+
+        Entry(double grade, long sequence, Student student)
+        {
+            this.grade = grade;
+            this.sequence = sequence;
+            this.student = student;
+        }
+    }
+
+    // Highest grade first, then earliest added student first
+    private static final Comparator<Entry> ORDER = (a, b) ->
+    {
+        int cmp = compareGrades(a.grade, b.grade);
+        return cmp != 0 ? cmp : Long.compare(a.sequence, b.sequence);
+    };
+
+    // Sorts before every NaN grade and after every number
+    private static final Entry FIRST_NAN = new Entry(Double.NaN, Long.MIN_VALUE, null);
+
+    private final RankedTree<Entry> grades;
+
+    public SubjectIndex()
+    {
+        this.grades = new RankedTree<>(ORDER);
+    }
+
+    public synchronized void add(Student student, double grade)
+    {
+        grades.add(new Entry(grade, student.getSequence(), student));
+    }
+
+    /**
+     * Adds a batch of grades (students.get(i) has grades[i]) in one go.
+     */
+    public synchronized void addAll(List<Student> students, double[] grades)
+    {
+        List<Entry> batch = new ArrayList<>(students.size());
+        for (int i = 0; i < students.size(); i++)
+        {
+            Student s = students.get(i);
+            batch.add(new Entry(grades[i], s.getSequence(), s));
+        }
+        this.grades.addAll(batch);
+    }
+
+    public synchronized void remove(Student student, double grade)
+    {
+        grades.remove(new Entry(grade, student.getSequence(), null));
+    }
+
+    /**
+     * Moves a batch of students whose grade in this subject was changed in
+     * bulk. oldGrades[i] is what the index has for students[i] if hadGrade[i]
+     * is true (false if they had no grade yet). Each one is put back at the
+     * grade they have right now, read while the index is locked, so a change
+     * another thread made in the meantime isn't undone. A big batch rebuilds
+     * the tree in one pass.
+     */
+    public synchronized void regrade(Student[] students, double[] oldGrades, boolean[] hadGrade, int count,
+                                     String subjectName)
+    {
+        if (count < grades.size() / 8 + 1)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                Student s = students[i];
+                if (hadGrade[i])
+                {
+                    grades.remove(new Entry(oldGrades[i], s.getSequence(), null));
+                }
+                Double now = s.peekGrade(subjectName);
+                if (now != null)
+                {
+                    grades.add(new Entry(now, s.getSequence(), s));
+                }
+            }
+            return;
+        }
+
+        Set<Student> moved = Collections.newSetFromMap(new IdentityHashMap<>(count * 2));
+        List<Entry> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            Student s = students[i];
+            moved.add(s);
+            Double now = s.peekGrade(subjectName);
+            if (now != null)
+            {
+                batch.add(new Entry(now, s.getSequence(), s));
+            }
+        }
+        grades.replaceAll(e -> moved.contains(e.student), batch);
+    }
+
+    public synchronized int size()
+    {
+        return grades.size();
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return grades.isEmpty();
+    }
+
+    /**
+     * Higher grade first, with > and < rather than Double.compare, so -0.0
+     * and 0.0 are equal. NaN isn't above or below anything, so it goes last.
+     */
+    static int compareGrades(double a, double b)
+    {
+        if (a > b)
+        {
+            return -1;
+        }
+        if (a < b)
+        {
+            return 1;
+        }
+        if (a == b)
+        {
+            return 0;
+        }
+        return Boolean.compare(Double.isNaN(a), Double.isNaN(b));
+    }
+
+    /**
+     * Student with the highest grade (earliest added wins a tie), or null.
+     */
+    public synchronized Student highest()
+    {
+        Entry top = grades.first();
+        return top == null ? null : top.student;
+    }
+
+    public synchronized Double highestGrade()
+    {
+        Entry top = grades.first();
+        return top == null ? null : top.grade;
+    }
+
+    /**
+     * Student with the lowest grade (earliest added wins a tie), or null.
+     */
+    public synchronized Student lowest()
+    {
+        Entry bottom = lowestEntry();
+        return bottom == null ? null : bottom.student;
+    }
+
+    /**
+     * The grade of the student lowest() returns (so -0.0 or 0.0, as they have it).
+     */
+    public synchronized Double lowestGrade()
+    {
+        Entry bottom = lowestEntry();
+        return bottom == null ? null : bottom.grade;
+    }
+
+    private Entry lowestEntry()
+    {
+        int end = gradedEnd();
+        if (end == 0)
+        {
+            return null;
+        }
+
+        // Jump to the first student who has that lowest grade
+        return grades.ceiling(new Entry(grades.get(end - 1).grade, Long.MIN_VALUE, null));
+    }
+
+    /**
+     * End of the grades lowest() and bottom() look at: every number, or
+     * the NaN grades if there are no numbers at all.
+     */
+    private int gradedEnd()
+    {
+        int numbers = grades.countBefore(FIRST_NAN);
+        return numbers > 0 ? numbers : grades.size();
+    }
+
+    /**
+     * The k students with the highest grades, best first.
+     */
+    public synchronized List<Student> top(int k)
+    {
+        return students(grades.range(0, k));
+    }
+
+    /**
+     * The k students with the lowest grades, worst first (NaN grades left out,
+     * like in lowest()).
+     */
+    public synchronized List<Student> bottom(int k)
+    {
+        int end = gradedEnd();
+        List<Student> result = students(grades.range(end - k, end));
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Positions [from, to) of the grades between low and high (both included).
+     * Higher grades come first, so high sets from.
+     */
+    public synchronized int[] positionsBetween(double low, double high)
+    {
+        int from = grades.countBefore(new Entry(high, Long.MIN_VALUE, null));
+        int to = grades.countBefore(new Entry(low, Long.MAX_VALUE, null));
+        return new int[] { from, Math.max(from, to) };
+    }
+
+    /**
+     * The students at positions [from, to), best grade first.
+     */
+    public synchronized List<Student> slice(int from, int to)
+    {
+        return students(grades.range(from, to));
+    }
+
+    /**
+     * Rank of a grade in this subject: 1 + the number of strictly higher grades,
+     * so students with the same grade share a rank.
+     */
+    public synchronized int rankOf(double grade)
+    {
+        return grades.countBefore(new Entry(grade, Long.MIN_VALUE, null)) + 1;
+    }
+
+    private static List<Student> students(List<Entry> entries)
+    {
+        List<Student> result = new ArrayList<>(entries.size());
+        for (Entry e : entries)
+        {
+            result.add(e.student);
+        }
+        return result;
+    }
+}
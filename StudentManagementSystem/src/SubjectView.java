@@ -0,0 +1,76 @@
+/**
+ * SubjectView class
+ * A read-only look at one student's subjects, filled by Student.readSubjects.
+ * Unlike getSubjects() it doesn't build a list or any Subject objects: the
+ * names are the store's own interned strings and the grades sit in a
+ * primitive array. One view can be refilled for student after student, so
+ * walking the whole roster (saving, reports, the HTTP API) allocates nothing
+ * per student once the arrays are big enough.
+ *
+ * The view holds what the student had when it was filled; a later grade
+ * change doesn't show up until it's filled again.
+ */
+public final class SubjectView
+{
+
+    private String[] names = new String[16];
+    private double[] grades = new double[16];
+    private int size;
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Name of the i-th subject, in the order the subjects were added.
+     */
+    public String name(int i)
+    {
+        checkIndex(i);
+        return names[i];
+    }
+
+    public double grade(int i)
+    {
+        checkIndex(i);
+        return grades[i];
+    }
+
+    // -------------------------
+    // Filled by the grade stores
+    // -------------------------
+
+    /**
+     * Empties the view and makes room for n subjects.
+     */
+    void reset(int n)
+    {
+        if (n > names.length)
+        {
+            int capacity = Math.max(n, names.length * 2);
+            names = new String[capacity];
+            grades = new double[capacity];
+        }
+        size = n;
+    }
+
+    void set(int i, String name, double grade)
+    {
+        names[i] = name;
+        grades[i] = grade;
+    }
+
+    private void checkIndex(int i)
+    {
+        if (i < 0 || i >= size)
+        {
+            throw new IndexOutOfBoundsException("Subject " + i + " of " + size);
+        }
+    }
+}
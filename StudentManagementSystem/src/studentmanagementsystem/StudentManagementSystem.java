@@ -1,233 +1,1159 @@
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.PrintWriter;
-import java.io.IOException;
-
-/**
- * StudentManagementSystem class Demo
- * Stores all students and provides methods for managing them
- */
-public class StudentManagementSystem {
-
-    // 1. List of all students
-    private ArrayList<Student> students;
-
-    
-    public StudentManagementSystem() {
-        students = new ArrayList<>();
-    }
-
-  
-
-        // Add a student by ID and name, with option for honors
-    public void addStudent(String id, String name, boolean isHonors) 
-    {
-        // Optional: prevent duplicate IDs
-        if (findStudentById(id) != null) 
-        {
-            System.out.println("Student with ID " + id + " already exists.");
-            return;
-        }
-
-        if (isHonors) 
-        {
-            // Polymorphism: the list is of type Student,
-            // but it can also hold HonorsStudent objects.
-            students.add(new HonorsStudent(id, name));
-        } 
-        else 
-        {
-            students.add(new Student(id, name));
-        }
-    }
-
-
-    // Remove a student by ID, return true if removed
-    public boolean removeStudent(String id) {
-        Student s = findStudentById(id);
-        if (s != null) {
-            students.remove(s);
-            return true;
-        }
-        return false;
-    }
-
-    // Find a student by ID or return 
-    public Student findStudentById(String id) {
-        for (Student s : students) {
-            if (s.getId().equalsIgnoreCase(id)) {
-                return s;
-            }
-        }
-        return null;
-    }
-
-    // List students
-    public void listStudents() {
-        if (students.isEmpty()) {
-            System.out.println("No students to display.");
-            return;
-        }
-
-        System.out.println("=== All Students ===");
-        for (Student s : students) {
-            System.out.println(s); // uses Student.toString()
-        }
-    }
-
-   
-
-    // Show students sorted by average grade 
-    public void printStudentsSortedByAverage() {
-        if (students.isEmpty()) {
-            System.out.println("No students to report.");
-            return;
-        }
-
-        List<Student> sorted = new ArrayList<>(students);
-        sorted.sort(Comparator.comparingDouble(Student::calculateAverage).reversed());
-
-        System.out.println("=== Students Sorted by Average Grade (High to Low) ===");
-        for (Student s : sorted) {
-            System.out.println(
-                s.getId() + " - " + s.getName()
-                + " | Average: " + String.format("%.2f", s.calculateAverage())
-            );
-        }
-    }
-
-    // Print each student's average grade
-    public void printAllStudentAverages() {
-        if (students.isEmpty()) {
-            System.out.println("No students to report.");
-            return;
-        }
-
-        System.out.println("=== Average Grade for Each Student ===");
-        for (Student s : students) {
-            System.out.println(
-                s.getId() + " - " + s.getName()
-                + " | Average: " + String.format("%.2f", s.calculateAverage())
-            );
-        }
-    }
-
-    // Print highest and lowest grade
-    public void printSubjectHighLow(String subjectName) {
-        if (students.isEmpty()) {
-            System.out.println("No students available.");
-            return;
-        }
-
-        Student highestStudent = null;
-        Student lowestStudent = null;
-        Double highestGrade = null;
-        Double lowestGrade = null;
-
-        for (Student s : students) {
-            List<Subject> subs = s.getSubjects(); // returns a copy
-            for (Subject subj : subs) {
-                if (subj.getName().equalsIgnoreCase(subjectName)) {
-                    double g = subj.getGrade();
-
-                    if (highestGrade == null || g > highestGrade) {
-                        highestGrade = g;
-                        highestStudent = s;
-                    }
-                    if (lowestGrade == null || g < lowestGrade) {
-                        lowestGrade = g;
-                        lowestStudent = s;
-                    }
-                }
-            }
-        }
-
-        if (highestGrade == null) {
-            System.out.println("No grades found for subject: " + subjectName);
-            return;
-        }
-
-        System.out.println("=== Subject Report: " + subjectName + " ===");
-        System.out.println(
-            "Highest: " + highestStudent.getId() + " - " + highestStudent.getName()
-            + " | Grade: " + highestGrade
-        );
-        System.out.println(
-            "Lowest: " + lowestStudent.getId() + " - " + lowestStudent.getName()
-            + " | Grade: " + lowestGrade
-        );
-    }
-
-   
-    // File save and load
-    
-    public void saveToFile(String fileName) {
-        try (PrintWriter out = new PrintWriter(new FileWriter(fileName))) {
-            for (Student s : students) {
-                StringBuilder line = new StringBuilder();
-                line.append(s.getId()).append("|")
-                    .append(s.getName()).append("|");
-
-                List<Subject> subs = s.getSubjects();
-                for (int i = 0; i < subs.size(); i++) {
-                    Subject subj = subs.get(i);
-                    line.append(subj.getName())
-                        .append(":")
-                        .append(subj.getGrade());
-                    if (i < subs.size() - 1) {
-                        line.append(",");
-                    }
-                }
-
-                out.println(line.toString());
-            }
-            System.out.println("Saved " + students.size() + " students to " + fileName);
-        } catch (IOException e) {
-            System.out.println("Error saving to file: " + e.getMessage());
-        }
-    }
-
-    public void loadFromFile(String fileName) {
-        students.clear(); 
-
-        try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-            String line;
-
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split("\\|");
-                if (parts.length < 2) continue;
-
-                String id = parts[0];
-                String name = parts[1];
-
-                Student s = new Student(id, name);
-
-                if (parts.length >= 3 && !parts[2].isEmpty()) {
-                    String[] subjectTokens = parts[2].split(",");
-                    for (String token : subjectTokens) {
-                        String[] sg = token.split(":");
-                        if (sg.length == 2) {
-                            String subjName = sg[0];
-                            try {
-                                double grade = Double.parseDouble(sg[1]);
-                                s.addOrUpdateSubject(subjName, grade);
-                            } catch (NumberFormatException e) {
-                                System.out.println("Skipping invalid grade: " + token);
-                            }
-                        }
-                    }
-                }
-
-                students.add(s);
-            }
-
-            System.out.println("Loaded " + students.size() + " students from " + fileName);
-        } catch (IOException e) {
-            System.out.println("Error loading from file: " + e.getMessage());
-        }
-    }
-}
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * StudentManagementSystem class Demo
+ * Stores all students and provides methods for managing them
+ */
+public class StudentManagementSystem {
+
+    // 1. All students, indexed by ID (keeps the order they were added)
+    private StudentRegistry students;
+
+    // 2. Change log for durable mode, or null when changes are only saved by hand
+    private MutationJournal journal;
+
+    // 3. Fork-join report helper for big rosters, or null to always report on one thread
+    private ParallelReports parallel;
+
+    // 4. Roster kept on disk (paged or memory-mapped), or null when every student is in memory
+    private RosterStore diskRoster;
+
+    // 5. Background saver of the text file, or null when autosave is off
+    private Autosaver autosaver;
+
+    // 6. The segmented file saved to (or loaded from) last, which remembers which
+    // parts of it need rewriting, or null before the first incremental save
+    private SegmentedRosterFile segmentedFile;
+
+    // Timers for every operation (see Metrics)
+    private static final Metrics.Timer OPEN_PAGED = Metrics.timer("openPagedStore");
+    private static final Metrics.Timer OPEN_MAPPED = Metrics.timer("openMappedStore");
+    private static final Metrics.Timer CLOSE_DISK = Metrics.timer("closeDiskRoster");
+    private static final Metrics.Timer ADD = Metrics.timer("addStudent");
+    private static final Metrics.Timer TRY_ADD = Metrics.timer("tryAddStudent");
+    private static final Metrics.Timer LEADERBOARD_PAGE = Metrics.timer("leaderboardPage");
+    private static final Metrics.Timer SEARCH = Metrics.timer("searchByName");
+    private static final Metrics.Timer FUZZY_SEARCH = Metrics.timer("fuzzySearchByName");
+    private static final Metrics.Timer REMOVE = Metrics.timer("removeStudent");
+    private static final Metrics.Timer FIND = Metrics.timer("findStudentById");
+    private static final Metrics.Timer LIST = Metrics.timer("listStudents");
+    private static final Metrics.Timer SORTED = Metrics.timer("printStudentsSortedByAverage");
+    private static final Metrics.Timer PRINT_LEADERBOARD = Metrics.timer("printLeaderboardPage");
+    private static final Metrics.Timer PRINT_SEARCH = Metrics.timer("printNameSearch");
+    private static final Metrics.Timer PRINT_FUZZY = Metrics.timer("printFuzzyNameSearch");
+    private static final Metrics.Timer PRINT_QUERY = Metrics.timer("printQuery");
+    private static final Metrics.Timer RANK = Metrics.timer("getLeaderboardRank");
+    private static final Metrics.Timer AVERAGES = Metrics.timer("printAllStudentAverages");
+    private static final Metrics.Timer SAVE_REPORT = Metrics.timer("saveSortedReport");
+    private static final Metrics.Timer EXPORT_CSV = Metrics.timer("exportCsv");
+    private static final Metrics.Timer WRITE_CSV = Metrics.timer("writeCsv");
+    private static final Metrics.Timer HIGH_LOW = Metrics.timer("printSubjectHighLow");
+    private static final Metrics.Timer TOP = Metrics.timer("topStudentsInSubject");
+    private static final Metrics.Timer BOTTOM = Metrics.timer("bottomStudentsInSubject");
+    private static final Metrics.Timer SUBJECT_RANK = Metrics.timer("getSubjectRank");
+    private static final Metrics.Timer TOP_BOTTOM = Metrics.timer("printSubjectTopBottom");
+    private static final Metrics.Timer SAVE = Metrics.timer("saveToFile");
+    private static final Metrics.Timer SAVE_INCREMENTAL = Metrics.timer("saveIncremental");
+    private static final Metrics.Timer MEMORY_REPORT = Metrics.timer("printMemoryReport");
+    private static final Metrics.Timer OPEN_JOURNAL = Metrics.timer("openJournal");
+    private static final Metrics.Timer CLOSE_JOURNAL = Metrics.timer("closeJournal");
+    private static final Metrics.Timer SAVE_SNAPSHOT = Metrics.timer("saveSnapshot");
+    private static final Metrics.Timer LOAD_SNAPSHOT = Metrics.timer("loadSnapshot");
+    private static final Metrics.Timer LOAD = Metrics.timer("loadFromFile");
+    private static final Metrics.Timer IMPORT = Metrics.timer("importGrades");
+
+    
+    public StudentManagementSystem() {
+        students = new StudentRegistry();
+        parallel = reportsFor(Integer.getInteger("sms.parallelThreshold", 50000));
+    }
+
+    // Rosters with at least this many students are reported in parallel (0 or less = never)
+    public void setParallelThreshold(int threshold) {
+        parallel = reportsFor(threshold);
+    }
+
+    private static ParallelReports reportsFor(int threshold) {
+        return threshold > 0 ? new ParallelReports(threshold) : null;
+    }
+
+    // True when a report over the whole roster should be split across threads
+    private boolean reportInParallel() {
+        return parallel != null && parallel.isParallel(students.size());
+    }
+
+    // Paged mode: keep the roster in a paged file and only cacheSize students in memory.
+    public void openPagedStore(String fileName, int cacheSize) {
+        long start = Metrics.start();
+        try {
+            if (notWithJournalOrAutosave()) {
+                return;
+            }
+            try {
+                PagedStudentStore store = PagedStudentStore.open(fileName, cacheSize);
+                useDiskRoster(store);
+                System.out.println(
+                    "Opened paged roster " + fileName + " with " + store.size()
+                    + " students (caching up to " + store.getCacheCapacity() + " in memory)"
+                );
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Error opening paged roster: " + e.getMessage());
+            }
+        } finally {
+            OPEN_PAGED.record(start);
+        }
+    }
+
+    // Mapped mode: students and grades live off the heap in a memory-mapped file
+    public void openMappedStore(String fileName) {
+        long start = Metrics.start();
+        try {
+            if (notWithJournalOrAutosave()) {
+                return;
+            }
+            try {
+                long opened = System.nanoTime();
+                MappedStudentStore store = MappedStudentStore.open(fileName);
+                useDiskRoster(store);
+                System.out.println(
+                    "Opened mapped roster " + fileName + " with " + store.size() + " students in "
+                    + String.format("%.1f", (System.nanoTime() - opened) / 1e6) + " ms"
+                );
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Error opening mapped roster: " + e.getMessage());
+            }
+        } finally {
+            OPEN_MAPPED.record(start);
+        }
+    }
+
+    private boolean notWithJournalOrAutosave() {
+        if (journal == null && autosaver == null) {
+            return false;
+        }
+        System.out.println("A roster on disk can't be used together with a journal or autosave.");
+        return true;
+    }
+
+    // The in-memory roster is left empty while a roster on disk is open
+    private void useDiskRoster(RosterStore store) {
+        closeDiskRoster();
+        students.clear();
+        diskRoster = store;
+    }
+
+    public void closeDiskRoster() {
+        long start = Metrics.start();
+        try {
+            if (diskRoster == null) {
+                return;
+            }
+            try {
+                diskRoster.close();
+            } catch (IOException e) {
+                System.out.println("Error closing " + diskRoster.getFileName() + ": " + e.getMessage());
+            }
+            diskRoster = null;
+        } finally {
+            CLOSE_DISK.record(start);
+        }
+    }
+
+    public boolean isOnDisk() {
+        return diskRoster != null;
+    }
+
+    // Reports that need the leaderboard or subject indexes only exist for the in-memory roster
+    private boolean notForDiskRoster() {
+        if (diskRoster == null) {
+            return false;
+        }
+        System.out.println("Not available for a roster on disk (this needs every student in memory).");
+        return true;
+    }
+
+  
+
+        // Add a student by ID and name, with option for honors
+    public void addStudent(String id, String name, boolean isHonors) 
+    {
+        long start = Metrics.start();
+        try 
+        {
+            // Roster on disk: the store checks the ID against its index without reading any records
+            if (diskRoster != null) 
+            {
+                try 
+                {
+                    if (!tryAddStudent(id, name, isHonors)) 
+                    {
+                        System.out.println("Student with ID " + id + " already exists.");
+                    }
+                } 
+                catch (IllegalArgumentException e) 
+                {
+                    System.out.println(e.getMessage());
+                }
+                return;
+            }
+
+            // Optional: prevent duplicate IDs
+            if (findStudentById(id) != null) 
+            {
+                System.out.println("Student with ID " + id + " already exists.");
+                return;
+            }
+
+            if (isHonors) 
+            {
+                // Polymorphism: the list is of type Student,
+                // but it can also hold HonorsStudent objects.
+                students.add(new HonorsStudent(id, name));
+            } 
+            else 
+            {
+                students.add(new Student(id, name));
+            }
+        } 
+        finally 
+        {
+            ADD.record(start);
+        }
+    }
+
+
+    // Add a student without printing anything; false if the ID is already taken.
+    // Safe when several threads add at the same time (the registry checks and adds in one step).
+    public boolean tryAddStudent(String id, String name, boolean isHonors) {
+        long start = Metrics.start();
+        try {
+            Student s = isHonors ? new HonorsStudent(id, name) : new Student(id, name);
+            return diskRoster != null ? diskRoster.add(s) : students.add(s);
+        } finally {
+            TRY_ADD.record(start);
+        }
+    }
+
+    // Same, but the student's sequence number (which breaks ties between equal
+    // averages and grades) is at least order. A ShardedSystem uses it so a shard
+    // ranks ties the way one system holding every student would. Not for a roster on disk.
+    boolean tryAddStudent(String id, String name, boolean isHonors, long order) {
+        long start = Metrics.start();
+        try {
+            Student s = isHonors ? new HonorsStudent(id, name) : new Student(id, name);
+            return diskRoster != null ? diskRoster.add(s) : students.add(s, order);
+        } finally {
+            TRY_ADD.record(start);
+        }
+    }
+
+    // The add order the next student gets: one past the largest so far (0 when
+    // nothing was added). A ShardedSystem starts numbering its adds from here.
+    long nextAddOrder() {
+        return students.nextSequence();
+    }
+
+    // Read-only view of all students in the order they were added
+    // (only the in-memory roster; empty while a roster on disk is open)
+    public Collection<Student> getStudents() {
+        return students.students();
+    }
+
+    // Up to count students from a 0-based position in the order they were added
+    // (only the in-memory roster, like getStudents)
+    public List<Student> studentsPage(int from, int count) {
+        return students.page(from, count);
+    }
+
+    public int getStudentCount() {
+        return diskRoster != null ? diskRoster.size() : students.size();
+    }
+
+    // Up to count students from a 0-based leaderboard position, best average first
+    public List<Student> leaderboardPage(int from, int count) {
+        long start = Metrics.start();
+        try {
+            return students.leaderboard().page(from, count);
+        } finally {
+            LEADERBOARD_PAGE.record(start);
+        }
+    }
+
+    // Every student ordered by average, best first (empty for a roster on disk)
+    public Leaderboard getLeaderboard() {
+        return students.leaderboard();
+    }
+
+    // The sorted grades for a subject, or null if nobody takes it
+    public SubjectIndex getSubjectIndex(String subjectName) {
+        return students.subjectIndex(subjectName);
+    }
+
+    // One page of students whose name starts with prefix (ignoring case), in name order
+    public NameIndex.Page searchByName(String prefix, int from, int count) {
+        long start = Metrics.start();
+        try {
+            return students.names().prefix(prefix, from, count);
+        } finally {
+            SEARCH.record(start);
+        }
+    }
+
+    // One page of students whose name is within maxDistance typos of the query, closest first
+    public NameIndex.Page fuzzySearchByName(String query, int maxDistance, int from, int count) {
+        long start = Metrics.start();
+        try {
+            return students.names().fuzzy(query, maxDistance, from, count);
+        } finally {
+            FUZZY_SEARCH.record(start);
+        }
+    }
+
+    // Students matching every condition, read through the most selective index
+    // (only the in-memory roster; finds nobody while a roster on disk is open)
+    public StudentQuery query(StudentQuery.Criterion... conditions) {
+        return new StudentQuery(students, conditions.length == 1 ? conditions[0] : StudentQuery.and(conditions));
+    }
+
+    // Remove a student by ID, return true if removed
+    public boolean removeStudent(String id) {
+        long start = Metrics.start();
+        try {
+            if (diskRoster != null) {
+                return diskRoster.remove(id) != null;
+            }
+            return students.remove(id) != null;
+        } finally {
+            REMOVE.record(start);
+        }
+    }
+
+    // Find a student by ID or return null (case-insensitive hash lookup).
+    // For a roster on disk this reads the student from the file if needed.
+    public Student findStudentById(String id) {
+        long start = Metrics.start();
+        try {
+            return diskRoster != null ? diskRoster.find(id) : students.find(id);
+        } finally {
+            FIND.record(start);
+        }
+    }
+
+    // List students
+    public void listStudents() {
+        try (ReportWriter out = ReportWriter.toStdout()) {
+            listStudents(out);
+        }
+    }
+
+    // Same list, written into a report (stdout, a file or memory)
+    public void listStudents(ReportWriter out) {
+        long start = Metrics.start();
+        try {
+            if (getStudentCount() == 0) {
+                out.line("No students to display.");
+                return;
+            }
+
+            out.line("=== All Students ===");
+            if (diskRoster != null) {
+                diskRoster.forEach(s -> s.writeSummary(out));
+                return;
+            }
+            // Rows come from a point-in-time view, so the list is one consistent moment
+            try (RosterView view = students.openView()) {
+                if (reportInParallel()) {
+                    parallel.render(view.candidates(), (w, s) -> view.visit(s, v -> v.writeSummary(w)), out);
+                    return;
+                }
+                view.forEach(s -> s.writeSummary(out)); // same text as Student.toString()
+            }
+        } finally {
+            LIST.record(start);
+        }
+    }
+
+   
+
+    // Show students sorted by average grade 
+    public void printStudentsSortedByAverage() {
+        try (ReportWriter out = ReportWriter.toStdout()) {
+            printStudentsSortedByAverage(out);
+        }
+    }
+
+    public void printStudentsSortedByAverage(ReportWriter out) {
+        long start = Metrics.start();
+        try {
+            if (getStudentCount() == 0) {
+                out.line("No students to report.");
+                return;
+            }
+
+            if (diskRoster != null) {
+                printDiskSortedByAverage(out);
+                return;
+            }
+
+            // Big roster: sort a copy and render the rows on the fork-join pool
+            if (reportInParallel()) {
+                Student[] sorted = parallel.sortByAverage(students.students().toArray(new Student[0]));
+                out.line("=== Students Sorted by Average Grade (High to Low) ===");
+                parallel.render(sorted, StudentManagementSystem::writeAverageRow, out);
+                return;
+            }
+
+            // The leaderboard is already sorted, no copy or re-sort needed
+            Leaderboard board = students.leaderboard();
+
+            List<Student> sorted;
+            synchronized (board) {
+                sorted = board.page(0, board.size());
+            }
+
+            out.line("=== Students Sorted by Average Grade (High to Low) ===");
+            for (Student s : sorted) {
+                writeAverageRow(out, s);
+            }
+        } finally {
+            SORTED.record(start);
+        }
+    }
+
+    // Roster on disk: sort just the IDs and averages, then read each row back from disk
+    // (without going through the cache, so the working set stays put)
+    private void printDiskSortedByAverage(ReportWriter out) {
+        int n = diskRoster.size();
+        String[] ids = new String[n];
+        double[] averages = new double[n];
+        int[] count = new int[1];
+        diskRoster.forEach(s -> {
+            if (count[0] < n) {
+                ids[count[0]] = s.getId();
+                averages[count[0]] = s.calculateAverage();
+                count[0]++;
+            }
+        });
+
+        // Stable sort, so ties stay in the order the students were added
+        Integer[] order = new Integer[count[0]];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(averages[b], averages[a]));
+
+        out.line("=== Students Sorted by Average Grade (High to Low) ===");
+        for (int i : order) {
+            Student s = diskRoster.peek(ids[i]);
+            if (s != null) {
+                writeAverageRow(out, s);
+            }
+        }
+    }
+
+    // Show one page of the leaderboard, starting at a 1-based row
+    public void printLeaderboardPage(int firstRow, int count) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            if (firstRow < 1 || count < 1) {
+                System.out.println("Rows start at 1 and the count must be positive.");
+                return;
+            }
+
+            List<Student> page = students.leaderboard().page(firstRow - 1, count);
+            if (page.isEmpty()) {
+                System.out.println("No students on that page.");
+                return;
+            }
+
+            System.out.println("=== Leaderboard Rows " + firstRow + "-" + (firstRow + page.size() - 1) + " ===");
+            int row = firstRow;
+            for (Student s : page) {
+                System.out.println(
+                    row + ". " + s.getId() + " - " + s.getName()
+                    + " | Average: " + String.format("%.2f", s.calculateAverage())
+                );
+                row++;
+            }
+        } finally {
+            PRINT_LEADERBOARD.record(start);
+        }
+    }
+
+    // Name search results are shown this many to a page
+    public static final int NAME_PAGE_SIZE = 20;
+
+    // Show one page (1-based) of the students whose name starts with prefix
+    public void printNameSearch(String prefix, int page) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster() || !validNamePage(page)) {
+                return;
+            }
+            NameIndex.Page result = searchByName(prefix, (page - 1) * NAME_PAGE_SIZE, NAME_PAGE_SIZE);
+            printNamePage("Names starting with \"" + prefix + "\"", result, page, false);
+        } finally {
+            PRINT_SEARCH.record(start);
+        }
+    }
+
+    // Show one page (1-based) of the students whose name is within maxDistance typos of the query
+    public void printFuzzyNameSearch(String query, int maxDistance, int page) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster() || !validNamePage(page)) {
+                return;
+            }
+            NameIndex.Page result;
+            try {
+                result = fuzzySearchByName(query, maxDistance, (page - 1) * NAME_PAGE_SIZE, NAME_PAGE_SIZE);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+            printNamePage("Names like \"" + query + "\"", result, page, true);
+        } finally {
+            PRINT_FUZZY.record(start);
+        }
+    }
+
+    private static boolean validNamePage(int page) {
+        if (page >= 1 && page <= Integer.MAX_VALUE / NAME_PAGE_SIZE) {
+            return true;
+        }
+        System.out.println("Pages start at 1.");
+        return false;
+    }
+
+    private static void printNamePage(String title, NameIndex.Page result, int page, boolean showTypos) {
+        if (result.total == 0) {
+            System.out.println("No students found.");
+            return;
+        }
+        int pages = (result.total + NAME_PAGE_SIZE - 1) / NAME_PAGE_SIZE;
+        if (result.matches.isEmpty()) {
+            System.out.println("No students on that page (there " + (pages == 1 ? "is 1 page" : "are " + pages + " pages") + ").");
+            return;
+        }
+
+        System.out.println("=== " + title + ": page " + page + " of " + pages + " (" + result.total + " found) ===");
+        for (NameIndex.Match m : result.matches) {
+            Student s = m.student;
+            System.out.println(
+                s.getId() + " - " + m.name
+                + " | Average: " + String.format("%.2f", s.calculateAverage())
+                + (showTypos ? " | Typos: " + m.distance : "")
+            );
+        }
+    }
+
+    // Run a typed query such as "Math < 50 and Physics > 90" and print the matches
+    // (or only how many there are)
+    public void printQuery(String text, boolean countOnly) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            StudentQuery query;
+            try {
+                query = query(StudentQuery.parse(text));
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                return;
+            }
+
+            try (ReportWriter out = ReportWriter.toStdout()) {
+                out.line("=== Query: " + query + " (" + query.plan() + ") ===");
+                if (countOnly) {
+                    out.line("Students matched: " + query.count());
+                    return;
+                }
+                long[] matched = new long[1];
+                query.stream().forEach(s -> {
+                    writeAverageRow(out, s);
+                    matched[0]++;
+                });
+                out.line("Students matched: " + matched[0]);
+            }
+        } finally {
+            PRINT_QUERY.record(start);
+        }
+    }
+
+    // A student's 1-based position on the leaderboard, or -1 if not found
+    public int getLeaderboardRank(String id) {
+        long start = Metrics.start();
+        try {
+            if (diskRoster != null) {
+                return -1;
+            }
+            Student s = findStudentById(id);
+            return s == null ? -1 : students.leaderboard().rankOf(s);
+        } finally {
+            RANK.record(start);
+        }
+    }
+
+    // Print each student's average grade
+    public void printAllStudentAverages() {
+        try (ReportWriter out = ReportWriter.toStdout()) {
+            printAllStudentAverages(out);
+        }
+    }
+
+    public void printAllStudentAverages(ReportWriter out) {
+        long start = Metrics.start();
+        try {
+            if (getStudentCount() == 0) {
+                out.line("No students to report.");
+                return;
+            }
+
+            out.line("=== Average Grade for Each Student ===");
+            if (diskRoster != null) {
+                diskRoster.forEach(s -> writeAverageRow(out, s));
+                return;
+            }
+            try (RosterView view = students.openView()) {
+                if (reportInParallel()) {
+                    parallel.render(view.candidates(), (w, s) -> view.visit(s, v -> writeAverageRow(w, v)), out);
+                    return;
+                }
+                view.forEach(s -> writeAverageRow(out, s));
+            }
+        } finally {
+            AVERAGES.record(start);
+        }
+    }
+
+    // "id - name | Average: 12.34"
+    private static void writeAverageRow(ReportWriter out, Student s) {
+        out.text(s.getId()).text(" - ").text(s.getName())
+            .text(" | Average: ").fixed2(s.calculateAverage()).newLine();
+    }
+
+    // Write the sorted-by-average report to a file instead of the screen
+    public void saveSortedReport(String fileName) {
+        long start = Metrics.start();
+        try {
+            try (ReportWriter out = ReportWriter.toFile(fileName)) {
+                printStudentsSortedByAverage(out);
+                System.out.println("Saved report for " + getStudentCount() + " students to " + fileName);
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Error saving report: " + e.getMessage());
+            }
+        } finally {
+            SAVE_REPORT.record(start);
+        }
+    }
+
+    // Export every student as CSV, best average first:
+    // rank,id,name,type,subjects,average
+    public void exportCsv(String fileName) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            try (ReportWriter out = ReportWriter.toFile(fileName)) {
+                writeCsv(out);
+                System.out.println("Exported " + students.size() + " students to " + fileName);
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Error exporting CSV: " + e.getMessage());
+            }
+        } finally {
+            EXPORT_CSV.record(start);
+        }
+    }
+
+    public void writeCsv(ReportWriter out) {
+        long start = Metrics.start();
+        try {
+            Leaderboard board = students.leaderboard();
+            List<Student> sorted;
+            synchronized (board) {
+                sorted = board.page(0, board.size());
+            }
+
+            out.line("rank,id,name,type,subjects,average");
+            int rank = 1;
+            for (Student s : sorted) {
+                out.number(rank++).comma()
+                    .csv(s.getId()).comma()
+                    .csv(s.getName()).comma()
+                    .text(s instanceof HonorsStudent ? "honors" : "regular").comma()
+                    .number(s.getSubjectCount()).comma()
+                    .plain(s.calculateAverage()).newLine();
+            }
+        } finally {
+            WRITE_CSV.record(start);
+        }
+    }
+
+    // Print highest and lowest grade
+    public void printSubjectHighLow(String subjectName) {
+        try (ReportWriter out = ReportWriter.toStdout()) {
+            printSubjectHighLow(subjectName, out);
+        }
+    }
+
+    public void printSubjectHighLow(String subjectName, ReportWriter out) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            if (students.isEmpty()) {
+                out.line("No students available.");
+                return;
+            }
+
+            // The subject index is kept sorted, so no roster scan is needed
+            SubjectIndex index = students.subjectIndex(subjectName);
+            if (index == null || index.isEmpty()) {
+                out.line("No grades found for subject: " + subjectName);
+                return;
+            }
+
+            // Read all four under the index lock so they come from the same moment
+            Student highestStudent;
+            Student lowestStudent;
+            Double highestGrade;
+            Double lowestGrade;
+            synchronized (index) {
+                highestStudent = index.highest();
+                lowestStudent = index.lowest();
+                highestGrade = index.highestGrade();
+                lowestGrade = index.lowestGrade();
+            }
+            if (highestStudent == null) {
+                out.line("No grades found for subject: " + subjectName);
+                return;
+            }
+
+            out.line("=== Subject Report: " + subjectName + " ===");
+            out.line(
+                "Highest: " + highestStudent.getId() + " - " + highestStudent.getName()
+                + " | Grade: " + highestGrade
+            );
+            out.line(
+                "Lowest: " + lowestStudent.getId() + " - " + lowestStudent.getName()
+                + " | Grade: " + lowestGrade
+            );
+        } finally {
+            HIGH_LOW.record(start);
+        }
+    }
+
+    // Top k students for a subject, best first (empty if nobody takes it)
+    public List<Student> topStudentsInSubject(String subjectName, int k) {
+        long start = Metrics.start();
+        try {
+            SubjectIndex index = students.subjectIndex(subjectName);
+            return index == null ? new ArrayList<>() : index.top(k);
+        } finally {
+            TOP.record(start);
+        }
+    }
+
+    // Bottom k students for a subject, worst first (empty if nobody takes it)
+    public List<Student> bottomStudentsInSubject(String subjectName, int k) {
+        long start = Metrics.start();
+        try {
+            SubjectIndex index = students.subjectIndex(subjectName);
+            return index == null ? new ArrayList<>() : index.bottom(k);
+        } finally {
+            BOTTOM.record(start);
+        }
+    }
+
+    // A student's rank in a subject (1 = best, ties share a rank), or -1 if not graded
+    public int getSubjectRank(String id, String subjectName) {
+        long start = Metrics.start();
+        try {
+            Student s = findStudentById(id);
+            if (s == null) {
+                return -1;
+            }
+            Double grade = s.getGrade(subjectName);
+            SubjectIndex index = students.subjectIndex(subjectName);
+            if (grade == null || index == null) {
+                return -1;
+            }
+            return index.rankOf(grade);
+        } finally {
+            SUBJECT_RANK.record(start);
+        }
+    }
+
+    // Print the top and bottom k students for a subject
+    public void printSubjectTopBottom(String subjectName, int k) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            SubjectIndex index = students.subjectIndex(subjectName);
+            if (index == null || index.isEmpty()) {
+                System.out.println("No grades found for subject: " + subjectName);
+                return;
+            }
+
+            System.out.println("=== Top " + k + " in " + subjectName + " ===");
+            for (Student s : index.top(k)) {
+                System.out.println(
+                    s.getId() + " - " + s.getName() + " | Grade: " + s.getGrade(subjectName)
+                );
+            }
+
+            System.out.println("=== Bottom " + k + " in " + subjectName + " ===");
+            for (Student s : index.bottom(k)) {
+                System.out.println(
+                    s.getId() + " - " + s.getName() + " | Grade: " + s.getGrade(subjectName)
+                );
+            }
+        } finally {
+            TOP_BOTTOM.record(start);
+        }
+    }
+
+   
+    // File save and load
+    
+    public void saveToFile(String fileName) {
+        long start = Metrics.start();
+        try {
+            try {
+                int saved;
+                if (diskRoster != null) {
+                    saved = RosterFile.write(diskRoster::forEach, fileName);
+                } else {
+                    // Saved from a point-in-time view: students changed while the file
+                    // is written still go in as they were when the save started
+                    try (RosterView view = students.openView()) {
+                        saved = RosterFile.write(view, fileName);
+                    }
+                }
+                System.out.println("Saved " + saved + " students to " + fileName);
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Error saving to file: " + e.getMessage());
+            }
+        } finally {
+            SAVE.record(start);
+        }
+    }
+
+    // Incremental save: a segmented file where only the segments holding students
+    // changed, added or removed since the last save are rewritten (see SegmentedRosterFile)
+    public void saveIncremental(String fileName) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            if (autosaver != null && autosaver.getSegmentedFile() != null
+                    && !autosaver.getSegmentedFile().isFor(fileName)) {
+                System.out.println("Autosave is saving incrementally to " + autosaver.getFileName()
+                    + "; save to that file or stop autosave first.");
+                return;
+            }
+            try (RosterView view = students.openView()) {
+                SegmentedRosterFile.Result result = segmentedFile(fileName).save(view);
+                System.out.println("Saved " + fileName + ": " + result);
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Error saving to file: " + e.getMessage());
+            }
+        } finally {
+            SAVE_INCREMENTAL.record(start);
+        }
+    }
+
+    // Only one SegmentedRosterFile at a time, since saving clears the students' dirty flags
+    private SegmentedRosterFile segmentedFile(String fileName) {
+        if (segmentedFile == null || !segmentedFile.isFor(fileName)) {
+            segmentedFile = new SegmentedRosterFile(fileName);
+        }
+        return segmentedFile;
+    }
+
+    // Print how much memory the grade storage uses per grade
+    public void printMemoryReport() {
+        long start = Metrics.start();
+        try {
+            System.out.print(GradeStore.shared().memoryReport());
+            if (diskRoster != null) {
+                System.out.print(diskRoster.stats());
+            }
+        } finally {
+            MEMORY_REPORT.record(start);
+        }
+    }
+
+    // Print call counts and latency percentiles for every operation, and the file bytes read and written
+    public void printMetrics() {
+        System.out.print(Metrics.text());
+    }
+
+    // Autosave: save the text file from a background thread every intervalSeconds,
+    // or once afterChanges changes pile up (0 turns either trigger off).
+    // With incremental, the file is a segmented one (see saveIncremental).
+
+    public void startAutosave(String fileName, long intervalSeconds, long afterChanges) {
+        startAutosave(fileName, intervalSeconds, afterChanges, false);
+    }
+
+    public void startAutosave(String fileName, long intervalSeconds, long afterChanges, boolean incremental) {
+        if (notForDiskRoster()) {
+            return;
+        }
+        if (intervalSeconds <= 0 && afterChanges <= 0) {
+            System.out.println("Autosave needs an interval or a number of changes.");
+            return;
+        }
+        stopAutosave();
+        autosaver = incremental
+            ? new Autosaver(students, segmentedFile(fileName), intervalSeconds * 1000, afterChanges)
+            : new Autosaver(students, fileName, intervalSeconds * 1000, afterChanges);
+        System.out.println(autosaver.status());
+    }
+
+    // Stops autosaving, after one last save of anything not saved yet
+    public void stopAutosave() {
+        if (autosaver == null) {
+            return;
+        }
+        autosaver.close();
+        System.out.println(autosaver.status());
+        autosaver = null;
+    }
+
+    public void printAutosaveStatus() {
+        System.out.println(autosaver == null ? "Autosave is off." : autosaver.status());
+    }
+
+    // Starts an autosave right away (if anything changed) without waiting for it
+    public void autosaveNow() {
+        if (autosaver == null) {
+            System.out.println("Autosave is off.");
+            return;
+        }
+        autosaver.requestSave();
+        System.out.println("Saving to " + autosaver.getFileName() + " in the background.");
+    }
+
+    // Loads empty the roster first, so autosave waits until they are done
+    private void pauseAutosave() {
+        if (autosaver != null) {
+            autosaver.pause();
+        }
+    }
+
+    private void resumeAutosave() {
+        if (autosaver != null) {
+            autosaver.resume();
+        }
+    }
+
+    // Durable mode: recover from a data directory and log every change to it
+
+    public void openJournal(String directory) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            pauseAutosave();
+            try {
+                // Opening replays into the registry, so the old journal has to let go of it first
+                closeJournal();
+                journal = MutationJournal.open(directory, students);
+                System.out.println(
+                    "Recovered " + journal.getRecoveredStudents() + " students from " + directory
+                    + " (" + journal.getReplayedRecords() + " journal records replayed)"
+                );
+            } catch (IOException e) {
+                System.out.println("Error opening journal: " + e.getMessage());
+            } finally {
+                resumeAutosave();
+            }
+        } finally {
+            OPEN_JOURNAL.record(start);
+        }
+    }
+
+    public void closeJournal() {
+        long start = Metrics.start();
+        try {
+            if (journal == null) {
+                return;
+            }
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Error closing journal: " + e.getMessage());
+            }
+            students.setJournal(null);
+            journal = null;
+        } finally {
+            CLOSE_JOURNAL.record(start);
+        }
+    }
+
+    // A bulk load isn't logged student by student, so snapshot the result instead
+    private void checkpointAfterLoad() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.checkpoint(students);
+        } catch (IOException e) {
+            System.out.println("Error writing checkpoint: " + e.getMessage());
+        }
+    }
+
+    // Binary snapshot save and load (keeps honors students and their bonus)
+
+    public void saveSnapshot(String fileName) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            try (RosterView view = students.openView()) {
+                int[] count = new int[1];
+                view.forEach(s -> count[0]++);
+                long bytes = RosterSnapshot.write(view, fileName);
+                System.out.println("Saved " + count[0] + " students to " + fileName + " (" + bytes + " bytes)");
+            } catch (IOException e) {
+                System.out.println("Error saving snapshot: " + e.getMessage());
+            }
+        } finally {
+            SAVE_SNAPSHOT.record(start);
+        }
+    }
+
+    public void loadSnapshot(String fileName) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            try {
+                List<Student> loaded = RosterSnapshot.read(fileName);
+
+                List<Student> duplicates = new ArrayList<>();
+                pauseAutosave();
+                try {
+                    students.clear();
+                    students.addAll(loaded, duplicates);
+                } finally {
+                    resumeAutosave();
+                }
+                for (Student s : duplicates) {
+                    System.out.println("Skipping duplicate student ID: " + s.getId());
+                }
+
+                System.out.println("Loaded " + students.size() + " students from " + fileName);
+            } catch (IOException e) {
+                System.out.println("Error loading snapshot: " + e.getMessage());
+            }
+            checkpointAfterLoad();
+        } finally {
+            LOAD_SNAPSHOT.record(start);
+        }
+    }
+
+    public void loadFromFile(String fileName) {
+        long start = Metrics.start();
+        try {
+            if (diskRoster != null) {
+                loadIntoDiskRoster(fileName);
+                return;
+            }
+            pauseAutosave();
+            students.clear(); 
+
+            // Parses the file from bytes, in parallel chunks, then adds the students in file order
+            try {
+                RosterLoader.Stats stats;
+                if (SegmentedRosterFile.isSegmented(fileName)) {
+                    stats = loadSegmented(fileName);
+                } else {
+                    stats = new RosterLoader().loadInto(fileName, students);
+                }
+
+                System.out.println("Loaded " + students.size() + " students from " + fileName);
+                System.out.println(stats);
+            } catch (IOException e) {
+                System.out.println("Error loading from file: " + e.getMessage());
+            } finally {
+                resumeAutosave();
+            }
+            checkpointAfterLoad();
+        } finally {
+            LOAD.record(start);
+        }
+    }
+
+    // A segmented file loads the same way, one chunk per segment. The loaded
+    // file remembers its segments, so saving back to it only rewrites changes.
+    private RosterLoader.Stats loadSegmented(String fileName) throws IOException {
+        SegmentedRosterFile file = new SegmentedRosterFile(fileName);
+        RosterLoader.Stats stats = file.loadInto(students);
+        // An incremental autosave to another file keeps its own segments
+        if (autosaver == null || autosaver.getSegmentedFile() == null) {
+            segmentedFile = file;
+        }
+        return stats;
+    }
+
+    // Bulk grade import from a "studentId,subject,grade" file (see GradeImporter).
+    // Rows that can't be imported are written to rejectFileName instead of being printed.
+    public void importGrades(String fileName, String rejectFileName) {
+        long start = Metrics.start();
+        try {
+            if (notForDiskRoster()) {
+                return;
+            }
+            try {
+                GradeImporter.Result result = new GradeImporter().importInto(fileName, students, rejectFileName);
+                System.out.println(result);
+                if (result.rejected > 0) {
+                    System.out.println(result.rejected + " rows rejected, see " + rejectFileName);
+                }
+            } catch (IOException | UncheckedIOException e) {
+                System.out.println("Error importing grades: " + e.getMessage());
+            }
+            checkpointAfterLoad();
+        } finally {
+            IMPORT.record(start);
+        }
+    }
+
+    // Streams the file into the roster on disk, one chunk of students in memory at a time
+    private void loadIntoDiskRoster(String fileName) {
+        if (SegmentedRosterFile.isSegmented(fileName)) {
+            System.out.println("A segmented roster file can only be loaded into the in-memory roster.");
+            return;
+        }
+        try {
+            diskRoster.clear();
+            RosterLoader.Stats stats = new RosterLoader().loadInto(fileName, diskRoster);
+            diskRoster.flush();
+
+            System.out.println("Loaded " + diskRoster.size() + " students from " + fileName);
+            System.out.println(stats);
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Error loading from file: " + e.getMessage());
+        }
+    }
+}
\ No newline at end of file